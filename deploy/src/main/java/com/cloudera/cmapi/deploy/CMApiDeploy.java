@@ -16,9 +16,20 @@
  */
 package com.cloudera.cmapi.deploy;
 
+import com.cloudera.api.ApiRootResource;
 import com.cloudera.api.ClouderaManagerClientBuilder;
 import com.cloudera.api.v10.RootResourceV10;
+import com.cloudera.api.v12.RootResourceV12;
 
+import com.cloudera.cmapi.deploy.client.ApiVersion;
+import com.cloudera.cmapi.deploy.client.ConcurrencyGovernor;
+import com.cloudera.cmapi.deploy.client.GovernedResourceProxy;
+import com.cloudera.cmapi.deploy.client.RetryPolicy;
+import com.cloudera.cmapi.deploy.client.RetryingResourceProxy;
+import com.cloudera.cmapi.deploy.trace.RecordingProxy;
+
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.FileNotFoundException;
@@ -45,6 +56,11 @@ public class CMApiDeploy {
    */
   private static final Logger LOG = Logger.getLogger(CMApiDeploy.class);
 
+  /**
+   * Port used to connect to Cloudera Manager if none is configured.
+   */
+  private static final int DEFAULT_CM_PORT = 7180;
+
   /**
    * Load configuration info from disk, get a reference to the CM API root
    * resource object, then create management services and clusters.
@@ -67,42 +83,216 @@ public class CMApiDeploy {
       System.exit(1);
     }
 
-    RootResourceV10 apiRoot = deploy.getRootResource(config);
+    // Compile and validate the deployment spec before connecting to CM:
+    DeploymentSpec spec = null;
+    try {
+      spec = DeploymentSpec.compile(config);
+    } catch (IllegalArgumentException e) {
+      LOG.error(e.getMessage());
+      System.exit(1);
+    }
+
+    // When recording, all CM API traffic goes through a local proxy that
+    // writes it to the trace file:
+    RecordingProxy recorder = null;
+    try {
+      recorder = RecordingProxy.fromConfig(config);
+    } catch (IOException e) {
+      LOG.error("Caught exception starting recording proxy, exception was " +
+                e.getMessage());
+      System.exit(1);
+    }
+    if (recorder != null) {
+      recorder.redirect(config);
+    }
+
+    RootResourceV10 apiRoot = getRootResource(config);
     LOG.info("Successfully created root resource");
 
-    CMServer cm = new CMServer(config, apiRoot);
+    CMServer cm = new CMServer(config, spec, apiRoot, null);
     LOG.info("Successfully created CM server resource, initializing clusters...");
-    cm.initializeClusters();
-    LOG.info("Successfully initialized clusters, deploying management service...");
-    cm.deployManagementService();
-    cm.startManagementService();
-    cm.deployParcels();
-    cm.deployClusters();
+    boolean success = false;
+    try {
+      success = deploy(cm).isSuccess();
+    } catch (RuntimeException e) {
+      LOG.error("Deployment failed: " + e.getMessage());
+    } finally {
+      if (recorder != null) {
+        recorder.close();
+      }
+    }
+    if (!success) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Execute the full deployment flow against a Cloudera Manager instance and
+   * log a report of the phase timings.
+   *
+   * @param cm Cloudera Manager instance to deploy to.
+   *
+   * @return Report with timings and results of each deployment phase.
+   */
+  public static DeploymentReport deploy(final CMServer cm) {
+    DeploymentReport report = new DeploymentReport(cm.getHost());
+    try {
+      deploy(cm, report);
+    } finally {
+      LOG.info("Deployment report:\n" + report.format());
+    }
+    return report;
+  }
+
+  /**
+   * Execute the full deployment flow against a Cloudera Manager instance:
+   * initialize clusters, deploy and start management services, deploy
+   * Parcels, and deploy and start cluster services.
+   *
+   * @param cm Cloudera Manager instance to deploy to.
+   * @param report Report to record phase timings and results in.
+   */
+  public static void deploy(final CMServer cm, final DeploymentReport report) {
+    try {
+      beginPhase(cm, report, "Initialize clusters",
+                 Constants.INITIALIZE_PHASE_TIMEOUT_SECONDS_PARAMETER);
+      cm.getClusterState().snapshot();
+      cm.initializeClusters();
+      LOG.info("Successfully initialized clusters, deploying management service...");
+      // Deploying and starting the management service share one budget:
+      beginPhase(cm, report, "Deploy management service",
+                 Constants.MANAGEMENT_PHASE_TIMEOUT_SECONDS_PARAMETER);
+      cm.deployManagementService();
+      report.beginPhase("Start management service");
+      report.endPhase(cm.startManagementService());
+      beginPhase(cm, report, "Deploy parcels",
+                 Constants.PARCELS_PHASE_TIMEOUT_SECONDS_PARAMETER);
+      cm.deployParcels();
+      beginPhase(cm, report, "Deploy clusters",
+                 Constants.CLUSTERS_PHASE_TIMEOUT_SECONDS_PARAMETER);
+      report.endPhase(cm.deployClusters());
+    } catch (RuntimeException e) {
+      report.failPhase(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Begin a deployment phase, recording it in the report and starting its
+   * time budget. A budget of zero, the default, means no limit.
+   *
+   * @param cm Cloudera Manager instance being deployed to.
+   * @param report Report to record the phase in.
+   * @param name Phase name.
+   * @param timeoutParameter Config parameter holding the phase budget in
+   * seconds.
+   */
+  private static void beginPhase(final CMServer cm,
+                                 final DeploymentReport report,
+                                 final String name,
+                                 final String timeoutParameter) {
+    report.beginPhase(name);
+    cm.getCommandWaiter().startPhase(name,
+      1000 * ConfigUtils.getLong(cm.getConfig(),
+                                 Constants.TIMEOUTS_CONFIG_SECTION,
+                                 timeoutParameter, 0));
+  }
+
+  /**
+   * Get the Cloudera Manager instance and user a configuration connects
+   * as, to tell whether two configurations target the same instance.
+   *
+   * @param config Object containing required config parameters.
+   *
+   * @return CM user, host and port, as user@host:port.
+   */
+  public static String getCmAddress(final Wini config) {
+    return config.get("CM", Constants.CM_USERNAME_PARAMETER) + "@" +
+      String.valueOf(config.get("CM", Constants.CM_PUBLIC_HOSTNAME_PARAMETER))
+      .toLowerCase() + ":" +
+      ConfigUtils.getInt(config, "CM", Constants.CM_PORT_PARAMETER,
+                         DEFAULT_CM_PORT);
+  }
+
+  /**
+   * Get a reference to the object providing access to the CM API
+   * root namespace. Calls through the returned object are retried on
+   * transient failures according to the [RETRY] configuration, and limited
+   * by a concurrency governor configured by the [GOVERNOR] section.
+   *
+   * @param config Object containing required config parameters.
+   *
+   * @return Root resource object.
+   */
+  public static RootResourceV10 getRootResource(final Wini config) {
+    return getRootResource(config, ConcurrencyGovernor.fromConfig(config));
   }
 
   /**
    * Get a reference to the object providing access to the CM API
-   * root namespace.
+   * root namespace, with calls limited by the given governor. Retries are
+   * made outside the governor, so each attempt waits for its own permit and
+   * backoff delays don't hold one. The API version is negotiated with the
+   * server, and the returned object implements the highest versioned root
+   * interface both support.
    *
    * @param config Object containing required config parameters.
+   * @param governor Governor limiting concurrent calls, or null for no
+   * limit.
    *
    * @return Root resource object.
    */
-  private RootResourceV10 getRootResource(final Wini config) {
+  public static RootResourceV10 getRootResource(final Wini config,
+                                                final ConcurrencyGovernor governor) {
 
-    RootResourceV10 apiRoot = new ClouderaManagerClientBuilder()
+    ApiRootResource root = new ClouderaManagerClientBuilder()
       .withHost(config.get("CM", Constants.CM_PUBLIC_HOSTNAME_PARAMETER))
-      .withPort(7180)
+      .withPort(ConfigUtils.getInt(config, "CM", Constants.CM_PORT_PARAMETER,
+                                   DEFAULT_CM_PORT))
       .withUsernamePassword(config.get("CM", Constants.CM_USERNAME_PARAMETER),
                             config.get("CM", Constants.CM_PASSWORD_PARAMETER))
-      .build()
-      .getRootV10();
+      .build();
 
-    return apiRoot;
+    // Use the highest API version the server supports, so that newer
+    // endpoints are available to code that checks for them:
+    RootResourceV10 apiRoot =
+      ApiVersion.getRoot(root, ApiVersion.negotiate(root));
+    if (apiRoot instanceof RootResourceV12) {
+      return wrap(RootResourceV12.class, (RootResourceV12) apiRoot, config,
+                  governor);
+    }
+    return wrap(RootResourceV10.class, apiRoot, config, governor);
   }
 
   /**
-   * Load config file from disk and create configuration object.
+   * Wrap a root resource with the governor and retry proxies.
+   *
+   * @param type Root resource interface.
+   * @param apiRoot Root resource.
+   * @param config Object containing required config parameters.
+   * @param governor Governor limiting concurrent calls, or null for no
+   * limit.
+   * @param <T> Root resource interface type.
+   *
+   * @return Wrapped root resource.
+   */
+  private static <T extends RootResourceV10> T wrap(final Class<T> type,
+                                                    final T apiRoot,
+                                                    final Wini config,
+                                                    final ConcurrencyGovernor governor) {
+    T wrapped = apiRoot;
+    if (governor != null) {
+      wrapped = GovernedResourceProxy.wrap(type, wrapped, governor);
+    }
+    return RetryingResourceProxy.wrap(type, wrapped,
+                                      RetryPolicy.fromConfig(config));
+  }
+
+  /**
+   * Load config file and create configuration object. The file is read from
+   * disk if a file with the given name exists, otherwise it's loaded from
+   * the classpath. Repeated sections are kept separate rather than merged,
+   * so {@link DeploymentValidator} can report them.
    *
    * @param inifile Name of file containing configuration parameters.
    *
@@ -117,9 +307,16 @@ public class CMApiDeploy {
     Wini ini = null;
 
     try {
-      in = getClass().getClassLoader().getResourceAsStream(inifile);
+      File file = new File(inifile);
+      if (file.isFile()) {
+        in = new FileInputStream(file);
+      } else {
+        in = getClass().getClassLoader().getResourceAsStream(inifile);
+      }
       if (in != null) {
-        ini = new Wini(in);
+        ini = new Wini();
+        ini.getConfig().setMultiSection(true);
+        ini.load(in);
       } else {
         throw new FileNotFoundException(inifile + " not found");
       }
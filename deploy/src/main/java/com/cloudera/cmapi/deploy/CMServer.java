@@ -21,7 +21,11 @@ import com.cloudera.api.model.ApiCommand;
 import com.cloudera.api.v10.RootResourceV10;
 import com.cloudera.api.v8.ClouderaManagerResourceV8;
 
+import com.cloudera.cmapi.deploy.client.ApiVersion;
+import com.cloudera.cmapi.deploy.client.AsyncCmClient;
+import com.cloudera.cmapi.deploy.client.StreamingReader;
 import com.cloudera.cmapi.deploy.services.ManagementService;
+import com.cloudera.cmapi.deploy.snapshot.SnapshotDeployer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -57,10 +61,15 @@ public class CMServer {
    */
   private Wini config;
 
+  /**
+   * Deployment spec compiled from the configuration.
+   */
+  private DeploymentSpec spec;
+
   /**
    * Top level resource object.
    */
-  private static RootResourceV10 apiRoot;
+  private RootResourceV10 apiRoot;
 
   /**
    * Log4j logger.
@@ -72,6 +81,36 @@ public class CMServer {
    */
   private static final long SLEEP_LENGTH = 10000;
 
+  /**
+   * Default maximum time to wait for a command to complete.
+   */
+  private static final long DEFAULT_COMMAND_TIMEOUT_SECONDS = 3600;
+
+  /**
+   * Default number of retries for failed commands.
+   */
+  private static final int DEFAULT_COMMAND_MAX_RETRIES = 2;
+
+  /**
+   * Default base delay before retrying a failed command.
+   */
+  private static final long DEFAULT_COMMAND_RETRY_BACKOFF_SECONDS = 30;
+
+  /**
+   * Waits for commands to complete within their time budgets.
+   */
+  private CommandWaiter commandWaiter;
+
+  /**
+   * Asynchronous client for fanning out CM API calls.
+   */
+  private AsyncCmClient asyncClient;
+
+  /**
+   * Cached state of this Cloudera Manager instance.
+   */
+  private ClusterState clusterState;
+
   /**
    * Constructor initializes parameters used by this class.
    *
@@ -80,21 +119,178 @@ public class CMServer {
    * root namespace.
    */
   public CMServer(final Wini config, final RootResourceV10 apiRoot) {
+    this(config, apiRoot, null);
+  }
+
+  /**
+   * Constructor using a cluster state shared with other CMServer objects
+   * for the same Cloudera Manager instance.
+   *
+   * @param config Object containing required config parameters.
+   * @param apiRoot Object providing access to the CM API
+   * root namespace.
+   * @param clusterState Cached state of the Cloudera Manager instance, or
+   * null to create a new one.
+   */
+  public CMServer(final Wini config, final RootResourceV10 apiRoot,
+                  final ClusterState clusterState) {
+    this(config, DeploymentSpec.compile(config), apiRoot, clusterState);
+  }
+
+  /**
+   * Constructor using an already compiled deployment spec, so that callers
+   * deploying the same configuration repeatedly compile it once.
+   *
+   * @param config Object containing required config parameters.
+   * @param spec Deployment spec compiled from the configuration.
+   * @param apiRoot Object providing access to the CM API
+   * root namespace.
+   * @param clusterState Cached state of the Cloudera Manager instance, or
+   * null to create a new one.
+   */
+  public CMServer(final Wini config, final DeploymentSpec spec,
+                  final RootResourceV10 apiRoot,
+                  final ClusterState clusterState) {
+    this(config, spec, apiRoot, clusterState, null);
+  }
+
+  /**
+   * Constructor using an asynchronous client shared with other CMServer
+   * objects for the same Cloudera Manager instance, as in the deploy
+   * server, where the owner of the client closes it.
+   *
+   * @param config Object containing required config parameters.
+   * @param spec Deployment spec compiled from the configuration.
+   * @param apiRoot Object providing access to the CM API
+   * root namespace.
+   * @param clusterState Cached state of the Cloudera Manager instance, or
+   * null to create a new one.
+   * @param asyncClient Asynchronous client for the instance, or null to
+   * create a new one.
+   */
+  public CMServer(final Wini config, final DeploymentSpec spec,
+                  final RootResourceV10 apiRoot,
+                  final ClusterState clusterState,
+                  final AsyncCmClient asyncClient) {
     this.config = config;
+    this.spec = spec;
     this.apiRoot = apiRoot;
 
     cmhost = config.get("CM", Constants.CM_PUBLIC_HOSTNAME_PARAMETER);
     cmResource = apiRoot.getClouderaManagerResource();
+    this.asyncClient = asyncClient != null ? asyncClient :
+      new AsyncCmClient(apiRoot);
+    this.clusterState = clusterState != null ? clusterState :
+      new ClusterState(apiRoot, this.asyncClient,
+                       StreamingReader.fromConfig(config), 0);
+    commandWaiter =
+      new CommandWaiter(apiRoot.getCommandsResource(), SLEEP_LENGTH,
+                        1000 * ConfigUtils.getLong(config,
+                                                   Constants.TIMEOUTS_CONFIG_SECTION,
+                                                   Constants.COMMAND_TIMEOUT_SECONDS_PARAMETER,
+                                                   DEFAULT_COMMAND_TIMEOUT_SECONDS),
+                        ConfigUtils.getInt(config,
+                                           Constants.TIMEOUTS_CONFIG_SECTION,
+                                           Constants.COMMAND_MAX_RETRIES_PARAMETER,
+                                           DEFAULT_COMMAND_MAX_RETRIES),
+                        1000 * ConfigUtils.getLong(config,
+                                                   Constants.TIMEOUTS_CONFIG_SECTION,
+                                                   Constants.COMMAND_RETRY_BACKOFF_SECONDS_PARAMETER,
+                                                   DEFAULT_COMMAND_RETRY_BACKOFF_SECONDS));
 
     clusters = new ArrayList<Cluster>();
   }
 
+  /**
+   * Get configuration parameters.
+   *
+   * @return Configuration object for this instance.
+   */
+  public final Wini getConfig() {
+    return config;
+  }
+
+  /**
+   * Get the deployment spec compiled from the configuration.
+   *
+   * @return Deployment spec.
+   */
+  public final DeploymentSpec getDeploymentSpec() {
+    return spec;
+  }
+
+  /**
+   * Get the object providing access to the CM API root namespace.
+   *
+   * @return Top level resource object.
+   */
+  public final RootResourceV10 getRootResource() {
+    return apiRoot;
+  }
+
+  /**
+   * Get the asynchronous client for this Cloudera Manager instance.
+   *
+   * @return Asynchronous CM API client.
+   */
+  public final AsyncCmClient getAsyncClient() {
+    return asyncClient;
+  }
+
+  /**
+   * Get the cached state of this Cloudera Manager instance.
+   *
+   * @return Cluster state.
+   */
+  public final ClusterState getClusterState() {
+    return clusterState;
+  }
+
+  /**
+   * Get the CM API version negotiated with this Cloudera Manager instance.
+   *
+   * @return API version number.
+   */
+  public final int getApiVersion() {
+    return ApiVersion.of(apiRoot);
+  }
+
+  /**
+   * Check whether the negotiated API version includes a feature.
+   *
+   * @param version First API version with the feature, e.g.
+   * {@link ApiVersion#CLUSTER_TEMPLATES}.
+   *
+   * @return true if the feature can be used.
+   */
+  public final boolean supports(final int version) {
+    return getApiVersion() >= version;
+  }
+
+  /**
+   * Get the object used to wait for commands to complete.
+   *
+   * @return Command waiter for this instance.
+   */
+  public final CommandWaiter getCommandWaiter() {
+    return commandWaiter;
+  }
+
+  /**
+   * Get the host name for this Cloudera Manager instance.
+   *
+   * @return CM host name.
+   */
+  public final String getHost() {
+    return cmhost;
+  }
+
   /**
    * Call methods on Cluster objects to perform required initialization
    * before deploying services to each cluster.
    */
   public final void initializeClusters() {
-    Cluster cluster = new Cluster(apiRoot, config);
+    Cluster cluster = new Cluster(this);
     cluster.provisionCluster();
     clusters.add(cluster);
   }
@@ -136,12 +332,22 @@ public class CMServer {
 
   /**
    * Deploy services to intialized clusters, perform required initialization,
-   * and then start clusters.
+   * and then start clusters. Stops at the first cluster that fails to start
+   * or to deploy its client configs.
+   *
+   * @return Flag indicating whether all clusters were started and had their
+   * client configs deployed.
    */
-  public final void deployClusters() {
+  public final boolean deployClusters() {
     for (Cluster cluster : clusters) {
+      LOG.info("Verifying hosts for cluster " + cluster.getName());
+      cluster.verifyHosts();
       LOG.info("Deploying services for cluster " + cluster.getName());
-      cluster.provisionServices();
+      if (SnapshotDeployer.isFastDeploy(spec)) {
+        new SnapshotDeployer(cluster).deploy();
+      } else {
+        cluster.provisionServices();
+      }
       // Note that we're using firstRun() when starting clusters, which
       // incorporates the pre- and post-initialization tasks that are required
       // when starting a new cluster. To change to manually run these tasks
@@ -150,34 +356,35 @@ public class CMServer {
       //LOG.info("Running pre-start init tasks for cluster" + cluster.getName());
       //cluster.preInitializeServices();
       LOG.info("Starting cluster " + cluster.getName());
-      cluster.startCluster();
+      if (!cluster.startCluster()) {
+        LOG.error("Failed to start cluster " + cluster.getName());
+        return false;
+      }
       //LOG.info("Running post-start init tasks for cluster" + cluster.getName());
       //cluster.postInitializeServices();
-      LOG.info("Deploying client configs for" + cluster.getName());
-      cluster.deployClientConfigs();
+      LOG.info("Deploying client configs for " + cluster.getName());
+      if (!cluster.deployClientConfigs()) {
+        LOG.error("Failed to deploy client configs for " + cluster.getName());
+        return false;
+      }
     }
+    return true;
   }
 
   /**
    * Wait for a Cloudera Manager command to complete running, and then return
    * a flag indicating whether the command completed successfully or not.
+   * Waits are bounded by the configured command timeout and the budget of
+   * the current deployment phase.
    *
    * @param command Object encapsulating info on command being executed.
    *
    * @return Flag indicating success or failure of command execution.
+   *
+   * @throws DeploymentTimeoutException if the command doesn't complete in
+   * time. The command is aborted before the exception is thrown.
    */
-  public static Boolean waitForCommand(final ApiCommand command) {
-    // /api/v1/commands/{commandId}
-    while (apiRoot.getCommandsResource().readCommand(command.getId()).isActive()) {
-      LOG.info("Waiting for " + command.getName() + " command to complete...");
-      try {
-          Thread.sleep(SLEEP_LENGTH);
-        } catch (InterruptedException e) {
-        LOG.warn(e.getMessage());
-      }
-    }
-    LOG.info("Command " + command.getName() + " completed. Result = " +
-             apiRoot.getCommandsResource().readCommand(command.getId()).getResultMessage());
-    return apiRoot.getCommandsResource().readCommand(command.getId()).getSuccess();
+  public final Boolean waitForCommand(final ApiCommand command) {
+    return commandWaiter.waitFor(command).getSuccess();
   }
 }
@@ -16,23 +16,45 @@
  */
 package com.cloudera.cmapi.deploy;
 
-import com.cloudera.api.DataView;
+import com.cloudera.api.ApiObjectMapper;
+import com.cloudera.api.model.ApiBulkCommandList;
 import com.cloudera.api.model.ApiCluster;
 import com.cloudera.api.model.ApiClusterList;
+import com.cloudera.api.model.ApiClusterTemplate;
 import com.cloudera.api.model.ApiClusterVersion;
 import com.cloudera.api.model.ApiCommand;
+import com.cloudera.api.model.ApiHost;
 import com.cloudera.api.model.ApiHostRef;
 import com.cloudera.api.model.ApiHostRefList;
 import com.cloudera.api.model.ApiParcel;
+import com.cloudera.api.model.ApiRole;
+import com.cloudera.api.model.ApiRoleNameList;
 import com.cloudera.api.v10.RootResourceV10;
 import com.cloudera.api.v10.ServicesResourceV10;
+import com.cloudera.api.v12.RootResourceV12;
 import com.cloudera.api.v3.ParcelResource;
 
+import com.cloudera.cmapi.deploy.client.ApiVersion;
+import com.cloudera.cmapi.deploy.client.AsyncCmClient;
 import com.cloudera.cmapi.deploy.services.ClusterService;
 import com.cloudera.cmapi.deploy.services.ClusterServiceFactory;
+import com.cloudera.cmapi.deploy.tuning.AutoTuner;
+import com.cloudera.cmapi.deploy.tuning.HostFacts;
+import com.cloudera.cmapi.deploy.tuning.MemoryBudget;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.log4j.Logger;
 
@@ -65,7 +87,7 @@ public class Cluster {
   /**
    * Hosts associated with this cluster.
    */
-  private String[] clusterHosts;
+  private HostSet clusterHosts;
 
   /**
    * Configuration parameters.
@@ -77,10 +99,21 @@ public class Cluster {
    */
   private RootResourceV10 apiRoot;
 
+  /**
+   * Cloudera Manager instance managing this cluster.
+   */
+  private CMServer cm;
+
   /**
    * List of services that should be part of this cluster.
    */
-  private String[] servicesToDeploy;
+  private List<String> servicesToDeploy;
+
+  /**
+   * Services deployed to this cluster during this run, or null if services
+   * haven't been deployed.
+   */
+  private List<ClusterService> deployedServices;
 
   /**
    * Valid products/Parcels.
@@ -97,29 +130,200 @@ public class Cluster {
    */
   private static final long SLEEP_LENGTH = 10000;
 
+  /**
+   * Value of inspect_hosts_fail_on that skips checking the host inspection
+   * report.
+   */
+  private static final String INSPECT_HOSTS_FAIL_ON_NONE = "NONE";
+
+  /**
+   * Client config deployment mode pushing all client configs to all hosts.
+   */
+  private static final String CLIENT_CONFIG_DEPLOY_FULL = "full";
+
+  /**
+   * Client config deployment mode pushing changed client configs to gateway
+   * hosts only.
+   */
+  private static final String CLIENT_CONFIG_DEPLOY_TARGETED = "targeted";
+
+  /**
+   * Default maximum time to wait for the cluster first run command.
+   */
+  private static final long DEFAULT_FIRST_RUN_TIMEOUT_SECONDS = 7200;
+
+  /**
+   * Default maximum time to wait for a Parcel to download or distribute.
+   */
+  private static final long DEFAULT_PARCEL_TIMEOUT_SECONDS = 3600;
+
+  /**
+   * Default maximum time to wait for a Parcel to activate.
+   */
+  private static final long DEFAULT_PARCEL_ACTIVATION_TIMEOUT_SECONDS = 900;
+
+  /**
+   * Default number of hosts added to the cluster per request.
+   */
+  private static final int DEFAULT_HOST_CHUNK_SIZE = 1000;
+
+  /**
+   * Rack CM assigns to hosts without one.
+   */
+  private static final String DEFAULT_RACK = "/default";
+
+  /**
+   * Role types restarted rack by rack in a rolling restart. Roles of other
+   * types, such as masters, aren't restarted.
+   */
+  private static final Set<String> WORKER_ROLE_TYPES =
+    Set.of("DATANODE", "NODEMANAGER", "IMPALAD", "KAFKA_BROKER");
+
+  /**
+   * Stages of Parcel provisioning, with the commands to start and cancel each
+   * stage and the Parcel stage reached on completion.
+   */
+  private enum ParcelStage {
+    DOWNLOAD("DOWNLOADED") {
+      void start(final ParcelResource parcel) {
+        parcel.startDownloadCommand();
+      }
+      void cancel(final ParcelResource parcel) {
+        parcel.cancelDownloadCommand();
+      }
+    },
+    DISTRIBUTION("DISTRIBUTED") {
+      void start(final ParcelResource parcel) {
+        parcel.startDistributionCommand();
+      }
+      void cancel(final ParcelResource parcel) {
+        parcel.cancelDistributionCommand();
+      }
+    },
+    ACTIVATION("ACTIVATED") {
+      void start(final ParcelResource parcel) {
+        parcel.activateCommand();
+      }
+      void cancel(final ParcelResource parcel) {
+        // Activation can't be cancelled, it's simply re-issued on retry.
+      }
+    };
+
+    /**
+     * Parcel stage reached when this provisioning stage completes.
+     */
+    private final String targetStage;
+
+    /**
+     * Constructor.
+     *
+     * @param targetStage Parcel stage reached on completion.
+     */
+    ParcelStage(final String targetStage) {
+      this.targetStage = targetStage;
+    }
+
+    /**
+     * Get the Parcel stage reached when this provisioning stage completes.
+     *
+     * @return Target Parcel stage.
+     */
+    String getTargetStage() {
+      return targetStage;
+    }
+
+    /**
+     * Issue the command starting this stage.
+     *
+     * @param parcel CM API object encapsulating the Parcel.
+     */
+    abstract void start(ParcelResource parcel);
+
+    /**
+     * Issue the command cancelling this stage.
+     *
+     * @param parcel CM API object encapsulating the Parcel.
+     */
+    abstract void cancel(ParcelResource parcel);
+  }
+
+  /**
+   * Maximum time in milliseconds to wait for the cluster first run command.
+   */
+  private long firstRunTimeout;
+
+  /**
+   * Maximum time in milliseconds to wait for a Parcel to download.
+   */
+  private long parcelDownloadTimeout;
+
+  /**
+   * Maximum time in milliseconds to wait for a Parcel to distribute.
+   */
+  private long parcelDistributionTimeout;
+
+  /**
+   * Maximum time in milliseconds to wait for a Parcel to activate.
+   */
+  private long parcelActivationTimeout;
+
+  /**
+   * Host inspector command issued when hosts are added to the cluster, or
+   * null if no inspection is pending.
+   */
+  private ApiCommand hostInspection;
+
+  /**
+   * Hardware facts for cluster hosts by host name, read on first use.
+   */
+  private Map<String, HostFacts> hostFacts;
+
+  /**
+   * Tuner for role settings, created on first use. Null if auto tuning
+   * isn't enabled.
+   */
+  private AutoTuner autoTuner;
+
+  /**
+   * Flag indicating the tuner has been created.
+   */
+  private boolean autoTunerLoaded = false;
+
   /**
    * Constructor initializes cluster parameters including the cluster name and
    * version, initializes list of hosts to be assigned to cluster, and
    * initializes list of services to be deployed as part of this cluster.
    *
-   * @param config Object containing required config parameters.
-   * @param apiRoot Object providing access to the CM API
+   * @param cm Cloudera Manager instance managing this cluster. Provides the
+   * configuration parameters and the object providing access to the CM API
    * root namespace.
    */
-  public Cluster(final RootResourceV10 apiRoot, final Wini config) {
-
-    this.config = config;
-    name = config.get(Constants.CLUSTER_CONFIG_SECTION,
-                      Constants.CLUSTER_NAME_PARAMETER);
-    version = config.get(Constants.CLUSTER_CONFIG_SECTION,
-                         Constants.CLUSTER_CDH_VERSION_PARAMETER);
-    clusterHosts =
-      config.get(Constants.CLUSTER_CONFIG_SECTION,
-                 Constants.CLUSTER_HOSTS_PARAMETER).split(",");
-    this.apiRoot = apiRoot;
-    servicesToDeploy =
-      config.get(Constants.CLUSTER_CONFIG_SECTION,
-                 Constants.CLUSTER_SERVICES_PARAMETER).split(",");
+  public Cluster(final CMServer cm) {
+
+    this.cm = cm;
+    this.config = cm.getConfig();
+    DeploymentSpec spec = cm.getDeploymentSpec();
+    name = spec.getClusterName();
+    version = spec.getCdhVersion();
+    clusterHosts = spec.getClusterHosts();
+    this.apiRoot = cm.getRootResource();
+    servicesToDeploy = spec.getServices();
+    firstRunTimeout =
+      1000 * ConfigUtils.getLong(config, Constants.TIMEOUTS_CONFIG_SECTION,
+                                 Constants.FIRST_RUN_TIMEOUT_SECONDS_PARAMETER,
+                                 DEFAULT_FIRST_RUN_TIMEOUT_SECONDS);
+    parcelDownloadTimeout =
+      1000 * ConfigUtils.getLong(config, Constants.TIMEOUTS_CONFIG_SECTION,
+                                 Constants.PARCEL_DOWNLOAD_TIMEOUT_SECONDS_PARAMETER,
+                                 DEFAULT_PARCEL_TIMEOUT_SECONDS);
+    parcelDistributionTimeout =
+      1000 * ConfigUtils.getLong(config, Constants.TIMEOUTS_CONFIG_SECTION,
+                                 Constants.PARCEL_DISTRIBUTION_TIMEOUT_SECONDS_PARAMETER,
+                                 DEFAULT_PARCEL_TIMEOUT_SECONDS);
+    parcelActivationTimeout =
+      1000 * ConfigUtils.getLong(config, Constants.TIMEOUTS_CONFIG_SECTION,
+                                 Constants.PARCEL_ACTIVATION_TIMEOUT_SECONDS_PARAMETER,
+                                 DEFAULT_PARCEL_ACTIVATION_TIMEOUT_SECONDS);
   }
 
   /**
@@ -131,6 +335,85 @@ public class Cluster {
     return name;
   }
 
+  /**
+   * Get configuration parameters.
+   *
+   * @return Configuration object for this cluster.
+   */
+  public final Wini getConfig() {
+    return config;
+  }
+
+  /**
+   * Get the Cloudera Manager instance managing this cluster.
+   *
+   * @return Cloudera Manager instance.
+   */
+  public final CMServer getCMServer() {
+    return cm;
+  }
+
+  /**
+   * Get the cached state of the Cloudera Manager instance.
+   *
+   * @return Cluster state.
+   */
+  public final ClusterState getClusterState() {
+    return cm.getClusterState();
+  }
+
+  /**
+   * Get the CM API object providing access to services on this cluster.
+   *
+   * @return Services resource for this cluster.
+   */
+  public final ServicesResourceV10 getServicesResource() {
+    // /api/v1/clusters/{clusterName}/services
+    return apiRoot.getClustersResource().getServicesResource(name);
+  }
+
+  /**
+   * Get the number of hosts in the cluster.
+   *
+   * @return Number of configured cluster hosts.
+   */
+  public final long getClusterSize() {
+    return clusterHosts.size();
+  }
+
+  /**
+   * Get the hardware facts reported by CM for its hosts. Hosts CM hasn't
+   * reported cores and memory for are left out.
+   *
+   * @return Host facts by host name.
+   */
+  public final synchronized Map<String, HostFacts> getHostFacts() {
+    if (hostFacts == null) {
+      hostFacts = new HashMap<String, HostFacts>();
+      for (Map.Entry<String, ApiHost> entry :
+             getClusterState().getHostsByName().entrySet()) {
+        HostFacts facts = HostFacts.of(entry.getValue());
+        if (facts != null) {
+          hostFacts.put(entry.getKey(), facts);
+        }
+      }
+    }
+    return hostFacts;
+  }
+
+  /**
+   * Get the tuner for role settings.
+   *
+   * @return Tuner, or null if auto tuning isn't enabled.
+   */
+  public final synchronized AutoTuner getAutoTuner() {
+    if (!autoTunerLoaded) {
+      autoTuner = AutoTuner.fromConfig(config);
+      autoTunerLoaded = true;
+    }
+    return autoTuner;
+  }
+
   /**
    * Perform required tasks to provision a cluster managed by Cloudera Manager.
    * This includes tasks like setting the cluster name and version and
@@ -138,54 +421,253 @@ public class Cluster {
    */
   public final void provisionCluster() {
 
-    // Get list of any existing clusters and ensure this cluster doesn'
-    // already exist:
-    ApiClusterList clusters = apiRoot.getClustersResource()
-      .readClusters(DataView.SUMMARY);
-    boolean clusterExists = false;
-    for (ApiCluster cluster : clusters) {
-      if (cluster.getName().equals(name)) {
-        clusterExists = true;
-        break;
-      }
-    }
-
     // If this is a new cluster, proceed with tasks to provision, otherwise
     // return:
-    if (clusterExists) {
+    if (getClusterState().clusterExists(name)) {
       LOG.warn("Cluster with name " + name + " already exists, " +
                   "skipping provision cluster step");
+      assignRacks();
     } else {
-      LOG.info("Creating cluster named " + name + " with CDH version " +
-               version);
-      // Create cluster object, set name and version, and add to collection of
-      // clusters:
-      clusters = new ApiClusterList();
-      ApiCluster cluster = new ApiCluster();
-      cluster.setName(name);
-      cluster.setVersion(ApiClusterVersion.fromString(version));
-      clusters.add(cluster);
-      // Then call the command to create new cluster(s)
-      // /api/v1/clusters
-      apiRoot.getClustersResource().createClusters(clusters);
-
-      // Create list of hosts for this cluster:
-      List<ApiHostRef> apiHostRefs = new ArrayList();
-      for (String hostname : clusterHosts) {
-        apiHostRefs.add(new ApiHostRef(hostname));
-      }
-
-      apiHostRefs.add(new ApiHostRef(config.get("CM", Constants.CM_PRIVATE_HOSTNAME_PARAMETER)));
-
-      // Then assign list of hosts to cluster
-      //  /api/v3/clusters/{clusterName}/hosts
-      apiRoot.getClustersResource().addHosts(name,
-                                             new ApiHostRefList(apiHostRefs));
+      // A cluster template, when configured and supported by the server,
+      // creates the cluster, its services and their configuration in a
+      // single command. Otherwise the cluster is built up step by step:
+      if (!importClusterTemplate()) {
+        createCluster();
+      }
+      getClusterState().invalidateCluster(name);
+      assignRacks();
+
+      // Start the host inspector now, but don't wait on it. It runs while
+      // the management service and Parcels are deployed, and its result is
+      // checked in verifyHosts() before any services are created:
+      if (ConfigUtils.getBoolean(config, Constants.CLUSTER_CONFIG_SECTION,
+                                 Constants.CLUSTER_INSPECT_HOSTS_PARAMETER,
+                                 true)) {
+        LOG.info("Starting host inspection for cluster " + name);
+        // /api/v8/clusters/{clusterName}/commands/inspectHosts
+        hostInspection =
+          apiRoot.getClustersResource().inspectHostsCommand(name);
+      }
 
       LOG.info("Successfully provisioned cluster");
     }
   }
 
+  /**
+   * Create the cluster and assign its hosts.
+   */
+  private void createCluster() {
+    LOG.info("Creating cluster named " + name + " with CDH version " +
+             version);
+    // Create cluster object, set name and version, and add to collection of
+    // clusters:
+    ApiClusterList clusters = new ApiClusterList();
+    ApiCluster cluster = new ApiCluster();
+    cluster.setName(name);
+    cluster.setVersion(ApiClusterVersion.fromString(version));
+    clusters.add(cluster);
+    // Then call the command to create new cluster(s)
+    // /api/v1/clusters
+    apiRoot.getClustersResource().createClusters(clusters);
+
+    // Assign hosts to the cluster a chunk at a time, expanding host ranges
+    // as we go rather than building the whole list up front:
+    int chunkSize =
+      Math.max(1, ConfigUtils.getInt(config, Constants.CLUSTER_CONFIG_SECTION,
+                                     Constants.CLUSTER_HOST_CHUNK_SIZE_PARAMETER,
+                                     DEFAULT_HOST_CHUNK_SIZE));
+    LOG.info("Adding " + (clusterHosts.size() + 1) + " hosts to cluster " +
+             name);
+    List<ApiHostRef> apiHostRefs = new ArrayList<ApiHostRef>();
+    for (String hostname : clusterHosts) {
+      apiHostRefs.add(new ApiHostRef(hostname));
+      if (apiHostRefs.size() == chunkSize) {
+        addHosts(apiHostRefs);
+        apiHostRefs = new ArrayList<ApiHostRef>();
+      }
+    }
+    apiHostRefs.add(new ApiHostRef(config.get("CM", Constants.CM_PRIVATE_HOSTNAME_PARAMETER)));
+    addHosts(apiHostRefs);
+  }
+
+  /**
+   * Add hosts to the cluster.
+   *
+   * @param apiHostRefs Hosts to add.
+   */
+  private void addHosts(final List<ApiHostRef> apiHostRefs) {
+    // /api/v3/clusters/{clusterName}/hosts
+    apiRoot.getClustersResource().addHosts(name,
+                                           new ApiHostRefList(apiHostRefs));
+  }
+
+  /**
+   * Set the rack of each cluster host as given by the [RACK_TOPOLOGY]
+   * section. Only hosts whose rack differs are updated. The CM API has no
+   * bulk host update, so the updates are made concurrently.
+   */
+  private void assignRacks() {
+    RackTopology topology = cm.getDeploymentSpec().getRackTopology();
+    if (topology.isEmpty()) {
+      return;
+    }
+    AsyncCmClient client = cm.getAsyncClient();
+    Map<String, ApiHost> hosts = getClusterState().getHostsByName();
+    List<CompletableFuture<ApiHost>> updates = new ArrayList<>();
+    for (String hostname : clusterHosts) {
+      String rack = topology.getRack(hostname);
+      ApiHost host = hosts.get(hostname);
+      if (rack == null || host == null || rack.equals(host.getRackId())) {
+        continue;
+      }
+      LOG.debug("Setting rack of " + hostname + " to " + rack);
+      ApiHost update = new ApiHost();
+      update.setRackId(rack);
+      updates.add(client.updateHost(host.getHostId(), update));
+    }
+    if (updates.isEmpty()) {
+      LOG.info("Host racks are up to date");
+      return;
+    }
+    LOG.info("Setting racks of " + updates.size() + " hosts");
+    AsyncCmClient.allOf(updates).join();
+    getClusterState().invalidateCluster(name);
+  }
+
+  /**
+   * Get the rack CM has for a host.
+   *
+   * @param hostname Host name.
+   *
+   * @return Rack, or null if the host isn't known to CM.
+   */
+  public final String getRack(final String hostname) {
+    ApiHost host = getClusterState().getHostsByName().get(hostname);
+    return host == null ? null : host.getRackId();
+  }
+
+  /**
+   * Import the cluster from the template named by cluster_template_file in
+   * the [CLUSTER] section. The template, as exported from another CM with
+   * /clusters/{clusterName}/export, must name this cluster and its hosts in
+   * its instantiator. Importing needs API v12; on older servers the
+   * template is ignored and the cluster is created from the configuration
+   * file instead.
+   *
+   * @return true if the cluster was imported, false if no template is
+   * configured or the server doesn't support templates.
+   *
+   * @throws IllegalStateException if the template can't be read or the
+   * import fails.
+   */
+  private boolean importClusterTemplate() {
+    String templateFile =
+      ConfigUtils.getString(config, Constants.CLUSTER_CONFIG_SECTION,
+                            Constants.CLUSTER_TEMPLATE_FILE_PARAMETER, "");
+    if (templateFile.isEmpty()) {
+      return false;
+    }
+    if (!cm.supports(ApiVersion.CLUSTER_TEMPLATES)) {
+      LOG.warn("CM API v" + cm.getApiVersion() + " doesn't support cluster " +
+               "templates, ignoring " + templateFile);
+      return false;
+    }
+
+    ApiClusterTemplate template;
+    try {
+      template = new ApiObjectMapper().readValue(new File(templateFile),
+                                                 ApiClusterTemplate.class);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read cluster template " +
+                                      templateFile + ": " + e.getMessage(), e);
+    }
+
+    LOG.info("Importing cluster " + name + " from template " + templateFile);
+    // /api/v12/cm/importClusterTemplate
+    ApiCommand command = ((RootResourceV12) apiRoot).getClouderaManagerResource()
+      .importClusterTemplate(true, template);
+    command = cm.getCommandWaiter().waitFor(command);
+    if (!Boolean.TRUE.equals(command.getSuccess())) {
+      throw new IllegalStateException("Cluster template import failed. " +
+                                      CommandWaiter.describe(CommandWaiter.getFailedChildren(command)));
+    }
+    getClusterState().invalidateCluster(name);
+    if (!getClusterState().clusterExists(name)) {
+      throw new IllegalStateException("Cluster template " + templateFile +
+                                      " doesn't define cluster " + name);
+    }
+    return true;
+  }
+
+  /**
+   * Wait for the host inspection started when the cluster was provisioned
+   * and confirm it passed. This gates service creation so that bad hosts
+   * are reported before the expensive deployment steps rather than when
+   * the cluster fails to start. The command only reports whether the
+   * inspector ran, so its report is downloaded and checked for findings at
+   * or above the inspect_hosts_fail_on severity.
+   *
+   * @throws IllegalStateException if host inspection failed or reported
+   * findings at or above the configured severity.
+   */
+  public final void verifyHosts() {
+    if (hostInspection == null) {
+      return;
+    }
+    LOG.info("Checking host inspection results for cluster " + name);
+    ApiCommand result = cm.getCommandWaiter().waitFor(hostInspection);
+    hostInspection = null;
+    if (!Boolean.TRUE.equals(result.getSuccess())) {
+      throw new IllegalStateException("Host inspection failed for cluster " +
+                                      name + ": " + result.getResultMessage() +
+                                      ". " +
+                                      CommandWaiter.describe(CommandWaiter.getFailedChildren(result)));
+    }
+
+    String failOn = ConfigUtils.getString(config, Constants.CLUSTER_CONFIG_SECTION,
+                                          Constants.CLUSTER_INSPECT_HOSTS_FAIL_ON_PARAMETER,
+                                          HostInspectionReport.Severity.ERROR.name())
+      .toUpperCase(Locale.ROOT);
+    if (failOn.equals(INSPECT_HOSTS_FAIL_ON_NONE)) {
+      LOG.info("Host inspection ran: " + result.getResultMessage());
+      return;
+    }
+    HostInspectionReport.Severity threshold;
+    try {
+      threshold = HostInspectionReport.Severity.valueOf(failOn);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalStateException(Constants.CLUSTER_INSPECT_HOSTS_FAIL_ON_PARAMETER +
+                                      " must be error, warning or none, not " +
+                                      failOn.toLowerCase(Locale.ROOT));
+    }
+    if (result.getResultDataUrl() == null) {
+      throw new IllegalStateException("Host inspection for cluster " + name +
+                                      " has no report to check");
+    }
+    HostInspectionReport report;
+    try {
+      report = HostInspectionReport.download(config, result.getResultDataUrl());
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read host inspection report " +
+                                      "for cluster " + name + ": " +
+                                      e.getMessage() + ". Set " +
+                                      Constants.CLUSTER_INSPECT_HOSTS_FAIL_ON_PARAMETER +
+                                      "=none to skip the check", e);
+    }
+    for (HostInspectionReport.Finding finding :
+           report.getFindings(HostInspectionReport.Severity.WARNING)) {
+      LOG.warn("Host inspection: " + finding);
+    }
+    List<HostInspectionReport.Finding> failures = report.getFindings(threshold);
+    if (!failures.isEmpty()) {
+      throw new IllegalStateException("Host inspection for cluster " + name +
+                                      " reported " + failures.size() +
+                                      " finding(s) at or above " + threshold +
+                                      ": " + failures);
+    }
+    LOG.info("Host inspection passed: " + result.getResultMessage());
+  }
+
   /**
    * Execute steps to download, distribute, and activate Parcels required
    * for deploying this cluster.
@@ -213,20 +695,25 @@ public class Cluster {
     // Class that encapsulates default version of an artifact:
     DefaultArtifactVersion parcelVersion = null;
 
-    // Get list of available parcels:
-    //  /api/v3/clusters/{clusterName}/parcels
-    for (ApiParcel parcel : apiRoot.getClustersResource().getParcelsResource(name).readParcels(DataView.FULL).getParcels()) {
-      LOG.debug("Available parcels=" + parcel.getProduct() + ", " +
-                parcel.getVersion());
-      // Then find the greatest version of the parcel, which is what we'll
-      // use for deploying this cluster. An enhancement would be to allow
-      // specifying the version to deploy, which will probably also require
-      // configuring a specific parcel repo.
-      if (parcel.getProduct().equals(product.name())
-            && (parcelVersion == null ||
-                parcelVersion.compareTo(new DefaultArtifactVersion(parcel.getVersion())) < 0)) {
-        LOG.info("Setting parcelVersion to " + parcel.getVersion());
-        parcelVersion = new DefaultArtifactVersion(parcel.getVersion());
+    // A version can be pinned, for example by a snapshot of another
+    // cluster. Otherwise get list of available parcels:
+    String pinnedVersion =
+      cm.getDeploymentSpec().get(Constants.CLUSTER_CONFIG_SECTION,
+                                 product.name().toLowerCase() +
+                                 Constants.CLUSTER_PARCEL_VERSION_SUFFIX);
+    if (!pinnedVersion.isEmpty()) {
+      parcelVersion = new DefaultArtifactVersion(pinnedVersion);
+    } else {
+      for (ApiParcel parcel : getClusterState().getParcels(name, product.name())) {
+        LOG.debug("Available parcels=" + parcel.getProduct() + ", " +
+                  parcel.getVersion());
+        // Then find the greatest version of the parcel, which is what we'll
+        // use for deploying this cluster.
+        if (parcelVersion == null ||
+            parcelVersion.compareTo(new DefaultArtifactVersion(parcel.getVersion())) < 0) {
+          LOG.info("Setting parcelVersion to " + parcel.getVersion());
+          parcelVersion = new DefaultArtifactVersion(parcel.getVersion());
+        }
       }
     }
 
@@ -237,46 +724,86 @@ public class Cluster {
     final ParcelResource parcelResource = apiRoot.getClustersResource().getParcelsResource(name).getParcelResource(product.name(), parcelVersion.toString());
 
     // Confirm this parcel isn't already activated on the cluster, then
-    // go through the steps to download, distribute, and activate:
-    if (parcelResource.readParcel().getStage().equals("ACTIVATED")) {
+    // go through the steps to download, distribute, and activate. A parcel
+    // already downloaded or distributed, for example for an earlier cluster
+    // built from the same snapshot, only runs the remaining steps:
+    String parcelStage = parcelResource.readParcel().getStage();
+    if (parcelStage.equals("ACTIVATED")) {
       LOG.info(product +
                " parcel already activated, skipping parcel deploy steps...");
     } else {
-      // /api/v3/clusters/{clusterName}/parcels/products/{product}/versions/{version}/commands/startDownload
-      parcelResource.startDownloadCommand();
-      while (!parcelResource.readParcel().getStage().equals("DOWNLOADED")) {
-        LOG.info("Waiting for " + product + " parcel to complete downloading");
-        try {
-          Thread.sleep(SLEEP_LENGTH);
-        } catch (InterruptedException e) {
-          LOG.warn(e.getMessage());
-        }
+      boolean distributed = parcelStage.equals("DISTRIBUTED");
+      boolean downloaded = distributed || parcelStage.equals("DOWNLOADED");
+      if (downloaded) {
+        LOG.info(product + " parcel already " + parcelStage.toLowerCase() +
+                 ", skipping completed steps");
+      } else {
+        // /api/v3/clusters/{clusterName}/parcels/products/{product}/versions/{version}/commands/startDownload
+        provisionParcelStage(product, parcelResource, ParcelStage.DOWNLOAD,
+                             parcelDownloadTimeout);
       }
-      LOG.info("Completed download of " + product + " parcel");
+      if (!distributed) {
+        // /api/v3/clusters/{clusterName}/parcels/products/{product}/versions/{version}/commands/startDistribution
+        provisionParcelStage(product, parcelResource, ParcelStage.DISTRIBUTION,
+                             parcelDistributionTimeout);
+      }
+      // /api/v3/clusters/{clusterName}/parcels/products/{product}/versions/{version}/commands/activate
+      provisionParcelStage(product, parcelResource, ParcelStage.ACTIVATION,
+                           parcelActivationTimeout);
+      getClusterState().invalidateParcels(name);
+    }
+  }
 
-      // /api/v3/clusters/{clusterName}/parcels/products/{product}/versions/{version}/commands/startDistribution
-      parcelResource.startDistributionCommand();
-      while (!parcelResource.readParcel().getStage().equals("DISTRIBUTED")) {
-        LOG.info("Waiting for " + product + " parcel to complete distribution");
-        try {
-          Thread.sleep(SLEEP_LENGTH);
-        } catch (InterruptedException e) {
-          LOG.warn(e.getMessage());
-        }
+  /**
+   * Run one stage of Parcel provisioning and wait for the Parcel to reach the
+   * target stage. If the stage doesn't complete within the timeout the stage
+   * is cancelled, where CM supports that, and retried with backoff.
+   *
+   * @param product Parcel product.
+   * @param parcelResource CM API object encapsulating the Parcel.
+   * @param stage Provisioning stage to run.
+   * @param timeout Maximum time in milliseconds to wait for the stage, or
+   * zero for no limit other than the phase budget.
+   *
+   * @throws DeploymentTimeoutException if the stage doesn't complete after
+   * the configured number of retries.
+   */
+  private void provisionParcelStage(final PRODUCT product,
+                                    final ParcelResource parcelResource,
+                                    final ParcelStage stage,
+                                    final long timeout) {
+    CommandWaiter waiter = cm.getCommandWaiter();
+    for (int attempt = 0; ; attempt++) {
+      if (attempt > 0) {
+        waiter.backoff(attempt);
+      }
+      stage.start(parcelResource);
+      long deadline = waiter.deadline(timeout);
+      ApiParcel parcel = parcelResource.readParcel();
+      while (!parcel.getStage().equals(stage.getTargetStage())
+             && System.currentTimeMillis() < deadline) {
+        LOG.info("Waiting for " + product + " parcel to complete " +
+                 stage.name().toLowerCase());
+        waiter.sleep(Math.min(SLEEP_LENGTH,
+                              Math.max(0, deadline - System.currentTimeMillis())));
+        parcel = parcelResource.readParcel();
+      }
+      if (parcel.getStage().equals(stage.getTargetStage())) {
+        LOG.info("Completed " + stage.name().toLowerCase() + " of " +
+                 product + " parcel");
+        return;
       }
-      LOG.info("Completed distribution of " + product + " parcel");
 
-      // /api/v3/clusters/{clusterName}/parcels/products/{product}/versions/{version}/commands/activate
-      parcelResource.activateCommand();
-      while (!parcelResource.readParcel().getStage().equals("ACTIVATED")) {
-        LOG.info("Waiting for " + product + " parcel to complete activation");
-        try {
-          Thread.sleep(SLEEP_LENGTH);
-        } catch (InterruptedException e) {
-          LOG.warn(e.getMessage());
-        }
+      LOG.warn(product + " parcel " + stage.name().toLowerCase() +
+               " did not complete in time, parcel stage is " +
+               parcel.getStage());
+      stage.cancel(parcelResource);
+      if (attempt >= waiter.getMaxRetries()) {
+        throw new DeploymentTimeoutException(product + " parcel " +
+                                             stage.name().toLowerCase() +
+                                             " timed out after " +
+                                             (attempt + 1) + " attempts");
       }
-      LOG.info("Completed activation of " + product + " parcel");
     }
   }
 
@@ -284,21 +811,40 @@ public class Cluster {
    * Deploy required services (HDFS, YARN, etc.) to the cluster.
    */
   public final void provisionServices() {
-    ServicesResourceV10 servicesResource =
-      apiRoot.getClustersResource().getServicesResource(name);
     ClusterServiceFactory factory = new ClusterServiceFactory();
+    deployedServices = new ArrayList<ClusterService>();
     // For each service to be deployed to cluster, get the corresponding
     // object representing that service and execute deployment:
     for (String service : servicesToDeploy) {
       ClusterService clusterService =
-        factory.getClusterService(service, config, servicesResource);
+        factory.getClusterService(service, this);
       if (clusterService != null) {
         LOG.info("Deploying " + service + " service for cluster " + name);
+        boolean created =
+          !getClusterState().serviceExists(name, clusterService.getName());
         clusterService.deploy();
+        if (created) {
+          getClusterState().invalidateServices(name);
+        }
+        // Services that already existed skip deployment, so apply any
+        // changes to their gateway configuration here:
+        clusterService.updateClientConfigurations();
+        deployedServices.add(clusterService);
       } else {
         LOG.warn("No class found to deploy service: " + service);
       }
     }
+
+    // Sizing roles needs the hosts of every service, so runs once they're
+    // all deployed. The budget lays out data directories along with memory,
+    // since both go in the same per-class role config groups:
+    DeploymentSpec spec = cm.getDeploymentSpec();
+    MemoryBudget budget = MemoryBudget.fromConfig(config, spec);
+    if (budget != null) {
+      budget.apply(deployedServices, getHostFacts());
+    } else if (!spec.getDiskLayout().isEmpty()) {
+      spec.getDiskLayout().apply(spec, deployedServices, getHostFacts());
+    }
   }
 
   /**
@@ -306,12 +852,10 @@ public class Cluster {
    * cluster.
    */
   public final void preInitializeServices() {
-    ServicesResourceV10 servicesResource =
-      apiRoot.getClustersResource().getServicesResource(name);
     ClusterServiceFactory factory = new ClusterServiceFactory();
     for (String service : servicesToDeploy) {
       ClusterService clusterService =
-        factory.getClusterService(service, config, servicesResource);
+        factory.getClusterService(service, this);
       if (clusterService != null) {
         LOG.info("Running pre-init for " + service + " service for cluster " + name);
         clusterService.preStartInitialization();
@@ -324,12 +868,10 @@ public class Cluster {
    * cluster.
    */
   public final void postInitializeServices() {
-    ServicesResourceV10 servicesResource =
-      apiRoot.getClustersResource().getServicesResource(name);
     ClusterServiceFactory factory = new ClusterServiceFactory();
     for (String service : servicesToDeploy) {
       ClusterService clusterService =
-        factory.getClusterService(service, config, servicesResource);
+        factory.getClusterService(service, this);
       if (clusterService != null) {
         LOG.info("Running post-init for " + service + " service for cluster " + name);
         clusterService.postStartInitialization();
@@ -354,23 +896,291 @@ public class Cluster {
     //ApiCommand command = apiRoot.getClustersResource().startCommand(name);
     // /api/v7/clusters/{clusterName}/commands/firstRun
     ApiCommand command = apiRoot.getClustersResource().firstRun(name);
-    boolean status = CMServer.waitForCommand(command).booleanValue();
+    boolean status;
+    Set<String> failedServices;
+    try {
+      ApiCommand result =
+        cm.getCommandWaiter().waitFor(command, firstRunTimeout);
+      status = Boolean.TRUE.equals(result.getSuccess());
+      failedServices =
+        getServiceNames(CommandWaiter.getFailedChildren(result));
+    } catch (DeploymentTimeoutException e) {
+      LOG.warn(e.getMessage());
+      status = false;
+      failedServices = getServiceNames(e.getFailedCommands());
+    }
+
+    if (!status) {
+      // Services that depend on a failed service are skipped by the first
+      // run, so read back which services did initialize:
+      // /api/v1/commands/{commandId}
+      ApiCommand result =
+        apiRoot.getCommandsResource().readCommand(command.getId());
+      Set<String> initialized = new HashSet<String>();
+      if (result.getChildren() != null) {
+        for (ApiCommand child : result.getChildren()) {
+          if (Boolean.TRUE.equals(child.getSuccess())) {
+            initialized.addAll(getServiceNames(List.of(child)));
+          }
+        }
+      }
+      initialized.removeAll(failedServices);
+      status = retryFirstRun(initialized, failedServices);
+    }
+
+    LOG.info("Start cluster command completed " +
+             (status ? "successfully" : "unsuccessfully"));
+    return status;
+  }
+
+  /**
+   * Run the first run of every service that didn't initialize during cluster
+   * startup: services that failed, and services that were skipped because
+   * they depend on a failed one. Services are run in the order they're
+   * listed in the configuration, which puts them after the services they
+   * depend on. The cluster is then started to bring up anything still
+   * stopped.
+   *
+   * @param initialized Names of services whose first run succeeded.
+   * @param failed Names of services whose first run failed, retried after a
+   * backoff.
+   *
+   * @return flag indicating success or failure of startup.
+   */
+  private boolean retryFirstRun(final Set<String> initialized,
+                                final Set<String> failed) {
+    CommandWaiter waiter = cm.getCommandWaiter();
+    ServicesResourceV10 servicesResource = getServicesResource();
+    Set<String> existing = getClusterState().getServices(name).keySet();
+    List<String> services = new ArrayList<String>();
+    for (ServiceSpec serviceSpec : cm.getDeploymentSpec().getServiceSpecs()) {
+      String service = serviceSpec.getName();
+      if (existing.contains(service) && !initialized.contains(service)) {
+        services.add(service);
+      }
+    }
+    // Failed services not in the configuration still get retried:
+    for (String service : failed) {
+      if (!services.contains(service)) {
+        services.add(service);
+      }
+    }
+    if (services.isEmpty()) {
+      LOG.warn("First run failed but no service needs initializing");
+      return false;
+    }
+
+    for (String service : services) {
+      boolean serviceStatus = false;
+      int firstAttempt = failed.contains(service) ? 1 : 0;
+      for (int attempt = firstAttempt;
+           !serviceStatus && attempt <= waiter.getMaxRetries(); attempt++) {
+        if (attempt > 0) {
+          waiter.backoff(attempt);
+          LOG.info("Retrying first run of service " + service);
+        } else {
+          LOG.info("Running first run of skipped service " + service);
+        }
+        // /api/v7/clusters/{clusterName}/services/{serviceName}/commands/firstRun
+        ApiCommand result =
+          waiter.waitFor(servicesResource.firstRun(service), firstRunTimeout);
+        serviceStatus = Boolean.TRUE.equals(result.getSuccess());
+        if (!serviceStatus) {
+          LOG.warn(CommandWaiter.describe(CommandWaiter.getFailedChildren(result)));
+        }
+      }
+      if (!serviceStatus) {
+        throw new DeploymentTimeoutException("First run of service " +
+                                             service + " failed after " +
+                                             waiter.getMaxRetries() +
+                                             " retries");
+      }
+    }
+
+    // /api/v1/clusters/{clusterName}/commands/start
+    ApiCommand command = apiRoot.getClustersResource().startCommand(name);
+    return cm.waitForCommand(command).booleanValue();
+  }
+
+  /**
+   * Get the names of the services targeted by a set of commands.
+   *
+   * @param commands Commands to examine.
+   *
+   * @return Service names. Commands without a service or role target are
+   * ignored.
+   */
+  private static Set<String> getServiceNames(final List<ApiCommand> commands) {
+    Set<String> services = new LinkedHashSet<String>();
+    for (ApiCommand command : commands) {
+      if (command.getServiceRef() != null) {
+        services.add(command.getServiceRef().getServiceName());
+      } else if (command.getRoleRef() != null) {
+        services.add(command.getRoleRef().getServiceName());
+      }
+    }
+    return services;
+  }
+
+  /**
+   * Start the services of an already deployed cluster, without the
+   * first-run initialization {@link #startCluster()} does for a new one.
+   *
+   * @return flag indicating success or failure of startup.
+   */
+  public final boolean startServices() {
+    // /api/v1/clusters/{clusterName}/commands/start
+    ApiCommand command = apiRoot.getClustersResource().startCommand(name);
+    boolean status = Boolean.TRUE.equals(cm.waitForCommand(command));
     LOG.info("Start cluster command completed " +
              (status ? "successfully" : "unsuccessfully"));
     return status;
   }
 
   /**
-   * Execute command to deploy client configurations.
+   * Restart cluster services.
+   *
+   * @return flag indicating success or failure of restart.
+   */
+  public final boolean restartCluster() {
+    // /api/v1/clusters/{clusterName}/commands/restart
+    ApiCommand command = apiRoot.getClustersResource().restartCommand(name);
+    boolean status = cm.waitForCommand(command).booleanValue();
+    LOG.info("Restart cluster command completed " +
+             (status ? "successfully" : "unsuccessfully"));
+    return status;
+  }
+
+  /**
+   * Restart the worker roles of every service one rack at a time, so at
+   * most one rack's workers are down at once. Racks are restarted in
+   * order, and the restart stops at the first rack that fails.
+   *
+   * @return flag indicating success or failure of restart.
+   */
+  public final boolean rollingRestart() {
+    // Role host references carry host IDs:
+    Map<String, String> hostRacks = new HashMap<String, String>();
+    for (ApiHost host : getClusterState().getHostsByName().values()) {
+      hostRacks.put(host.getHostId(), host.getRackId());
+    }
+
+    // Role names by rack, then service:
+    Map<String, Map<String, List<String>>> racks =
+      new TreeMap<String, Map<String, List<String>>>();
+    for (String service : getClusterState().getServices(name).keySet()) {
+      for (ApiRole role : getClusterState().getRoles(name, service)) {
+        if (WORKER_ROLE_TYPES.contains(role.getType())) {
+          String rack = hostRacks.get(role.getHostRef().getHostId());
+          racks.computeIfAbsent(rack == null ? DEFAULT_RACK : rack,
+                                k -> new LinkedHashMap<String, List<String>>())
+            .computeIfAbsent(service, k -> new ArrayList<String>())
+            .add(role.getName());
+        }
+      }
+    }
+
+    ServicesResourceV10 servicesResource = getServicesResource();
+    int rackNumber = 0;
+    for (Map.Entry<String, Map<String, List<String>>> rack : racks.entrySet()) {
+      rackNumber++;
+      LOG.info("Restarting workers in rack " + rack.getKey() + " (" +
+               rackNumber + "/" + racks.size() + ")");
+      for (Map.Entry<String, List<String>> entry : rack.getValue().entrySet()) {
+        // /api/v1/clusters/{clusterName}/services/{serviceName}/roleCommands/restart
+        ApiBulkCommandList commands =
+          servicesResource.getRoleCommandsResource(entry.getKey())
+          .restartCommand(new ApiRoleNameList(entry.getValue()));
+        for (ApiCommand command : commands) {
+          if (!cm.waitForCommand(command).booleanValue()) {
+            LOG.error("Restart of " + entry.getKey() + " workers in rack " +
+                      rack.getKey() + " failed, stopping rolling restart");
+            return false;
+          }
+        }
+      }
+    }
+    LOG.info("Rolling restart of " + racks.size() + " racks completed");
+    return true;
+  }
+
+  /**
+   * Execute command to deploy client configurations. In the default full
+   * mode client configs for all services are pushed to all hosts. In
+   * targeted mode client configs are only deployed for services whose
+   * gateway configuration changed during this run, and only to the gateway
+   * hosts for those services.
    *
    * @return flag indicating success or failure of startup.
    */
   public final boolean deployClientConfigs() {
+    String mode = ConfigUtils.getString(config, Constants.CLUSTER_CONFIG_SECTION,
+                                        Constants.CLUSTER_CLIENT_CONFIG_DEPLOY_PARAMETER,
+                                        CLIENT_CONFIG_DEPLOY_FULL);
+    // Without a record of which services changed, fall back to a full push:
+    if (mode.equals(CLIENT_CONFIG_DEPLOY_TARGETED) && deployedServices != null) {
+      return deployChangedClientConfigs();
+    }
+
     // /api/v2/clusters/{clusterName}/commands/deployClientConfig
     ApiCommand command = apiRoot.getClustersResource().deployClientConfig(name);
-    boolean status = CMServer.waitForCommand(command).booleanValue();
+    boolean status = cm.waitForCommand(command).booleanValue();
     LOG.info("Deploy client config command completed " +
              (status ? "successfully" : "unsuccessfully"));
     return status;
   }
+
+  /**
+   * Deploy client configs for services whose gateway configuration changed,
+   * to the gateway roles on the configured gateway hosts for each service.
+   *
+   * @return flag indicating success or failure of deployment.
+   */
+  private boolean deployChangedClientConfigs() {
+    // Role host references carry host IDs, so map configured host names to
+    // IDs:
+    Map<String, ApiHost> hosts = getClusterState().getHostsByName();
+
+    ServicesResourceV10 servicesResource = getServicesResource();
+    boolean status = true;
+    for (ClusterService service : deployedServices) {
+      if (!service.isClientConfigChanged()) {
+        LOG.info("Client config unchanged for " + service.getName() +
+                 ", skipping");
+        continue;
+      }
+
+      Set<String> gatewayHosts = new HashSet<String>();
+      for (String host : service.getGatewayHosts()) {
+        gatewayHosts.add(host);
+        if (hosts.containsKey(host)) {
+          gatewayHosts.add(hosts.get(host).getHostId());
+        }
+      }
+      List<String> roleNames = new ArrayList<String>();
+      for (ApiRole role :
+             getClusterState().getRoles(name, service.getName())) {
+        if (role.getType().equals("GATEWAY")
+            && gatewayHosts.contains(role.getHostRef().getHostId())) {
+          roleNames.add(role.getName());
+        }
+      }
+      if (roleNames.isEmpty()) {
+        LOG.info("No gateway roles for " + service.getName() +
+                 ", skipping client config deployment");
+        continue;
+      }
+
+      LOG.info("Deploying client config for " + service.getName() + " to " +
+               roleNames.size() + " gateway roles");
+      // /api/v1/clusters/{clusterName}/services/{serviceName}/commands/deployClientConfig
+      ApiCommand command =
+        servicesResource.deployClientConfigCommand(service.getName(),
+                                                   new ApiRoleNameList(roleNames));
+      status &= cm.waitForCommand(command).booleanValue();
+    }
+    LOG.info("Targeted deploy client config completed " +
+             (status ? "successfully" : "unsuccessfully"));
+    return status;
+  }
 }
@@ -0,0 +1,560 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import com.cloudera.api.DataView;
+import com.cloudera.api.model.ApiCluster;
+import com.cloudera.api.model.ApiHost;
+import com.cloudera.api.model.ApiParcel;
+import com.cloudera.api.model.ApiParcelList;
+import com.cloudera.api.model.ApiRole;
+import com.cloudera.api.model.ApiRoleConfigGroup;
+import com.cloudera.api.model.ApiService;
+import com.cloudera.api.v10.RootResourceV10;
+import com.cloudera.api.v10.ServicesResourceV10;
+
+import com.cloudera.cmapi.deploy.client.AsyncCmClient;
+import com.cloudera.cmapi.deploy.client.StreamingReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Read-through, in-memory model of the state of a Cloudera Manager instance:
+ * clusters, hosts, and for each cluster its services, roles, role config
+ * groups and Parcels. Lookups are map lookups rather than a REST call each,
+ * and missing objects are reported as null rather than through exceptions.
+ * <p>
+ * {@link #snapshot()} loads everything up front with concurrent requests.
+ * Anything not yet loaded, or expired, is read from CM on first use. Code
+ * that changes state through the API invalidates the affected entries so
+ * they're re-read on next use. A time-to-live bounds how stale entries can
+ * get when state is also changed by others, as in the long-running server.
+ */
+public class ClusterState {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(ClusterState.class);
+
+  /**
+   * Cache key for the cluster list.
+   */
+  private static final String CLUSTERS = "clusters";
+
+  /**
+   * Cache key for the host list.
+   */
+  private static final String HOSTS = "hosts";
+
+  /**
+   * Parcel fields kept by streaming reads.
+   */
+  private static final Set<String> PARCEL_FIELDS =
+    Set.of("product", "version", "stage");
+
+  /**
+   * CM API root resource.
+   */
+  private final RootResourceV10 apiRoot;
+
+  /**
+   * Client used to load state concurrently.
+   */
+  private final AsyncCmClient asyncClient;
+
+  /**
+   * Reader for large list responses, or null to read through the API
+   * client only.
+   */
+  private final StreamingReader streamingReader;
+
+  /**
+   * Maximum age of entries in milliseconds, or zero for no limit.
+   */
+  private final long ttl;
+
+  /**
+   * Cached entries, keyed on the kind of object and the names of the
+   * cluster and service they belong to.
+   */
+  private final ConcurrentMap<String, Entry<?>> entries =
+    new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param apiRoot CM API root resource.
+   * @param asyncClient Client used to load state concurrently.
+   * @param ttl Maximum age of entries in milliseconds, or zero for no limit.
+   */
+  public ClusterState(final RootResourceV10 apiRoot,
+                      final AsyncCmClient asyncClient, final long ttl) {
+    this(apiRoot, asyncClient, null, ttl);
+  }
+
+  /**
+   * Constructor using a streaming reader for large list responses.
+   *
+   * @param apiRoot CM API root resource.
+   * @param asyncClient Client used to load state concurrently.
+   * @param streamingReader Reader for large list responses, or null to read
+   * through the API client only.
+   * @param ttl Maximum age of entries in milliseconds, or zero for no limit.
+   */
+  public ClusterState(final RootResourceV10 apiRoot,
+                      final AsyncCmClient asyncClient,
+                      final StreamingReader streamingReader, final long ttl) {
+    this.apiRoot = apiRoot;
+    this.asyncClient = asyncClient;
+    this.streamingReader = streamingReader;
+    this.ttl = ttl;
+  }
+
+  /**
+   * Load the full state of the CM instance, reading clusters and hosts, then
+   * the services and Parcels of each cluster, then the roles and role config
+   * groups of each service, with the requests at each level made
+   * concurrently.
+   */
+  public final void snapshot() {
+    long start = System.currentTimeMillis();
+    entries.clear();
+    List<CompletableFuture<?>> loads = new ArrayList<>();
+    loads.add(asyncClient.submit(this::getHostsByName));
+    for (String cluster : getClusters().keySet()) {
+      loads.add(asyncClient.submit(() -> getParcels(cluster)));
+      for (String service : getServices(cluster).keySet()) {
+        loads.add(asyncClient.submit(() -> getRoles(cluster, service)));
+        loads.add(asyncClient.submit(() -> getRoleConfigGroups(cluster, service)));
+      }
+    }
+    CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).join();
+    LOG.info("Loaded cluster state snapshot in " +
+             (System.currentTimeMillis() - start) + "ms");
+  }
+
+  /**
+   * Get clusters, keyed on name.
+   *
+   * @return Clusters.
+   */
+  public final Map<String, ApiCluster> getClusters() {
+    return get(CLUSTERS, () -> {
+      Map<String, ApiCluster> clusters = new LinkedHashMap<>();
+      // /api/v1/clusters
+      for (ApiCluster cluster :
+             apiRoot.getClustersResource().readClusters(DataView.SUMMARY)) {
+        clusters.put(cluster.getName(), cluster);
+      }
+      return clusters;
+    });
+  }
+
+  /**
+   * Check whether a cluster exists.
+   *
+   * @param cluster Cluster name.
+   *
+   * @return true if the cluster exists.
+   */
+  public final boolean clusterExists(final String cluster) {
+    return getClusters().containsKey(cluster);
+  }
+
+  /**
+   * Get hosts managed by CM, keyed on host name.
+   *
+   * @return Hosts.
+   */
+  public final Map<String, ApiHost> getHostsByName() {
+    return get(HOSTS, () -> {
+      Map<String, ApiHost> hosts = new LinkedHashMap<>();
+      // /api/v1/hosts
+      for (ApiHost host :
+             apiRoot.getHostsResource().readHosts(DataView.SUMMARY)) {
+        hosts.put(host.getHostname(), host);
+      }
+      return hosts;
+    });
+  }
+
+  /**
+   * Get a host by name.
+   *
+   * @param hostname Host name.
+   *
+   * @return Host, or null if CM doesn't manage a host with that name.
+   */
+  public final ApiHost getHost(final String hostname) {
+    return getHostsByName().get(hostname);
+  }
+
+  /**
+   * Get the services in a cluster, keyed on name.
+   *
+   * @param cluster Cluster name.
+   *
+   * @return Services, empty if the cluster doesn't exist.
+   */
+  public final Map<String, ApiService> getServices(final String cluster) {
+    return get(servicesKey(cluster), () -> {
+      Map<String, ApiService> services = new LinkedHashMap<>();
+      if (clusterExists(cluster)) {
+        for (ApiService service :
+               servicesResource(cluster).readServices(DataView.SUMMARY)) {
+          services.put(service.getName(), service);
+        }
+      }
+      return services;
+    });
+  }
+
+  /**
+   * Get a service.
+   *
+   * @param cluster Cluster name.
+   * @param service Service name.
+   *
+   * @return Service, or null if it doesn't exist.
+   */
+  public final ApiService getService(final String cluster,
+                                     final String service) {
+    return getServices(cluster).get(service);
+  }
+
+  /**
+   * Check whether a service exists.
+   *
+   * @param cluster Cluster name.
+   * @param service Service name.
+   *
+   * @return true if the service exists.
+   */
+  public final boolean serviceExists(final String cluster,
+                                     final String service) {
+    return getServices(cluster).containsKey(service);
+  }
+
+  /**
+   * Get the roles of a service.
+   *
+   * @param cluster Cluster name.
+   * @param service Service name.
+   *
+   * @return Roles, empty if the service doesn't exist.
+   */
+  public final List<ApiRole> getRoles(final String cluster,
+                                      final String service) {
+    return get(rolesKey(cluster, service), () -> {
+      if (!serviceExists(cluster, service)) {
+        return Collections.<ApiRole>emptyList();
+      }
+      // /api/v1/clusters/{clusterName}/services/{serviceName}/roles
+      return servicesResource(cluster).getRolesResource(service).readRoles()
+        .getRoles();
+    });
+  }
+
+  /**
+   * Get the role config groups of a service.
+   *
+   * @param cluster Cluster name.
+   * @param service Service name.
+   *
+   * @return Role config groups, empty if the service doesn't exist.
+   */
+  public final List<ApiRoleConfigGroup> getRoleConfigGroups(final String cluster,
+                                                            final String service) {
+    return get(groupsKey(cluster, service), () -> {
+      if (!serviceExists(cluster, service)) {
+        return Collections.<ApiRoleConfigGroup>emptyList();
+      }
+      // /api/v3/clusters/{clusterName}/services/{serviceName}/roleConfigGroups
+      return servicesResource(cluster).getRoleConfigGroupsResource(service)
+        .readRoleConfigGroups().getGroups();
+    });
+  }
+
+  /**
+   * Get the Parcels available to a cluster, keyed on product.
+   *
+   * @param cluster Cluster name.
+   *
+   * @return Parcels for each product, empty if the cluster doesn't exist.
+   */
+  public final Map<String, List<ApiParcel>> getParcels(final String cluster) {
+    return get(parcelsKey(cluster), () -> {
+      Map<String, List<ApiParcel>> parcels = new LinkedHashMap<>();
+      if (clusterExists(cluster)) {
+        for (ApiParcel parcel : readParcels(cluster)) {
+          parcels.computeIfAbsent(parcel.getProduct(), p -> new ArrayList<>())
+            .add(parcel);
+        }
+      }
+      return parcels;
+    });
+  }
+
+  /**
+   * Read the Parcels available to a cluster. The full view lists every
+   * Parcel version known to each repository, with its state and cluster
+   * reference, so it's streamed when possible, keeping only product,
+   * version and stage.
+   *
+   * @param cluster Cluster name.
+   *
+   * @return Parcels.
+   */
+  private List<ApiParcel> readParcels(final String cluster) {
+    if (streamingReader != null) {
+      List<ApiParcel> parcels = new ArrayList<>();
+      try {
+        // /api/v3/clusters/{clusterName}/parcels
+        streamingReader.forEach("/api/v10/clusters/" +
+                                StreamingReader.encode(cluster) +
+                                "/parcels?view=FULL", "items", PARCEL_FIELDS,
+                                record -> {
+            ApiParcel parcel = new ApiParcel();
+            parcel.setProduct(record.get("product"));
+            parcel.setVersion(record.get("version"));
+            parcel.setStage(record.get("stage"));
+            parcels.add(parcel);
+          });
+        return parcels;
+      } catch (IOException e) {
+        LOG.warn("Streaming read of Parcels for cluster " + cluster +
+                 " failed, falling back to API client: " + e.getMessage());
+      }
+    }
+    // /api/v3/clusters/{clusterName}/parcels
+    ApiParcelList parcels = apiRoot.getClustersResource()
+      .getParcelsResource(cluster).readParcels(DataView.FULL);
+    return parcels.getParcels();
+  }
+
+  /**
+   * Get the Parcels available to a cluster for one product.
+   *
+   * @param cluster Cluster name.
+   * @param product Product name.
+   *
+   * @return Parcels, empty if none are available.
+   */
+  public final Collection<ApiParcel> getParcels(final String cluster,
+                                                final String product) {
+    List<ApiParcel> parcels = getParcels(cluster).get(product);
+    return parcels == null ? Collections.<ApiParcel>emptyList() : parcels;
+  }
+
+  /**
+   * Invalidate the cluster list and the state of a cluster after it's
+   * created or its hosts change.
+   *
+   * @param cluster Cluster name.
+   */
+  public final void invalidateCluster(final String cluster) {
+    entries.remove(CLUSTERS);
+    entries.remove(HOSTS);
+    invalidatePrefix(cluster + "/");
+  }
+
+  /**
+   * Invalidate the services of a cluster, and their roles and role config
+   * groups, after services are created or changed.
+   *
+   * @param cluster Cluster name.
+   */
+  public final void invalidateServices(final String cluster) {
+    entries.remove(servicesKey(cluster));
+    invalidatePrefix(cluster + "/roles/");
+    invalidatePrefix(cluster + "/groups/");
+  }
+
+  /**
+   * Invalidate the roles of a service after roles are added or moved.
+   *
+   * @param cluster Cluster name.
+   * @param service Service name.
+   */
+  public final void invalidateRoles(final String cluster,
+                                    final String service) {
+    entries.remove(rolesKey(cluster, service));
+    entries.remove(groupsKey(cluster, service));
+  }
+
+  /**
+   * Invalidate the Parcels of a cluster after Parcels change stage.
+   *
+   * @param cluster Cluster name.
+   */
+  public final void invalidateParcels(final String cluster) {
+    entries.remove(parcelsKey(cluster));
+  }
+
+  /**
+   * Get an entry, loading it if it isn't cached or has expired. Threads
+   * that miss on the same key at the same time share one load. The entry is
+   * put in the cache before it's loaded, so an invalidation made while the
+   * load is in flight removes it, and the value loaded is returned to the
+   * threads waiting for it but not cached.
+   *
+   * @param key Cache key.
+   * @param loader Loads the value from CM.
+   * @param <T> Value type.
+   *
+   * @return Cached or loaded value.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T get(final String key, final Supplier<T> loader) {
+    long now = System.currentTimeMillis();
+    Entry<T> loading = new Entry<>(new CompletableFuture<T>(), now);
+    Entry<?> entry = entries.compute(key, (k, current) ->
+      current == null || (ttl > 0 && now - current.loaded > ttl) ?
+      loading : current);
+    if (entry == loading) {
+      LOG.debug("Loading " + key);
+      try {
+        loading.value.complete(loader.get());
+      } catch (RuntimeException e) {
+        // Don't cache the failure, so the next lookup tries again:
+        entries.remove(key, loading);
+        loading.value.completeExceptionally(e);
+        throw e;
+      }
+    }
+    try {
+      return (T) entry.value.join();
+    } catch (CompletionException e) {
+      // Another thread's load failed:
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Remove all entries with keys starting with a prefix.
+   *
+   * @param prefix Key prefix.
+   */
+  private void invalidatePrefix(final String prefix) {
+    entries.keySet().removeIf(key -> key.startsWith(prefix));
+  }
+
+  /**
+   * Get the services resource for a cluster.
+   *
+   * @param cluster Cluster name.
+   *
+   * @return Services resource.
+   */
+  private ServicesResourceV10 servicesResource(final String cluster) {
+    // /api/v1/clusters/{clusterName}/services
+    return apiRoot.getClustersResource().getServicesResource(cluster);
+  }
+
+  /**
+   * Cache key for the services of a cluster.
+   *
+   * @param cluster Cluster name.
+   *
+   * @return Cache key.
+   */
+  private static String servicesKey(final String cluster) {
+    return cluster + "/services";
+  }
+
+  /**
+   * Cache key for the roles of a service.
+   *
+   * @param cluster Cluster name.
+   * @param service Service name.
+   *
+   * @return Cache key.
+   */
+  private static String rolesKey(final String cluster, final String service) {
+    return cluster + "/roles/" + service;
+  }
+
+  /**
+   * Cache key for the role config groups of a service.
+   *
+   * @param cluster Cluster name.
+   * @param service Service name.
+   *
+   * @return Cache key.
+   */
+  private static String groupsKey(final String cluster, final String service) {
+    return cluster + "/groups/" + service;
+  }
+
+  /**
+   * Cache key for the Parcels of a cluster.
+   *
+   * @param cluster Cluster name.
+   *
+   * @return Cache key.
+   */
+  private static String parcelsKey(final String cluster) {
+    return cluster + "/parcels";
+  }
+
+  /**
+   * Cached value and the time it was loaded.
+   *
+   * @param <T> Value type.
+   */
+  private static final class Entry<T> {
+
+    /**
+     * Cached value, completed once it's loaded.
+     */
+    private final CompletableFuture<T> value;
+
+    /**
+     * Time the value's load started, in milliseconds since the epoch.
+     */
+    private final long loaded;
+
+    /**
+     * Constructor.
+     *
+     * @param value Cached value, completed once it's loaded.
+     * @param loaded Time the value's load started.
+     */
+    Entry(final CompletableFuture<T> value, final long loaded) {
+      this.value = value;
+      this.loaded = loaded;
+    }
+  }
+}
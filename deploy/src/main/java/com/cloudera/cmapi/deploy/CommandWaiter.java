@@ -0,0 +1,302 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import com.cloudera.api.model.ApiCommand;
+import com.cloudera.api.v1.CommandsResource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Waits for Cloudera Manager commands to complete, enforcing time budgets.
+ * Each wait is bounded by a per-command timeout and by the deadline of the
+ * deployment phase that's currently running, whichever is earlier. When a
+ * command runs past its deadline it's aborted through the commands resource
+ * and a DeploymentTimeoutException is thrown that identifies the child
+ * commands that failed or didn't complete.
+ */
+public class CommandWaiter {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(CommandWaiter.class);
+
+  /**
+   * CM API object used to read and abort commands.
+   */
+  private final CommandsResource commandsResource;
+
+  /**
+   * Time to sleep between checks on a running command.
+   */
+  private final long pollInterval;
+
+  /**
+   * Default maximum time to wait for a command. Zero means no limit.
+   */
+  private final long commandTimeout;
+
+  /**
+   * Base delay before retrying a failed command. Doubled on each attempt.
+   */
+  private final long retryBackoff;
+
+  /**
+   * Maximum number of retries for a failed command.
+   */
+  private final int maxRetries;
+
+  /**
+   * Deadline for the current deployment phase, in milliseconds since the
+   * epoch.
+   */
+  private volatile long phaseDeadline = Long.MAX_VALUE;
+
+  /**
+   * Name of the current deployment phase.
+   */
+  private volatile String phaseName;
+
+  /**
+   * Constructor.
+   *
+   * @param commandsResource CM API object used to read and abort commands.
+   * @param pollInterval Time in milliseconds to sleep between checks on a
+   * running command.
+   * @param commandTimeout Default maximum time in milliseconds to wait for a
+   * command, or zero for no limit.
+   * @param maxRetries Maximum number of retries for a failed command.
+   * @param retryBackoff Base delay in milliseconds before retrying.
+   */
+  public CommandWaiter(final CommandsResource commandsResource,
+                       final long pollInterval, final long commandTimeout,
+                       final int maxRetries, final long retryBackoff) {
+    this.commandsResource = commandsResource;
+    this.pollInterval = pollInterval;
+    this.commandTimeout = commandTimeout;
+    this.maxRetries = maxRetries;
+    this.retryBackoff = retryBackoff;
+  }
+
+  /**
+   * Start the time budget for a deployment phase. Waits started after this
+   * call won't run past the phase deadline.
+   *
+   * @param name Phase name.
+   * @param timeout Phase budget in milliseconds, or zero for no limit.
+   */
+  public final void startPhase(final String name, final long timeout) {
+    phaseName = name;
+    phaseDeadline = timeout > 0 ?
+      System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+  }
+
+  /**
+   * Get the maximum number of retries for a failed command.
+   *
+   * @return Maximum number of retries.
+   */
+  public final int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * Compute the deadline for a wait, capped by the phase deadline.
+   *
+   * @param timeout Maximum time in milliseconds to wait, or zero for no
+   * limit other than the phase deadline.
+   *
+   * @return Deadline in milliseconds since the epoch.
+   */
+  public final long deadline(final long timeout) {
+    long deadline = timeout > 0 ?
+      System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+    return Math.min(deadline, phaseDeadline);
+  }
+
+  /**
+   * Check whether the budget for the current phase is used up.
+   *
+   * @throws DeploymentTimeoutException if the phase deadline has passed.
+   */
+  public final void checkPhaseDeadline() {
+    if (System.currentTimeMillis() >= phaseDeadline) {
+      throw new DeploymentTimeoutException("Time budget for phase " +
+                                           phaseName + " exhausted");
+    }
+  }
+
+  /**
+   * Wait for a command to complete using the default command timeout.
+   *
+   * @param command Command to wait for.
+   *
+   * @return The completed command.
+   *
+   * @throws DeploymentTimeoutException if the command doesn't complete in
+   * time.
+   */
+  public final ApiCommand waitFor(final ApiCommand command) {
+    return waitFor(command, commandTimeout);
+  }
+
+  /**
+   * Wait for a command to complete. If the command is still running at the
+   * deadline it's aborted.
+   *
+   * @param command Command to wait for.
+   * @param timeout Maximum time in milliseconds to wait, or zero to use only
+   * the phase deadline.
+   *
+   * @return The completed command.
+   *
+   * @throws DeploymentTimeoutException if the command doesn't complete in
+   * time.
+   */
+  public final ApiCommand waitFor(final ApiCommand command,
+                                  final long timeout) {
+    long deadline = deadline(timeout);
+    // /api/v1/commands/{commandId}
+    ApiCommand current = commandsResource.readCommand(command.getId());
+    while (Boolean.TRUE.equals(current.isActive())) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        ApiCommand aborted = abort(current);
+        List<ApiCommand> failed = getFailedChildren(aborted);
+        throw new DeploymentTimeoutException("Command " + command.getName() +
+                                             " (" + command.getId() +
+                                             ") timed out and was aborted. " +
+                                             describe(failed), failed);
+      }
+      LOG.info("Waiting for " + command.getName() + " command to complete...");
+      sleep(Math.min(pollInterval, remaining));
+      current = commandsResource.readCommand(command.getId());
+    }
+    LOG.info("Command " + command.getName() + " completed. Result = " +
+             current.getResultMessage());
+    return current;
+  }
+
+  /**
+   * Sleep before retry attempt number n, using exponential backoff.
+   *
+   * @param attempt Retry attempt, starting at 1.
+   */
+  public final void backoff(final int attempt) {
+    long delay = retryBackoff << Math.min(attempt - 1, 16);
+    long remaining = phaseDeadline - System.currentTimeMillis();
+    LOG.info("Retrying in " + (delay / 1000) + " seconds (attempt " +
+             attempt + " of " + maxRetries + ")");
+    sleep(Math.max(0, Math.min(delay, remaining)));
+    checkPhaseDeadline();
+  }
+
+  /**
+   * Sleep. An interrupt, such as a server job being cancelled, stops the
+   * deployment rather than being ignored.
+   *
+   * @param millis Time to sleep in milliseconds.
+   *
+   * @throws IllegalStateException if the thread is interrupted.
+   */
+  public final void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting on Cloudera Manager",
+                                      e);
+    }
+  }
+
+  /**
+   * Abort a running command.
+   *
+   * @param command Command to abort.
+   *
+   * @return The command state after aborting.
+   */
+  private ApiCommand abort(final ApiCommand command) {
+    LOG.warn("Aborting command " + command.getName() + " (" +
+             command.getId() + ")");
+    try {
+      // /api/v1/commands/{commandId}/abort
+      return commandsResource.abortCommand(command.getId());
+    } catch (RuntimeException e) {
+      LOG.warn("Failed to abort command " + command.getId() + ": " +
+               e.getMessage());
+      return command;
+    }
+  }
+
+  /**
+   * Find the innermost child commands that failed or were still running.
+   * These identify the units of work (services or roles) that caused a
+   * command to fail.
+   *
+   * @param command Parent command.
+   *
+   * @return Failed or incomplete child commands, or the command itself if it
+   * has no children.
+   */
+  public static List<ApiCommand> getFailedChildren(final ApiCommand command) {
+    List<ApiCommand> failed = new ArrayList<ApiCommand>();
+    if (command.getChildren() != null) {
+      for (ApiCommand child : command.getChildren()) {
+        if (!Boolean.TRUE.equals(child.getSuccess())) {
+          List<ApiCommand> grandchildren = getFailedChildren(child);
+          failed.addAll(grandchildren);
+        }
+      }
+    }
+    if (failed.isEmpty() && !Boolean.TRUE.equals(command.getSuccess())) {
+      failed.add(command);
+    }
+    return failed;
+  }
+
+  /**
+   * Describe failed commands for logs and reports.
+   *
+   * @param commands Failed commands.
+   *
+   * @return Description naming each command, its target and result.
+   */
+  public static String describe(final List<ApiCommand> commands) {
+    StringBuilder sb = new StringBuilder();
+    for (ApiCommand command : commands) {
+      sb.append(sb.length() == 0 ? "Failed: " : "; ");
+      sb.append(command.getName());
+      if (command.getRoleRef() != null) {
+        sb.append(" on role ").append(command.getRoleRef().getRoleName());
+      } else if (command.getServiceRef() != null) {
+        sb.append(" on service ")
+          .append(command.getServiceRef().getServiceName());
+      } else if (command.getHostRef() != null) {
+        sb.append(" on host ").append(command.getHostRef().getHostId());
+      }
+      if (command.getResultMessage() != null) {
+        sb.append(" (").append(command.getResultMessage()).append(")");
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import org.ini4j.Wini;
+
+/**
+ * Helper methods for reading optional, typed parameters from the
+ * configuration file. Each method returns the supplied default when the
+ * section or parameter is missing or empty.
+ */
+public final class ConfigUtils {
+
+  private ConfigUtils() {
+  }
+
+  /**
+   * Get a string parameter.
+   *
+   * @param config Configuration parameters.
+   * @param section Name of the section containing the parameter.
+   * @param parameter Parameter name.
+   * @param defaultValue Value to return if parameter isn't set.
+   *
+   * @return Parameter value or default.
+   */
+  public static String getString(final Wini config, final String section,
+                                 final String parameter,
+                                 final String defaultValue) {
+    String value = config.get(section, parameter);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    return value.trim();
+  }
+
+  /**
+   * Get an integer parameter.
+   *
+   * @param config Configuration parameters.
+   * @param section Name of the section containing the parameter.
+   * @param parameter Parameter name.
+   * @param defaultValue Value to return if parameter isn't set.
+   *
+   * @return Parameter value or default.
+   */
+  public static int getInt(final Wini config, final String section,
+                           final String parameter, final int defaultValue) {
+    String value = getString(config, section, parameter, null);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+
+  /**
+   * Get a long parameter.
+   *
+   * @param config Configuration parameters.
+   * @param section Name of the section containing the parameter.
+   * @param parameter Parameter name.
+   * @param defaultValue Value to return if parameter isn't set.
+   *
+   * @return Parameter value or default.
+   */
+  public static long getLong(final Wini config, final String section,
+                             final String parameter, final long defaultValue) {
+    String value = getString(config, section, parameter, null);
+    return value == null ? defaultValue : Long.parseLong(value);
+  }
+
+  /**
+   * Get a floating point parameter.
+   *
+   * @param config Configuration parameters.
+   * @param section Name of the section containing the parameter.
+   * @param parameter Parameter name.
+   * @param defaultValue Value to return if parameter isn't set.
+   *
+   * @return Parameter value or default.
+   */
+  public static double getDouble(final Wini config, final String section,
+                                 final String parameter,
+                                 final double defaultValue) {
+    String value = getString(config, section, parameter, null);
+    return value == null ? defaultValue : Double.parseDouble(value);
+  }
+
+  /**
+   * Get a boolean parameter.
+   *
+   * @param config Configuration parameters.
+   * @param section Name of the section containing the parameter.
+   * @param parameter Parameter name.
+   * @param defaultValue Value to return if parameter isn't set.
+   *
+   * @return Parameter value or default.
+   */
+  public static boolean getBoolean(final Wini config, final String section,
+                                   final String parameter,
+                                   final boolean defaultValue) {
+    String value = getString(config, section, parameter, null);
+    return value == null ? defaultValue : Boolean.parseBoolean(value);
+  }
+}
@@ -26,6 +26,7 @@ public final class Constants {
 
   public static final String CM_PUBLIC_HOSTNAME_PARAMETER = "cm_public_hostname";
   public static final String CM_PRIVATE_HOSTNAME_PARAMETER = "cm_private_hostname";
+  public static final String CM_PORT_PARAMETER = "cm_port";
   public static final String CM_USERNAME_PARAMETER = "cm_user";
   public static final String CM_PASSWORD_PARAMETER = "cm_password";
   public static final String CM_MGMT_SERVICE_NAME_PARAMETER = "mgmt_service_name";
@@ -35,6 +36,11 @@ public final class Constants {
   public static final String CLUSTER_CDH_VERSION_PARAMETER = "cluster_version";
   public static final String CLUSTER_HOSTS_PARAMETER = "cluster_hosts";
   public static final String CLUSTER_SERVICES_PARAMETER = "services";
+  public static final String CLUSTER_INSPECT_HOSTS_PARAMETER = "inspect_hosts";
+  public static final String CLUSTER_INSPECT_HOSTS_FAIL_ON_PARAMETER = "inspect_hosts_fail_on";
+  public static final String CLUSTER_CLIENT_CONFIG_DEPLOY_PARAMETER = "client_config_deploy";
+  public static final String CLUSTER_ROLE_CHUNK_SIZE_PARAMETER = "role_chunk_size";
+  public static final String CLUSTER_ROLE_CHUNK_PARALLELISM_PARAMETER = "role_chunk_parallelism";
   public static final String ZOOKEEPER_NAME_PARAMETER = "zk_name";
   public static final String ZOOKEEPER_HOSTS_PARAMETER = "zk_hosts";
   public static final String ZOOKEEPER_SERVICE_CONFIG_SECTION = "ZOOKEEPER_SERVICE_CONFIG";
@@ -92,4 +98,86 @@ public final class Constants {
   public static final String FLUME_SERVICE_CONFIG_SECTION = "FLUME_SERVICE_CONFIG";
   public static final String FLUME_SERVICE_NAME_PARAMETER = "flume_name";
   public static final String FLUME_AGENT_HOSTS_PARAMETER = "flume_agent_hosts";
+  public static final String SERVER_CONFIG_SECTION = "DEPLOY_SERVER";
+  public static final String SERVER_BIND_ADDRESS_PARAMETER = "server_bind_address";
+  public static final String SERVER_PORT_PARAMETER = "server_port";
+  public static final String SERVER_WORKER_THREADS_PARAMETER = "server_worker_threads";
+  public static final String SERVER_MAX_QUEUED_JOBS_PARAMETER = "server_max_queued_jobs";
+  public static final String SERVER_JOB_HISTORY_PARAMETER = "server_job_history";
+  public static final String SERVER_STATE_TTL_SECONDS_PARAMETER = "server_state_ttl_seconds";
+  public static final String FLEET_CONFIG_SECTION = "FLEET";
+  public static final String FLEET_PARALLELISM_PARAMETER = "fleet_parallelism";
+  public static final String FLEET_REPORT_FILE_PARAMETER = "fleet_report_file";
+  public static final String FLEET_CONFIG_FILE_PARAMETER = "config_file";
+  public static final String TIMEOUTS_CONFIG_SECTION = "TIMEOUTS";
+  public static final String COMMAND_TIMEOUT_SECONDS_PARAMETER = "command_timeout_seconds";
+  public static final String FIRST_RUN_TIMEOUT_SECONDS_PARAMETER = "first_run_timeout_seconds";
+  public static final String PARCEL_DOWNLOAD_TIMEOUT_SECONDS_PARAMETER = "parcel_download_timeout_seconds";
+  public static final String PARCEL_DISTRIBUTION_TIMEOUT_SECONDS_PARAMETER = "parcel_distribution_timeout_seconds";
+  public static final String PARCEL_ACTIVATION_TIMEOUT_SECONDS_PARAMETER = "parcel_activation_timeout_seconds";
+  public static final String COMMAND_MAX_RETRIES_PARAMETER = "command_max_retries";
+  public static final String COMMAND_RETRY_BACKOFF_SECONDS_PARAMETER = "command_retry_backoff_seconds";
+  public static final String INITIALIZE_PHASE_TIMEOUT_SECONDS_PARAMETER = "initialize_phase_timeout_seconds";
+  public static final String MANAGEMENT_PHASE_TIMEOUT_SECONDS_PARAMETER = "management_phase_timeout_seconds";
+  public static final String PARCELS_PHASE_TIMEOUT_SECONDS_PARAMETER = "parcels_phase_timeout_seconds";
+  public static final String CLUSTERS_PHASE_TIMEOUT_SECONDS_PARAMETER = "clusters_phase_timeout_seconds";
+  public static final String RETRY_CONFIG_SECTION = "RETRY";
+  public static final String RETRY_MAX_ATTEMPTS_PARAMETER = "retry_max_attempts";
+  public static final String RETRY_BASE_DELAY_MILLIS_PARAMETER = "retry_base_delay_millis";
+  public static final String RETRY_MAX_DELAY_MILLIS_PARAMETER = "retry_max_delay_millis";
+  public static final String RETRY_ENDPOINT_BUDGET_PARAMETER = "retry_endpoint_budget";
+  public static final String RETRY_BUDGET_WINDOW_SECONDS_PARAMETER = "retry_budget_window_seconds";
+  public static final String GOVERNOR_CONFIG_SECTION = "GOVERNOR";
+  public static final String GOVERNOR_ENABLED_PARAMETER = "governor_enabled";
+  public static final String GOVERNOR_MAX_CONCURRENCY_SUFFIX = "_max_concurrency";
+  public static final String GOVERNOR_LATENCY_TARGET_SUFFIX = "_latency_target_millis";
+  public static final String CM_STREAMING_READS_PARAMETER = "streaming_reads";
+  public static final String TRACE_CONFIG_SECTION = "TRACE";
+  public static final String TRACE_RECORD_FILE_PARAMETER = "trace_record_file";
+  public static final String TRACE_PROXY_PORT_PARAMETER = "trace_proxy_port";
+  public static final String TRACE_REPLAY_FILE_PARAMETER = "trace_replay_file";
+  public static final String TRACE_REPLAY_PORT_PARAMETER = "replay_port";
+  public static final String TRACE_REPLAY_LATENCY_SCALE_PARAMETER = "replay_latency_scale";
+  public static final String CLUSTER_TEMPLATE_FILE_PARAMETER = "cluster_template_file";
+  public static final String CLUSTER_USE_HOST_TEMPLATES_PARAMETER = "use_host_templates";
+  public static final String HOST_GROUPS_CONFIG_SECTION = "HOST_GROUPS";
+  public static final String CLUSTER_HOST_CHUNK_SIZE_PARAMETER = "host_chunk_size";
+  public static final String CLUSTER_CONFIG_CATALOG_FILE_PARAMETER = "config_catalog_file";
+  public static final String TUNING_CONFIG_SECTION = "TUNING";
+  public static final String TUNING_AUTO_TUNE_PARAMETER = "auto_tune";
+  public static final String TUNING_RULES_PARAMETER = "tuning_rules";
+  public static final String TUNING_NODEMANAGER_MEMORY_FRACTION_PARAMETER = "nodemanager_memory_fraction";
+  public static final String TUNING_IMPALAD_MEMORY_FRACTION_PARAMETER = "impalad_memory_fraction";
+  public static final String TUNING_KAFKA_BROKER_HEAP_FRACTION_PARAMETER = "kafka_broker_heap_fraction";
+  public static final String TUNING_MEMORY_BUDGET_PARAMETER = "memory_budget";
+  public static final String TUNING_MEMORY_RESERVE_MB_PARAMETER = "memory_reserve_mb";
+  public static final String TUNING_MEMORY_RESERVE_FRACTION_PARAMETER = "memory_reserve_fraction";
+  public static final String TUNING_GATEWAY_MEMORY_MB_PARAMETER = "gateway_memory_mb";
+  public static final String TUNING_OTHER_ROLE_MEMORY_MB_PARAMETER = "other_role_memory_mb";
+  public static final String HOST_CLASSES_CONFIG_SECTION = "HOST_CLASSES";
+  public static final String HOST_CLASS_HOSTS_SUFFIX = "_hosts";
+  public static final String HOST_CLASS_HOST_PATTERN_SUFFIX = "_host_pattern";
+  public static final String HOST_CLASS_MIN_MEMORY_GB_SUFFIX = "_min_memory_gb";
+  public static final String HOST_CLASS_MAX_MEMORY_GB_SUFFIX = "_max_memory_gb";
+  public static final String HOST_CLASS_MIN_CORES_SUFFIX = "_min_cores";
+  public static final String HOST_CLASS_MAX_CORES_SUFFIX = "_max_cores";
+  public static final String RACK_TOPOLOGY_CONFIG_SECTION = "RACK_TOPOLOGY";
+  public static final String RACK_TOPOLOGY_FILE_PARAMETER = "rack_topology_file";
+  public static final String RACK_DEFAULT_RACK_PARAMETER = "default_rack";
+  public static final String RACK_RULE_PREFIX = "rack_rule";
+  public static final String PLACEMENT_CONFIG_SECTION = "PLACEMENT";
+  public static final String PLACEMENT_MASTER_HOST_COUNT_PARAMETER = "master_host_count";
+  public static final String PLACEMENT_ZOOKEEPER_COUNT_PARAMETER = "zookeeper_count";
+  public static final String PLACEMENT_KAFKA_BROKER_COUNT_PARAMETER = "kafka_broker_count";
+  public static final String DISK_LAYOUT_CONFIG_SECTION = "DISK_LAYOUT";
+  public static final String DISK_FACTS_FILE_PARAMETER = "disk_facts_file";
+  public static final String DISK_DATA_MOUNTS_PARAMETER = "data_mounts";
+  public static final String DISK_DEDICATED_LOG_DISKS_PARAMETER = "dedicated_log_disks";
+  public static final String CLUSTER_PARCEL_VERSION_SUFFIX = "_parcel_version";
+  public static final String SNAPSHOT_CONFIG_SECTION = "SNAPSHOT";
+  public static final String SNAPSHOT_VERSION_PARAMETER = "snapshot_version";
+  public static final String SNAPSHOT_TIME_PARAMETER = "snapshot_time";
+  public static final String SNAPSHOT_SOURCE_PARAMETER = "snapshot_source";
+  public static final String SNAPSHOT_INCLUDE_DEFAULTS_PARAMETER = "snapshot_include_defaults";
+  public static final String SNAPSHOT_FAST_DEPLOY_PARAMETER = "snapshot_fast_deploy";
 }
@@ -0,0 +1,252 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the phases of a deployment run against a Cloudera Manager instance
+ * with their timings and results, and formats them as a plain text report.
+ */
+public class DeploymentReport {
+
+  /**
+   * Timing and result of a single deployment phase.
+   */
+  public static class Phase {
+
+    /**
+     * Phase name.
+     */
+    private final String name;
+
+    /**
+     * Time the phase started, in milliseconds since the epoch.
+     */
+    private final long startTime;
+
+    /**
+     * Phase duration in milliseconds.
+     */
+    private long duration;
+
+    /**
+     * Whether the phase completed successfully.
+     */
+    private boolean success;
+
+    /**
+     * Result or error message.
+     */
+    private String message;
+
+    /**
+     * Constructor.
+     *
+     * @param name Phase name.
+     */
+    Phase(final String name) {
+      this.name = name;
+      startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Record the end of the phase.
+     *
+     * @param phaseSuccess Whether the phase completed successfully.
+     * @param phaseMessage Result or error message, may be null.
+     */
+    void end(final boolean phaseSuccess, final String phaseMessage) {
+      duration = System.currentTimeMillis() - startTime;
+      success = phaseSuccess;
+      message = phaseMessage;
+    }
+
+    /**
+     * Get phase name.
+     *
+     * @return Phase name.
+     */
+    public final String getName() {
+      return name;
+    }
+
+    /**
+     * Get phase duration.
+     *
+     * @return Duration in milliseconds.
+     */
+    public final long getDuration() {
+      return duration;
+    }
+
+    /**
+     * Get phase result.
+     *
+     * @return true if the phase completed successfully.
+     */
+    public final boolean isSuccess() {
+      return success;
+    }
+
+    /**
+     * Get result or error message.
+     *
+     * @return Message, or null if none was recorded.
+     */
+    public final String getMessage() {
+      return message;
+    }
+  }
+
+  /**
+   * Name of the deployment target, for example the CM host name.
+   */
+  private final String target;
+
+  /**
+   * Completed phases, in order.
+   */
+  private final List<Phase> phases = new ArrayList<Phase>();
+
+  /**
+   * Phase currently running, or null.
+   */
+  private Phase current;
+
+  /**
+   * Constructor.
+   *
+   * @param target Name of the deployment target.
+   */
+  public DeploymentReport(final String target) {
+    this.target = target;
+  }
+
+  /**
+   * Start timing a new phase. Any phase still running is recorded as
+   * completed successfully.
+   *
+   * @param name Phase name.
+   */
+  public final synchronized void beginPhase(final String name) {
+    if (current != null) {
+      endPhase(true);
+    }
+    current = new Phase(name);
+  }
+
+  /**
+   * Record the end of the current phase.
+   *
+   * @param success Whether the phase completed successfully.
+   */
+  public final void endPhase(final boolean success) {
+    endPhase(success, null);
+  }
+
+  /**
+   * Record the end of the current phase.
+   *
+   * @param success Whether the phase completed successfully.
+   * @param message Result or error message.
+   */
+  public final synchronized void endPhase(final boolean success,
+                                          final String message) {
+    if (current != null) {
+      current.end(success, message);
+      phases.add(current);
+      current = null;
+    }
+  }
+
+  /**
+   * Record the current phase as failed with an exception.
+   *
+   * @param e Exception that ended the phase.
+   */
+  public final void failPhase(final Throwable e) {
+    endPhase(false, e.getMessage() == null ? e.toString() : e.getMessage());
+  }
+
+  /**
+   * Get the name of the deployment target.
+   *
+   * @return Target name.
+   */
+  public final String getTarget() {
+    return target;
+  }
+
+  /**
+   * Get completed phases.
+   *
+   * @return Unmodifiable list of phases in the order they ran.
+   */
+  public final synchronized List<Phase> getPhases() {
+    return Collections.unmodifiableList(new ArrayList<Phase>(phases));
+  }
+
+  /**
+   * Whether all recorded phases completed successfully.
+   *
+   * @return true if no phase failed.
+   */
+  public final synchronized boolean isSuccess() {
+    for (Phase phase : phases) {
+      if (!phase.isSuccess()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the total time of all recorded phases.
+   *
+   * @return Total duration in milliseconds.
+   */
+  public final synchronized long getTotalDuration() {
+    long total = 0;
+    for (Phase phase : phases) {
+      total += phase.getDuration();
+    }
+    return total;
+  }
+
+  /**
+   * Format the report as plain text, one line per phase.
+   *
+   * @return Formatted report.
+   */
+  public final synchronized String format() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%s: %s in %.1fs%n", target,
+                            isSuccess() ? "SUCCEEDED" : "FAILED",
+                            getTotalDuration() / 1000.0));
+    for (Phase phase : phases) {
+      sb.append(String.format("  %-32s %-7s %8.1fs%s%n", phase.getName(),
+                              phase.isSuccess() ? "OK" : "FAILED",
+                              phase.getDuration() / 1000.0,
+                              phase.getMessage() == null ? "" :
+                              "  " + phase.getMessage()));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,650 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import com.cloudera.api.model.ApiConfig;
+import com.cloudera.api.model.ApiConfigList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ini4j.Ini;
+import org.ini4j.Wini;
+
+/**
+ * Immutable deployment specification compiled once from a configuration
+ * file. Parameter values are trimmed, host parameters (those whose names
+ * end in _host or _hosts) are compiled into {@link HostSet}s, other comma
+ * separated values are split and interned, and each section's parameters
+ * are prebuilt as CM API configs, so lookups during deployment don't parse.
+ * Cluster services get typed {@link ServiceSpec}s.
+ * <p>
+ * A spec is validated as it's compiled and is safe to share between
+ * threads. Collections it returns are unmodifiable, and config lists are
+ * returned as copies, since CM API model objects can't be made read-only.
+ */
+public final class DeploymentSpec {
+
+  /**
+   * Config and service config sections, and service name parameters, for
+   * each cluster service type.
+   */
+  private static final String[][] SERVICE_SECTIONS = {
+    {"ZOOKEEPER", Constants.CLUSTER_CONFIG_SECTION,
+     Constants.ZOOKEEPER_NAME_PARAMETER,
+     Constants.ZOOKEEPER_SERVICE_CONFIG_SECTION},
+    {"HDFS", Constants.HDFS_CONFIG_SECTION,
+     Constants.HDFS_SERVICE_NAME_PARAMETER,
+     Constants.HDFS_SERVICE_CONFIG_SECTION},
+    {"YARN", Constants.YARN_CONFIG_SECTION,
+     Constants.YARN_SERVICE_NAME_PARAMETER,
+     Constants.YARN_SERVICE_CONFIG_SECTION},
+    {"HIVE", Constants.HIVE_CONFIG_SECTION,
+     Constants.HIVE_SERVICE_NAME_PARAMETER,
+     Constants.HIVE_SERVICE_CONFIG_SECTION},
+    {"IMPALA", Constants.IMPALA_CONFIG_SECTION,
+     Constants.IMPALA_SERVICE_NAME_PARAMETER,
+     Constants.IMPALA_SERVICE_CONFIG_SECTION},
+    {"OOZIE", Constants.OOZIE_CONFIG_SECTION,
+     Constants.OOZIE_SERVICE_NAME_PARAMETER,
+     Constants.OOZIE_SERVICE_CONFIG_SECTION},
+    {"SPARK_ON_YARN", Constants.SPARK_CONFIG_SECTION,
+     Constants.SPARK_SERVICE_NAME_PARAMETER,
+     Constants.SPARK_SERVICE_CONFIG_SECTION},
+    {"KAFKA", Constants.KAFKA_CONFIG_SECTION,
+     Constants.KAFKA_SERVICE_NAME_PARAMETER,
+     Constants.KAFKA_SERVICE_CONFIG_SECTION},
+    {"HUE", Constants.HUE_CONFIG_SECTION,
+     Constants.HUE_SERVICE_NAME_PARAMETER,
+     Constants.HUE_SERVICE_CONFIG_SECTION},
+    {"SQOOP2", Constants.SQOOP2_CONFIG_SECTION,
+     Constants.SQOOP2_SERVICE_NAME_PARAMETER,
+     Constants.SQOOP2_SERVICE_CONFIG_SECTION},
+    {"FLUME", Constants.FLUME_CONFIG_SECTION,
+     Constants.FLUME_SERVICE_NAME_PARAMETER,
+     Constants.FLUME_SERVICE_CONFIG_SECTION},
+  };
+
+  /**
+   * Compiled sections, keyed on section name.
+   */
+  private final Map<String, Section> sections;
+
+  /**
+   * Specs for the services to deploy, keyed on service type.
+   */
+  private final Map<String, ServiceSpec> services;
+
+  /**
+   * Host classes in definition order.
+   */
+  private final List<HostClass> hostClasses;
+
+  /**
+   * Rack assignment for cluster hosts.
+   */
+  private final RackTopology rackTopology;
+
+  /**
+   * Data directory layout over the cluster hosts' disks.
+   */
+  private final DiskLayout diskLayout;
+
+  /**
+   * Empty section returned for sections missing from the configuration.
+   */
+  private final Section emptySection =
+    new Section("", Collections.<String, String>emptyMap(),
+                Collections.<String, HostSet>emptyMap(),
+                new ArrayList<String>());
+
+  /**
+   * Constructor.
+   *
+   * @param sections Compiled sections.
+   * @param errors Problems found compiling host classes, the rack topology
+   * and the disk layout are added here.
+   */
+  private DeploymentSpec(final Map<String, Section> sections,
+                         final List<String> errors) {
+    this.sections = sections;
+    Section classSection = getSection(Constants.HOST_CLASSES_CONFIG_SECTION);
+    this.hostClasses =
+      HostClass.compile(classSection.values, classSection.hosts, errors);
+    this.rackTopology =
+      RackTopology.compile(getParameters(Constants.RACK_TOPOLOGY_CONFIG_SECTION),
+                           errors);
+    this.diskLayout =
+      DiskLayout.compile(getParameters(Constants.DISK_LAYOUT_CONFIG_SECTION),
+                         errors);
+    Map<String, ServiceSpec> serviceSpecs = new LinkedHashMap<>();
+    for (String type : getServices()) {
+      String[] serviceSections = findServiceSections(type);
+      if (serviceSections != null) {
+        serviceSpecs.put(type,
+                         new ServiceSpec(this, type, serviceSections[1],
+                                         get(serviceSections[1], serviceSections[2]),
+                                         serviceSections[3]));
+      }
+    }
+    this.services = Collections.unmodifiableMap(serviceSpecs);
+  }
+
+  /**
+   * Compile and validate a configuration. Every problem found is reported,
+   * not only the first.
+   *
+   * @param config Configuration parameters.
+   *
+   * @return Compiled deployment spec.
+   *
+   * @throws IllegalArgumentException if the configuration is invalid,
+   * either structurally or failing the {@link DeploymentValidator} checks.
+   */
+  public static DeploymentSpec compile(final Wini config) {
+    return compile(config, true);
+  }
+
+  /**
+   * Compile and validate a configuration, optionally leaving out the check
+   * that each service's required host parameters are set, for
+   * configurations whose hosts are still to be planned.
+   *
+   * @param config Configuration parameters.
+   * @param requireHosts Whether each service's required host parameters
+   * must be set.
+   *
+   * @return Compiled deployment spec.
+   *
+   * @throws IllegalArgumentException if the configuration is invalid.
+   */
+  public static DeploymentSpec compile(final Wini config,
+                                       final boolean requireHosts) {
+    List<String> errors = new ArrayList<>();
+    Map<String, HostSet> groups = Collections.emptyMap();
+    if (config.containsKey(Constants.HOST_GROUPS_CONFIG_SECTION)) {
+      try {
+        groups = HostSet.compileGroups(trim(config.get(Constants.HOST_GROUPS_CONFIG_SECTION)));
+      } catch (IllegalArgumentException e) {
+        errors.add(e.getMessage() + " in [" +
+                   Constants.HOST_GROUPS_CONFIG_SECTION + "]");
+      }
+    }
+
+    Map<String, Section> sections = new LinkedHashMap<>();
+    for (String sectionName : config.keySet()) {
+      sections.put(sectionName,
+                   new Section(sectionName, trim(config.get(sectionName)),
+                               groups, errors));
+    }
+    DeploymentSpec spec =
+      new DeploymentSpec(Collections.unmodifiableMap(sections), errors);
+
+    errors.addAll(spec.validate());
+    errors.addAll(new DeploymentValidator(config, spec, requireHosts).validate());
+    if (!errors.isEmpty()) {
+      throw new IllegalArgumentException("Invalid deployment configuration: " +
+                                         String.join("; ", errors));
+    }
+    return spec;
+  }
+
+  /**
+   * Copy the parameters of a section, trimming their values.
+   *
+   * @param section Section from the configuration file.
+   *
+   * @return Trimmed values, keyed on name.
+   */
+  private static Map<String, String> trim(final Ini.Section section) {
+    Map<String, String> values = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : section.entrySet()) {
+      values.put(entry.getKey(),
+                 entry.getValue() == null ? "" : entry.getValue().trim());
+    }
+    return values;
+  }
+
+  /**
+   * Check that the parameters required to deploy the cluster and each of
+   * its services are set.
+   *
+   * @return Problems found, empty if the spec is valid.
+   */
+  private List<String> validate() {
+    List<String> errors = new ArrayList<>();
+    for (String parameter : new String[] {Constants.CLUSTER_NAME_PARAMETER,
+                                          Constants.CLUSTER_CDH_VERSION_PARAMETER,
+                                          Constants.CLUSTER_HOSTS_PARAMETER,
+                                          Constants.CLUSTER_SERVICES_PARAMETER}) {
+      if (get(Constants.CLUSTER_CONFIG_SECTION, parameter).isEmpty()) {
+        errors.add(parameter + " not set in [" +
+                   Constants.CLUSTER_CONFIG_SECTION + "]");
+      }
+    }
+    for (String type : getServices()) {
+      String[] serviceSections = findServiceSections(type);
+      if (serviceSections == null) {
+        errors.add("Unknown service type " + type + " in " +
+                   Constants.CLUSTER_SERVICES_PARAMETER);
+      } else if (get(serviceSections[1], serviceSections[2]).isEmpty()) {
+        errors.add(serviceSections[2] + " not set in [" + serviceSections[1] +
+                   "] for service " + type);
+      }
+    }
+    return errors;
+  }
+
+  /**
+   * Get the sections holding a service type's settings.
+   *
+   * @param type Service type.
+   *
+   * @return Service type, config section, name parameter and service config
+   * section, or null if the type isn't known.
+   */
+  public static String[] getServiceSections(final String type) {
+    String[] serviceSections = findServiceSections(type);
+    return serviceSections == null ? null : serviceSections.clone();
+  }
+
+  /**
+   * Find the sections for a service type.
+   *
+   * @param type Service type.
+   *
+   * @return Service type, config section, name parameter and service config
+   * section, or null if the type isn't known.
+   */
+  private static String[] findServiceSections(final String type) {
+    for (String[] serviceSections : SERVICE_SECTIONS) {
+      if (serviceSections[0].equalsIgnoreCase(type)) {
+        return serviceSections;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the cluster name.
+   *
+   * @return Cluster name.
+   */
+  public String getClusterName() {
+    return get(Constants.CLUSTER_CONFIG_SECTION,
+               Constants.CLUSTER_NAME_PARAMETER);
+  }
+
+  /**
+   * Get the CDH version of the cluster.
+   *
+   * @return CDH version.
+   */
+  public String getCdhVersion() {
+    return get(Constants.CLUSTER_CONFIG_SECTION,
+               Constants.CLUSTER_CDH_VERSION_PARAMETER);
+  }
+
+  /**
+   * Get the hosts assigned to the cluster.
+   *
+   * @return Host names.
+   */
+  public HostSet getClusterHosts() {
+    return getHosts(Constants.CLUSTER_CONFIG_SECTION,
+                    Constants.CLUSTER_HOSTS_PARAMETER);
+  }
+
+  /**
+   * Get the types of the services to deploy, in deployment order.
+   *
+   * @return Service types.
+   */
+  public List<String> getServices() {
+    return getList(Constants.CLUSTER_CONFIG_SECTION,
+                   Constants.CLUSTER_SERVICES_PARAMETER);
+  }
+
+  /**
+   * Get the specs for the services to deploy, in deployment order.
+   *
+   * @return Service specs.
+   */
+  public Collection<ServiceSpec> getServiceSpecs() {
+    return services.values();
+  }
+
+  /**
+   * Get the host classes defined in the [HOST_CLASSES] section.
+   *
+   * @return Host classes in definition order, empty if none are defined.
+   */
+  public List<HostClass> getHostClasses() {
+    return hostClasses;
+  }
+
+  /**
+   * Get the rack assignment defined in the [RACK_TOPOLOGY] section.
+   *
+   * @return Rack topology, empty if the section isn't present.
+   */
+  public RackTopology getRackTopology() {
+    return rackTopology;
+  }
+
+  /**
+   * Get the data directory layout defined in the [DISK_LAYOUT] section.
+   *
+   * @return Disk layout, empty if the section isn't present.
+   */
+  public DiskLayout getDiskLayout() {
+    return diskLayout;
+  }
+
+  /**
+   * Get every service type a spec can deploy.
+   *
+   * @return Service types.
+   */
+  public static List<String> getServiceTypes() {
+    List<String> types = new ArrayList<>();
+    for (String[] serviceSections : SERVICE_SECTIONS) {
+      types.add(serviceSections[0]);
+    }
+    return types;
+  }
+
+  /**
+   * Get the config and service config sections of every service type.
+   *
+   * @return Section names.
+   */
+  static Set<String> getServiceSectionNames() {
+    Set<String> names = new HashSet<>();
+    for (String[] serviceSections : SERVICE_SECTIONS) {
+      names.add(serviceSections[1]);
+      names.add(serviceSections[3]);
+    }
+    return names;
+  }
+
+  /**
+   * Find the service type whose service-wide configuration a section holds.
+   *
+   * @param section Section name, for example HDFS_SERVICE_CONFIG.
+   *
+   * @return Service type, or null if the section isn't a service config
+   * section.
+   */
+  static String getServiceConfigSectionType(final String section) {
+    for (String[] serviceSections : SERVICE_SECTIONS) {
+      if (serviceSections[3].equals(section)) {
+        return serviceSections[0];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the spec for a service to deploy.
+   *
+   * @param type Service type, for example HDFS.
+   *
+   * @return Service spec.
+   *
+   * @throws IllegalArgumentException if the service isn't deployed.
+   */
+  public ServiceSpec getService(final String type) {
+    ServiceSpec service = services.get(type);
+    if (service == null) {
+      for (Map.Entry<String, ServiceSpec> entry : services.entrySet()) {
+        if (entry.getKey().equalsIgnoreCase(type)) {
+          return entry.getValue();
+        }
+      }
+      throw new IllegalArgumentException("Service " + type +
+                                         " isn't in the deployment spec");
+    }
+    return service;
+  }
+
+  /**
+   * Check whether a section is present.
+   *
+   * @param section Section name.
+   *
+   * @return true if the section is present.
+   */
+  public boolean hasSection(final String section) {
+    return sections.containsKey(section);
+  }
+
+  /**
+   * Get a parameter value.
+   *
+   * @param section Section name.
+   * @param parameter Parameter name.
+   *
+   * @return Trimmed value, or an empty string if the parameter isn't set.
+   */
+  public String get(final String section, final String parameter) {
+    String value = getSection(section).values.get(parameter);
+    return value == null ? "" : value;
+  }
+
+  /**
+   * Get a comma separated parameter value as a list, for example the
+   * services to deploy. Host parameters are read with getHosts instead.
+   *
+   * @param section Section name.
+   * @param parameter Parameter name.
+   *
+   * @return Trimmed, interned values, empty if the parameter isn't set.
+   */
+  public List<String> getList(final String section, final String parameter) {
+    List<String> values = getSection(section).lists.get(parameter);
+    return values == null ? Collections.<String>emptyList() : values;
+  }
+
+  /**
+   * Get a host parameter, one whose name ends in _host or _hosts.
+   *
+   * @param section Section name.
+   * @param parameter Parameter name.
+   *
+   * @return Hosts, empty if the parameter isn't set.
+   */
+  public HostSet getHosts(final String section, final String parameter) {
+    HostSet hosts = getSection(section).hosts.get(parameter);
+    return hosts == null ? HostSet.EMPTY : hosts;
+  }
+
+  /**
+   * Get the host parameters of a section.
+   *
+   * @param section Section name.
+   *
+   * @return Hosts keyed on parameter name, empty if the section isn't
+   * present.
+   */
+  public Map<String, HostSet> getHostParameters(final String section) {
+    return getSection(section).hosts;
+  }
+
+  /**
+   * Get the parameters of a section.
+   *
+   * @param section Section name.
+   *
+   * @return Parameter values keyed on name, empty if the section isn't
+   * present.
+   */
+  public Map<String, String> getParameters(final String section) {
+    return getSection(section).values;
+  }
+
+  /**
+   * Get the parameters of a section as CM API configs, for example the role
+   * config for a role type.
+   *
+   * @param section Section name.
+   *
+   * @return Copy of the config list, empty if the section isn't present.
+   */
+  public ApiConfigList getConfigs(final String section) {
+    return copyConfigs(getSection(section).configs);
+  }
+
+  /**
+   * Copy configs, so callers can't change the ones held by the spec.
+   *
+   * @param configs Configs to copy.
+   *
+   * @return New config list holding new configs.
+   */
+  static ApiConfigList copyConfigs(final List<ApiConfig> configs) {
+    ApiConfigList copy = new ApiConfigList();
+    for (ApiConfig config : configs) {
+      copy.add(new ApiConfig(config.getName(), config.getValue()));
+    }
+    return copy;
+  }
+
+  /**
+   * Get a compiled section.
+   *
+   * @param section Section name.
+   *
+   * @return Section, empty if not present.
+   */
+  private Section getSection(final String section) {
+    Section compiled = sections.get(section);
+    return compiled == null ? emptySection : compiled;
+  }
+
+  /**
+   * Compiled configuration section.
+   */
+  private static final class Section {
+
+    /**
+     * Trimmed parameter values, keyed on name.
+     */
+    private final Map<String, String> values;
+
+    /**
+     * Parameter values split on commas, keyed on name. Host parameters are
+     * in hosts instead.
+     */
+    private final Map<String, List<String>> lists;
+
+    /**
+     * Host parameters, keyed on name.
+     */
+    private final Map<String, HostSet> hosts;
+
+    /**
+     * Parameters as CM API configs.
+     */
+    private final List<ApiConfig> configs;
+
+    /**
+     * Constructor.
+     *
+     * @param name Section name, for error messages.
+     * @param values Trimmed parameter values, keyed on name.
+     * @param groups Compiled host groups.
+     * @param errors Problems found compiling host parameters are added
+     * here.
+     */
+    Section(final String name, final Map<String, String> values,
+            final Map<String, HostSet> groups, final List<String> errors) {
+      this.values = Collections.unmodifiableMap(values);
+      Map<String, List<String>> splitValues = new LinkedHashMap<>();
+      Map<String, HostSet> hostValues = new LinkedHashMap<>();
+      List<ApiConfig> configList = new ArrayList<>();
+      for (Map.Entry<String, String> entry : values.entrySet()) {
+        String key = entry.getKey();
+        if (isHostParameter(name, key)) {
+          try {
+            hostValues.put(key, HostSet.parse(entry.getValue(), groups));
+          } catch (IllegalArgumentException | ArithmeticException e) {
+            errors.add(key + " in [" + name + "]: " + e.getMessage());
+          }
+        } else {
+          splitValues.put(key, split(entry.getValue()));
+        }
+        configList.add(new ApiConfig(key, entry.getValue()));
+      }
+      this.configs = Collections.unmodifiableList(configList);
+      this.lists = Collections.unmodifiableMap(splitValues);
+      this.hosts = Collections.unmodifiableMap(hostValues);
+    }
+
+    /**
+     * Check whether a parameter holds a host expression: a parameter named
+     * *_host or *_hosts in the cluster section, a service's section or the
+     * host classes section, other than the inspect_hosts flag. Role and
+     * service config sections are passed through to CM unchanged, since
+     * their host parameters can carry a port.
+     *
+     * @param section Section name.
+     * @param parameter Parameter name.
+     *
+     * @return true if the parameter is compiled into a host set.
+     */
+    private static boolean isHostParameter(final String section,
+                                           final String parameter) {
+      if (!parameter.endsWith("_host") && !parameter.endsWith("_hosts") ||
+          parameter.equals(Constants.CLUSTER_INSPECT_HOSTS_PARAMETER)) {
+        return false;
+      }
+      if (section.equals(Constants.HOST_CLASSES_CONFIG_SECTION)) {
+        return true;
+      }
+      for (String[] serviceSections : SERVICE_SECTIONS) {
+        if (serviceSections[1].equals(section)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Split a comma separated value.
+     *
+     * @param value Value to split.
+     *
+     * @return Trimmed, interned, non-empty values.
+     */
+    private static List<String> split(final String value) {
+      List<String> items = new ArrayList<>();
+      for (String item : value.split(",")) {
+        if (!item.trim().isEmpty()) {
+          items.add(item.trim().intern());
+        }
+      }
+      return List.copyOf(items);
+    }
+  }
+}
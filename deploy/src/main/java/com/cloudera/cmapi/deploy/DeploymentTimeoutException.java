@@ -0,0 +1,71 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import com.cloudera.api.model.ApiCommand;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when a Cloudera Manager command or deployment step doesn't complete
+ * within its configured time budget.
+ */
+public class DeploymentTimeoutException extends RuntimeException {
+
+  /**
+   * Serialization version.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Child commands that failed or were still running when the command was
+   * aborted.
+   */
+  private final List<ApiCommand> failedCommands;
+
+  /**
+   * Constructor.
+   *
+   * @param message Description of the step that timed out.
+   */
+  public DeploymentTimeoutException(final String message) {
+    this(message, Collections.<ApiCommand>emptyList());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param message Description of the command that timed out.
+   * @param failedCommands Child commands that failed or didn't complete.
+   */
+  public DeploymentTimeoutException(final String message,
+                                    final List<ApiCommand> failedCommands) {
+    super(message);
+    this.failedCommands = failedCommands;
+  }
+
+  /**
+   * Get the child commands that failed or were still running when the
+   * command was aborted.
+   *
+   * @return Failed child commands, possibly empty.
+   */
+  public final List<ApiCommand> getFailedCommands() {
+    return failedCommands;
+  }
+}
@@ -0,0 +1,477 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import com.cloudera.cmapi.deploy.catalog.ConfigCatalog;
+import com.cloudera.cmapi.deploy.services.ClusterServiceFactory;
+import com.cloudera.cmapi.deploy.services.ManagementService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Ini;
+import org.ini4j.Wini;
+
+/**
+ * Pre-flight checks on a deployment spec, run before any call is made to
+ * Cloudera Manager so a mistake in the configuration file fails the run in
+ * milliseconds rather than an hour in. Checks that:
+ * <p><ul>
+ * <li> No section appears twice, and no parameter is set twice in a
+ * section. ini4j would silently merge them.
+ * <li> Required sections and parameters are present, including the hosts
+ * for each deployed service's roles.
+ * <li> Every section is a known section: a global section, a service or
+ * service config section, or a role config section for a role type of a
+ * known service or of the management service.
+ * <li> Management role types are valid.
+ * <li> Role hosts are cluster hosts (or the CM host), no host is listed
+ * twice for a role, and single instance roles (*_host parameters) name
+ * exactly one host.
+ * <li> When a {@link ConfigCatalog} is configured, service and role config
+ * parameters are ones CM knows. Values that don't match the type the
+ * catalog infers from a parameter's default are only logged as warnings,
+ * since the inferred type is a guess.
+ * </ul></p>
+ */
+public final class DeploymentValidator {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(DeploymentValidator.class);
+
+  /**
+   * Maximum number of hosts named in a single error message.
+   */
+  private static final int MAX_HOSTS_REPORTED = 5;
+
+  /**
+   * Name ini4j gives the section holding parameters set before the first
+   * section header.
+   */
+  private static final String INI_GLOBAL_SECTION = "?";
+
+  /**
+   * Sections that don't belong to a service or role type.
+   */
+  private static final String[] GLOBAL_SECTIONS = {
+    "CM", Constants.CLUSTER_CONFIG_SECTION, Constants.HOST_GROUPS_CONFIG_SECTION,
+    "MGMT_SERVICE", Constants.SERVER_CONFIG_SECTION, Constants.FLEET_CONFIG_SECTION,
+    Constants.TIMEOUTS_CONFIG_SECTION, Constants.RETRY_CONFIG_SECTION,
+    Constants.GOVERNOR_CONFIG_SECTION, Constants.TRACE_CONFIG_SECTION,
+    Constants.TUNING_CONFIG_SECTION, Constants.HOST_CLASSES_CONFIG_SECTION,
+    Constants.RACK_TOPOLOGY_CONFIG_SECTION, Constants.PLACEMENT_CONFIG_SECTION,
+    Constants.DISK_LAYOUT_CONFIG_SECTION, Constants.SNAPSHOT_CONFIG_SECTION
+  };
+
+  /**
+   * Parameters that must be set in the [CM] section. The port defaults to
+   * 7180.
+   */
+  private static final String[] REQUIRED_CM_PARAMETERS = {
+    Constants.CM_PUBLIC_HOSTNAME_PARAMETER, Constants.CM_PRIVATE_HOSTNAME_PARAMETER,
+    Constants.CM_USERNAME_PARAMETER, Constants.CM_PASSWORD_PARAMETER
+  };
+
+  /**
+   * Host parameters that must be set for each service type. Gateway hosts
+   * are optional.
+   */
+  private static final String[][] REQUIRED_HOST_PARAMETERS = {
+    {"ZOOKEEPER", Constants.ZOOKEEPER_HOSTS_PARAMETER},
+    {"HDFS", Constants.HDFS_NAMENODE_HOST_PARAMETER,
+     Constants.HDFS_SECONDARYNAMENODE_HOST_PARAMETER,
+     Constants.HDFS_DATANODE_HOSTS_PARAMETER},
+    {"YARN", Constants.YARN_RESOURCEMANAGER_HOST_PARAMETER,
+     Constants.YARN_JOBHISTORY_SERVER_HOST_PARAMETER,
+     Constants.YARN_NODEMANAGER_HOSTS_PARAMETER},
+    {"HIVE", Constants.HIVE_METASTORE_HOST_PARAMETER,
+     Constants.HIVE_HS2_HOSTS_PARAMETER},
+    {"IMPALA", Constants.IMPALA_STATESTORE_HOST_PARAMETER,
+     Constants.IMPALA_CATALOGSERVER_HOST_PARAMETER,
+     Constants.IMPALA_IMPALAD_HOSTS_PARAMETER},
+    {"OOZIE", Constants.OOZIE_SERVER_HOST_PARAMETER},
+    {"SPARK_ON_YARN", Constants.SPARK_HISTORYSERVER_HOST_PARAMETER},
+    {"KAFKA", Constants.KAFKA_BROKER_HOSTS_PARAMETER},
+    {"HUE", Constants.HUE_SERVER_HOST_PARAMETER},
+    {"SQOOP2", Constants.SQOOP2_SERVER_HOST_PARAMETER},
+    {"FLUME", Constants.FLUME_AGENT_HOSTS_PARAMETER}
+  };
+
+  /**
+   * CM service types, for the services whose name in the services list
+   * differs from their type.
+   */
+  private static final Map<String, String> CM_SERVICE_TYPES =
+    Map.of("SQOOP2", "SQOOP");
+
+  /**
+   * Configuration parameters, loaded with duplicate sections kept.
+   */
+  private final Wini config;
+
+  /**
+   * Compiled deployment spec.
+   */
+  private final DeploymentSpec spec;
+
+  /**
+   * Whether each service's required host parameters must be set.
+   */
+  private final boolean requireHosts;
+
+  /**
+   * Used to look up the role types of each service.
+   */
+  private final ClusterServiceFactory factory = new ClusterServiceFactory();
+
+  /**
+   * Used to check management role types.
+   */
+  private final ManagementService mgmtService = new ManagementService();
+
+  /**
+   * Constructor.
+   *
+   * @param config Configuration parameters.
+   * @param spec Deployment spec compiled from the configuration.
+   */
+  public DeploymentValidator(final Wini config, final DeploymentSpec spec) {
+    this(config, spec, true);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param config Configuration parameters.
+   * @param spec Deployment spec compiled from the configuration.
+   * @param requireHosts Whether each service's required host parameters
+   * must be set. False when the hosts are still to be planned.
+   */
+  public DeploymentValidator(final Wini config, final DeploymentSpec spec,
+                             final boolean requireHosts) {
+    this.config = config;
+    this.spec = spec;
+    this.requireHosts = requireHosts;
+  }
+
+  /**
+   * Run all checks.
+   *
+   * @return Problems found, empty if the configuration is valid.
+   */
+  public List<String> validate() {
+    List<String> errors = new ArrayList<String>();
+    checkDuplicates(errors);
+    checkRequiredParameters(errors);
+    checkSections(errors);
+    checkRoleHosts(errors);
+    checkConfigParameters(errors);
+    return errors;
+  }
+
+  /**
+   * Check for sections that appear more than once and parameters set more
+   * than once in a section.
+   *
+   * @param errors Problems found are added here.
+   */
+  private void checkDuplicates(final List<String> errors) {
+    for (String name : config.keySet()) {
+      int count = config.length(name);
+      if (count > 1) {
+        errors.add("Section [" + name + "] appears " + count + " times");
+      }
+      for (Ini.Section section : config.getAll(name)) {
+        for (String parameter : section.keySet()) {
+          if (section.length(parameter) > 1) {
+            errors.add(parameter + " set " + section.length(parameter) +
+                       " times in [" + name + "]");
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Check the parameters needed to connect to CM, set up the management
+   * service and create roles for each deployed service.
+   *
+   * @param errors Problems found are added here.
+   */
+  private void checkRequiredParameters(final List<String> errors) {
+    for (String parameter : REQUIRED_CM_PARAMETERS) {
+      requireParameter("CM", parameter, errors);
+    }
+    requireParameter("MGMT_SERVICE", Constants.CM_MGMT_SERVICE_NAME_PARAMETER,
+                     errors);
+    if (requireParameter("MGMT_SERVICE",
+                         Constants.CM_MANAGEMENT_ROLETYPES_PARAMETER, errors)) {
+      for (String roleType :
+             spec.getList("MGMT_SERVICE",
+                          Constants.CM_MANAGEMENT_ROLETYPES_PARAMETER)) {
+        if (!mgmtService.isValidRoleType(roleType)) {
+          errors.add("Unknown management role type " + roleType + " in " +
+                     Constants.CM_MANAGEMENT_ROLETYPES_PARAMETER);
+        }
+      }
+    }
+
+    if (!requireHosts) {
+      return;
+    }
+    for (ServiceSpec service : spec.getServiceSpecs()) {
+      for (String[] required : REQUIRED_HOST_PARAMETERS) {
+        if (required[0].equals(service.getType())) {
+          for (int i = 1; i < required.length; i++) {
+            if (service.getHosts(required[i]).isEmpty()) {
+              errors.add(required[i] + " not set in [" + service.getSection() +
+                         "] for service " + service.getType());
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Check that a parameter is set.
+   *
+   * @param section Section name.
+   * @param parameter Parameter name.
+   * @param errors Problems found are added here.
+   *
+   * @return true if the parameter is set.
+   */
+  private boolean requireParameter(final String section, final String parameter,
+                                   final List<String> errors) {
+    if (spec.get(section, parameter).isEmpty()) {
+      errors.add(parameter + " not set in [" + section + "]");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Check that every section is one the deployment reads, so a misspelled
+   * role type or service section isn't silently ignored.
+   *
+   * @param errors Problems found are added here.
+   */
+  private void checkSections(final List<String> errors) {
+    Set<String> known = new HashSet<String>();
+    for (String section : GLOBAL_SECTIONS) {
+      known.add(section);
+    }
+    known.addAll(DeploymentSpec.getServiceSectionNames());
+    Set<String> roleSections = new HashSet<String>();
+    for (String type : DeploymentSpec.getServiceTypes()) {
+      for (String roleType : factory.getRoleTypes(type)) {
+        roleSections.add(roleType.equals("GATEWAY") ? type + "_GATEWAY" : roleType);
+      }
+    }
+    known.addAll(roleSections);
+    Set<String> classNames = new HashSet<String>();
+    for (HostClass hostClass : spec.getHostClasses()) {
+      classNames.add(hostClass.getName());
+    }
+
+    for (String section : config.keySet()) {
+      int separator = section.indexOf(HostClass.SECTION_SEPARATOR);
+      if (separator > 0) {
+        // Host class settings for a role, such as [DATANODE:gen2]:
+        String roleSection = section.substring(0, separator);
+        String className = section.substring(separator + 1);
+        if (!roleSections.contains(roleSection)) {
+          errors.add("Unknown role section " + roleSection + " in [" +
+                     section + "]");
+        } else if (!classNames.contains(className)) {
+          errors.add("Host class " + className + " in [" + section +
+                     "] isn't defined in [" +
+                     Constants.HOST_CLASSES_CONFIG_SECTION + "]");
+        }
+      } else if (!known.contains(section) &&
+                 !mgmtService.isValidRoleType(section) &&
+                 !section.equals(INI_GLOBAL_SECTION)) {
+        errors.add("Unknown section [" + section + "]");
+      }
+    }
+  }
+
+  /**
+   * Check the hosts assigned to each deployed service's roles.
+   *
+   * @param errors Problems found are added here.
+   */
+  private void checkRoleHosts(final List<String> errors) {
+    Set<String> clusterHosts = new HashSet<String>();
+    for (String host : spec.getClusterHosts()) {
+      clusterHosts.add(host);
+    }
+    Set<String> allowed = new HashSet<String>(clusterHosts);
+    allowed.add(spec.get("CM", Constants.CM_PRIVATE_HOSTNAME_PARAMETER));
+
+    for (ServiceSpec service : spec.getServiceSpecs()) {
+      for (Map.Entry<String, HostSet> entry :
+             service.getHostParameters().entrySet()) {
+        String parameter = entry.getKey();
+        if (parameter.equals(Constants.CLUSTER_HOSTS_PARAMETER)) {
+          continue;
+        }
+        HostSet hosts = entry.getValue();
+        if (parameter.endsWith("_host") && hosts.size() > 1) {
+          errors.add(parameter + " in [" + service.getSection() + "] names " +
+                     hosts.size() + " hosts, but only one " +
+                     "instance of the role is allowed");
+        }
+        Set<String> seen = new HashSet<String>();
+        List<String> duplicates = new ArrayList<String>();
+        List<String> outside = new ArrayList<String>();
+        for (String host : hosts) {
+          if (!seen.add(host)) {
+            duplicates.add(host);
+          } else if (!allowed.contains(host)) {
+            outside.add(host);
+          }
+        }
+        if (!duplicates.isEmpty()) {
+          errors.add(parameter + " in [" + service.getSection() +
+                     "] lists hosts more than once: " + describe(duplicates));
+        }
+        if (!outside.isEmpty()) {
+          errors.add(parameter + " in [" + service.getSection() +
+                     "] has hosts not in " + Constants.CLUSTER_HOSTS_PARAMETER +
+                     ": " + describe(outside));
+        }
+      }
+    }
+
+    if (clusterHosts.size() < spec.getClusterHosts().size()) {
+      errors.add(Constants.CLUSTER_HOSTS_PARAMETER + " lists " +
+                 (spec.getClusterHosts().size() - clusterHosts.size()) +
+                 " hosts more than once");
+    }
+  }
+
+  /**
+   * Check service and role config parameters against the config catalog,
+   * if one is configured. Sections for scopes the catalog doesn't cover
+   * are skipped. Unknown parameters are errors, values not matching the
+   * inferred type are logged as warnings.
+   *
+   * @param errors Problems found are added here.
+   */
+  private void checkConfigParameters(final List<String> errors) {
+    ConfigCatalog catalog;
+    try {
+      catalog = ConfigCatalog.fromConfig(config);
+    } catch (IOException e) {
+      errors.add("Can't read config catalog: " + e.getMessage());
+      return;
+    }
+    if (catalog == null) {
+      return;
+    }
+    for (String section : config.keySet()) {
+      String scope = getCatalogScope(section);
+      if (scope == null || !catalog.hasScope(scope)) {
+        continue;
+      }
+      for (Map.Entry<String, String> entry :
+             spec.getParameters(section).entrySet()) {
+        String problem = catalog.check(scope, entry.getKey());
+        if (problem != null) {
+          errors.add(entry.getKey() + " in [" + section + "]: " + problem);
+          continue;
+        }
+        String mismatch =
+          catalog.checkValue(scope, entry.getKey(), entry.getValue());
+        if (mismatch != null) {
+          LOG.warn(entry.getKey() + " in [" + section + "]: " + mismatch);
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the catalog scope for a service config or role config section,
+   * including a host class's section for a role.
+   *
+   * @param section Section name.
+   *
+   * @return Catalog scope, or null if the section doesn't hold CM
+   * configuration.
+   */
+  private String getCatalogScope(final String section) {
+    int separator = section.indexOf(HostClass.SECTION_SEPARATOR);
+    if (separator > 0) {
+      // Host class settings are checked like the role's own section:
+      return getCatalogScope(section.substring(0, separator));
+    }
+    String serviceType = DeploymentSpec.getServiceConfigSectionType(section);
+    if (serviceType != null) {
+      return ConfigCatalog.scope(cmServiceType(serviceType), null);
+    }
+    if (mgmtService.isValidRoleType(section)) {
+      return ConfigCatalog.scope(ConfigCatalog.MGMT_SCOPE, section);
+    }
+    for (String type : DeploymentSpec.getServiceTypes()) {
+      for (String roleType : factory.getRoleTypes(type)) {
+        String roleSection =
+          roleType.equals("GATEWAY") ? type + "_GATEWAY" : roleType;
+        if (roleSection.equals(section)) {
+          return ConfigCatalog.scope(cmServiceType(type), roleType);
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Map a service's name in the services list to its CM service type.
+   *
+   * @param type Service type from the services list.
+   *
+   * @return CM service type.
+   */
+  private static String cmServiceType(final String type) {
+    return CM_SERVICE_TYPES.getOrDefault(type, type);
+  }
+
+  /**
+   * Describe a list of hosts for an error message, naming only the first
+   * few.
+   *
+   * @param hosts Host names.
+   *
+   * @return Description.
+   */
+  private static String describe(final List<String> hosts) {
+    if (hosts.size() <= MAX_HOSTS_REPORTED) {
+      return String.join(",", hosts);
+    }
+    return String.join(",", hosts.subList(0, MAX_HOSTS_REPORTED)) + " and " +
+      (hosts.size() - MAX_HOSTS_REPORTED) + " more";
+  }
+}
@@ -0,0 +1,484 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import com.cloudera.api.model.ApiConfig;
+import com.cloudera.api.model.ApiConfigList;
+
+import com.cloudera.cmapi.deploy.services.ClusterService;
+import com.cloudera.cmapi.deploy.tuning.HostFacts;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Data directories for each host's roles, laid out over the host's data
+ * disks as given by the [DISK_LAYOUT] section, so hosts with more disks
+ * get more directories and every spindle is used. A host's data mounts
+ * are read from the disk facts file named by disk_facts_file: one host
+ * per line followed by its mount points, separated by whitespace, with #
+ * starting a comment. Hosts not in the file use data_mounts.
+ * <p>
+ * DataNodes, NodeManagers, Impala daemons and Kafka brokers get one
+ * directory on each data disk. ZooKeeper transaction logs and JournalNode
+ * edits are written on every transaction, so unless dedicated_log_disks is
+ * false each gets a disk of its own, taken from the end of the host's
+ * list, as long as the host has a disk left for data. Values set
+ * explicitly in a role's section, or in a host class's section for the
+ * role, are kept.
+ */
+public final class DiskLayout {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(DiskLayout.class);
+
+  /**
+   * Layout that assigns no directories.
+   */
+  public static final DiskLayout EMPTY =
+    new DiskLayout(Collections.<String, List<String>>emptyMap(),
+                   Collections.<String>emptyList(), true);
+
+  /**
+   * Directory parameters of roles spread over every data disk: role type,
+   * parameter, subdirectory of each mount.
+   */
+  private static final String[][] DATA_DIRECTORIES = {
+    {"DATANODE", "dfs_data_dir_list", "/dfs/dn"},
+    {"NODEMANAGER", "yarn_nodemanager_local_dirs", "/yarn/nm"},
+    {"NODEMANAGER", "yarn_nodemanager_log_dirs", "/yarn/container-logs"},
+    {"IMPALAD", "scratch_dirs", "/impala/scratch"},
+    {"KAFKA_BROKER", "log.dirs", "/kafka/data"}
+  };
+
+  /**
+   * Directory parameters of roles given a disk of their own: role type,
+   * parameter, subdirectory of the mount.
+   */
+  private static final String[][] LOG_DIRECTORIES = {
+    {"SERVER", "dataLogDir", "/zookeeper"},
+    {"JOURNALNODE", "dfs_journalnode_edits_dir", "/dfs/jn"}
+  };
+
+  /**
+   * Data mounts from the disk facts file, keyed on host name.
+   */
+  private final Map<String, List<String>> mounts;
+
+  /**
+   * Data mounts for hosts not in the facts file.
+   */
+  private final List<String> defaultMounts;
+
+  /**
+   * Whether log roles get disks of their own.
+   */
+  private final boolean dedicatedLogDisks;
+
+  /**
+   * Constructor.
+   *
+   * @param mounts Data mounts from the facts file, keyed on host name.
+   * @param defaultMounts Data mounts for other hosts.
+   * @param dedicatedLogDisks Whether log roles get disks of their own.
+   */
+  private DiskLayout(final Map<String, List<String>> mounts,
+                     final List<String> defaultMounts,
+                     final boolean dedicatedLogDisks) {
+    this.mounts = mounts;
+    this.defaultMounts = defaultMounts;
+    this.dedicatedLogDisks = dedicatedLogDisks;
+  }
+
+  /**
+   * Compile the [DISK_LAYOUT] section, reading the disk facts file if one
+   * is named.
+   *
+   * @param parameters Parameters of the section.
+   * @param errors Problems found are added here.
+   *
+   * @return Disk layout, {@link #EMPTY} if the section sets no mounts.
+   */
+  static DiskLayout compile(final Map<String, String> parameters,
+                            final List<String> errors) {
+    if (parameters.isEmpty()) {
+      return EMPTY;
+    }
+    String section = "[" + Constants.DISK_LAYOUT_CONFIG_SECTION + "]";
+    Map<String, List<String>> mounts = new HashMap<String, List<String>>();
+    List<String> defaultMounts = Collections.<String>emptyList();
+    boolean dedicatedLogDisks = true;
+    for (Map.Entry<String, String> entry : parameters.entrySet()) {
+      String parameter = entry.getKey();
+      String value = entry.getValue();
+      if (value.isEmpty()) {
+        continue;
+      }
+      if (parameter.equals(Constants.DISK_FACTS_FILE_PARAMETER)) {
+        readFacts(value, mounts, errors);
+      } else if (parameter.equals(Constants.DISK_DATA_MOUNTS_PARAMETER)) {
+        defaultMounts = checkMounts(Arrays.asList(value.split("[,\\s]+")),
+                                    parameter + " in " + section, errors);
+      } else if (parameter.equals(Constants.DISK_DEDICATED_LOG_DISKS_PARAMETER)) {
+        dedicatedLogDisks = Boolean.parseBoolean(value);
+      } else {
+        errors.add("Unknown parameter " + parameter + " in " + section);
+      }
+    }
+    return new DiskLayout(Collections.unmodifiableMap(mounts),
+                          Collections.unmodifiableList(defaultMounts),
+                          dedicatedLogDisks);
+  }
+
+  /**
+   * Read a disk facts file.
+   *
+   * @param file File name.
+   * @param mounts Mounts read are added here, keyed on host name.
+   * @param errors Problems found are added here.
+   */
+  private static void readFacts(final String file,
+                                final Map<String, List<String>> mounts,
+                                final List<String> errors) {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      errors.add("Can't read disk facts file " + file + ": " + e);
+      return;
+    }
+    int lineNumber = 0;
+    for (String line : lines) {
+      lineNumber++;
+      int comment = line.indexOf('#');
+      String content = (comment < 0 ? line : line.substring(0, comment)).trim();
+      if (content.isEmpty()) {
+        continue;
+      }
+      String[] fields = content.split("\\s+");
+      if (fields.length < 2) {
+        errors.add(file + " line " + lineNumber +
+                   ": expected a host and its data mounts");
+      } else {
+        mounts.put(fields[0],
+                   checkMounts(Arrays.asList(fields).subList(1, fields.length),
+                               file + " line " + lineNumber, errors));
+      }
+    }
+  }
+
+  /**
+   * Check that mount points are absolute paths.
+   *
+   * @param mountPoints Mount points.
+   * @param where Where the mounts were set, for error messages.
+   * @param errors Problems found are added here.
+   *
+   * @return The mount points, with any trailing / removed.
+   */
+  private static List<String> checkMounts(final List<String> mountPoints,
+                                          final String where,
+                                          final List<String> errors) {
+    List<String> checked = new ArrayList<String>();
+    for (String mount : mountPoints) {
+      if (!mount.startsWith("/")) {
+        errors.add(where + ": mount " + mount + " must be an absolute path");
+      }
+      checked.add(mount.length() > 1 && mount.endsWith("/") ?
+                  mount.substring(0, mount.length() - 1) : mount);
+    }
+    return checked;
+  }
+
+  /**
+   * Check whether the layout assigns any directories.
+   *
+   * @return True if no mounts are known for any host.
+   */
+  public boolean isEmpty() {
+    return mounts.isEmpty() && defaultMounts.isEmpty();
+  }
+
+  /**
+   * Get the data mounts of a host.
+   *
+   * @param hostname Host name.
+   *
+   * @return Mount points, empty if none are known for the host.
+   */
+  public List<String> getMounts(final String hostname) {
+    List<String> hostMounts = mounts.get(hostname);
+    return hostMounts != null ? hostMounts : defaultMounts;
+  }
+
+  /**
+   * Check whether the layout sets directories for a role type.
+   *
+   * @param roleType Role type.
+   *
+   * @return True if the role type has data or log directories.
+   */
+  public static boolean isLayoutRole(final String roleType) {
+    return find(DATA_DIRECTORIES, roleType) || find(LOG_DIRECTORIES, roleType);
+  }
+
+  /**
+   * Check whether a directory table has entries for a role type.
+   *
+   * @param table Directory table.
+   * @param roleType Role type.
+   *
+   * @return True if the role type is in the table.
+   */
+  private static boolean find(final String[][] table, final String roleType) {
+    for (String[] entry : table) {
+      if (entry[0].equals(roleType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Lay out the directories of a role on a host.
+   *
+   * @param spec Deployment spec, for explicitly set values.
+   * @param hostname Host name.
+   * @param roleType Role type.
+   * @param hostClass Configured class of the host, or null.
+   * @param hostRoleTypes Types of every role on the host, to find the log
+   * roles that need disks of their own.
+   *
+   * @return Directory settings, empty if the host has no known mounts or
+   * the role keeps no data.
+   */
+  public List<ApiConfig> getRoleConfigs(final DeploymentSpec spec,
+                                        final String hostname,
+                                        final String roleType,
+                                        final String hostClass,
+                                        final Collection<String> hostRoleTypes) {
+    List<String> hostMounts = getMounts(hostname);
+    List<ApiConfig> configs = new ArrayList<ApiConfig>();
+    if (hostMounts.isEmpty()) {
+      return configs;
+    }
+
+    // Log roles take disks from the end of the list while at least one is
+    // left for data, otherwise they share the last disk:
+    List<String> dataMounts = hostMounts;
+    Map<String, String> logMounts = new HashMap<String, String>();
+    for (String[] entry : LOG_DIRECTORIES) {
+      if (hostRoleTypes.contains(entry[0])) {
+        if (dedicatedLogDisks && dataMounts.size() > 1) {
+          logMounts.put(entry[0], dataMounts.get(dataMounts.size() - 1));
+          dataMounts = dataMounts.subList(0, dataMounts.size() - 1);
+        } else {
+          logMounts.put(entry[0], hostMounts.get(hostMounts.size() - 1));
+        }
+      }
+    }
+
+    for (String[] entry : DATA_DIRECTORIES) {
+      if (entry[0].equals(roleType) &&
+          !isExplicit(spec, roleType, hostClass, entry[1])) {
+        List<String> directories = new ArrayList<String>();
+        for (String mount : dataMounts) {
+          directories.add(mount + entry[2]);
+        }
+        configs.add(new ApiConfig(entry[1], String.join(",", directories)));
+      }
+    }
+    for (String[] entry : LOG_DIRECTORIES) {
+      if (entry[0].equals(roleType) &&
+          !isExplicit(spec, roleType, hostClass, entry[1])) {
+        configs.add(new ApiConfig(entry[1], logMounts.get(roleType) + entry[2]));
+      }
+    }
+    return configs;
+  }
+
+  /**
+   * Check whether a role parameter is set in the role's section or the
+   * host class's section for the role.
+   *
+   * @param spec Deployment spec.
+   * @param roleType Role type.
+   * @param hostClass Configured host class, or null.
+   * @param parameter Parameter name.
+   *
+   * @return True if the parameter is set.
+   */
+  private static boolean isExplicit(final DeploymentSpec spec,
+                                    final String roleType,
+                                    final String hostClass,
+                                    final String parameter) {
+    return !spec.get(roleType, parameter).isEmpty() ||
+      (hostClass != null &&
+       !spec.get(HostClass.sectionName(roleType, hostClass), parameter).isEmpty());
+  }
+
+  /**
+   * Apply the layout to the roles created by a deployment. Hosts in the
+   * same configured class whose roles get the same directories share a
+   * role config group per role type, named after the configured class or
+   * else the host's disk count, for example 12disk.
+   *
+   * @param spec Deployment spec.
+   * @param services Services deployed in this run.
+   * @param hostFacts Hardware facts by host name, to classify hosts.
+   */
+  public void apply(final DeploymentSpec spec,
+                    final List<ClusterService> services,
+                    final Map<String, HostFacts> hostFacts) {
+    Map<String, List<String>> hostRoles = getHostRoles(services);
+    for (ClusterService service : services) {
+      for (Map.Entry<String, Set<String>> entry :
+             service.getRoleHosts().entrySet()) {
+        String roleType = entry.getKey();
+        if (!isLayoutRole(roleType)) {
+          continue;
+        }
+        Map<String, String> classNames = new HashMap<String, String>();
+        Map<String, String> hostClasses = new HashMap<String, String>();
+        Map<String, ApiConfigList> classConfigs =
+          new TreeMap<String, ApiConfigList>();
+        Map<String, Integer> classSizes = new TreeMap<String, Integer>();
+        for (String host : entry.getValue()) {
+          String hostClass =
+            HostClass.classify(spec.getHostClasses(), host, hostFacts.get(host));
+          List<ApiConfig> configs =
+            getRoleConfigs(spec, host, roleType, hostClass, hostRoles.get(host));
+          if (configs.isEmpty()) {
+            continue;
+          }
+          String key = hostClass + " " + toString(configs);
+          String className = classNames.get(key);
+          if (className == null) {
+            className = newClassName(hostClass, getMounts(host).size(), 0,
+                                     classConfigs.keySet());
+            classNames.put(key, className);
+            ApiConfigList classConfig = new ApiConfigList();
+            if (hostClass != null) {
+              for (ApiConfig apiConfig :
+                     spec.getConfigs(HostClass.sectionName(roleType, hostClass))) {
+                classConfig.add(apiConfig);
+              }
+            }
+            for (ApiConfig apiConfig : configs) {
+              classConfig.add(apiConfig);
+            }
+            classConfigs.put(className, classConfig);
+          }
+          hostClasses.put(host, className);
+          classSizes.merge(className, 1, Integer::sum);
+        }
+        if (!classConfigs.isEmpty()) {
+          LOG.info("Disk layout for " + roleType + " in " + service.getName() +
+                   ": " + classSizes + " hosts per class");
+          service.updateHostClassConfigs(roleType, hostClasses, classConfigs);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the types of the roles on each host, across services.
+   *
+   * @param services Services deployed in this run.
+   *
+   * @return Role types keyed on host name.
+   */
+  public static Map<String, List<String>> getHostRoles(final List<ClusterService> services) {
+    Map<String, List<String>> hostRoles = new TreeMap<String, List<String>>();
+    for (ClusterService service : services) {
+      for (Map.Entry<String, Set<String>> entry :
+             service.getRoleHosts().entrySet()) {
+        for (String host : entry.getValue()) {
+          hostRoles.computeIfAbsent(host, k -> new ArrayList<String>())
+            .add(entry.getKey());
+        }
+      }
+    }
+    return hostRoles;
+  }
+
+  /**
+   * Name a class of hosts sharing a layout after their configured host
+   * class, or if they're in none after their memory and disk count, for
+   * example 128g-12disk or 12disk. A suffix is added when hosts with the
+   * same name get different settings.
+   *
+   * @param hostClass Configured host class, or null.
+   * @param disks Number of data mounts on the class's hosts, 0 if unknown.
+   * @param memoryMb Memory of the class's hosts in MB, 0 if it isn't part
+   * of the name.
+   * @param existing Names already in use.
+   *
+   * @return Class name.
+   */
+  public static String newClassName(final String hostClass, final int disks,
+                                    final long memoryMb,
+                                    final Collection<String> existing) {
+    String base = hostClass;
+    if (base == null) {
+      List<String> parts = new ArrayList<String>();
+      if (memoryMb > 0) {
+        parts.add(Math.round(memoryMb / 1024.0) + "g");
+      }
+      if (disks > 0) {
+        parts.add(disks + "disk");
+      }
+      base = String.join("-", parts);
+    }
+    String className = base;
+    for (int i = 2; existing.contains(className); i++) {
+      className = base + "-" + i;
+    }
+    return className;
+  }
+
+  /**
+   * Describe directory settings, to tell layouts apart.
+   *
+   * @param configs Directory settings.
+   *
+   * @return Description.
+   */
+  private static String toString(final List<ApiConfig> configs) {
+    StringBuilder description = new StringBuilder();
+    for (ApiConfig apiConfig : configs) {
+      description.append(apiConfig.getName()).append('=')
+        .append(apiConfig.getValue()).append(';');
+    }
+    return description.toString();
+  }
+}
@@ -0,0 +1,254 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import com.cloudera.cmapi.deploy.tuning.HostFacts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Class of hosts sharing hardware, such as a hardware generation, that
+ * gets its own role settings. Classes are defined in the [HOST_CLASSES]
+ * section with parameters named after the class:
+ * <p><ul>
+ * <li> <code>{class}_hosts</code>: hosts in the class, as a host expression.
+ * <li> <code>{class}_host_pattern</code>: regular expression host names in
+ * the class match.
+ * <li> <code>{class}_min_memory_gb</code>, <code>{class}_max_memory_gb</code>,
+ * <code>{class}_min_cores</code>, <code>{class}_max_cores</code>: limits on
+ * the hardware CM reports for hosts in the class.
+ * </ul></p>
+ * A host must meet every condition set for a class to be in it, and belongs
+ * to the first class it's in, in the order the classes are defined. Role
+ * settings for a class go in a section named {role section}:{class}, for
+ * example [DATANODE:gen2], and are applied on top of the role's own
+ * section.
+ */
+public final class HostClass {
+
+  /**
+   * Separator between a role section name and a class name.
+   */
+  public static final String SECTION_SEPARATOR = ":";
+
+  /**
+   * Parameter suffixes, in the order they're checked.
+   */
+  private static final String[] SUFFIXES = {
+    Constants.HOST_CLASS_HOSTS_SUFFIX, Constants.HOST_CLASS_HOST_PATTERN_SUFFIX,
+    Constants.HOST_CLASS_MIN_MEMORY_GB_SUFFIX,
+    Constants.HOST_CLASS_MAX_MEMORY_GB_SUFFIX,
+    Constants.HOST_CLASS_MIN_CORES_SUFFIX, Constants.HOST_CLASS_MAX_CORES_SUFFIX
+  };
+
+  /**
+   * Class name.
+   */
+  private final String name;
+
+  /**
+   * Host names in the class, or null if the class isn't limited by name.
+   */
+  private Set<String> hosts;
+
+  /**
+   * Pattern host names must match, or null.
+   */
+  private Pattern hostPattern;
+
+  /**
+   * Least memory in GB, or 0 for no limit.
+   */
+  private long minMemoryGb;
+
+  /**
+   * Most memory in GB, or 0 for no limit.
+   */
+  private long maxMemoryGb;
+
+  /**
+   * Fewest cores, or 0 for no limit.
+   */
+  private int minCores;
+
+  /**
+   * Most cores, or 0 for no limit.
+   */
+  private int maxCores;
+
+  /**
+   * Constructor.
+   *
+   * @param name Class name.
+   */
+  private HostClass(final String name) {
+    this.name = name;
+  }
+
+  /**
+   * Compile the classes defined in the [HOST_CLASSES] section.
+   *
+   * @param parameters Parameters of the section.
+   * @param hostParameters Host parameters of the section, compiled.
+   * @param errors Problems found are added here.
+   *
+   * @return Classes in definition order.
+   */
+  static List<HostClass> compile(final Map<String, String> parameters,
+                                 final Map<String, HostSet> hostParameters,
+                                 final List<String> errors) {
+    Map<String, HostClass> classes = new LinkedHashMap<String, HostClass>();
+    for (Map.Entry<String, String> entry : parameters.entrySet()) {
+      String parameter = entry.getKey();
+      String suffix = null;
+      for (String candidate : SUFFIXES) {
+        if (parameter.endsWith(candidate) &&
+            parameter.length() > candidate.length()) {
+          suffix = candidate;
+          break;
+        }
+      }
+      if (suffix == null) {
+        errors.add("Unknown parameter " + parameter + " in [" +
+                   Constants.HOST_CLASSES_CONFIG_SECTION + "]");
+        continue;
+      }
+      String className =
+        parameter.substring(0, parameter.length() - suffix.length());
+      HostClass hostClass =
+        classes.computeIfAbsent(className, k -> new HostClass(k));
+      try {
+        hostClass.set(suffix, entry.getValue(), hostParameters.get(parameter));
+      } catch (NumberFormatException | PatternSyntaxException e) {
+        errors.add(parameter + " in [" + Constants.HOST_CLASSES_CONFIG_SECTION +
+                   "]: invalid value " + entry.getValue());
+      }
+    }
+    return Collections.unmodifiableList(new ArrayList<HostClass>(classes.values()));
+  }
+
+  /**
+   * Set a condition of the class.
+   *
+   * @param suffix Parameter suffix naming the condition.
+   * @param value Parameter value.
+   * @param hostSet Compiled value of a hosts parameter, or null if the
+   * value didn't compile.
+   */
+  private void set(final String suffix, final String value,
+                   final HostSet hostSet) {
+    if (suffix.equals(Constants.HOST_CLASS_HOSTS_SUFFIX)) {
+      hosts = new HashSet<String>();
+      if (hostSet != null) {
+        for (String host : hostSet) {
+          hosts.add(host);
+        }
+      }
+    } else if (suffix.equals(Constants.HOST_CLASS_HOST_PATTERN_SUFFIX)) {
+      hostPattern = Pattern.compile(value);
+    } else if (suffix.equals(Constants.HOST_CLASS_MIN_MEMORY_GB_SUFFIX)) {
+      minMemoryGb = Long.parseLong(value);
+    } else if (suffix.equals(Constants.HOST_CLASS_MAX_MEMORY_GB_SUFFIX)) {
+      maxMemoryGb = Long.parseLong(value);
+    } else if (suffix.equals(Constants.HOST_CLASS_MIN_CORES_SUFFIX)) {
+      minCores = Integer.parseInt(value);
+    } else {
+      maxCores = Integer.parseInt(value);
+    }
+  }
+
+  /**
+   * Find the class a host belongs to.
+   *
+   * @param classes Classes in definition order.
+   * @param hostname Host name.
+   * @param facts Hardware facts for the host, or null if CM hasn't reported
+   * them.
+   *
+   * @return Name of the first class the host is in, or null if it's in
+   * none.
+   */
+  public static String classify(final List<HostClass> classes,
+                                final String hostname, final HostFacts facts) {
+    for (HostClass hostClass : classes) {
+      if (hostClass.matches(hostname, facts)) {
+        return hostClass.name;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the name of the section holding a class's settings for a role.
+   *
+   * @param roleSection Role section name, for example DATANODE.
+   * @param className Class name.
+   *
+   * @return Section name.
+   */
+  public static String sectionName(final String roleSection,
+                                   final String className) {
+    return roleSection + SECTION_SEPARATOR + className;
+  }
+
+  /**
+   * Get the class name.
+   *
+   * @return Class name.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Check whether a host is in the class. Hosts without hardware facts
+   * aren't in classes with hardware limits.
+   *
+   * @param hostname Host name.
+   * @param facts Hardware facts for the host, or null.
+   *
+   * @return true if the host meets every condition of the class.
+   */
+  public boolean matches(final String hostname, final HostFacts facts) {
+    if (hosts != null && !hosts.contains(hostname)) {
+      return false;
+    }
+    if (hostPattern != null && !hostPattern.matcher(hostname).matches()) {
+      return false;
+    }
+    if (minMemoryGb == 0 && maxMemoryGb == 0 && minCores == 0 && maxCores == 0) {
+      return true;
+    }
+    if (facts == null) {
+      return false;
+    }
+    // Reported memory is a little under the nominal size, so round:
+    long memoryGb = Math.round(facts.getMemoryMb() / 1024.0);
+    return (minMemoryGb == 0 || memoryGb >= minMemoryGb) &&
+      (maxMemoryGb == 0 || memoryGb <= maxMemoryGb) &&
+      (minCores == 0 || facts.getCores() >= minCores) &&
+      (maxCores == 0 || facts.getCores() <= maxCores);
+  }
+}
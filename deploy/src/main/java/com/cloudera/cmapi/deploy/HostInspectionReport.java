@@ -0,0 +1,310 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import org.ini4j.Wini;
+
+/**
+ * Findings of the CM host inspector, read from the result data of an
+ * inspectHosts command. The success flag of the command only says whether
+ * the inspector ran, so the report is what tells whether the hosts are fit
+ * to deploy on.
+ * <p>
+ * Any object in the report with a "severity" or "state" field naming a
+ * warning or an error is taken as a finding. Other values, such as "ok" or
+ * "info", aren't.
+ */
+public class HostInspectionReport {
+
+  /**
+   * Severity of a finding, in increasing order.
+   */
+  public static enum Severity { WARNING, ERROR };
+
+  /**
+   * A single finding of the inspector.
+   */
+  public static class Finding {
+
+    /**
+     * Severity of the finding.
+     */
+    private final Severity severity;
+
+    /**
+     * Description of the finding.
+     */
+    private final String message;
+
+    /**
+     * Constructor.
+     *
+     * @param severity Severity of the finding.
+     * @param message Description of the finding.
+     */
+    Finding(final Severity severity, final String message) {
+      this.severity = severity;
+      this.message = message;
+    }
+
+    /**
+     * Get the severity of the finding.
+     *
+     * @return Severity.
+     */
+    public final Severity getSeverity() {
+      return severity;
+    }
+
+    /**
+     * Get the description of the finding.
+     *
+     * @return Description.
+     */
+    public final String getMessage() {
+      return message;
+    }
+
+    @Override
+    public final String toString() {
+      return severity + ": " + message;
+    }
+  }
+
+  /**
+   * Default CM port.
+   */
+  private static final int DEFAULT_PORT = 7180;
+
+  /**
+   * Timeout in milliseconds for connecting to CM and reading the report.
+   */
+  private static final int TIMEOUT = 60000;
+
+  /**
+   * Fields holding the severity of a finding.
+   */
+  private static final String[] SEVERITY_FIELDS = {"severity", "state"};
+
+  /**
+   * Fields describing a finding, in order of preference.
+   */
+  private static final String[] MESSAGE_FIELDS =
+    {"message", "description", "descriptionCode", "name"};
+
+  /**
+   * Fields naming the host a finding is about.
+   */
+  private static final String[] HOST_FIELDS = {"hostname", "hostName", "host"};
+
+  /**
+   * JSON mapper.
+   */
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /**
+   * Findings, in the order they appear in the report.
+   */
+  private final List<Finding> findings;
+
+  /**
+   * Constructor.
+   *
+   * @param findings Findings of the inspector.
+   */
+  HostInspectionReport(final List<Finding> findings) {
+    this.findings = Collections.unmodifiableList(findings);
+  }
+
+  /**
+   * Download the report of an inspectHosts command from CM, using the
+   * connection settings in the [CM] section of the configuration.
+   *
+   * @param config Deployment configuration.
+   * @param resultDataUrl Result data URL of the command, absolute or
+   * relative to the CM server.
+   *
+   * @return Parsed report.
+   *
+   * @throws IOException if the report can't be downloaded or isn't JSON.
+   */
+  public static HostInspectionReport download(final Wini config,
+                                              final String resultDataUrl)
+    throws IOException {
+    String url = resultDataUrl;
+    if (!url.startsWith("http://") && !url.startsWith("https://")) {
+      url = "http://" + config.get("CM", Constants.CM_PUBLIC_HOSTNAME_PARAMETER) +
+        ":" + ConfigUtils.getInt(config, "CM", Constants.CM_PORT_PARAMETER,
+                                 DEFAULT_PORT) +
+        (url.startsWith("/") ? "" : "/") + url;
+    }
+    String credentials =
+      config.get("CM", Constants.CM_USERNAME_PARAMETER) + ":" +
+      config.get("CM", Constants.CM_PASSWORD_PARAMETER);
+    HttpURLConnection connection =
+      (HttpURLConnection) new URL(url).openConnection();
+    connection.setConnectTimeout(TIMEOUT);
+    connection.setReadTimeout(TIMEOUT);
+    connection.setInstanceFollowRedirects(false);
+    connection.setRequestProperty("Authorization", "Basic " +
+                                  Base64.getEncoder()
+                                  .encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+    connection.setRequestProperty("Accept", "application/json");
+    try {
+      int status = connection.getResponseCode();
+      if (status >= 300) {
+        throw new IOException("GET " + url + " returned HTTP " + status);
+      }
+      try (InputStream in = connection.getInputStream()) {
+        return parse(in);
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Parse a report.
+   *
+   * @param in Report JSON.
+   *
+   * @return Parsed report.
+   *
+   * @throws IOException if the report isn't JSON.
+   */
+  public static HostInspectionReport parse(final InputStream in)
+    throws IOException {
+    List<Finding> findings = new ArrayList<Finding>();
+    collect(MAPPER.readTree(in), null, findings);
+    return new HostInspectionReport(findings);
+  }
+
+  /**
+   * Get the findings at or above a severity.
+   *
+   * @param threshold Lowest severity to include.
+   *
+   * @return Matching findings, in report order.
+   */
+  public final List<Finding> getFindings(final Severity threshold) {
+    List<Finding> matching = new ArrayList<Finding>();
+    for (Finding finding : findings) {
+      if (finding.getSeverity().compareTo(threshold) >= 0) {
+        matching.add(finding);
+      }
+    }
+    return matching;
+  }
+
+  /**
+   * Collect findings from a JSON node and its children.
+   *
+   * @param node JSON node.
+   * @param host Host named by an enclosing object, or null.
+   * @param findings Findings collected so far.
+   */
+  private static void collect(final JsonNode node, final String host,
+                              final List<Finding> findings) {
+    if (node.isArray()) {
+      for (JsonNode child : node) {
+        collect(child, host, findings);
+      }
+      return;
+    }
+    if (!node.isObject()) {
+      return;
+    }
+    String nodeHost = firstText(node, HOST_FIELDS);
+    if (nodeHost == null) {
+      nodeHost = host;
+    }
+    Severity severity = null;
+    for (String field : SEVERITY_FIELDS) {
+      severity = toSeverity(node.get(field));
+      if (severity != null) {
+        break;
+      }
+    }
+    if (severity != null) {
+      String message = firstText(node, MESSAGE_FIELDS);
+      if (message == null) {
+        message = node.toString();
+      }
+      findings.add(new Finding(severity, nodeHost == null ? message :
+                               nodeHost + ": " + message));
+    }
+    Iterator<JsonNode> children = node.elements();
+    while (children.hasNext()) {
+      collect(children.next(), nodeHost, findings);
+    }
+  }
+
+  /**
+   * Map a severity or state value to a finding severity.
+   *
+   * @param value JSON value, or null.
+   *
+   * @return Severity, or null if the value doesn't name a warning or error.
+   */
+  private static Severity toSeverity(final JsonNode value) {
+    if (value == null || !value.isTextual()) {
+      return null;
+    }
+    String text = value.asText().toLowerCase(Locale.ROOT);
+    if (text.startsWith("warn")) {
+      return Severity.WARNING;
+    }
+    if (text.equals("error") || text.equals("critical") ||
+        text.equals("bad") || text.startsWith("fail")) {
+      return Severity.ERROR;
+    }
+    return null;
+  }
+
+  /**
+   * Get the first non-empty text field of an object.
+   *
+   * @param node JSON object.
+   * @param fields Field names, in order of preference.
+   *
+   * @return Field value, or null if none is set.
+   */
+  private static String firstText(final JsonNode node, final String[] fields) {
+    for (String field : fields) {
+      JsonNode value = node.get(field);
+      if (value != null && value.isTextual() && !value.asText().isEmpty()) {
+        return value.asText();
+      }
+    }
+    return null;
+  }
+}
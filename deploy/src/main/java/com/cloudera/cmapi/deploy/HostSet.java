@@ -0,0 +1,539 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable set of host names parsed from a host expression. An expression
+ * is a comma separated list of terms, where each term is one of:
+ * <p><ul>
+ * <li> A host name, for example <code>master1.dc1</code>.
+ * <li> A host name with one or more numeric ranges in brackets, for example
+ * <code>worker[0001-2000].dc1</code> or <code>rack[1-4]-node[01-40,45]</code>.
+ * Ranges whose lower bound has leading zeros are zero padded to its width.
+ * <li> A reference to a named group, for example <code>@workers</code>.
+ * Groups are defined as expressions in the [HOST_GROUPS] section, and may
+ * refer to other groups.
+ * </ul></p>
+ * Ranges are kept in their compact form and host names are generated as the
+ * set is iterated, so large ranges cost almost nothing until used. Hosts are
+ * returned in expression order, and duplicates aren't removed.
+ */
+public final class HostSet implements Iterable<String> {
+
+  /**
+   * Set with no hosts.
+   */
+  public static final HostSet EMPTY =
+    new HostSet("", Collections.<Term>emptyList());
+
+  /**
+   * Expression the set was parsed from.
+   */
+  private final String expression;
+
+  /**
+   * Parsed terms, with group references expanded to the group's terms.
+   */
+  private final List<Term> terms;
+
+  /**
+   * Number of hosts in the set.
+   */
+  private final long size;
+
+  /**
+   * Constructor.
+   *
+   * @param expression Expression the set was parsed from.
+   * @param terms Parsed terms.
+   */
+  private HostSet(final String expression, final List<Term> terms) {
+    this.expression = expression;
+    this.terms = terms;
+    long count = 0;
+    for (Term term : terms) {
+      count += term.size;
+    }
+    this.size = count;
+  }
+
+  /**
+   * Parse a host expression.
+   *
+   * @param expression Host expression.
+   * @param groups Compiled host groups, keyed on name.
+   *
+   * @return Host set.
+   *
+   * @throws IllegalArgumentException if the expression is malformed or
+   * refers to an unknown group.
+   */
+  public static HostSet parse(final String expression,
+                              final Map<String, HostSet> groups) {
+    List<Term> terms = new ArrayList<Term>();
+    for (String token : splitTerms(expression)) {
+      if (token.startsWith("@")) {
+        HostSet group = groups.get(token.substring(1));
+        if (group == null) {
+          throw new IllegalArgumentException("Unknown host group " + token);
+        }
+        terms.addAll(group.terms);
+      } else {
+        terms.add(Term.parse(token));
+      }
+    }
+    return terms.isEmpty() ? EMPTY :
+      new HostSet(expression, Collections.unmodifiableList(terms));
+  }
+
+  /**
+   * Compile host group definitions. Groups may refer to each other in any
+   * order, but not in a cycle.
+   *
+   * @param definitions Host expression for each group, keyed on name.
+   *
+   * @return Compiled groups, keyed on name.
+   *
+   * @throws IllegalArgumentException if a definition is malformed, refers to
+   * an unknown group, or is part of a cycle.
+   */
+  public static Map<String, HostSet> compileGroups(final Map<String, String> definitions) {
+    Map<String, HostSet> groups = new LinkedHashMap<String, HostSet>();
+    for (String name : definitions.keySet()) {
+      compileGroup(name, definitions, groups, new HashSet<String>());
+    }
+    return Collections.unmodifiableMap(groups);
+  }
+
+  /**
+   * Compile a host group, first compiling the groups it refers to.
+   *
+   * @param name Group name.
+   * @param definitions Host expression for each group.
+   * @param groups Groups compiled so far.
+   * @param resolving Groups being compiled further up the stack, used to
+   * detect cycles.
+   *
+   * @return Compiled group.
+   */
+  private static HostSet compileGroup(final String name,
+                                      final Map<String, String> definitions,
+                                      final Map<String, HostSet> groups,
+                                      final Set<String> resolving) {
+    HostSet group = groups.get(name);
+    if (group != null) {
+      return group;
+    }
+    String definition = definitions.get(name);
+    if (definition == null) {
+      throw new IllegalArgumentException("Unknown host group @" + name);
+    }
+    if (!resolving.add(name)) {
+      throw new IllegalArgumentException("Host group @" + name +
+                                         " refers to itself");
+    }
+    for (String token : splitTerms(definition)) {
+      if (token.startsWith("@")) {
+        compileGroup(token.substring(1), definitions, groups, resolving);
+      }
+    }
+    resolving.remove(name);
+    group = parse(definition, groups);
+    groups.put(name, group);
+    return group;
+  }
+
+  /**
+   * Write a list of host names as a compact expression, the reverse of
+   * parse. Host names that differ only in one number, with the same number
+   * of digits, are collapsed into one term with bracketed ranges, for
+   * example worker[0001-2000].dc1. For names with several numbers, the one
+   * that gives the fewest terms is used. Hosts are sorted within each term,
+   * so the expression describes the same hosts but not necessarily in the
+   * same order.
+   *
+   * @param hosts Host names.
+   *
+   * @return Host expression.
+   */
+  public static String toExpression(final Iterable<String> hosts) {
+    // Group names by shape, their text with each number replaced by its
+    // digit count:
+    Map<String, List<String[]>> shapes = new LinkedHashMap<String, List<String[]>>();
+    for (String host : hosts) {
+      String[] parts = host.split("(?<=\\d)(?=\\D)|(?<=\\D)(?=\\d)");
+      StringBuilder shape = new StringBuilder();
+      for (String part : parts) {
+        shape.append(Character.isDigit(part.charAt(0)) ?
+                     "[" + part.length() + "]" : part);
+      }
+      shapes.computeIfAbsent(shape.toString(), k -> new ArrayList<String[]>())
+        .add(parts);
+    }
+
+    List<String> terms = new ArrayList<String>();
+    for (List<String[]> names : shapes.values()) {
+      // Vary the number that leaves the fewest distinct names:
+      int best = -1;
+      Map<String, List<Long>> bestTerms = null;
+      for (int k = 0; k < names.get(0).length; k++) {
+        if (!Character.isDigit(names.get(0)[k].charAt(0)) ||
+            names.get(0)[k].length() > 18) {
+          continue;
+        }
+        Map<String, List<Long>> candidate = new LinkedHashMap<String, List<Long>>();
+        for (String[] parts : names) {
+          String[] key = parts.clone();
+          key[k] = "\u0000";
+          candidate.computeIfAbsent(String.join("", key), x -> new ArrayList<Long>())
+            .add(Long.parseLong(parts[k]));
+        }
+        if (bestTerms == null || candidate.size() <= bestTerms.size()) {
+          best = k;
+          bestTerms = candidate;
+        }
+      }
+      if (bestTerms == null) {
+        for (String[] parts : names) {
+          terms.add(String.join("", parts));
+        }
+        continue;
+      }
+      String format = "%0" + names.get(0)[best].length() + "d";
+      for (Map.Entry<String, List<Long>> entry : bestTerms.entrySet()) {
+        List<Long> values = entry.getValue();
+        values.sort(null);
+        List<String> ranges = new ArrayList<String>();
+        int first = 0;
+        while (first < values.size()) {
+          int last = first;
+          while (last + 1 < values.size() &&
+                 values.get(last + 1) <= values.get(last) + 1) {
+            last++;
+          }
+          ranges.add(String.format(format, values.get(first)) +
+                     (values.get(last).equals(values.get(first)) ? "" :
+                      "-" + String.format(format, values.get(last))));
+          first = last + 1;
+        }
+        String numbers = ranges.size() == 1 && !ranges.get(0).contains("-") ?
+          ranges.get(0) : "[" + String.join(",", ranges) + "]";
+        terms.add(entry.getKey().replace("\u0000", numbers));
+      }
+    }
+    return String.join(",", terms);
+  }
+
+  /**
+   * Split an expression on the commas that separate its terms, leaving
+   * commas inside brackets alone.
+   *
+   * @param expression Host expression.
+   *
+   * @return Trimmed, non-empty terms.
+   */
+  private static List<String> splitTerms(final String expression) {
+    List<String> tokens = new ArrayList<String>();
+    int depth = 0;
+    int start = 0;
+    for (int i = 0; i <= expression.length(); i++) {
+      boolean end = i == expression.length();
+      char c = end ? ',' : expression.charAt(i);
+      if (c == '[') {
+        depth++;
+      } else if (c == ']') {
+        depth--;
+      } else if (c == ',' && (depth == 0 || end)) {
+        String token = expression.substring(start, i).trim();
+        if (!token.isEmpty()) {
+          tokens.add(token);
+        }
+        start = i + 1;
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Get the number of hosts in the set.
+   *
+   * @return Number of hosts, counting duplicates.
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Check whether the set has no hosts.
+   *
+   * @return true if the set is empty.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Iterate over the hosts in the set, generating names as they're
+   * needed.
+   *
+   * @return Host name iterator.
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      private int term = 0;
+      private long index = 0;
+
+      @Override
+      public boolean hasNext() {
+        while (term < terms.size() && index >= terms.get(term).size) {
+          term++;
+          index = 0;
+        }
+        return term < terms.size();
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return terms.get(term).get(index++);
+      }
+    };
+  }
+
+  /**
+   * Get the expression the set was parsed from.
+   *
+   * @return Host expression.
+   */
+  @Override
+  public String toString() {
+    return expression;
+  }
+
+  /**
+   * A single term of an expression: literal text separated by ranges.
+   */
+  private static final class Term {
+
+    /**
+     * Literal text around the ranges. There's one more literal than there
+     * are ranges.
+     */
+    private final String[] literals;
+
+    /**
+     * Ranges, in the order they appear.
+     */
+    private final Range[] ranges;
+
+    /**
+     * Number of host names the term expands to.
+     */
+    private final long size;
+
+    /**
+     * Constructor.
+     *
+     * @param literals Literal text around the ranges.
+     * @param ranges Ranges.
+     */
+    private Term(final String[] literals, final Range[] ranges) {
+      this.literals = literals;
+      this.ranges = ranges;
+      long count = 1;
+      for (Range range : ranges) {
+        count = Math.multiplyExact(count, range.size);
+      }
+      this.size = count;
+    }
+
+    /**
+     * Parse a term.
+     *
+     * @param token Term text.
+     *
+     * @return Parsed term.
+     *
+     * @throws IllegalArgumentException if a range is malformed.
+     */
+    static Term parse(final String token) {
+      List<String> literals = new ArrayList<String>();
+      List<Range> ranges = new ArrayList<Range>();
+      int start = 0;
+      int open = token.indexOf('[');
+      while (open >= 0) {
+        int close = token.indexOf(']', open);
+        if (close < 0) {
+          throw new IllegalArgumentException("Unclosed range in " + token);
+        }
+        literals.add(token.substring(start, open));
+        ranges.add(Range.parse(token, token.substring(open + 1, close)));
+        start = close + 1;
+        open = token.indexOf('[', start);
+      }
+      if (token.indexOf(']', start) >= 0) {
+        throw new IllegalArgumentException("Unopened range in " + token);
+      }
+      literals.add(token.substring(start));
+      return new Term(literals.toArray(new String[literals.size()]),
+                      ranges.toArray(new Range[ranges.size()]));
+    }
+
+    /**
+     * Generate a host name. The last range varies fastest.
+     *
+     * @param index Index of the host name within the term.
+     *
+     * @return Host name.
+     */
+    String get(final long index) {
+      if (ranges.length == 0) {
+        return literals[0];
+      }
+      long[] positions = new long[ranges.length];
+      long remaining = index;
+      for (int i = ranges.length - 1; i >= 0; i--) {
+        positions[i] = remaining % ranges[i].size;
+        remaining /= ranges[i].size;
+      }
+      StringBuilder host = new StringBuilder(literals[0]);
+      for (int i = 0; i < ranges.length; i++) {
+        ranges[i].append(host, positions[i]);
+        host.append(literals[i + 1]);
+      }
+      return host.toString();
+    }
+  }
+
+  /**
+   * Numeric range, made up of comma separated values and low-high
+   * intervals, for example <code>01-40,45</code>.
+   */
+  private static final class Range {
+
+    /**
+     * Lower bound of each interval.
+     */
+    private final long[] lows;
+
+    /**
+     * Upper bound of each interval.
+     */
+    private final long[] highs;
+
+    /**
+     * Zero padded width of each interval, or 0 for no padding.
+     */
+    private final int[] widths;
+
+    /**
+     * Number of values in the range.
+     */
+    private final long size;
+
+    /**
+     * Constructor.
+     *
+     * @param lows Lower bound of each interval.
+     * @param highs Upper bound of each interval.
+     * @param widths Zero padded width of each interval.
+     */
+    private Range(final long[] lows, final long[] highs, final int[] widths) {
+      this.lows = lows;
+      this.highs = highs;
+      this.widths = widths;
+      long count = 0;
+      for (int i = 0; i < lows.length; i++) {
+        count += highs[i] - lows[i] + 1;
+      }
+      this.size = count;
+    }
+
+    /**
+     * Parse the text between a pair of brackets.
+     *
+     * @param token Term the range is part of, for error messages.
+     * @param text Range text.
+     *
+     * @return Parsed range.
+     *
+     * @throws IllegalArgumentException if the range is malformed.
+     */
+    static Range parse(final String token, final String text) {
+      String[] intervals = text.split(",");
+      long[] lows = new long[intervals.length];
+      long[] highs = new long[intervals.length];
+      int[] widths = new int[intervals.length];
+      for (int i = 0; i < intervals.length; i++) {
+        String interval = intervals[i].trim();
+        int dash = interval.indexOf('-');
+        String low = dash < 0 ? interval : interval.substring(0, dash).trim();
+        String high = dash < 0 ? interval : interval.substring(dash + 1).trim();
+        try {
+          lows[i] = Long.parseLong(low);
+          highs[i] = Long.parseLong(high);
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Invalid range [" + text +
+                                             "] in " + token);
+        }
+        if (lows[i] < 0 || highs[i] < lows[i]) {
+          throw new IllegalArgumentException("Invalid range [" + text +
+                                             "] in " + token);
+        }
+        widths[i] = low.length() > 1 && low.startsWith("0") ? low.length() : 0;
+      }
+      return new Range(lows, highs, widths);
+    }
+
+    /**
+     * Append a value of the range to a host name.
+     *
+     * @param host Host name being built.
+     * @param position Position of the value within the range.
+     */
+    void append(final StringBuilder host, final long position) {
+      long remaining = position;
+      for (int i = 0; i < lows.length; i++) {
+        long count = highs[i] - lows[i] + 1;
+        if (remaining < count) {
+          String value = Long.toString(lows[i] + remaining);
+          for (int pad = value.length(); pad < widths[i]; pad++) {
+            host.append('0');
+          }
+          host.append(value);
+          return;
+        }
+        remaining -= count;
+      }
+      throw new IndexOutOfBoundsException("Position " + position +
+                                          " outside range");
+    }
+  }
+}
@@ -0,0 +1,284 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Rack assignment for cluster hosts, from the [RACK_TOPOLOGY] section. A
+ * host's rack is looked up in order:
+ * <p><ul>
+ * <li> The rack mapping file named by rack_topology_file: one host and rack
+ * per line separated by whitespace, in the format of a Hadoop topology
+ * table, with # starting a comment.
+ * <li> Rules, parameters whose names start with rack_rule, in the order
+ * they're listed. Each holds a regular expression for host names and a
+ * rack, separated by whitespace; the rack can refer to groups in the
+ * expression as $1, $2 and so on. Other characters in the rack, including
+ * $ not followed by a digit and \, are taken as they are.
+ * <li> default_rack.
+ * </ul></p>
+ * Racks must start with /, as CM requires.
+ */
+public final class RackTopology {
+
+  /**
+   * Topology that assigns no racks.
+   */
+  public static final RackTopology EMPTY =
+    new RackTopology(Collections.<String, String>emptyMap(),
+                     Collections.<Rule>emptyList(), null);
+
+  /**
+   * Reference to a group of a rule's pattern in its rack.
+   */
+  private static final Pattern GROUP_REFERENCE = Pattern.compile("\\$(\\d{1,9})");
+
+  /**
+   * Rule mapping host names matching a pattern to a rack.
+   */
+  private static final class Rule {
+
+    /**
+     * Pattern host names must match.
+     */
+    private final Pattern pattern;
+
+    /**
+     * Rack, possibly referring to groups in the pattern.
+     */
+    private final String rack;
+
+    /**
+     * Constructor.
+     *
+     * @param pattern Pattern host names must match.
+     * @param rack Rack, possibly referring to groups in the pattern.
+     */
+    Rule(final Pattern pattern, final String rack) {
+      this.pattern = pattern;
+      this.rack = rack;
+    }
+  }
+
+  /**
+   * Racks from the mapping file, keyed on host name.
+   */
+  private final Map<String, String> mapping;
+
+  /**
+   * Rules in the order they're applied.
+   */
+  private final List<Rule> rules;
+
+  /**
+   * Rack for hosts no other source assigns, or null.
+   */
+  private final String defaultRack;
+
+  /**
+   * Constructor.
+   *
+   * @param mapping Racks from the mapping file, keyed on host name.
+   * @param rules Rules in the order they're applied.
+   * @param defaultRack Rack for other hosts, or null.
+   */
+  private RackTopology(final Map<String, String> mapping,
+                       final List<Rule> rules, final String defaultRack) {
+    this.mapping = mapping;
+    this.rules = rules;
+    this.defaultRack = defaultRack;
+  }
+
+  /**
+   * Compile the [RACK_TOPOLOGY] section, reading the mapping file if one is
+   * named.
+   *
+   * @param parameters Parameters of the section.
+   * @param errors Problems found are added here.
+   *
+   * @return Rack topology, {@link #EMPTY} if the section sets nothing.
+   */
+  static RackTopology compile(final Map<String, String> parameters,
+                              final List<String> errors) {
+    if (parameters.isEmpty()) {
+      return EMPTY;
+    }
+    String section = "[" + Constants.RACK_TOPOLOGY_CONFIG_SECTION + "]";
+    Map<String, String> mapping = new HashMap<String, String>();
+    List<Rule> rules = new ArrayList<Rule>();
+    String defaultRack = null;
+    for (Map.Entry<String, String> entry : parameters.entrySet()) {
+      String parameter = entry.getKey();
+      String value = entry.getValue();
+      if (value.isEmpty()) {
+        continue;
+      }
+      if (parameter.equals(Constants.RACK_TOPOLOGY_FILE_PARAMETER)) {
+        readMapping(value, mapping, errors);
+      } else if (parameter.equals(Constants.RACK_DEFAULT_RACK_PARAMETER)) {
+        defaultRack = checkRack(value, parameter + " in " + section, errors);
+      } else if (parameter.startsWith(Constants.RACK_RULE_PREFIX)) {
+        String[] fields = value.split("\\s+");
+        if (fields.length != 2) {
+          errors.add(parameter + " in " + section + " must be a host name " +
+                     "pattern and a rack");
+          continue;
+        }
+        Pattern pattern;
+        try {
+          pattern = Pattern.compile(fields[0]);
+        } catch (PatternSyntaxException e) {
+          errors.add(parameter + " in " + section + ": invalid pattern " +
+                     fields[0]);
+          continue;
+        }
+        int groups = pattern.matcher("").groupCount();
+        Matcher reference = GROUP_REFERENCE.matcher(fields[1]);
+        while (reference.find()) {
+          if (Integer.parseInt(reference.group(1)) > groups) {
+            errors.add(parameter + " in " + section + ": rack " + fields[1] +
+                       " refers to group " + reference.group(1) + ", but " +
+                       fields[0] + " has " + groups);
+          }
+        }
+        rules.add(new Rule(pattern, checkRack(fields[1], parameter + " in " +
+                                              section, errors)));
+      } else {
+        errors.add("Unknown parameter " + parameter + " in " + section);
+      }
+    }
+    return new RackTopology(Collections.unmodifiableMap(mapping),
+                            Collections.unmodifiableList(rules), defaultRack);
+  }
+
+  /**
+   * Read a rack mapping file.
+   *
+   * @param file File name.
+   * @param mapping Racks read are added here, keyed on host name.
+   * @param errors Problems found are added here.
+   */
+  private static void readMapping(final String file,
+                                  final Map<String, String> mapping,
+                                  final List<String> errors) {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      errors.add("Can't read rack mapping file " + file + ": " + e);
+      return;
+    }
+    int lineNumber = 0;
+    for (String line : lines) {
+      lineNumber++;
+      int comment = line.indexOf('#');
+      String content = (comment < 0 ? line : line.substring(0, comment)).trim();
+      if (content.isEmpty()) {
+        continue;
+      }
+      String[] fields = content.split("\\s+");
+      if (fields.length != 2) {
+        errors.add(file + " line " + lineNumber + ": expected a host and a rack");
+      } else {
+        mapping.put(fields[0], checkRack(fields[1], file + " line " + lineNumber,
+                                         errors));
+      }
+    }
+  }
+
+  /**
+   * Check that a rack starts with /.
+   *
+   * @param rack Rack.
+   * @param where Where the rack was set, for error messages.
+   * @param errors Problems found are added here.
+   *
+   * @return The rack.
+   */
+  private static String checkRack(final String rack, final String where,
+                                  final List<String> errors) {
+    if (!rack.startsWith("/")) {
+      errors.add(where + ": rack " + rack + " must start with /");
+    }
+    return rack;
+  }
+
+  /**
+   * Check whether the topology assigns any racks.
+   *
+   * @return true if no mapping file, rules or default rack are set.
+   */
+  public boolean isEmpty() {
+    return mapping.isEmpty() && rules.isEmpty() && defaultRack == null;
+  }
+
+  /**
+   * Get the rack for a host.
+   *
+   * @param hostname Host name.
+   *
+   * @return Rack, or null if the topology doesn't assign the host one.
+   */
+  public String getRack(final String hostname) {
+    String rack = mapping.get(hostname);
+    if (rack != null) {
+      return rack;
+    }
+    for (Rule rule : rules) {
+      Matcher matcher = rule.pattern.matcher(hostname);
+      if (matcher.matches()) {
+        return expand(rule.rack, matcher);
+      }
+    }
+    return defaultRack;
+  }
+
+  /**
+   * Fill in a rule's rack with the groups of the host name it matched.
+   * Unlike {@link Matcher#replaceFirst}, only $ followed by digits is
+   * special, so the rest of the rack is used as written.
+   *
+   * @param rack Rack, possibly referring to groups.
+   * @param matcher Matcher for the host name, after a successful match.
+   *
+   * @return Rack with group references replaced.
+   */
+  private static String expand(final String rack, final Matcher matcher) {
+    StringBuilder expanded = new StringBuilder();
+    Matcher reference = GROUP_REFERENCE.matcher(rack);
+    int end = 0;
+    while (reference.find()) {
+      String group = matcher.group(Integer.parseInt(reference.group(1)));
+      expanded.append(rack, end, reference.start())
+        .append(group == null ? "" : group);
+      end = reference.end();
+    }
+    return expanded.append(rack, end, rack.length()).toString();
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import com.cloudera.api.model.ApiConfig;
+import com.cloudera.api.model.ApiServiceConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable spec for a cluster service, part of a {@link DeploymentSpec}.
+ */
+public final class ServiceSpec {
+
+  /**
+   * Deployment spec this service belongs to.
+   */
+  private final DeploymentSpec spec;
+
+  /**
+   * Service type, for example HDFS.
+   */
+  private final String type;
+
+  /**
+   * Section holding the service name and role hosts.
+   */
+  private final String section;
+
+  /**
+   * Service name.
+   */
+  private final String name;
+
+  /**
+   * Service-wide configuration.
+   */
+  private final List<ApiConfig> serviceConfig;
+
+  /**
+   * Constructor.
+   *
+   * @param spec Deployment spec this service belongs to.
+   * @param type Service type.
+   * @param section Section holding the service name and role hosts.
+   * @param name Service name.
+   * @param serviceConfigSection Section holding service-wide configuration.
+   */
+  ServiceSpec(final DeploymentSpec spec, final String type,
+              final String section, final String name,
+              final String serviceConfigSection) {
+    this.spec = spec;
+    this.type = type;
+    this.section = section;
+    this.name = name;
+    List<ApiConfig> configs = new ArrayList<ApiConfig>();
+    for (ApiConfig config : spec.getConfigs(serviceConfigSection)) {
+      configs.add(config);
+    }
+    this.serviceConfig = Collections.unmodifiableList(configs);
+  }
+
+  /**
+   * Get the service type.
+   *
+   * @return Service type.
+   */
+  public String getType() {
+    return type;
+  }
+
+  /**
+   * Get the service name.
+   *
+   * @return Service name.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the section holding the service name and role hosts.
+   *
+   * @return Section name.
+   */
+  public String getSection() {
+    return section;
+  }
+
+  /**
+   * Get the service-wide configuration.
+   *
+   * @return Copy of the service configuration.
+   */
+  public ApiServiceConfig getServiceConfig() {
+    ApiServiceConfig copy = new ApiServiceConfig();
+    for (ApiConfig config : DeploymentSpec.copyConfigs(serviceConfig)) {
+      copy.add(config);
+    }
+    return copy;
+  }
+
+  /**
+   * Get a parameter from the service's section.
+   *
+   * @param parameter Parameter name.
+   *
+   * @return Value, or an empty string if not set.
+   */
+  public String get(final String parameter) {
+    return spec.get(section, parameter);
+  }
+
+  /**
+   * Get the hosts for a role from the service's section.
+   *
+   * @param parameter Host list parameter name, for example
+   * hdfs_datanode_hosts.
+   *
+   * @return Hosts, empty if not set.
+   */
+  public HostSet getHosts(final String parameter) {
+    return spec.getHosts(section, parameter);
+  }
+
+  /**
+   * Get the host parameters from the service's section.
+   *
+   * @return Hosts keyed on parameter name.
+   */
+  public Map<String, HostSet> getHostParameters() {
+    return spec.getHostParameters(section);
+  }
+}
@@ -0,0 +1,451 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.catalog;
+
+import com.cloudera.api.model.ApiConfig;
+
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.ini4j.Wini;
+
+/**
+ * Offline catalog of the configuration parameters Cloudera Manager accepts
+ * for each service type and role type, dumped from a live CM by
+ * {@link ConfigCatalogDumper}. Used to check the keys and values in the
+ * configuration file's service and role config sections before they're
+ * sent to CM.
+ * <p>
+ * Parameters are grouped by scope: the service type for service-wide
+ * parameters (e.g. HDFS), or the service type and role type for role
+ * parameters (e.g. HDFS/NAMENODE). The catalog is stored as gzipped,
+ * tab separated lines sorted by scope and name, and held in hash maps once
+ * loaded.
+ * <p>
+ * The CM API doesn't describe parameter types or ranges, so the type of a
+ * parameter is inferred from its default value, and values are only checked
+ * against that type. Since the inferred type is a guess, a mismatch is
+ * reported separately from an unknown parameter.
+ */
+public final class ConfigCatalog {
+
+  /**
+   * First line of a catalog file, used to recognize the format.
+   */
+  private static final String HEADER = "# cmapi config catalog v1";
+
+  /**
+   * Scope for the management service.
+   */
+  public static final String MGMT_SCOPE = "MGMT";
+
+  /**
+   * Value types, inferred from parameter defaults.
+   */
+  public enum ValueType {
+    BOOLEAN("true or false"), LONG("an integer"), DOUBLE("a number"),
+    STRING("a string");
+
+    /**
+     * Description of the values accepted, for error messages.
+     */
+    private final String description;
+
+    /**
+     * Constructor.
+     *
+     * @param description Description of the values accepted.
+     */
+    ValueType(final String description) {
+      this.description = description;
+    }
+  }
+
+  /**
+   * Parameters keyed on scope, then name.
+   */
+  private final Map<String, Map<String, Entry>> scopes;
+
+  /**
+   * Constructor.
+   *
+   * @param scopes Parameters keyed on scope, then name.
+   */
+  public ConfigCatalog(final Map<String, Map<String, Entry>> scopes) {
+    Map<String, Map<String, Entry>> copy = new HashMap<>();
+    for (Map.Entry<String, Map<String, Entry>> scope : scopes.entrySet()) {
+      copy.put(scope.getKey(),
+               Collections.unmodifiableMap(new HashMap<>(scope.getValue())));
+    }
+    this.scopes = Collections.unmodifiableMap(copy);
+  }
+
+  /**
+   * Load the catalog named by config_catalog_file in the [CLUSTER]
+   * section.
+   *
+   * @param config Configuration parameters.
+   *
+   * @return Catalog, or null if none is configured.
+   *
+   * @throws IOException if the catalog can't be read.
+   */
+  public static ConfigCatalog fromConfig(final Wini config) throws IOException {
+    String file =
+      ConfigUtils.getString(config, Constants.CLUSTER_CONFIG_SECTION,
+                            Constants.CLUSTER_CONFIG_CATALOG_FILE_PARAMETER, "");
+    return file.isEmpty() ? null : load(new File(file));
+  }
+
+  /**
+   * Build the scope name for a service or role type.
+   *
+   * @param serviceType Service type, for example HDFS.
+   * @param roleType Role type, for example NAMENODE, or null for service
+   * parameters.
+   *
+   * @return Scope name.
+   */
+  public static String scope(final String serviceType, final String roleType) {
+    return roleType == null ? serviceType : serviceType + "/" + roleType;
+  }
+
+  /**
+   * Check whether the catalog covers a scope. Catalogs only cover the
+   * services that were deployed on the CM they were dumped from.
+   *
+   * @param scope Scope name.
+   *
+   * @return true if the catalog has parameters for the scope.
+   */
+  public boolean hasScope(final String scope) {
+    return scopes.containsKey(scope);
+  }
+
+  /**
+   * Look up a parameter.
+   *
+   * @param scope Scope name.
+   * @param name Parameter name.
+   *
+   * @return Catalog entry, or null if the scope has no such parameter.
+   */
+  public Entry get(final String scope, final String name) {
+    Map<String, Entry> entries = scopes.get(scope);
+    return entries == null ? null : entries.get(name);
+  }
+
+  /**
+   * Check that a parameter is known.
+   *
+   * @param scope Scope name. Must be covered by the catalog.
+   * @param name Parameter name.
+   *
+   * @return Description of the problem, or null if the parameter is known.
+   */
+  public String check(final String scope, final String name) {
+    if (get(scope, name) == null) {
+      return "unknown parameter for " + scope;
+    }
+    return null;
+  }
+
+  /**
+   * Check a parameter's value against the type inferred from its default.
+   * The type is only a guess, so a mismatch may still be a valid value, for
+   * example a fraction for a parameter whose default is 1.
+   *
+   * @param scope Scope name. Must be covered by the catalog.
+   * @param name Parameter name.
+   * @param value Parameter value.
+   *
+   * @return Description of the mismatch, or null if the value matches the
+   * inferred type or the parameter is unknown.
+   */
+  public String checkValue(final String scope, final String name,
+                           final String value) {
+    Entry entry = get(scope, name);
+    if (entry != null && value != null && !value.isEmpty() &&
+        !entry.accepts(value)) {
+      return "expected " + entry.getType().description + " for " + scope +
+        ", got " + value;
+    }
+    return null;
+  }
+
+  /**
+   * Get the number of parameters in the catalog.
+   *
+   * @return Number of parameters, over all scopes.
+   */
+  public int size() {
+    int size = 0;
+    for (Map<String, Entry> entries : scopes.values()) {
+      size += entries.size();
+    }
+    return size;
+  }
+
+  /**
+   * Read a catalog file.
+   *
+   * @param file Catalog file.
+   *
+   * @return Catalog.
+   *
+   * @throws IOException if the file can't be read or isn't a catalog.
+   */
+  public static ConfigCatalog load(final File file) throws IOException {
+    Map<String, Map<String, Entry>> scopes = new HashMap<>();
+    try (BufferedReader reader =
+           new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)),
+                                                    StandardCharsets.UTF_8))) {
+      String line = reader.readLine();
+      if (line == null || !line.startsWith(HEADER)) {
+        throw new IOException(file + " isn't a config catalog");
+      }
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 5) {
+          throw new IOException("Malformed catalog line in " + file + ": " +
+                                line);
+        }
+        Entry entry = new Entry(fields[1], ValueType.valueOf(fields[2]),
+                                unescape(fields[4]),
+                                Boolean.parseBoolean(fields[3]));
+        scopes.computeIfAbsent(fields[0], k -> new HashMap<>())
+          .put(entry.getName(), entry);
+      }
+    }
+    return new ConfigCatalog(scopes);
+  }
+
+  /**
+   * Write the catalog to a file.
+   *
+   * @param file Catalog file.
+   * @param source Description of where the catalog came from, recorded in
+   * the header.
+   *
+   * @throws IOException if the file can't be written.
+   */
+  public void write(final File file, final String source) throws IOException {
+    try (Writer writer =
+           new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)),
+                                                     StandardCharsets.UTF_8))) {
+      writer.write(HEADER + ", " + source + "\n");
+      for (Map.Entry<String, Map<String, Entry>> scope :
+             new TreeMap<>(scopes).entrySet()) {
+        for (Entry entry : new TreeMap<>(scope.getValue()).values()) {
+          writer.write(scope.getKey() + "\t" + entry.getName() + "\t" +
+                       entry.getType() + "\t" + entry.isRequired() + "\t" +
+                       escape(entry.getDefaultValue()) + "\n");
+        }
+      }
+    }
+  }
+
+  /**
+   * Escape a default value so it fits on one tab separated line.
+   *
+   * @param value Value, possibly null.
+   *
+   * @return Escaped value, empty for null.
+   */
+  private static String escape(final String value) {
+    if (value == null) {
+      return "";
+    }
+    return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+  }
+
+  /**
+   * Reverse {@link #escape}.
+   *
+   * @param value Escaped value.
+   *
+   * @return Original value.
+   */
+  private static String unescape(final String value) {
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\' && i + 1 < value.length()) {
+        char next = value.charAt(++i);
+        sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * A parameter in the catalog.
+   */
+  public static final class Entry {
+
+    /**
+     * Parameter name.
+     */
+    private final String name;
+
+    /**
+     * Value type, inferred from the default.
+     */
+    private final ValueType type;
+
+    /**
+     * Default value, empty if none.
+     */
+    private final String defaultValue;
+
+    /**
+     * Whether CM requires the parameter to be set.
+     */
+    private final boolean required;
+
+    /**
+     * Constructor.
+     *
+     * @param name Parameter name.
+     * @param type Value type.
+     * @param defaultValue Default value, empty if none.
+     * @param required Whether CM requires the parameter to be set.
+     */
+    public Entry(final String name, final ValueType type,
+                 final String defaultValue, final boolean required) {
+      this.name = name;
+      this.type = type;
+      this.defaultValue = defaultValue;
+      this.required = required;
+    }
+
+    /**
+     * Create an entry from a full view CM config.
+     *
+     * @param config Config as returned by a DataView.FULL config read.
+     *
+     * @return Catalog entry.
+     */
+    public static Entry of(final ApiConfig config) {
+      String defaultValue =
+        config.getDefaultValue() == null ? "" : config.getDefaultValue();
+      return new Entry(config.getName(), inferType(defaultValue), defaultValue,
+                       Boolean.TRUE.equals(config.getRequired()));
+    }
+
+    /**
+     * Infer a value type from a default value.
+     *
+     * @param value Default value.
+     *
+     * @return Value type, STRING if there's no default.
+     */
+    static ValueType inferType(final String value) {
+      if (value.equals("true") || value.equals("false")) {
+        return ValueType.BOOLEAN;
+      }
+      try {
+        Long.parseLong(value);
+        return ValueType.LONG;
+      } catch (NumberFormatException e) {
+        // Not an integer.
+      }
+      try {
+        Double.parseDouble(value);
+        return ValueType.DOUBLE;
+      } catch (NumberFormatException e) {
+        return ValueType.STRING;
+      }
+    }
+
+    /**
+     * Check whether a value is of this parameter's type.
+     *
+     * @param value Value.
+     *
+     * @return true if the value is acceptable.
+     */
+    boolean accepts(final String value) {
+      switch (type) {
+      case BOOLEAN:
+        return value.equals("true") || value.equals("false");
+      case LONG:
+        return inferType(value) == ValueType.LONG;
+      case DOUBLE:
+        ValueType valueType = inferType(value);
+        return valueType == ValueType.LONG || valueType == ValueType.DOUBLE;
+      default:
+        return true;
+      }
+    }
+
+    /**
+     * Get the parameter name.
+     *
+     * @return Parameter name.
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Get the value type.
+     *
+     * @return Value type.
+     */
+    public ValueType getType() {
+      return type;
+    }
+
+    /**
+     * Get the default value.
+     *
+     * @return Default value, empty if none.
+     */
+    public String getDefaultValue() {
+      return defaultValue;
+    }
+
+    /**
+     * Check whether CM requires the parameter to be set.
+     *
+     * @return true if required.
+     */
+    public boolean isRequired() {
+      return required;
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.catalog;
+
+import com.cloudera.api.DataView;
+import com.cloudera.api.model.ApiCluster;
+import com.cloudera.api.model.ApiConfig;
+import com.cloudera.api.model.ApiRoleConfigGroup;
+import com.cloudera.api.model.ApiService;
+import com.cloudera.api.v1.MgmtServiceResource;
+import com.cloudera.api.v10.RootResourceV10;
+import com.cloudera.api.v10.ServicesResourceV10;
+
+import com.cloudera.cmapi.deploy.CMApiDeploy;
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Wini;
+
+/**
+ * Dump the configuration parameters CM accepts for each service and role
+ * type into a {@link ConfigCatalog} file. Parameters are read with
+ * DataView.FULL config reads, which return every parameter with its
+ * default, for each service type deployed on the CM instance and for the
+ * management service. Each service and role type is read once, however
+ * many clusters or role config groups it appears in, so dumping from a CM
+ * with one cluster running every service type gives a complete catalog.
+ * <p>
+ * The catalog is written to the file named on the command line, or else
+ * to config_catalog_file in the [CLUSTER] section.
+ */
+public final class ConfigCatalogDumper {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(ConfigCatalogDumper.class);
+
+  /**
+   * Top level resource object providing access to the CM API namespace.
+   */
+  private final RootResourceV10 apiRoot;
+
+  /**
+   * Parameters dumped so far, keyed on scope, then name.
+   */
+  private final Map<String, Map<String, ConfigCatalog.Entry>> scopes =
+    new HashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param apiRoot Object providing access to the CM API root namespace.
+   */
+  public ConfigCatalogDumper(final RootResourceV10 apiRoot) {
+    this.apiRoot = apiRoot;
+  }
+
+  /**
+   * Load configuration, connect to CM and write the catalog.
+   *
+   * @param args Command line arguments: optionally the catalog file to
+   * write.
+   */
+  public static void main(final String[] args) {
+    String configFile = System.getProperty("cmapi.ini.file");
+    Wini config = null;
+    try {
+      config = new CMApiDeploy().getConfig(configFile);
+    } catch (IOException e) {
+      LOG.error("Caught exception reading configuration from " + configFile +
+                ", exception was " + e.getMessage());
+      System.exit(1);
+    }
+
+    String catalogFile = args.length > 0 ? args[0] :
+      ConfigUtils.getString(config, Constants.CLUSTER_CONFIG_SECTION,
+                            Constants.CLUSTER_CONFIG_CATALOG_FILE_PARAMETER, "");
+    if (catalogFile.isEmpty()) {
+      LOG.error("No catalog file given on the command line or set in " +
+                Constants.CLUSTER_CONFIG_CATALOG_FILE_PARAMETER);
+      System.exit(1);
+    }
+
+    RootResourceV10 apiRoot = CMApiDeploy.getRootResource(config);
+    try {
+      ConfigCatalog catalog = new ConfigCatalogDumper(apiRoot).dump();
+      catalog.write(new File(catalogFile),
+                    "dumped from " + config.get("CM", Constants.CM_PUBLIC_HOSTNAME_PARAMETER) +
+                    " (API " + apiRoot.getCurrentVersion() + ")");
+      LOG.info("Wrote " + catalog.size() + " parameters to " + catalogFile);
+    } catch (IOException | RuntimeException e) {
+      LOG.error("Caught exception dumping config catalog, exception was " +
+                e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Read the parameters of every service and role type on the CM instance.
+   *
+   * @return Catalog.
+   */
+  public ConfigCatalog dump() {
+    // /api/v1/clusters
+    for (ApiCluster cluster :
+           apiRoot.getClustersResource().readClusters(DataView.SUMMARY)) {
+      // /api/v1/clusters/{clusterName}/services
+      ServicesResourceV10 servicesResource =
+        apiRoot.getClustersResource().getServicesResource(cluster.getName());
+      for (ApiService service : servicesResource.readServices(DataView.SUMMARY)) {
+        String serviceScope = ConfigCatalog.scope(service.getType(), null);
+        if (!scopes.containsKey(serviceScope)) {
+          LOG.info("Reading " + service.getType() + " parameters from " +
+                   service.getName());
+          // /api/v1/clusters/{clusterName}/services/{serviceName}/config
+          add(serviceScope,
+              servicesResource.readServiceConfig(service.getName(), DataView.FULL));
+        }
+        // /api/v3/clusters/{clusterName}/services/{serviceName}/roleConfigGroups
+        for (ApiRoleConfigGroup group :
+               servicesResource.getRoleConfigGroupsResource(service.getName())
+               .readRoleConfigGroups()) {
+          String roleScope =
+            ConfigCatalog.scope(service.getType(), group.getRoleType());
+          if (!scopes.containsKey(roleScope)) {
+            // /api/v3/clusters/{clusterName}/services/{serviceName}/roleConfigGroups/{roleConfigGroupName}/config
+            add(roleScope,
+                servicesResource.getRoleConfigGroupsResource(service.getName())
+                .readConfig(group.getName(), DataView.FULL));
+          }
+        }
+      }
+    }
+
+    // /api/v1/cm/service
+    MgmtServiceResource mgmtResource =
+      apiRoot.getClouderaManagerResource().getMgmtServiceResource();
+    try {
+      add(ConfigCatalog.MGMT_SCOPE, mgmtResource.readServiceConfig(DataView.FULL));
+      // /api/v3/cm/service/roleConfigGroups
+      for (ApiRoleConfigGroup group :
+             mgmtResource.getRoleConfigGroupsResource().readRoleConfigGroups()) {
+        String roleScope =
+          ConfigCatalog.scope(ConfigCatalog.MGMT_SCOPE, group.getRoleType());
+        if (!scopes.containsKey(roleScope)) {
+          add(roleScope,
+              mgmtResource.getRoleConfigGroupsResource()
+              .readConfig(group.getName(), DataView.FULL));
+        }
+      }
+    } catch (RuntimeException e) {
+      // The management service needs a license and may not be set up:
+      LOG.warn("Couldn't read management service parameters: " +
+               e.getMessage());
+    }
+
+    return new ConfigCatalog(scopes);
+  }
+
+  /**
+   * Add parameters to a scope.
+   *
+   * @param scope Scope name.
+   * @param configs Full view configs.
+   */
+  private void add(final String scope, final Iterable<ApiConfig> configs) {
+    Map<String, ConfigCatalog.Entry> entries =
+      scopes.computeIfAbsent(scope, k -> new HashMap<>());
+    for (ApiConfig config : configs) {
+      entries.put(config.getName(), ConfigCatalog.Entry.of(config));
+    }
+    LOG.debug("Read " + entries.size() + " parameters for " + scope);
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.client;
+
+import com.cloudera.api.ApiRootResource;
+import com.cloudera.api.v10.RootResourceV10;
+import com.cloudera.api.v12.RootResourceV12;
+
+import org.apache.log4j.Logger;
+
+/**
+ * CM API version negotiation. At connect time the server's current API
+ * version is read and the client uses the highest version both sides
+ * support. Code paths that need a newer version than the v10 baseline check
+ * the negotiated version and fall back to the baseline calls on older
+ * servers.
+ */
+public final class ApiVersion {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(ApiVersion.class);
+
+  /**
+   * Lowest API version this application works with.
+   */
+  public static final int MINIMUM = 10;
+
+  /**
+   * Highest API version this client has resource interfaces for.
+   */
+  public static final int MAXIMUM = 12;
+
+  /**
+   * First version with cluster template import and export.
+   */
+  public static final int CLUSTER_TEMPLATES = 12;
+
+  /**
+   * Not instantiated.
+   */
+  private ApiVersion() {
+  }
+
+  /**
+   * Find the highest API version supported by both the server and this
+   * client.
+   *
+   * @param root Unversioned CM API root.
+   *
+   * @return Negotiated version number.
+   *
+   * @throws IllegalStateException if the server doesn't support the minimum
+   * version.
+   */
+  public static int negotiate(final ApiRootResource root) {
+    // /api/version
+    String current = root.getCurrentVersion();
+    int serverVersion;
+    try {
+      serverVersion = Integer.parseInt(current.trim().replaceFirst("^v", ""));
+    } catch (NumberFormatException e) {
+      throw new IllegalStateException("Unexpected CM API version " + current);
+    }
+    if (serverVersion < MINIMUM) {
+      throw new IllegalStateException("CM API version v" + serverVersion +
+                                      " is older than the minimum v" +
+                                      MINIMUM);
+    }
+    int version = Math.min(serverVersion, MAXIMUM);
+    LOG.info("CM server supports API v" + serverVersion + ", using v" +
+             version);
+    return version;
+  }
+
+  /**
+   * Get the versioned root resource for a negotiated version.
+   *
+   * @param root Unversioned CM API root.
+   * @param version Negotiated version number.
+   *
+   * @return Root resource. It implements the highest versioned interface
+   * for the negotiated version, which {@link #of(RootResourceV10)} reports.
+   */
+  public static RootResourceV10 getRoot(final ApiRootResource root,
+                                        final int version) {
+    return version >= CLUSTER_TEMPLATES ? root.getRootV12() :
+      root.getRootV10();
+  }
+
+  /**
+   * Get the version of a root resource returned by
+   * {@link #getRoot(ApiRootResource, int)}.
+   *
+   * @param root Root resource.
+   *
+   * @return Version number.
+   */
+  public static int of(final RootResourceV10 root) {
+    return root instanceof RootResourceV12 ? CLUSTER_TEMPLATES : MINIMUM;
+  }
+}
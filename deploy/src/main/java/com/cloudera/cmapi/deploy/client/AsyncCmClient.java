@@ -0,0 +1,371 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.client;
+
+import com.cloudera.api.DataView;
+import com.cloudera.api.model.ApiCommand;
+import com.cloudera.api.model.ApiConfigList;
+import com.cloudera.api.model.ApiHost;
+import com.cloudera.api.model.ApiHostList;
+import com.cloudera.api.model.ApiHostRefList;
+import com.cloudera.api.model.ApiParcelList;
+import com.cloudera.api.model.ApiRoleConfigGroupList;
+import com.cloudera.api.model.ApiRoleList;
+import com.cloudera.api.model.ApiService;
+import com.cloudera.api.model.ApiServiceConfig;
+import com.cloudera.api.model.ApiServiceList;
+import com.cloudera.api.v10.RootResourceV10;
+import com.cloudera.api.v10.ServicesResourceV10;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous facade over the Cloudera Manager API. Calls are made on
+ * virtual threads and return CompletableFutures, so callers can fan out
+ * hundreds of reads and writes without managing thread pools. The
+ * underlying CM API calls are still blocking, but a blocked virtual thread
+ * doesn't hold a platform thread.
+ * <p>
+ * Any call reachable from the root resource can be made asynchronously with
+ * {@link #call(Function)}, for example:
+ * <pre>
+ *   client.call(root -&gt; root.getClustersResource().readClusters(DataView.SUMMARY));
+ * </pre>
+ * Typed methods are provided for the calls most often fanned out during
+ * deployment.
+ */
+public class AsyncCmClient implements AutoCloseable {
+
+  /**
+   * CM API root resource.
+   */
+  private final RootResourceV10 apiRoot;
+
+  /**
+   * Executor starting a virtual thread per call.
+   */
+  private final ExecutorService executor =
+    Executors.newVirtualThreadPerTaskExecutor();
+
+  /**
+   * Constructor.
+   *
+   * @param apiRoot CM API root resource to make calls through.
+   */
+  public AsyncCmClient(final RootResourceV10 apiRoot) {
+    this.apiRoot = apiRoot;
+  }
+
+  /**
+   * Get the root resource calls are made through.
+   *
+   * @return CM API root resource.
+   */
+  public final RootResourceV10 getRootResource() {
+    return apiRoot;
+  }
+
+  /**
+   * Make a call through the root resource asynchronously.
+   *
+   * @param call Call to make.
+   * @param <T> Result type.
+   *
+   * @return Future completing with the result of the call.
+   */
+  public final <T> CompletableFuture<T> call(final Function<RootResourceV10, T> call) {
+    return CompletableFuture.supplyAsync(() -> call.apply(apiRoot), executor);
+  }
+
+  /**
+   * Run a task asynchronously, typically one or more calls through a
+   * resource the caller already holds.
+   *
+   * @param task Task to run.
+   * @param <T> Result type.
+   *
+   * @return Future completing with the result of the task.
+   */
+  public final <T> CompletableFuture<T> submit(final Supplier<T> task) {
+    return CompletableFuture.supplyAsync(task, executor);
+  }
+
+  /**
+   * Read the current state of a command.
+   *
+   * @param commandId Command ID.
+   *
+   * @return Future completing with the command.
+   */
+  public final CompletableFuture<ApiCommand> readCommand(final long commandId) {
+    // /api/v1/commands/{commandId}
+    return call(root -> root.getCommandsResource().readCommand(commandId));
+  }
+
+  /**
+   * Read all hosts managed by Cloudera Manager.
+   *
+   * @param view Level of detail to return.
+   *
+   * @return Future completing with the hosts.
+   */
+  public final CompletableFuture<ApiHostList> readHosts(final DataView view) {
+    // /api/v1/hosts
+    return call(root -> root.getHostsResource().readHosts(view));
+  }
+
+  /**
+   * Update a host, for example to set its rack.
+   *
+   * @param hostId Host ID.
+   * @param host Host with the fields to update set.
+   *
+   * @return Future completing with the updated host.
+   */
+  public final CompletableFuture<ApiHost> updateHost(final String hostId,
+                                                     final ApiHost host) {
+    // /api/v1/hosts/{hostId}
+    return call(root -> root.getHostsResource().updateHost(hostId, host));
+  }
+
+  /**
+   * Read a service.
+   *
+   * @param clusterName Cluster name.
+   * @param serviceName Service name.
+   *
+   * @return Future completing with the service.
+   */
+  public final CompletableFuture<ApiService> readService(final String clusterName,
+                                                         final String serviceName) {
+    // /api/v1/clusters/{clusterName}/services/{serviceName}
+    return call(root -> services(root, clusterName).readService(serviceName));
+  }
+
+  /**
+   * Read the hosts of a cluster.
+   *
+   * @param clusterName Cluster name.
+   *
+   * @return Future completing with references to the cluster's hosts.
+   */
+  public final CompletableFuture<ApiHostRefList> listClusterHosts(final String clusterName) {
+    // /api/v3/clusters/{clusterName}/hosts
+    return call(root -> root.getClustersResource().listHosts(clusterName));
+  }
+
+  /**
+   * Read the Parcels known to a cluster.
+   *
+   * @param clusterName Cluster name.
+   * @param view Level of detail to return.
+   *
+   * @return Future completing with the Parcels.
+   */
+  public final CompletableFuture<ApiParcelList> readParcels(final String clusterName,
+                                                            final DataView view) {
+    // /api/v3/clusters/{clusterName}/parcels
+    return call(root -> root.getClustersResource().getParcelsResource(clusterName)
+                .readParcels(view));
+  }
+
+  /**
+   * Read the services of a cluster.
+   *
+   * @param clusterName Cluster name.
+   * @param view Level of detail to return.
+   *
+   * @return Future completing with the services.
+   */
+  public final CompletableFuture<ApiServiceList> readServices(final String clusterName,
+                                                              final DataView view) {
+    // /api/v1/clusters/{clusterName}/services
+    return call(root -> services(root, clusterName).readServices(view));
+  }
+
+  /**
+   * Read the configuration of a service.
+   *
+   * @param clusterName Cluster name.
+   * @param serviceName Service name.
+   * @param view Level of detail to return; FULL includes defaults.
+   *
+   * @return Future completing with the service configuration.
+   */
+  public final CompletableFuture<ApiServiceConfig> readServiceConfig(final String clusterName,
+                                                                    final String serviceName,
+                                                                    final DataView view) {
+    // /api/v1/clusters/{clusterName}/services/{serviceName}/config
+    return call(root -> services(root, clusterName)
+                .readServiceConfig(serviceName, view));
+  }
+
+  /**
+   * Read the roles of a service.
+   *
+   * @param clusterName Cluster name.
+   * @param serviceName Service name.
+   *
+   * @return Future completing with the roles.
+   */
+  public final CompletableFuture<ApiRoleList> readRoles(final String clusterName,
+                                                        final String serviceName) {
+    // /api/v1/clusters/{clusterName}/services/{serviceName}/roles
+    return call(root -> services(root, clusterName)
+                .getRolesResource(serviceName).readRoles());
+  }
+
+  /**
+   * Read the role config groups of a service.
+   *
+   * @param clusterName Cluster name.
+   * @param serviceName Service name.
+   *
+   * @return Future completing with the role config groups.
+   */
+  public final CompletableFuture<ApiRoleConfigGroupList> readRoleConfigGroups(final String clusterName,
+                                                                              final String serviceName) {
+    // /api/v3/clusters/{clusterName}/services/{serviceName}/roleConfigGroups
+    return call(root -> services(root, clusterName)
+                .getRoleConfigGroupsResource(serviceName).readRoleConfigGroups());
+  }
+
+  /**
+   * Read the configuration of a role config group.
+   *
+   * @param clusterName Cluster name.
+   * @param serviceName Service name.
+   * @param groupName Role config group name.
+   * @param view Level of detail to return; FULL includes defaults.
+   *
+   * @return Future completing with the configuration.
+   */
+  public final CompletableFuture<ApiConfigList> readRoleConfigGroupConfig(final String clusterName,
+                                                                          final String serviceName,
+                                                                          final String groupName,
+                                                                          final DataView view) {
+    // /api/v3/clusters/{clusterName}/services/{serviceName}/roleConfigGroups/{roleConfigGroupName}/config
+    return call(root -> services(root, clusterName)
+                .getRoleConfigGroupsResource(serviceName)
+                .readConfig(groupName, view));
+  }
+
+  /**
+   * Add roles to an existing service.
+   *
+   * @param clusterName Cluster name.
+   * @param serviceName Service name.
+   * @param roles Roles to create.
+   *
+   * @return Future completing with the created roles.
+   */
+  public final CompletableFuture<ApiRoleList> createRoles(final String clusterName,
+                                                          final String serviceName,
+                                                          final ApiRoleList roles) {
+    // /api/v8/clusters/{clusterName}/services/{serviceName}/roles
+    return call(root -> services(root, clusterName)
+                .getRolesResource(serviceName).createRoles(roles));
+  }
+
+  /**
+   * Create role config groups in a service.
+   *
+   * @param clusterName Cluster name.
+   * @param serviceName Service name.
+   * @param groups Groups to create, with their configuration.
+   *
+   * @return Future completing with the created groups.
+   */
+  public final CompletableFuture<ApiRoleConfigGroupList> createRoleConfigGroups(final String clusterName,
+                                                                                final String serviceName,
+                                                                                final ApiRoleConfigGroupList groups) {
+    // /api/v3/clusters/{clusterName}/services/{serviceName}/roleConfigGroups
+    return call(root -> services(root, clusterName)
+                .getRoleConfigGroupsResource(serviceName)
+                .createRoleConfigGroups(groups));
+  }
+
+  /**
+   * Update the configuration of a role config group.
+   *
+   * @param clusterName Cluster name.
+   * @param serviceName Service name.
+   * @param groupName Role config group name.
+   * @param message Message recorded in the CM audit log.
+   * @param configs Configuration values to set.
+   *
+   * @return Future completing with the updated configuration.
+   */
+  public final CompletableFuture<ApiConfigList> updateRoleConfigGroupConfig(final String clusterName,
+                                                                            final String serviceName,
+                                                                            final String groupName,
+                                                                            final String message,
+                                                                            final ApiConfigList configs) {
+    // /api/v3/clusters/{clusterName}/services/{serviceName}/roleConfigGroups/{roleConfigGroupName}/config
+    return call(root -> services(root, clusterName)
+                .getRoleConfigGroupsResource(serviceName)
+                .updateConfig(groupName, message, configs));
+  }
+
+  /**
+   * Combine futures into one completing with all of their results, in order.
+   * The combined future completes exceptionally if any of the futures does.
+   *
+   * @param futures Futures to combine.
+   * @param <T> Result type.
+   *
+   * @return Future completing with the list of results.
+   */
+  public static <T> CompletableFuture<List<T>> allOf(final List<CompletableFuture<T>> futures) {
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+      .thenApply(ignored -> {
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+          results.add(future.join());
+        }
+        return results;
+      });
+  }
+
+  /**
+   * Stop accepting calls and wait for running calls to complete. Closing is
+   * optional, since virtual threads don't keep the JVM running.
+   */
+  public final void close() {
+    executor.close();
+  }
+
+  /**
+   * Get the services resource for a cluster.
+   *
+   * @param root CM API root resource.
+   * @param clusterName Cluster name.
+   *
+   * @return Services resource.
+   */
+  private static ServicesResourceV10 services(final RootResourceV10 root,
+                                              final String clusterName) {
+    // /api/v1/clusters/{clusterName}/services
+    return root.getClustersResource().getServicesResource(clusterName);
+  }
+}
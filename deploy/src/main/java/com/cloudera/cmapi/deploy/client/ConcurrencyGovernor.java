@@ -0,0 +1,319 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.client;
+
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Wini;
+
+/**
+ * Client side limit on concurrent CM API calls. The CM API shares its
+ * database with the Service Monitor, so parallel deployment steps must not
+ * flood the server. Each endpoint class has its own concurrency limit,
+ * adjusted using additive increase, multiplicative decrease (AIMD): each
+ * call completing within the latency target for its class raises the limit
+ * by about one per limit's worth of calls, and a call failing with a
+ * transient error or exceeding the latency target halves it.
+ */
+public class ConcurrencyGovernor {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG =
+    Logger.getLogger(ConcurrencyGovernor.class);
+
+  /**
+   * Factor applied to a limit on overload.
+   */
+  private static final double DECREASE_FACTOR = 0.5;
+
+  /**
+   * Lowest limit for any endpoint class.
+   */
+  private static final double MIN_LIMIT = 1;
+
+  /**
+   * Default maximum concurrency for each endpoint class.
+   */
+  private static final Map<EndpointClass, Integer> DEFAULT_MAX_CONCURRENCY =
+    new EnumMap<>(Map.of(EndpointClass.READ, 32,
+                         EndpointClass.CONFIG_WRITE, 8,
+                         EndpointClass.COMMAND, 4,
+                         EndpointClass.WRITE, 8));
+
+  /**
+   * Default latency target in milliseconds for each endpoint class.
+   */
+  private static final Map<EndpointClass, Long> DEFAULT_LATENCY_TARGET_MILLIS =
+    new EnumMap<>(Map.of(EndpointClass.READ, 2000L,
+                         EndpointClass.CONFIG_WRITE, 5000L,
+                         EndpointClass.COMMAND, 10000L,
+                         EndpointClass.WRITE, 10000L));
+
+  /**
+   * Limit for each endpoint class.
+   */
+  private final Map<EndpointClass, AdaptiveLimit> limits =
+    new EnumMap<>(EndpointClass.class);
+
+  /**
+   * Constructor.
+   *
+   * @param maxConcurrency Maximum concurrency for each endpoint class.
+   * @param latencyTargets Latency target in milliseconds for each endpoint
+   * class.
+   */
+  public ConcurrencyGovernor(final Map<EndpointClass, Integer> maxConcurrency,
+                             final Map<EndpointClass, Long> latencyTargets) {
+    for (EndpointClass endpointClass : EndpointClass.values()) {
+      limits.put(endpointClass,
+                 new AdaptiveLimit(endpointClass,
+                                   maxConcurrency.get(endpointClass),
+                                   latencyTargets.get(endpointClass)));
+    }
+  }
+
+  /**
+   * Create a governor from the [GOVERNOR] section of the configuration.
+   * Parameters are named after the endpoint class, for example
+   * read_max_concurrency and read_latency_target_millis.
+   *
+   * @param config Configuration parameters.
+   *
+   * @return Governor, or null if disabled in the configuration.
+   */
+  public static ConcurrencyGovernor fromConfig(final Wini config) {
+    if (!ConfigUtils.getBoolean(config, Constants.GOVERNOR_CONFIG_SECTION,
+                                Constants.GOVERNOR_ENABLED_PARAMETER, true)) {
+      return null;
+    }
+    Map<EndpointClass, Integer> maxConcurrency =
+      new EnumMap<>(EndpointClass.class);
+    Map<EndpointClass, Long> latencyTargets =
+      new EnumMap<>(EndpointClass.class);
+    for (EndpointClass endpointClass : EndpointClass.values()) {
+      String prefix = endpointClass.name().toLowerCase();
+      maxConcurrency.put(endpointClass,
+                         ConfigUtils.getInt(config,
+                                            Constants.GOVERNOR_CONFIG_SECTION,
+                                            prefix + Constants.GOVERNOR_MAX_CONCURRENCY_SUFFIX,
+                                            DEFAULT_MAX_CONCURRENCY.get(endpointClass)));
+      latencyTargets.put(endpointClass,
+                         ConfigUtils.getLong(config,
+                                             Constants.GOVERNOR_CONFIG_SECTION,
+                                             prefix + Constants.GOVERNOR_LATENCY_TARGET_SUFFIX,
+                                             DEFAULT_LATENCY_TARGET_MILLIS.get(endpointClass)));
+    }
+    return new ConcurrencyGovernor(maxConcurrency, latencyTargets);
+  }
+
+  /**
+   * Wait for a permit to make a call.
+   *
+   * @param endpointClass Class of the endpoint being called.
+   *
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public final void acquire(final EndpointClass endpointClass)
+    throws InterruptedException {
+    limits.get(endpointClass).acquire();
+  }
+
+  /**
+   * Return a permit and adjust the limit based on the call's outcome.
+   *
+   * @param endpointClass Class of the endpoint called.
+   * @param latency Call latency in milliseconds.
+   * @param overloaded true if the call failed in a way suggesting the
+   * server is overloaded.
+   */
+  public final void release(final EndpointClass endpointClass,
+                            final long latency, final boolean overloaded) {
+    limits.get(endpointClass).release(latency, overloaded);
+  }
+
+  /**
+   * Get current limits and call statistics for each endpoint class.
+   *
+   * @return Metrics keyed on endpoint class.
+   */
+  public final Map<String, Map<String, Object>> getMetrics() {
+    Map<String, Map<String, Object>> metrics = new LinkedHashMap<>();
+    for (AdaptiveLimit limit : limits.values()) {
+      metrics.put(limit.endpointClass.name(), limit.getMetrics());
+    }
+    return metrics;
+  }
+
+  /**
+   * AIMD concurrency limit for one endpoint class.
+   */
+  private static final class AdaptiveLimit {
+
+    /**
+     * Endpoint class this limit applies to.
+     */
+    private final EndpointClass endpointClass;
+
+    /**
+     * Highest value for the limit.
+     */
+    private final int maxLimit;
+
+    /**
+     * Calls taking longer than this, in milliseconds, reduce the limit.
+     */
+    private final long latencyTarget;
+
+    /**
+     * Current limit. Fractional so that increases can be additive per call.
+     */
+    private double limit;
+
+    /**
+     * Calls in flight.
+     */
+    private int inFlight;
+
+    /**
+     * Completed calls.
+     */
+    private long calls;
+
+    /**
+     * Completed calls that reduced the limit.
+     */
+    private long overloads;
+
+    /**
+     * Total latency of completed calls in milliseconds.
+     */
+    private long totalLatency;
+
+    /**
+     * Time of the last decrease. At most one decrease is made per latency
+     * target, so calls failing together count as one overload.
+     */
+    private long lastDecrease;
+
+    /**
+     * Guards the limit and counters. Callers run on virtual threads, which
+     * pin their carrier while waiting on a monitor but not on a lock.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when a call completes.
+     */
+    private final Condition released = lock.newCondition();
+
+    /**
+     * Constructor. The limit starts at its maximum and backs off on
+     * overload.
+     *
+     * @param endpointClass Endpoint class this limit applies to.
+     * @param maxLimit Highest value for the limit.
+     * @param latencyTarget Latency target in milliseconds.
+     */
+    AdaptiveLimit(final EndpointClass endpointClass, final int maxLimit,
+                  final long latencyTarget) {
+      this.endpointClass = endpointClass;
+      this.maxLimit = Math.max(1, maxLimit);
+      this.latencyTarget = latencyTarget;
+      this.limit = this.maxLimit;
+    }
+
+    /**
+     * Wait until a call is allowed under the current limit.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void acquire() throws InterruptedException {
+      lock.lockInterruptibly();
+      try {
+        while (inFlight >= (int) limit) {
+          released.await();
+        }
+        inFlight++;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Record a completed call and adjust the limit.
+     *
+     * @param latency Call latency in milliseconds.
+     * @param failed true if the call failed with a transient error.
+     */
+    void release(final long latency, final boolean failed) {
+      lock.lock();
+      try {
+        inFlight--;
+        calls++;
+        totalLatency += latency;
+        if (failed || latency > latencyTarget) {
+          overloads++;
+          long now = System.currentTimeMillis();
+          if (now - lastDecrease > latencyTarget) {
+            lastDecrease = now;
+            limit = Math.max(MIN_LIMIT, limit * DECREASE_FACTOR);
+            LOG.info("Reducing " + endpointClass + " concurrency limit to " +
+                     (int) limit + " after " +
+                     (failed ? "error" : latency + "ms call"));
+          }
+        } else if (limit < maxLimit) {
+          limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        released.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Get the current limit and call statistics.
+     *
+     * @return Metrics for this endpoint class.
+     */
+    Map<String, Object> getMetrics() {
+      lock.lock();
+      try {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("limit", (int) limit);
+        metrics.put("maxLimit", maxLimit);
+        metrics.put("inFlight", inFlight);
+        metrics.put("calls", calls);
+        metrics.put("overloads", overloads);
+        metrics.put("averageLatencyMillis", calls == 0 ? 0 : totalLatency / calls);
+        return metrics;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.client;
+
+import com.cloudera.api.model.ApiBulkCommandList;
+import com.cloudera.api.model.ApiCommand;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+
+/**
+ * Classes of CM API endpoints. The class of an endpoint determines whether
+ * a failed call can safely be retried.
+ */
+public enum EndpointClass {
+
+  /**
+   * Reads (GET requests). Always safe to retry.
+   */
+  READ,
+
+  /**
+   * Configuration and other updates (PUT requests). These set state rather
+   * than modify it, so are safe to retry.
+   */
+  CONFIG_WRITE,
+
+  /**
+   * Requests starting a CM command (POST requests returning a command).
+   * Retrying may start the command twice.
+   */
+  COMMAND,
+
+  /**
+   * Other writes, such as creating or deleting services and roles. Not safe
+   * to retry without checking what the failed call did.
+   */
+  WRITE;
+
+  /**
+   * Package holding the JAX-RS HTTP method annotations.
+   */
+  private static final String JAX_RS_PACKAGE = "javax.ws.rs.";
+
+  /**
+   * Classify a resource method. The JAX-RS annotation on the method gives
+   * the HTTP method. If there isn't one the method name and return type are
+   * used instead.
+   *
+   * @param method Resource method.
+   *
+   * @return Endpoint class.
+   */
+  public static EndpointClass classify(final Method method) {
+    boolean returnsCommand =
+      ApiCommand.class.isAssignableFrom(method.getReturnType()) ||
+      ApiBulkCommandList.class.isAssignableFrom(method.getReturnType());
+
+    for (Annotation annotation : method.getAnnotations()) {
+      String name = annotation.annotationType().getName();
+      if (!name.startsWith(JAX_RS_PACKAGE)) {
+        continue;
+      }
+      name = name.substring(JAX_RS_PACKAGE.length());
+      if (name.equals("GET")) {
+        return READ;
+      } else if (name.equals("PUT")) {
+        return CONFIG_WRITE;
+      } else if (name.equals("POST") || name.equals("DELETE")) {
+        return returnsCommand ? COMMAND : WRITE;
+      }
+    }
+
+    String name = method.getName();
+    if (returnsCommand) {
+      return COMMAND;
+    } else if (name.startsWith("read") || name.startsWith("list") ||
+               name.startsWith("get") || name.startsWith("export")) {
+      return READ;
+    } else if (name.startsWith("update")) {
+      return CONFIG_WRITE;
+    }
+    return WRITE;
+  }
+}
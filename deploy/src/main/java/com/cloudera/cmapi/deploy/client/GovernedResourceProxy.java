@@ -0,0 +1,96 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.client;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Resource proxy passing every CM API call through a
+ * {@link ConcurrencyGovernor}. Calls wait for a permit for their endpoint
+ * class, and the outcome of each call feeds back into the limit.
+ */
+public class GovernedResourceProxy extends ResourceProxy {
+
+  /**
+   * Governor shared by all resources reached from the same root.
+   */
+  private final ConcurrencyGovernor governor;
+
+  /**
+   * Constructor.
+   *
+   * @param target Resource object to wrap.
+   * @param governor Governor limiting concurrent calls.
+   */
+  protected GovernedResourceProxy(final Object target,
+                                  final ConcurrencyGovernor governor) {
+    super(target);
+    this.governor = governor;
+  }
+
+  /**
+   * Wrap a resource object so that calls through it and its sub-resources
+   * are governed.
+   *
+   * @param type Resource interface.
+   * @param target Resource object to wrap.
+   * @param governor Governor limiting concurrent calls.
+   * @param <T> Resource interface type.
+   *
+   * @return Proxy implementing the resource interface.
+   */
+  public static <T> T wrap(final Class<T> type, final T target,
+                           final ConcurrencyGovernor governor) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+                                            new Class<?>[] {type},
+                                            new GovernedResourceProxy(target,
+                                                                      governor)));
+  }
+
+  @Override
+  protected ResourceProxy createHandler(final Object subResource) {
+    return new GovernedResourceProxy(subResource, governor);
+  }
+
+  @Override
+  protected Object invokeTarget(final Method method, final Object[] args)
+    throws Throwable {
+    EndpointClass endpointClass = EndpointClass.classify(method);
+    try {
+      governor.acquire(endpointClass);
+    } catch (InterruptedException e) {
+      // Resource interfaces don't declare InterruptedException, so keep the
+      // interrupt status and fail with an unchecked exception instead:
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting to call " +
+                                      method.getDeclaringClass().getSimpleName() +
+                                      "." + method.getName(), e);
+    }
+    long start = System.currentTimeMillis();
+    boolean overloaded = false;
+    try {
+      return super.invokeTarget(method, args);
+    } catch (Throwable t) {
+      overloaded = RetryPolicy.isTransient(t);
+      throw t;
+    } finally {
+      governor.release(endpointClass, System.currentTimeMillis() - start,
+                       overloaded);
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dynamic proxy wrapping a Cloudera Manager API resource object. Calls to
+ * sub-resource locators (for example RootResourceV10.getClustersResource() or
+ * ClustersResourceV10.getServicesResource(clusterName)) return proxies that
+ * are themselves wrapped, so the wrapping extends to every resource reached
+ * from the root.
+ * <p>
+ * Sub-resource proxies are cached per locator and arguments. Creating CXF
+ * client proxies is relatively expensive, and long-lived clients otherwise
+ * build a new proxy for every call made through the resource tree. The cache
+ * is kept per thread: CXF client proxies hold the state of the request in
+ * flight, so one mustn't be used by two threads at once.
+ */
+public class ResourceProxy implements InvocationHandler {
+
+  /**
+   * Package prefix for Cloudera Manager API resource interfaces.
+   */
+  private static final String RESOURCE_PACKAGE_PREFIX = "com.cloudera.api.v";
+
+  /**
+   * Wrapped resource object.
+   */
+  private final Object target;
+
+  /**
+   * Calling thread's cache of wrapped sub-resources, keyed on locator name
+   * and arguments.
+   */
+  private final ThreadLocal<Map<String, Object>> subResources =
+    ThreadLocal.withInitial(HashMap::new);
+
+  /**
+   * Constructor.
+   *
+   * @param target Resource object to wrap.
+   */
+  protected ResourceProxy(final Object target) {
+    this.target = target;
+  }
+
+  /**
+   * Wrap a resource object.
+   *
+   * @param type Resource interface.
+   * @param target Resource object to wrap.
+   * @param <T> Resource interface type.
+   *
+   * @return Proxy implementing the resource interface.
+   */
+  public static <T> T wrap(final Class<T> type, final T target) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+                                            new Class<?>[] {type},
+                                            new ResourceProxy(target)));
+  }
+
+  /**
+   * Get the wrapped resource object.
+   *
+   * @return Wrapped resource.
+   */
+  protected final Object getTarget() {
+    return target;
+  }
+
+  /**
+   * Create the handler used to wrap a sub-resource returned by a locator.
+   * Subclasses override this so that sub-resources get the same handling.
+   *
+   * @param subResource Sub-resource object to wrap.
+   *
+   * @return Handler for the sub-resource.
+   */
+  protected ResourceProxy createHandler(final Object subResource) {
+    return new ResourceProxy(subResource);
+  }
+
+  /**
+   * Invoke a resource method on the wrapped object. Subclasses override this
+   * to add behavior around API calls.
+   *
+   * @param method Method being invoked.
+   * @param args Method arguments.
+   *
+   * @return Method return value.
+   *
+   * @throws Throwable exception thrown by the wrapped method.
+   */
+  protected Object invokeTarget(final Method method, final Object[] args)
+    throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Whether a method is a sub-resource locator, that is a method returning
+   * another API resource interface rather than making a request.
+   *
+   * @param method Method to check.
+   *
+   * @return true if the method returns a sub-resource.
+   */
+  public static boolean isSubResourceLocator(final Method method) {
+    Class<?> returnType = method.getReturnType();
+    return returnType.isInterface() &&
+      returnType.getName().startsWith(RESOURCE_PACKAGE_PREFIX);
+  }
+
+  @Override
+  public final Object invoke(final Object proxy, final Method method,
+                             final Object[] args) throws Throwable {
+
+    if (method.getDeclaringClass() == Object.class) {
+      if ("equals".equals(method.getName())) {
+        return proxy == args[0];
+      } else if ("hashCode".equals(method.getName())) {
+        return System.identityHashCode(proxy);
+      }
+      return "ResourceProxy[" + target + "]";
+    }
+
+    if (!isSubResourceLocator(method)) {
+      return invokeTarget(method, args);
+    }
+
+    String key = method.getName() +
+      (args == null ? "" : Arrays.asList(args).toString());
+    Map<String, Object> cache = subResources.get();
+    Object subResource = cache.get(key);
+    if (subResource == null) {
+      Object result;
+      try {
+        result = method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+      if (result == null) {
+        return null;
+      }
+      Class<?> type = method.getReturnType();
+      subResource = Proxy.newProxyInstance(type.getClassLoader(),
+                                           new Class<?>[] {type},
+                                           createHandler(result));
+      cache.put(key, subResource);
+    }
+    return subResource;
+  }
+}
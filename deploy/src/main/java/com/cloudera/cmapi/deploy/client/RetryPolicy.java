@@ -0,0 +1,272 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.client;
+
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.ini4j.Wini;
+
+/**
+ * Settings and shared state for retrying failed CM API calls: the number of
+ * attempts per call, exponential backoff with jitter, and a retry budget per
+ * endpoint. The budget caps the number of retries for an endpoint within a
+ * window of time, so an endpoint that keeps failing stops being retried
+ * instead of multiplying load on an unhealthy server. The budget refills
+ * steadily over the window, so a long-running client such as the deploy
+ * server retries again once the server recovers.
+ */
+public class RetryPolicy {
+
+  /**
+   * Default maximum attempts per call, including the first.
+   */
+  private static final int DEFAULT_MAX_ATTEMPTS = 4;
+
+  /**
+   * Default base backoff delay in milliseconds.
+   */
+  private static final long DEFAULT_BASE_DELAY_MILLIS = 1000;
+
+  /**
+   * Default maximum backoff delay in milliseconds.
+   */
+  private static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+
+  /**
+   * Default number of retries allowed per endpoint.
+   */
+  private static final int DEFAULT_ENDPOINT_BUDGET = 50;
+
+  /**
+   * Default window in seconds over which an endpoint's budget refills.
+   */
+  private static final long DEFAULT_BUDGET_WINDOW_SECONDS = 300;
+
+  /**
+   * HTTP status returned by a server not accepting requests.
+   */
+  private static final int SERVICE_UNAVAILABLE = 503;
+
+  /**
+   * Maximum attempts per call, including the first.
+   */
+  private final int maxAttempts;
+
+  /**
+   * Base backoff delay in milliseconds.
+   */
+  private final long baseDelay;
+
+  /**
+   * Maximum backoff delay in milliseconds.
+   */
+  private final long maxDelay;
+
+  /**
+   * Number of retries allowed per endpoint within the budget window.
+   */
+  private final int endpointBudget;
+
+  /**
+   * Window in milliseconds over which an endpoint's budget refills.
+   */
+  private final long budgetWindow;
+
+  /**
+   * Remaining retries for each endpoint.
+   */
+  private final ConcurrentMap<String, Budget> budgets =
+    new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param maxAttempts Maximum attempts per call, including the first.
+   * @param baseDelay Base backoff delay in milliseconds.
+   * @param maxDelay Maximum backoff delay in milliseconds.
+   * @param endpointBudget Number of retries allowed per endpoint within the
+   * budget window.
+   * @param budgetWindow Window in milliseconds over which an endpoint's
+   * budget refills.
+   */
+  public RetryPolicy(final int maxAttempts, final long baseDelay,
+                     final long maxDelay, final int endpointBudget,
+                     final long budgetWindow) {
+    this.maxAttempts = maxAttempts;
+    this.baseDelay = baseDelay;
+    this.maxDelay = maxDelay;
+    this.endpointBudget = endpointBudget;
+    this.budgetWindow = Math.max(1, budgetWindow);
+  }
+
+  /**
+   * Create a policy from the [RETRY] section of the configuration.
+   *
+   * @param config Configuration parameters.
+   *
+   * @return Retry policy.
+   */
+  public static RetryPolicy fromConfig(final Wini config) {
+    return new RetryPolicy(ConfigUtils.getInt(config,
+                                              Constants.RETRY_CONFIG_SECTION,
+                                              Constants.RETRY_MAX_ATTEMPTS_PARAMETER,
+                                              DEFAULT_MAX_ATTEMPTS),
+                           ConfigUtils.getLong(config,
+                                               Constants.RETRY_CONFIG_SECTION,
+                                               Constants.RETRY_BASE_DELAY_MILLIS_PARAMETER,
+                                               DEFAULT_BASE_DELAY_MILLIS),
+                           ConfigUtils.getLong(config,
+                                               Constants.RETRY_CONFIG_SECTION,
+                                               Constants.RETRY_MAX_DELAY_MILLIS_PARAMETER,
+                                               DEFAULT_MAX_DELAY_MILLIS),
+                           ConfigUtils.getInt(config,
+                                              Constants.RETRY_CONFIG_SECTION,
+                                              Constants.RETRY_ENDPOINT_BUDGET_PARAMETER,
+                                              DEFAULT_ENDPOINT_BUDGET),
+                           ConfigUtils.getLong(config,
+                                               Constants.RETRY_CONFIG_SECTION,
+                                               Constants.RETRY_BUDGET_WINDOW_SECONDS_PARAMETER,
+                                               DEFAULT_BUDGET_WINDOW_SECONDS) * 1000);
+  }
+
+  /**
+   * Get the maximum attempts per call.
+   *
+   * @return Maximum attempts, including the first.
+   */
+  public final int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * Take one retry from an endpoint's budget.
+   *
+   * @param endpoint Endpoint name.
+   *
+   * @return true if the budget allowed the retry.
+   */
+  public final boolean acquireRetry(final String endpoint) {
+    return budgets.computeIfAbsent(endpoint, k -> new Budget()).acquire();
+  }
+
+  /**
+   * Compute the delay before a retry: a random time up to an exponentially
+   * growing cap ("full jitter"), so clients retrying together spread out.
+   *
+   * @param attempt Retry attempt, starting at 1.
+   *
+   * @return Delay in milliseconds.
+   */
+  public final long backoff(final int attempt) {
+    long cap = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 20));
+    return ThreadLocalRandom.current().nextLong(cap + 1);
+  }
+
+  /**
+   * Check whether a failure is transient: an I/O error such as a socket
+   * timeout or refused connection, or a 5xx response from the server.
+   *
+   * @param error Error thrown by a call.
+   *
+   * @return true if the call might succeed if retried.
+   */
+  public static boolean isTransient(final Throwable error) {
+    for (Throwable t = error; t != null; t = t.getCause()) {
+      if (t instanceof IOException) {
+        return true;
+      }
+      if (t instanceof WebApplicationException) {
+        WebApplicationException e = (WebApplicationException) t;
+        return e.getResponse() != null && e.getResponse().getStatus() >= 500;
+      }
+      if (t.getCause() == t) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check whether a failed request can't have reached the server: the
+   * connection couldn't be made, or the server answered that it's
+   * unavailable without handling the request.
+   *
+   * @param error Error thrown by a call.
+   *
+   * @return true if the request certainly wasn't processed.
+   */
+  public static boolean isNotSent(final Throwable error) {
+    for (Throwable t = error; t != null; t = t.getCause()) {
+      if (t instanceof ConnectException || t instanceof UnknownHostException) {
+        return true;
+      }
+      if (t instanceof WebApplicationException) {
+        WebApplicationException e = (WebApplicationException) t;
+        return e.getResponse() != null &&
+          e.getResponse().getStatus() == SERVICE_UNAVAILABLE;
+      }
+      if (t.getCause() == t) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Retry budget of one endpoint, refilled at a steady rate so the full
+   * budget is restored over one window.
+   */
+  private final class Budget {
+
+    /**
+     * Retries available, fractional as the budget refills continuously.
+     */
+    private double available = endpointBudget;
+
+    /**
+     * Time of the last refill in milliseconds.
+     */
+    private long refilled = System.currentTimeMillis();
+
+    /**
+     * Refill the budget for the time elapsed, then take one retry.
+     *
+     * @return true if a retry was available.
+     */
+    synchronized boolean acquire() {
+      long now = System.currentTimeMillis();
+      available = Math.min(endpointBudget, available +
+                           (double) (now - refilled) * endpointBudget / budgetWindow);
+      refilled = now;
+      if (available < 1) {
+        return false;
+      }
+      available--;
+      return true;
+    }
+  }
+}
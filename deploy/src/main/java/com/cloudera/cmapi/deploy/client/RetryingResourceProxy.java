@@ -0,0 +1,310 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.client;
+
+import com.cloudera.api.DataView;
+import com.cloudera.api.model.ApiCommand;
+import com.cloudera.api.model.ApiCommandList;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Resource proxy retrying CM API calls that fail with transient errors.
+ * Whether a call is retried depends on its endpoint class:
+ * <p><ul>
+ * <li> Reads and config updates are retried.
+ * <li> Command requests are retried only if the request can't have reached
+ * the server (the connection was refused, or the server was unavailable).
+ * Otherwise, if the resource can list its active commands, they're listed
+ * before the request and again after the failure, and the one new active
+ * command of the same name is returned in place of the failed request's
+ * result. If there is none the command may already have run, so it isn't
+ * started again. Commands are told apart by ID rather than start time, so
+ * clock differences between the client and CM don't matter.
+ * <li> Other writes are never retried.
+ * </ul></p>
+ * Retries use exponential backoff with jitter and are limited by a budget
+ * per endpoint, as defined by the {@link RetryPolicy}.
+ */
+public class RetryingResourceProxy extends ResourceProxy {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG =
+    Logger.getLogger(RetryingResourceProxy.class);
+
+  /**
+   * Name of the method resources use to list active commands.
+   */
+  private static final String LIST_ACTIVE_COMMANDS = "listActiveCommands";
+
+  /**
+   * Retry settings and budgets, shared by all resources reached from the
+   * same root.
+   */
+  private final RetryPolicy policy;
+
+  /**
+   * Constructor.
+   *
+   * @param target Resource object to wrap.
+   * @param policy Retry settings and budgets.
+   */
+  protected RetryingResourceProxy(final Object target,
+                                  final RetryPolicy policy) {
+    super(target);
+    this.policy = policy;
+  }
+
+  /**
+   * Wrap a resource object so that calls through it and its sub-resources
+   * are retried.
+   *
+   * @param type Resource interface.
+   * @param target Resource object to wrap.
+   * @param policy Retry settings and budgets.
+   * @param <T> Resource interface type.
+   *
+   * @return Proxy implementing the resource interface.
+   */
+  public static <T> T wrap(final Class<T> type, final T target,
+                           final RetryPolicy policy) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+                                            new Class<?>[] {type},
+                                            new RetryingResourceProxy(target,
+                                                                      policy)));
+  }
+
+  @Override
+  protected ResourceProxy createHandler(final Object subResource) {
+    return new RetryingResourceProxy(subResource, policy);
+  }
+
+  @Override
+  protected Object invokeTarget(final Method method, final Object[] args)
+    throws Throwable {
+
+    EndpointClass endpointClass = EndpointClass.classify(method);
+    String endpoint =
+      method.getDeclaringClass().getSimpleName() + "." + method.getName();
+    Method listActive = endpointClass == EndpointClass.COMMAND ?
+      getListActiveCommands(method, args) : null;
+
+    for (int attempt = 1; ; attempt++) {
+      Set<Long> knownCommands = listActive != null ?
+        listActiveCommandIds(listActive, args, endpoint) : null;
+      try {
+        return super.invokeTarget(method, args);
+      } catch (Throwable t) {
+        boolean retryable =
+          endpointClass == EndpointClass.READ ||
+          endpointClass == EndpointClass.CONFIG_WRITE ||
+          (endpointClass == EndpointClass.COMMAND && listActive != null);
+        if (!retryable || !RetryPolicy.isTransient(t) ||
+            attempt >= policy.getMaxAttempts()) {
+          throw t;
+        }
+
+        // A command request that reached the server may have started the
+        // command, so look for it rather than starting it again:
+        if (listActive != null && !RetryPolicy.isNotSent(t)) {
+          if (knownCommands == null) {
+            // Active commands weren't listed before the request, so a
+            // started command can't be told apart from earlier ones:
+            LOG.warn(endpoint + " failed (" + t + ") and may already have " +
+                     "run, not retrying");
+            throw t;
+          }
+          ApiCommand started;
+          try {
+            started =
+              findStartedCommand(listActive, method, args, knownCommands);
+          } catch (Throwable listError) {
+            // Can't tell whether the command started, so don't retry:
+            throw t;
+          }
+          if (started == null) {
+            LOG.warn(endpoint + " failed (" + t + ") and may already have " +
+                     "run, not retrying");
+            throw t;
+          }
+          LOG.warn(endpoint + " failed (" + t + ") but started command " +
+                   started.getId() + ", not retrying");
+          return started;
+        }
+
+        if (!policy.acquireRetry(endpoint)) {
+          throw t;
+        }
+        long delay = policy.backoff(attempt);
+        LOG.warn(endpoint + " failed (" + t + "), retrying in " + delay +
+                 "ms (attempt " + (attempt + 1) + " of " +
+                 policy.getMaxAttempts() + ")");
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw t;
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the method listing active commands for the target of a command
+   * request. Resources taking a name as the first argument of command
+   * methods (clusters, services) take the same name when listing commands.
+   *
+   * @param method Command method.
+   * @param args Command method arguments.
+   *
+   * @return Method listing active commands, or null if the resource doesn't
+   * have one or the command result can't be substituted.
+   */
+  private Method getListActiveCommands(final Method method,
+                                       final Object[] args) {
+    if (!method.getReturnType().isAssignableFrom(ApiCommand.class)) {
+      return null;
+    }
+    try {
+      if (args != null && args.length > 0 && args[0] instanceof String) {
+        return method.getDeclaringClass().getMethod(LIST_ACTIVE_COMMANDS,
+                                                    String.class,
+                                                    DataView.class);
+      }
+      return method.getDeclaringClass().getMethod(LIST_ACTIVE_COMMANDS,
+                                                  DataView.class);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  /**
+   * List active commands on the target of a command request.
+   *
+   * @param listActive Method listing active commands.
+   * @param args Command method arguments.
+   *
+   * @return Active commands.
+   *
+   * @throws Throwable exception thrown listing commands.
+   */
+  private ApiCommandList listActiveCommands(final Method listActive,
+                                            final Object[] args)
+    throws Throwable {
+    Object[] listArgs = listActive.getParameterTypes().length == 2 ?
+      new Object[] {args[0], DataView.SUMMARY} :
+      new Object[] {DataView.SUMMARY};
+    try {
+      return (ApiCommandList) listActive.invoke(getTarget(), listArgs);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * List the IDs of active commands on the target of a command request,
+   * before the request is made.
+   *
+   * @param listActive Method listing active commands.
+   * @param args Command method arguments.
+   * @param endpoint Endpoint name, for logging.
+   *
+   * @return IDs of active commands, or null if they couldn't be listed.
+   */
+  private Set<Long> listActiveCommandIds(final Method listActive,
+                                         final Object[] args,
+                                         final String endpoint) {
+    try {
+      Set<Long> ids = new HashSet<Long>();
+      for (ApiCommand command : listActiveCommands(listActive, args)) {
+        ids.add(command.getId());
+      }
+      return ids;
+    } catch (Throwable t) {
+      LOG.debug("Couldn't list active commands before " + endpoint + ": " + t);
+      return null;
+    }
+  }
+
+  /**
+   * Find an active command started by a failed command request: the one
+   * command of the same name as the request's method that wasn't active
+   * before the request. Commands that were already running on the same
+   * target don't match. If more than one new command matches, for example
+   * because a concurrent deploy started the same command, the request's
+   * command can't be told apart and none is returned.
+   *
+   * @param listActive Method listing active commands.
+   * @param method Command method.
+   * @param args Command method arguments.
+   * @param knownCommands IDs of commands active before the request.
+   *
+   * @return Command started by the request, or null if there isn't exactly
+   * one.
+   *
+   * @throws Throwable exception thrown listing commands.
+   */
+  private ApiCommand findStartedCommand(final Method listActive,
+                                        final Method method,
+                                        final Object[] args,
+                                        final Set<Long> knownCommands)
+    throws Throwable {
+    String methodName = normalizeCommandName(method.getName());
+    ApiCommand started = null;
+    for (ApiCommand command : listActiveCommands(listActive, args)) {
+      if (command.getId() == null || knownCommands.contains(command.getId()) ||
+          !methodName.equals(normalizeCommandName(command.getName()))) {
+        continue;
+      }
+      if (started != null) {
+        return null;
+      }
+      started = command;
+    }
+    return started;
+  }
+
+  /**
+   * Normalize a command or command method name for comparison. CM names
+   * commands after the method starting them, in its own case and spacing,
+   * so for example startCommand starts "Start" and firstRun starts
+   * "First Run".
+   *
+   * @param name Command or method name.
+   *
+   * @return Lower case name without spaces or a trailing "command".
+   */
+  private static String normalizeCommandName(final String name) {
+    if (name == null) {
+      return "";
+    }
+    String normalized =
+      name.replaceAll("[^A-Za-z0-9]", "").toLowerCase(Locale.ROOT);
+    return normalized.endsWith("command") ?
+      normalized.substring(0, normalized.length() - "command".length()) :
+      normalized;
+  }
+}
@@ -0,0 +1,219 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.client;
+
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Wini;
+
+/**
+ * Reads large CM API list responses with a streaming JSON parser instead of
+ * materializing the whole JAXB object graph. Records in the response array
+ * are handed to a consumer one at a time as maps holding only the requested
+ * top-level scalar fields; everything else, including nested objects, is
+ * skipped by the parser without being built.
+ * <p>
+ * Requests go straight to the REST endpoint over HTTP, bypassing the retry
+ * and concurrency layers wrapped around the CM API client, so callers should
+ * fall back to the client if a streaming read fails.
+ */
+public class StreamingReader {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(StreamingReader.class);
+
+  /**
+   * Default CM port.
+   */
+  private static final int DEFAULT_PORT = 7180;
+
+  /**
+   * Timeout in milliseconds for connecting to CM.
+   */
+  private static final int CONNECT_TIMEOUT = 30000;
+
+  /**
+   * Timeout in milliseconds for reads from CM.
+   */
+  private static final int READ_TIMEOUT = 300000;
+
+  /**
+   * Base URL of the CM API.
+   */
+  private final String baseUrl;
+
+  /**
+   * Value of the HTTP basic authorization header.
+   */
+  private final String authorization;
+
+  /**
+   * Factory for streaming parsers.
+   */
+  private final JsonFactory jsonFactory = new JsonFactory();
+
+  /**
+   * Constructor.
+   *
+   * @param host CM host name.
+   * @param port CM port.
+   * @param username CM user name.
+   * @param password CM password.
+   */
+  public StreamingReader(final String host, final int port,
+                         final String username, final String password) {
+    this.baseUrl = "http://" + host + ":" + port;
+    this.authorization = "Basic " + Base64.getEncoder()
+      .encodeToString((username + ":" + password)
+                      .getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Create a reader from the [CM] section of the deployment configuration.
+   *
+   * @param config Deployment configuration.
+   *
+   * @return Streaming reader, or null if streaming reads are disabled.
+   */
+  public static StreamingReader fromConfig(final Wini config) {
+    if (!ConfigUtils.getBoolean(config, "CM",
+                                Constants.CM_STREAMING_READS_PARAMETER, true)) {
+      return null;
+    }
+    return new StreamingReader(config.get("CM", Constants.CM_PUBLIC_HOSTNAME_PARAMETER),
+                               ConfigUtils.getInt(config, "CM",
+                                                  Constants.CM_PORT_PARAMETER,
+                                                  DEFAULT_PORT),
+                               config.get("CM", Constants.CM_USERNAME_PARAMETER),
+                               config.get("CM", Constants.CM_PASSWORD_PARAMETER));
+  }
+
+  /**
+   * Stream the records of a list response.
+   *
+   * @param path Request path and query string, starting with /api.
+   * @param arrayField Name of the top-level field holding the records, e.g.
+   * "items" for CM API lists.
+   * @param fields Names of the record fields to keep.
+   * @param consumer Called with each record.
+   *
+   * @return Number of records read.
+   *
+   * @throws IOException if the request fails or the response isn't the
+   * expected JSON.
+   */
+  public final int forEach(final String path, final String arrayField,
+                           final Set<String> fields,
+                           final Consumer<Map<String, String>> consumer)
+    throws IOException {
+    long start = System.currentTimeMillis();
+    int count = 0;
+    HttpURLConnection connection =
+      (HttpURLConnection) new URL(baseUrl + path).openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT);
+    connection.setReadTimeout(READ_TIMEOUT);
+    connection.setRequestProperty("Authorization", authorization);
+    connection.setRequestProperty("Accept", "application/json");
+    try {
+      int status = connection.getResponseCode();
+      if (status >= 400) {
+        throw new IOException("GET " + path + " returned HTTP " + status);
+      }
+      try (InputStream in = connection.getInputStream();
+           JsonParser parser = jsonFactory.createParser(in)) {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          throw new IOException("Expected JSON object from " + path);
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String name = parser.getCurrentName();
+          JsonToken token = parser.nextToken();
+          if (arrayField.equals(name) && token == JsonToken.START_ARRAY) {
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+              consumer.accept(readRecord(parser, fields));
+              count++;
+            }
+          } else {
+            parser.skipChildren();
+          }
+        }
+      }
+    } finally {
+      connection.disconnect();
+    }
+    LOG.debug("Streamed " + count + " records from " + path + " in " +
+              (System.currentTimeMillis() - start) + "ms");
+    return count;
+  }
+
+  /**
+   * Read one record, with the parser positioned at its START_OBJECT token.
+   *
+   * @param parser JSON parser.
+   * @param fields Names of the fields to keep.
+   *
+   * @return Requested scalar fields of the record.
+   *
+   * @throws IOException if the JSON can't be parsed.
+   */
+  private static Map<String, String> readRecord(final JsonParser parser,
+                                                final Set<String> fields)
+    throws IOException {
+    Map<String, String> record = new HashMap<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (token.isScalarValue() && fields.contains(name)) {
+        record.put(name, token == JsonToken.VALUE_NULL ? null : parser.getText());
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return record;
+  }
+
+  /**
+   * Encode a cluster or service name for use as a path segment.
+   *
+   * @param segment Path segment.
+   *
+   * @return Encoded path segment.
+   */
+  public static String encode(final String segment) {
+    return URLEncoder.encode(segment, StandardCharsets.UTF_8).replace("+", "%20");
+  }
+}
@@ -0,0 +1,249 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.fleet;
+
+import com.cloudera.api.v10.RootResourceV10;
+
+import com.cloudera.cmapi.deploy.CMApiDeploy;
+import com.cloudera.cmapi.deploy.CMServer;
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+import com.cloudera.cmapi.deploy.DeploymentReport;
+import com.cloudera.cmapi.deploy.DeploymentSpec;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Ini;
+import org.ini4j.Wini;
+
+/**
+ * Runs the deployment flow against a fleet of Cloudera Manager instances
+ * concurrently. The fleet is described by a manifest file with a [FLEET]
+ * section for runner parameters and one section per Cloudera Manager
+ * instance. Each instance section names the configuration file to deploy
+ * with, and can override the [CM] connection parameters from that file:
+ * <pre>
+ * [FLEET]
+ * fleet_parallelism=4
+ * fleet_report_file=fleet-report.txt
+ *
+ * [cm-east]
+ * config_file=/etc/cmdeploy/east.ini
+ * cm_public_hostname=cm-east.example.com
+ * </pre>
+ * Results and phase timings for every instance are aggregated into a single
+ * report.
+ * <p>
+ * To run: java -Dcmapi.fleet.file=fleet.ini -cp target/cmapi-examples-deploy-1.0-SNAPSHOT-executable.jar com.cloudera.cmapi.deploy.fleet.FleetRunner
+ */
+public class FleetRunner {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(FleetRunner.class);
+
+  /**
+   * Default number of Cloudera Manager instances to deploy concurrently.
+   */
+  private static final int DEFAULT_PARALLELISM = 4;
+
+  /**
+   * Fleet manifest.
+   */
+  private final Wini manifest;
+
+  /**
+   * Used to load per-instance configuration files.
+   */
+  private final CMApiDeploy loader = new CMApiDeploy();
+
+  /**
+   * Constructor.
+   *
+   * @param manifest Fleet manifest.
+   */
+  public FleetRunner(final Wini manifest) {
+    this.manifest = manifest;
+  }
+
+  /**
+   * Load the fleet manifest, deploy to every instance, and write the
+   * aggregated report.
+   *
+   * @param args Command line arguments.
+   */
+  public static void main(final String[] args) {
+    String manifestFile = System.getProperty("cmapi.fleet.file");
+    Wini manifest = null;
+    try {
+      manifest = new CMApiDeploy().getConfig(manifestFile);
+    } catch (IOException e) {
+      LOG.error("Caught exception reading fleet manifest from " +
+                manifestFile + ", exception was " + e.getMessage());
+      System.exit(1);
+    }
+
+    FleetRunner runner = new FleetRunner(manifest);
+    long start = System.currentTimeMillis();
+    List<DeploymentReport> reports = runner.run();
+    String report = formatReport(reports, System.currentTimeMillis() - start);
+    LOG.info("Fleet report:\n" + report);
+
+    String reportFile =
+      ConfigUtils.getString(manifest, Constants.FLEET_CONFIG_SECTION,
+                            Constants.FLEET_REPORT_FILE_PARAMETER, null);
+    if (reportFile != null) {
+      try {
+        Writer out = new FileWriter(reportFile);
+        try {
+          out.write(report);
+        } finally {
+          out.close();
+        }
+      } catch (IOException e) {
+        LOG.error("Caught exception writing fleet report to " + reportFile +
+                  ", exception was " + e.getMessage());
+      }
+    }
+
+    for (DeploymentReport deploymentReport : reports) {
+      if (!deploymentReport.isSuccess()) {
+        System.exit(1);
+      }
+    }
+  }
+
+  /**
+   * Deploy to every Cloudera Manager instance in the manifest, running up to
+   * the configured number of instances concurrently.
+   *
+   * @return One report per instance, in manifest order.
+   */
+  public final List<DeploymentReport> run() {
+    int parallelism =
+      ConfigUtils.getInt(manifest, Constants.FLEET_CONFIG_SECTION,
+                         Constants.FLEET_PARALLELISM_PARAMETER,
+                         DEFAULT_PARALLELISM);
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    List<Future<DeploymentReport>> futures =
+      new ArrayList<Future<DeploymentReport>>();
+    try {
+      for (final String instance : manifest.keySet()) {
+        if (instance.equals(Constants.FLEET_CONFIG_SECTION)) {
+          continue;
+        }
+        futures.add(executor.submit(new Callable<DeploymentReport>() {
+            public DeploymentReport call() {
+              return deploy(instance, manifest.get(instance));
+            }
+          }));
+      }
+
+      List<DeploymentReport> reports = new ArrayList<DeploymentReport>();
+      for (Future<DeploymentReport> future : futures) {
+        try {
+          reports.add(future.get());
+        } catch (ExecutionException e) {
+          // deploy() records failures in the report rather than throwing:
+          LOG.error("Unexpected failure in fleet deployment", e.getCause());
+        } catch (InterruptedException e) {
+          LOG.warn(e.getMessage());
+        }
+      }
+      return reports;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Deploy to a single Cloudera Manager instance.
+   *
+   * @param instance Name of the instance section in the manifest.
+   * @param section Manifest section for the instance.
+   *
+   * @return Report for the instance.
+   */
+  private DeploymentReport deploy(final String instance,
+                                  final Ini.Section section) {
+    DeploymentReport report = new DeploymentReport(instance);
+    try {
+      report.beginPhase("Connect");
+      Wini config =
+        loader.getConfig(section.get(Constants.FLEET_CONFIG_FILE_PARAMETER));
+      // Any [CM] parameters set in the manifest override the values in the
+      // instance's configuration file:
+      for (Map.Entry<String, String> entry : section.entrySet()) {
+        if (!entry.getKey().equals(Constants.FLEET_CONFIG_FILE_PARAMETER)) {
+          config.put("CM", entry.getKey(), entry.getValue());
+        }
+      }
+      // Compile and validate the deployment spec before connecting, so a bad
+      // configuration fails without touching the instance:
+      DeploymentSpec spec = DeploymentSpec.compile(config);
+      RootResourceV10 apiRoot = CMApiDeploy.getRootResource(config);
+      CMServer cm = new CMServer(config, spec, apiRoot, null);
+      LOG.info("Deploying to " + instance + " (" + cm.getHost() + ")");
+      CMApiDeploy.deploy(cm, report);
+    } catch (Exception e) {
+      LOG.error("Deployment to " + instance + " failed", e);
+      report.failPhase(e);
+    }
+    return report;
+  }
+
+  /**
+   * Format the aggregated fleet report: a summary line per instance
+   * followed by the phase timings for each instance.
+   *
+   * @param reports Per-instance reports.
+   * @param elapsed Wall clock time of the whole fleet run in milliseconds.
+   *
+   * @return Formatted report.
+   */
+  public static String formatReport(final List<DeploymentReport> reports,
+                                    final long elapsed) {
+    int failed = 0;
+    for (DeploymentReport report : reports) {
+      if (!report.isSuccess()) {
+        failed++;
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("Fleet deployment: %d instances, %d succeeded, " +
+                            "%d failed, %.1fs elapsed%n%n", reports.size(),
+                            reports.size() - failed, failed,
+                            elapsed / 1000.0));
+    for (DeploymentReport report : reports) {
+      sb.append(report.format()).append(String.format("%n"));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,418 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.placement;
+
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+import com.cloudera.cmapi.deploy.DeploymentSpec;
+import com.cloudera.cmapi.deploy.ServiceSpec;
+import com.cloudera.cmapi.deploy.tuning.HostFacts;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Wini;
+
+/**
+ * Plans which hosts run each role, replacing hand placement in the service
+ * sections of cmdeploy.ini. Master roles go on a small pool of the
+ * largest hosts, picked across racks. Instances of a role are kept on
+ * different hosts and, where possible, different racks, heavy masters such
+ * as the NameNode and ResourceManager are kept apart, and otherwise roles
+ * go to the least loaded master host. Worker roles go on every other host,
+ * so masters don't share hosts with workers unless the cluster is too small
+ * to keep them apart.
+ * <p>
+ * The plan is expressed as the host parameters each service's section
+ * holds, such as hdfs_namenode_host and hdfs_datanode_hosts. Gateway, Flume
+ * agent and Kafka MirrorMaker hosts aren't planned.
+ */
+public class PlacementPlanner {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(PlacementPlanner.class);
+
+  /**
+   * Default number of ZooKeeper servers.
+   */
+  private static final int DEFAULT_ZOOKEEPER_COUNT = 3;
+
+  /**
+   * Default number of Kafka brokers.
+   */
+  private static final int DEFAULT_KAFKA_BROKER_COUNT = 3;
+
+  /**
+   * Fewest worker hosts needed to keep masters off workers.
+   */
+  private static final int MIN_DEDICATED_WORKERS = 3;
+
+  /**
+   * Weight from which a master role is heavy.
+   */
+  private static final int HEAVY_WEIGHT = 3;
+
+  /**
+   * Rack for hosts without one.
+   */
+  private static final String DEFAULT_RACK = "/default";
+
+  /**
+   * Master role placed by the planner.
+   */
+  private static final class MasterRole {
+
+    /**
+     * Service type.
+     */
+    private final String serviceType;
+
+    /**
+     * Host parameter in the service's section.
+     */
+    private final String parameter;
+
+    /**
+     * Relative load the role puts on its host.
+     */
+    private final int weight;
+
+    /**
+     * Constructor.
+     *
+     * @param serviceType Service type.
+     * @param parameter Host parameter in the service's section.
+     * @param weight Relative load the role puts on its host.
+     */
+    MasterRole(final String serviceType, final String parameter,
+               final int weight) {
+      this.serviceType = serviceType;
+      this.parameter = parameter;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * Master roles, heaviest first.
+   */
+  private static final List<MasterRole> MASTER_ROLES = List.of(
+    new MasterRole("HDFS", Constants.HDFS_NAMENODE_HOST_PARAMETER, 4),
+    new MasterRole("HDFS", Constants.HDFS_SECONDARYNAMENODE_HOST_PARAMETER, 4),
+    new MasterRole("YARN", Constants.YARN_RESOURCEMANAGER_HOST_PARAMETER, 3),
+    new MasterRole("IMPALA", Constants.IMPALA_CATALOGSERVER_HOST_PARAMETER, 3),
+    new MasterRole("ZOOKEEPER", Constants.ZOOKEEPER_HOSTS_PARAMETER, 2),
+    new MasterRole("HIVE", Constants.HIVE_METASTORE_HOST_PARAMETER, 2),
+    new MasterRole("HIVE", Constants.HIVE_HS2_HOSTS_PARAMETER, 2),
+    new MasterRole("IMPALA", Constants.IMPALA_STATESTORE_HOST_PARAMETER, 1),
+    new MasterRole("YARN", Constants.YARN_JOBHISTORY_SERVER_HOST_PARAMETER, 1),
+    new MasterRole("SPARK_ON_YARN", Constants.SPARK_HISTORYSERVER_HOST_PARAMETER, 1),
+    new MasterRole("OOZIE", Constants.OOZIE_SERVER_HOST_PARAMETER, 1),
+    new MasterRole("HUE", Constants.HUE_SERVER_HOST_PARAMETER, 1),
+    new MasterRole("SQOOP2", Constants.SQOOP2_SERVER_HOST_PARAMETER, 1));
+
+  /**
+   * Worker role host parameters, with their service types.
+   */
+  private static final String[][] WORKER_ROLES = {
+    {"HDFS", Constants.HDFS_DATANODE_HOSTS_PARAMETER},
+    {"YARN", Constants.YARN_NODEMANAGER_HOSTS_PARAMETER},
+    {"IMPALA", Constants.IMPALA_IMPALAD_HOSTS_PARAMETER}
+  };
+
+  /**
+   * Deployment spec, for the cluster hosts and services.
+   */
+  private final DeploymentSpec spec;
+
+  /**
+   * Number of master hosts, or 0 to size the pool from the master roles.
+   */
+  private final int masterHostCount;
+
+  /**
+   * Number of ZooKeeper servers.
+   */
+  private final int zookeeperCount;
+
+  /**
+   * Number of Kafka brokers.
+   */
+  private final int kafkaBrokerCount;
+
+  /**
+   * Constructor.
+   *
+   * @param config Configuration parameters.
+   * @param spec Deployment spec compiled from the configuration.
+   */
+  public PlacementPlanner(final Wini config, final DeploymentSpec spec) {
+    this.spec = spec;
+    masterHostCount =
+      ConfigUtils.getInt(config, Constants.PLACEMENT_CONFIG_SECTION,
+                         Constants.PLACEMENT_MASTER_HOST_COUNT_PARAMETER, 0);
+    zookeeperCount =
+      ConfigUtils.getInt(config, Constants.PLACEMENT_CONFIG_SECTION,
+                         Constants.PLACEMENT_ZOOKEEPER_COUNT_PARAMETER,
+                         DEFAULT_ZOOKEEPER_COUNT);
+    kafkaBrokerCount =
+      ConfigUtils.getInt(config, Constants.PLACEMENT_CONFIG_SECTION,
+                         Constants.PLACEMENT_KAFKA_BROKER_COUNT_PARAMETER,
+                         DEFAULT_KAFKA_BROKER_COUNT);
+  }
+
+  /**
+   * Plan role placement for the cluster hosts.
+   *
+   * @param hostFacts Hardware facts by host name. Hosts without facts are
+   * ranked last for master roles.
+   * @param racks Rack by host name. Hosts without a rack are treated as
+   * sharing one.
+   *
+   * @return Hosts for each planned host parameter, keyed on section, then
+   * parameter.
+   */
+  public final Map<String, Map<String, List<String>>> plan(final Map<String, HostFacts> hostFacts,
+                                                           final Map<String, String> racks) {
+    List<String> hosts = new ArrayList<String>();
+    for (String host : spec.getClusterHosts()) {
+      hosts.add(host);
+    }
+    Map<String, ServiceSpec> services = new HashMap<String, ServiceSpec>();
+    for (ServiceSpec service : spec.getServiceSpecs()) {
+      services.put(service.getType(), service);
+    }
+
+    // Master role instances, heaviest first:
+    List<MasterRole> instances = new ArrayList<MasterRole>();
+    int largestCount = 1;
+    for (MasterRole role : MASTER_ROLES) {
+      if (services.containsKey(role.serviceType)) {
+        int count = role.serviceType.equals("ZOOKEEPER") ? zookeeperCount : 1;
+        largestCount = Math.max(largestCount, count);
+        for (int i = 0; i < count; i++) {
+          instances.add(role);
+        }
+      }
+    }
+
+    // Largest hosts first, for both master and Kafka broker placement:
+    List<String> ranked = new ArrayList<String>(hosts);
+    ranked.sort(Comparator.comparingLong((String host) -> memory(hostFacts, host))
+                .thenComparingInt(host -> cores(hostFacts, host))
+                .reversed());
+    int poolSize = Math.min(hosts.size(), masterHostCount > 0 ? masterHostCount :
+                            Math.max(largestCount, DEFAULT_ZOOKEEPER_COUNT));
+    List<String> pool = spread(ranked, poolSize, racks);
+    boolean colocate = hosts.size() < poolSize + MIN_DEDICATED_WORKERS;
+    if (colocate) {
+      LOG.warn("Only " + hosts.size() + " hosts, placing workers on the " +
+               poolSize + " master hosts too");
+    }
+
+    Map<String, Map<String, List<String>>> plan =
+      new LinkedHashMap<String, Map<String, List<String>>>();
+    Map<String, Integer> load = new HashMap<String, Integer>();
+    Map<String, Set<String>> hostParameters = new HashMap<String, Set<String>>();
+    for (MasterRole role : instances) {
+      String best = null;
+      long bestScore = Long.MAX_VALUE;
+      for (String host : pool) {
+        Set<String> placed = hostParameters.getOrDefault(host, Set.of());
+        if (placed.contains(role.parameter)) {
+          continue;
+        }
+        long score = 10L * load.getOrDefault(host, 0);
+        // Spread instances of a role across racks:
+        for (Map.Entry<String, Set<String>> entry : hostParameters.entrySet()) {
+          if (entry.getValue().contains(role.parameter) &&
+              rack(racks, entry.getKey()).equals(rack(racks, host))) {
+            score += 100;
+          }
+        }
+        // Keep heavy masters apart:
+        if (role.weight >= HEAVY_WEIGHT) {
+          for (String parameter : placed) {
+            if (getWeight(parameter) >= HEAVY_WEIGHT) {
+              score += 50;
+            }
+          }
+        }
+        if (score < bestScore) {
+          best = host;
+          bestScore = score;
+        }
+      }
+      if (best == null) {
+        LOG.warn("Not enough master hosts for every " + role.parameter +
+                 " instance");
+        continue;
+      }
+      load.merge(best, role.weight, Integer::sum);
+      hostParameters.computeIfAbsent(best, k -> new HashSet<String>())
+        .add(role.parameter);
+      add(plan, services.get(role.serviceType).getSection(), role.parameter,
+          best);
+    }
+
+    List<String> workers = new ArrayList<String>();
+    Set<String> masters = new HashSet<String>(pool);
+    for (String host : hosts) {
+      if (colocate || !masters.contains(host)) {
+        workers.add(host);
+      }
+    }
+    for (String[] workerRole : WORKER_ROLES) {
+      if (services.containsKey(workerRole[0])) {
+        for (String host : workers) {
+          add(plan, services.get(workerRole[0]).getSection(), workerRole[1], host);
+        }
+      }
+    }
+    if (services.containsKey("KAFKA")) {
+      List<String> rankedWorkers = new ArrayList<String>(ranked);
+      rankedWorkers.retainAll(new HashSet<String>(workers));
+      for (String host : spread(rankedWorkers, kafkaBrokerCount, racks)) {
+        add(plan, services.get("KAFKA").getSection(),
+            Constants.KAFKA_BROKER_HOSTS_PARAMETER, host);
+      }
+    }
+
+    StringBuilder report = new StringBuilder("Placement plan: " + pool.size() +
+                                             " master hosts, " + workers.size() +
+                                             " worker hosts");
+    for (String host : pool) {
+      report.append("\n  ").append(host).append(" (").append(rack(racks, host))
+        .append(", ").append(memory(hostFacts, host) / (1024 * 1024))
+        .append(" MB): ").append(hostParameters.getOrDefault(host, Set.of()));
+    }
+    LOG.info(report);
+    return plan;
+  }
+
+  /**
+   * Pick hosts round robin across racks, taking each rack's hosts in rank
+   * order, so the picks are spread over as many racks as possible.
+   *
+   * @param ranked Hosts in rank order.
+   * @param count Number of hosts to pick.
+   * @param racks Rack by host name.
+   *
+   * @return Picked hosts.
+   */
+  private static List<String> spread(final List<String> ranked, final int count,
+                                     final Map<String, String> racks) {
+    // Racks in order of their best host:
+    Map<String, List<String>> byRack = new LinkedHashMap<String, List<String>>();
+    for (String host : ranked) {
+      byRack.computeIfAbsent(rack(racks, host), k -> new ArrayList<String>())
+        .add(host);
+    }
+    List<String> picked = new ArrayList<String>();
+    for (int round = 0; picked.size() < Math.min(count, ranked.size()); round++) {
+      for (List<String> rackHosts : byRack.values()) {
+        if (round < rackHosts.size() && picked.size() < count) {
+          picked.add(rackHosts.get(round));
+        }
+      }
+    }
+    return picked;
+  }
+
+  /**
+   * Add a host to a planned host parameter.
+   *
+   * @param plan Plan being built.
+   * @param section Section holding the parameter.
+   * @param parameter Host parameter.
+   * @param host Host to add.
+   */
+  private static void add(final Map<String, Map<String, List<String>>> plan,
+                          final String section, final String parameter,
+                          final String host) {
+    plan.computeIfAbsent(section, k -> new LinkedHashMap<String, List<String>>())
+      .computeIfAbsent(parameter, k -> new ArrayList<String>())
+      .add(host);
+  }
+
+  /**
+   * Get the weight of a master role.
+   *
+   * @param parameter Host parameter of the role.
+   *
+   * @return Weight, 0 if the parameter isn't a master role's.
+   */
+  private static int getWeight(final String parameter) {
+    for (MasterRole role : MASTER_ROLES) {
+      if (role.parameter.equals(parameter)) {
+        return role.weight;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Get the rack of a host.
+   *
+   * @param racks Rack by host name.
+   * @param host Host name.
+   *
+   * @return Rack, the default rack if the host has none.
+   */
+  private static String rack(final Map<String, String> racks,
+                             final String host) {
+    String rack = racks.get(host);
+    return rack == null ? DEFAULT_RACK : rack;
+  }
+
+  /**
+   * Get the memory of a host.
+   *
+   * @param hostFacts Hardware facts by host name.
+   * @param host Host name.
+   *
+   * @return Memory in bytes, 0 if unknown.
+   */
+  private static long memory(final Map<String, HostFacts> hostFacts,
+                             final String host) {
+    HostFacts facts = hostFacts.get(host);
+    return facts == null ? 0 : facts.getMemoryBytes();
+  }
+
+  /**
+   * Get the cores of a host.
+   *
+   * @param hostFacts Hardware facts by host name.
+   * @param host Host name.
+   *
+   * @return Number of cores, 0 if unknown.
+   */
+  private static int cores(final Map<String, HostFacts> hostFacts,
+                           final String host) {
+    HostFacts facts = hostFacts.get(host);
+    return facts == null ? 0 : facts.getCores();
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.placement;
+
+import com.cloudera.api.DataView;
+import com.cloudera.api.model.ApiHost;
+import com.cloudera.api.v10.RootResourceV10;
+
+import com.cloudera.cmapi.deploy.CMApiDeploy;
+import com.cloudera.cmapi.deploy.DeploymentSpec;
+import com.cloudera.cmapi.deploy.HostSet;
+import com.cloudera.cmapi.deploy.tuning.HostFacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Wini;
+
+/**
+ * Plan role placement with a {@link PlacementPlanner} and write the
+ * configuration, with the planned host parameters filled in, to the file
+ * named on the command line. Host memory and cores are read from CM. Racks
+ * come from the [RACK_TOPOLOGY] section, or else from the rack CM has for
+ * the host. The configuration may leave the planned host parameters unset;
+ * the planned configuration is validated before it's written.
+ */
+public final class PlacementTool {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(PlacementTool.class);
+
+  /**
+   * Not instantiated.
+   */
+  private PlacementTool() {
+  }
+
+  /**
+   * Load configuration, connect to CM and write the planned configuration.
+   *
+   * @param args Command line arguments: the configuration file to write.
+   */
+  public static void main(final String[] args) {
+    if (args.length < 1) {
+      LOG.error("Usage: PlacementTool <planned configuration file>");
+      System.exit(1);
+    }
+    String configFile = System.getProperty("cmapi.ini.file");
+    Wini config = null;
+    DeploymentSpec spec = null;
+    try {
+      config = new CMApiDeploy().getConfig(configFile);
+      spec = DeploymentSpec.compile(config, false);
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.error("Caught exception reading configuration from " + configFile +
+                ", exception was " + e.getMessage());
+      System.exit(1);
+    }
+
+    RootResourceV10 apiRoot = CMApiDeploy.getRootResource(config);
+    try {
+      Map<String, HostFacts> hostFacts = new HashMap<String, HostFacts>();
+      Map<String, String> racks = new HashMap<String, String>();
+      // /api/v1/hosts
+      for (ApiHost host : apiRoot.getHostsResource().readHosts(DataView.SUMMARY)) {
+        hostFacts.put(host.getHostname(), HostFacts.of(host));
+        String rack = spec.getRackTopology().getRack(host.getHostname());
+        racks.put(host.getHostname(), rack != null ? rack : host.getRackId());
+      }
+
+      Map<String, Map<String, List<String>>> plan =
+        new PlacementPlanner(config, spec).plan(hostFacts, racks);
+      int count = 0;
+      for (Map.Entry<String, Map<String, List<String>>> section : plan.entrySet()) {
+        for (Map.Entry<String, List<String>> parameter :
+               section.getValue().entrySet()) {
+          config.put(section.getKey(), parameter.getKey(),
+                     HostSet.toExpression(parameter.getValue()));
+          count++;
+        }
+      }
+      DeploymentSpec.compile(config);
+      config.store(new File(args[0]));
+      LOG.info("Wrote " + count + " planned host parameters to " + args[0]);
+    } catch (IOException | RuntimeException e) {
+      LOG.error("Caught exception planning role placement, exception was " +
+                e.getMessage());
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,411 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.server;
+
+import com.cloudera.api.model.ApiHost;
+import com.cloudera.api.v10.RootResourceV10;
+
+import com.cloudera.cmapi.deploy.CMApiDeploy;
+import com.cloudera.cmapi.deploy.ClusterState;
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+import com.cloudera.cmapi.deploy.client.AsyncCmClient;
+import com.cloudera.cmapi.deploy.client.ConcurrencyGovernor;
+import com.cloudera.cmapi.deploy.client.StreamingReader;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Wini;
+
+/**
+ * Long-running deploy server. The server creates the Cloudera Manager client
+ * once and keeps it, along with cached resource proxies and the host
+ * inventory, in memory across jobs. Jobs are submitted through a local
+ * HTTP/JSON API:
+ * <p><ul>
+ * <li> POST /jobs with a body like
+ * {"type": "DEPLOY", "config": "/path/to/cmdeploy.ini"} queues a job. The
+ * config file is optional and defaults to the file the server was started
+ * with. Valid types are defined by {@link Job.Type}.
+ * <li> GET /jobs lists queued, running and recently completed jobs.
+ * <li> GET /jobs/{id} returns the status of a single job.
+ * <li> GET /hosts returns the host inventory.
+ * <li> GET /metrics returns the current CM API concurrency limits and call
+ * statistics.
+ * </ul><p>
+ * Start the server with:
+ * java -Dcmapi.ini.file=cmdeploy.ini -cp target/cmapi-examples-deploy-1.0-SNAPSHOT-executable.jar com.cloudera.cmapi.deploy.server.DeployServer
+ */
+public class DeployServer {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(DeployServer.class);
+
+  /**
+   * Default address to listen on. Only local clients are accepted unless
+   * configured otherwise.
+   */
+  private static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+
+  /**
+   * Default port to listen on.
+   */
+  private static final int DEFAULT_PORT = 7190;
+
+  /**
+   * Default number of worker threads.
+   */
+  private static final int DEFAULT_WORKER_THREADS = 4;
+
+  /**
+   * Default maximum number of queued jobs.
+   */
+  private static final int DEFAULT_MAX_QUEUED_JOBS = 100;
+
+  /**
+   * Default number of completed jobs to retain.
+   */
+  private static final int DEFAULT_JOB_HISTORY = 1000;
+
+  /**
+   * Default maximum age of cached cluster state.
+   */
+  private static final long DEFAULT_STATE_TTL_SECONDS = 300;
+
+  /**
+   * Maximum time to wait for running jobs on shutdown.
+   */
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+  /**
+   * Used to convert requests and responses to and from JSON.
+   */
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /**
+   * Configuration file the server was started with.
+   */
+  private final String defaultConfigFile;
+
+  /**
+   * Queues and runs jobs.
+   */
+  private final JobManager jobManager;
+
+  /**
+   * Runs individual jobs.
+   */
+  private final JobRunner jobRunner;
+
+  /**
+   * Cached state of the Cloudera Manager instance, shared by all jobs.
+   */
+  private final ClusterState clusterState;
+
+  /**
+   * Asynchronous client shared by all jobs, closed when the server stops.
+   */
+  private final AsyncCmClient asyncClient;
+
+  /**
+   * Governor limiting concurrent CM API calls, or null if disabled.
+   */
+  private final ConcurrencyGovernor governor;
+
+  /**
+   * Embedded HTTP server.
+   */
+  private final HttpServer httpServer;
+
+  /**
+   * Create the Cloudera Manager client, job manager and HTTP server.
+   *
+   * @param configFile Configuration file the server is started with.
+   * @param config Configuration parameters.
+   *
+   * @throws IOException if the HTTP server can't be created.
+   */
+  public DeployServer(final String configFile, final Wini config)
+    throws IOException {
+    defaultConfigFile = configFile;
+
+    // The root resource proxy caches sub-resources, so the CM client is
+    // built once and reused by all jobs:
+    governor = ConcurrencyGovernor.fromConfig(config);
+    RootResourceV10 apiRoot = CMApiDeploy.getRootResource(config, governor);
+    LOG.info("Successfully created root resource");
+
+    asyncClient = new AsyncCmClient(apiRoot);
+    clusterState =
+      new ClusterState(apiRoot, asyncClient,
+                       StreamingReader.fromConfig(config),
+                       1000 * ConfigUtils.getLong(config,
+                                                  Constants.SERVER_CONFIG_SECTION,
+                                                  Constants.SERVER_STATE_TTL_SECONDS_PARAMETER,
+                                                  DEFAULT_STATE_TTL_SECONDS));
+    clusterState.snapshot();
+
+    jobRunner = new JobRunner(apiRoot, asyncClient, clusterState,
+                              CMApiDeploy.getCmAddress(config));
+    jobManager =
+      new JobManager(jobRunner,
+                     ConfigUtils.getInt(config, Constants.SERVER_CONFIG_SECTION,
+                                        Constants.SERVER_WORKER_THREADS_PARAMETER,
+                                        DEFAULT_WORKER_THREADS),
+                     ConfigUtils.getInt(config, Constants.SERVER_CONFIG_SECTION,
+                                        Constants.SERVER_MAX_QUEUED_JOBS_PARAMETER,
+                                        DEFAULT_MAX_QUEUED_JOBS),
+                     ConfigUtils.getInt(config, Constants.SERVER_CONFIG_SECTION,
+                                        Constants.SERVER_JOB_HISTORY_PARAMETER,
+                                        DEFAULT_JOB_HISTORY));
+
+    InetSocketAddress address =
+      new InetSocketAddress(ConfigUtils.getString(config,
+                                                  Constants.SERVER_CONFIG_SECTION,
+                                                  Constants.SERVER_BIND_ADDRESS_PARAMETER,
+                                                  DEFAULT_BIND_ADDRESS),
+                            ConfigUtils.getInt(config,
+                                               Constants.SERVER_CONFIG_SECTION,
+                                               Constants.SERVER_PORT_PARAMETER,
+                                               DEFAULT_PORT));
+    httpServer = HttpServer.create(address, 0);
+    httpServer.createContext("/jobs", new JobsHandler());
+    httpServer.createContext("/hosts", new HostsHandler());
+    httpServer.createContext("/metrics", new MetricsHandler());
+    LOG.info("Deploy server listening on " + address);
+  }
+
+  /**
+   * Load configuration and start the server.
+   *
+   * @param args Command line arguments.
+   */
+  public static void main(final String[] args) {
+    String configFile = System.getProperty("cmapi.ini.file");
+    try {
+      Wini config = new CMApiDeploy().getConfig(configFile);
+      final DeployServer server = new DeployServer(configFile, config);
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+          public void run() {
+            server.stop();
+          }
+        });
+      server.start();
+    } catch (IOException e) {
+      LOG.error("Caught exception starting deploy server with configuration " +
+                configFile + ", exception was " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Start accepting requests.
+   */
+  public final void start() {
+    httpServer.start();
+  }
+
+  /**
+   * Stop accepting requests and wait for running jobs to complete.
+   */
+  public final void stop() {
+    LOG.info("Stopping deploy server...");
+    httpServer.stop(0);
+    jobManager.shutdown(SHUTDOWN_TIMEOUT_SECONDS);
+    asyncClient.close();
+  }
+
+  /**
+   * Write a JSON response.
+   *
+   * @param exchange HTTP exchange.
+   * @param status HTTP status code.
+   * @param body Object to serialize as the response body.
+   *
+   * @throws IOException if error occurs writing response.
+   */
+  private static void sendJson(final HttpExchange exchange, final int status,
+                               final Object body) throws IOException {
+    byte[] bytes = MAPPER.writeValueAsBytes(body);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Write a JSON error response.
+   *
+   * @param exchange HTTP exchange.
+   * @param status HTTP status code.
+   * @param message Error message.
+   *
+   * @throws IOException if error occurs writing response.
+   */
+  private static void sendError(final HttpExchange exchange, final int status,
+                                final String message) throws IOException {
+    Map<String, String> error = new LinkedHashMap<String, String>();
+    error.put("error", message);
+    sendJson(exchange, status, error);
+  }
+
+  /**
+   * Handles /jobs requests.
+   */
+  private class JobsHandler implements HttpHandler {
+
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+      try {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String id = path.replaceFirst("^/jobs/?", "");
+        if ("GET".equals(method) && id.isEmpty()) {
+          sendJson(exchange, 200, jobManager.getJobs());
+        } else if ("GET".equals(method)) {
+          Job job = jobManager.getJob(Long.parseLong(id));
+          if (job == null) {
+            sendError(exchange, 404, "No job with ID " + id);
+          } else {
+            sendJson(exchange, 200, job);
+          }
+        } else if ("POST".equals(method) && id.isEmpty()) {
+          submit(exchange);
+        } else {
+          sendError(exchange, 405, method + " not supported for " + path);
+        }
+      } catch (NumberFormatException e) {
+        sendError(exchange, 400, "Invalid job ID: " + e.getMessage());
+      } finally {
+        exchange.close();
+      }
+    }
+
+    /**
+     * Parse a job request and queue the job.
+     *
+     * @param exchange HTTP exchange.
+     *
+     * @throws IOException if error occurs reading the request or writing
+     * the response.
+     */
+    private void submit(final HttpExchange exchange) throws IOException {
+      Map<?, ?> request;
+      Job.Type type;
+      try {
+        request = MAPPER.readValue(exchange.getRequestBody(), Map.class);
+        type = Job.Type.valueOf(String.valueOf(request.get("type")));
+      } catch (IllegalArgumentException e) {
+        sendError(exchange, 400, "Missing or invalid job type");
+        return;
+      } catch (IOException e) {
+        sendError(exchange, 400, "Invalid request: " + e.getMessage());
+        return;
+      }
+      String configFile = request.get("config") == null ?
+        defaultConfigFile : String.valueOf(request.get("config"));
+      String cluster;
+      try {
+        cluster = jobRunner.getClusterName(configFile);
+      } catch (IOException e) {
+        sendError(exchange, 400, "Can't load configuration " + configFile +
+                  ": " + e.getMessage());
+        return;
+      } catch (IllegalArgumentException e) {
+        sendError(exchange, 400, e.getMessage());
+        return;
+      }
+      try {
+        sendJson(exchange, 202, jobManager.submit(type, configFile, cluster));
+      } catch (RejectedExecutionException e) {
+        sendError(exchange, 503, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Handles /hosts requests.
+   */
+  private class HostsHandler implements HttpHandler {
+
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+      try {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+          sendError(exchange, 405, exchange.getRequestMethod() +
+                    " not supported for /hosts");
+          return;
+        }
+        List<Map<String, String>> hosts = new ArrayList<Map<String, String>>();
+        for (ApiHost host : clusterState.getHostsByName().values()) {
+          Map<String, String> entry = new LinkedHashMap<String, String>();
+          entry.put("hostname", host.getHostname());
+          entry.put("hostId", host.getHostId());
+          entry.put("ipAddress", host.getIpAddress());
+          entry.put("rackId", host.getRackId());
+          hosts.add(entry);
+        }
+        sendJson(exchange, 200, hosts);
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+
+  /**
+   * Handles /metrics requests.
+   */
+  private class MetricsHandler implements HttpHandler {
+
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+      try {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+          sendError(exchange, 405, exchange.getRequestMethod() +
+                    " not supported for /metrics");
+          return;
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("governor", governor == null ? null : governor.getMetrics());
+        sendJson(exchange, 200, metrics);
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+}
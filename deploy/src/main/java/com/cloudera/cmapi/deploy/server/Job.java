@@ -0,0 +1,212 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.server;
+
+import java.util.Date;
+
+/**
+ * A deployment or maintenance job submitted to the deploy server. Jobs are
+ * serialized to JSON when returned by the server's HTTP API, so the getters
+ * define the JSON representation.
+ */
+public class Job {
+
+  /**
+   * Types of job accepted by the server.
+   */
+  public static enum Type {
+    DEPLOY, START_CLUSTER, RESTART_CLUSTER, ROLLING_RESTART,
+    DEPLOY_CLIENT_CONFIG, START_MANAGEMENT_SERVICE, REFRESH_HOSTS
+  };
+
+  /**
+   * Job states.
+   */
+  public static enum State { QUEUED, RUNNING, SUCCEEDED, FAILED };
+
+  /**
+   * Unique ID assigned by the server.
+   */
+  private final long id;
+
+  /**
+   * Job type.
+   */
+  private final Type type;
+
+  /**
+   * Configuration file used by this job.
+   */
+  private final String configFile;
+
+  /**
+   * Name of the cluster this job operates on. Jobs for the same cluster are
+   * run one at a time.
+   */
+  private final String cluster;
+
+  /**
+   * Current state.
+   */
+  private volatile State state = State.QUEUED;
+
+  /**
+   * Time the job was submitted.
+   */
+  private final Date submitTime = new Date();
+
+  /**
+   * Time the job started running.
+   */
+  private volatile Date startTime;
+
+  /**
+   * Time the job completed.
+   */
+  private volatile Date endTime;
+
+  /**
+   * Result or error message.
+   */
+  private volatile String message;
+
+  /**
+   * Constructor.
+   *
+   * @param id Job ID.
+   * @param type Job type.
+   * @param configFile Configuration file used by this job.
+   * @param cluster Name of the cluster the job operates on.
+   */
+  public Job(final long id, final Type type, final String configFile,
+             final String cluster) {
+    this.id = id;
+    this.type = type;
+    this.configFile = configFile;
+    this.cluster = cluster;
+  }
+
+  /**
+   * Mark job as running.
+   */
+  public final void start() {
+    startTime = new Date();
+    state = State.RUNNING;
+  }
+
+  /**
+   * Mark job as complete.
+   *
+   * @param success Whether the job completed successfully.
+   * @param resultMessage Result or error message.
+   */
+  public final void finish(final boolean success, final String resultMessage) {
+    endTime = new Date();
+    message = resultMessage;
+    state = success ? State.SUCCEEDED : State.FAILED;
+  }
+
+  /**
+   * Whether this job has completed.
+   *
+   * @return true if job succeeded or failed.
+   */
+  public final boolean isDone() {
+    return state == State.SUCCEEDED || state == State.FAILED;
+  }
+
+  /**
+   * Get job ID.
+   *
+   * @return Job ID.
+   */
+  public final long getId() {
+    return id;
+  }
+
+  /**
+   * Get job type.
+   *
+   * @return Job type.
+   */
+  public final Type getType() {
+    return type;
+  }
+
+  /**
+   * Get configuration file used by this job.
+   *
+   * @return Configuration file used by this job.
+   */
+  public final String getConfigFile() {
+    return configFile;
+  }
+
+  /**
+   * Get name of the cluster this job operates on.
+   *
+   * @return Name of the cluster this job operates on.
+   */
+  public final String getCluster() {
+    return cluster;
+  }
+
+  /**
+   * Get current job state.
+   *
+   * @return Current job state.
+   */
+  public final State getState() {
+    return state;
+  }
+
+  /**
+   * Get time job was submitted.
+   *
+   * @return Time job was submitted.
+   */
+  public final Date getSubmitTime() {
+    return submitTime;
+  }
+
+  /**
+   * Get time job started running, or null if still queued.
+   *
+   * @return Time job started running, or null if still queued.
+   */
+  public final Date getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * Get time job completed, or null if not complete.
+   *
+   * @return Time job completed, or null if not complete.
+   */
+  public final Date getEndTime() {
+    return endTime;
+  }
+
+  /**
+   * Get result or error message.
+   *
+   * @return Result or error message.
+   */
+  public final String getMessage() {
+    return message;
+  }
+}
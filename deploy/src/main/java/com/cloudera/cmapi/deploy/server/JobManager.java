@@ -0,0 +1,270 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Queues jobs and runs them on a bounded pool of worker threads. Jobs for
+ * the same cluster are serialized: at most one job per cluster runs at a
+ * time, and jobs for a cluster run in the order they were submitted. Jobs
+ * for different clusters run concurrently up to the size of the pool,
+ * except that jobs deploying or starting the management service, which is
+ * shared by all clusters of the CM, run one at a time across clusters.
+ */
+public class JobManager {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(JobManager.class);
+
+  /**
+   * Worker threads that run jobs.
+   */
+  private final ExecutorService workers;
+
+  /**
+   * Object that executes a job.
+   */
+  private final JobRunner runner;
+
+  /**
+   * Maximum number of jobs that can be queued waiting to run.
+   */
+  private final int maxQueuedJobs;
+
+  /**
+   * Maximum number of completed jobs to retain for status queries.
+   */
+  private final int jobHistory;
+
+  /**
+   * Source of job IDs.
+   */
+  private final AtomicLong nextId = new AtomicLong(1);
+
+  /**
+   * All retained jobs by ID, in submission order.
+   */
+  private final Map<Long, Job> jobs = new LinkedHashMap<Long, Job>();
+
+  /**
+   * Jobs waiting to run, by cluster name.
+   */
+  private final Map<String, Deque<Job>> pending =
+    new HashMap<String, Deque<Job>>();
+
+  /**
+   * Clusters that currently have a running job.
+   */
+  private final Set<String> activeClusters = new HashSet<String>();
+
+  /**
+   * Whether a job using the management service is running.
+   */
+  private boolean managementActive;
+
+  /**
+   * Number of jobs waiting to run.
+   */
+  private int queued;
+
+  /**
+   * Constructor.
+   *
+   * @param runner Object that executes jobs.
+   * @param workerThreads Number of worker threads.
+   * @param maxQueuedJobs Maximum number of jobs waiting to run.
+   * @param jobHistory Maximum number of completed jobs to retain.
+   */
+  public JobManager(final JobRunner runner, final int workerThreads,
+                    final int maxQueuedJobs, final int jobHistory) {
+    this.runner = runner;
+    this.maxQueuedJobs = maxQueuedJobs;
+    this.jobHistory = jobHistory;
+    workers = Executors.newFixedThreadPool(workerThreads);
+  }
+
+  /**
+   * Queue a new job.
+   *
+   * @param type Job type.
+   * @param configFile Configuration file used by the job.
+   * @param cluster Name of the cluster the job operates on.
+   *
+   * @return The queued job.
+   *
+   * @throws RejectedExecutionException if the job queue is full.
+   */
+  public final synchronized Job submit(final Job.Type type,
+                                       final String configFile,
+                                       final String cluster) {
+    if (queued >= maxQueuedJobs) {
+      throw new RejectedExecutionException("Job queue is full (" +
+                                           maxQueuedJobs + " jobs)");
+    }
+    Job job = new Job(nextId.getAndIncrement(), type, configFile, cluster);
+    jobs.put(job.getId(), job);
+    Deque<Job> clusterJobs = pending.get(cluster);
+    if (clusterJobs == null) {
+      clusterJobs = new ArrayDeque<Job>();
+      pending.put(cluster, clusterJobs);
+    }
+    clusterJobs.add(job);
+    queued++;
+    LOG.info("Queued job " + job.getId() + " (" + type + ") for cluster " +
+             cluster);
+    dispatch(cluster);
+    pruneHistory();
+    return job;
+  }
+
+  /**
+   * Get a job by ID.
+   *
+   * @param id Job ID.
+   *
+   * @return The job, or null if no job with this ID is retained.
+   */
+  public final synchronized Job getJob(final long id) {
+    return jobs.get(id);
+  }
+
+  /**
+   * Get all retained jobs.
+   *
+   * @return Jobs in submission order.
+   */
+  public final synchronized List<Job> getJobs() {
+    return new ArrayList<Job>(jobs.values());
+  }
+
+  /**
+   * Stop accepting jobs and wait for running jobs to complete.
+   *
+   * @param timeoutSeconds Maximum time to wait.
+   */
+  public final void shutdown(final long timeoutSeconds) {
+    workers.shutdown();
+    try {
+      workers.awaitTermination(timeoutSeconds, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      LOG.warn(e.getMessage());
+    }
+  }
+
+  /**
+   * Start the next job for a cluster if no job is running for it.
+   *
+   * @param cluster Cluster name.
+   */
+  private void dispatch(final String cluster) {
+    if (activeClusters.contains(cluster)) {
+      return;
+    }
+    Deque<Job> clusterJobs = pending.get(cluster);
+    final Job job = clusterJobs == null ? null : clusterJobs.peek();
+    if (job == null) {
+      pending.remove(cluster);
+      return;
+    }
+    final boolean management = usesManagementService(job.getType());
+    if (management && managementActive) {
+      // Started once the running management service job completes:
+      return;
+    }
+    clusterJobs.poll();
+    queued--;
+    activeClusters.add(cluster);
+    if (management) {
+      managementActive = true;
+    }
+    workers.execute(new Runnable() {
+        public void run() {
+          try {
+            runner.run(job);
+          } finally {
+            complete(cluster, management);
+          }
+        }
+      });
+  }
+
+  /**
+   * Called when a job completes to start the next job for the cluster, and
+   * if the job used the management service, jobs for other clusters waiting
+   * for it.
+   *
+   * @param cluster Cluster name.
+   * @param management Whether the job used the management service.
+   */
+  private synchronized void complete(final String cluster,
+                                     final boolean management) {
+    activeClusters.remove(cluster);
+    if (!management) {
+      dispatch(cluster);
+      return;
+    }
+    managementActive = false;
+    dispatch(cluster);
+    for (String waiting : new ArrayList<String>(pending.keySet())) {
+      dispatch(waiting);
+    }
+  }
+
+  /**
+   * Check whether jobs of a type deploy or start the management service.
+   *
+   * @param type Job type.
+   *
+   * @return True if jobs of this type use the management service.
+   */
+  private static boolean usesManagementService(final Job.Type type) {
+    return type == Job.Type.DEPLOY ||
+      type == Job.Type.START_MANAGEMENT_SERVICE;
+  }
+
+  /**
+   * Drop the oldest completed jobs once more than the configured number of
+   * jobs is retained.
+   */
+  private void pruneHistory() {
+    Iterator<Job> it = jobs.values().iterator();
+    while (jobs.size() > jobHistory && it.hasNext()) {
+      if (it.next().isDone()) {
+        it.remove();
+      }
+    }
+  }
+}
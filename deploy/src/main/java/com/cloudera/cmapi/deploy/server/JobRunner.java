@@ -0,0 +1,259 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.server;
+
+import com.cloudera.api.v10.RootResourceV10;
+
+import com.cloudera.cmapi.deploy.CMApiDeploy;
+import com.cloudera.cmapi.deploy.CMServer;
+import com.cloudera.cmapi.deploy.ClusterState;
+import com.cloudera.cmapi.deploy.Cluster;
+import com.cloudera.cmapi.deploy.Constants;
+import com.cloudera.cmapi.deploy.DeploymentSpec;
+import com.cloudera.cmapi.deploy.client.AsyncCmClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Wini;
+
+/**
+ * Executes jobs using a shared, already initialized Cloudera Manager client.
+ * Parsed configuration files are cached and only re-read when the file
+ * changes on disk. Jobs must target the Cloudera Manager instance the server
+ * is connected to.
+ */
+public class JobRunner {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(JobRunner.class);
+
+  /**
+   * Top level resource object providing access to the CM API namespace.
+   */
+  private final RootResourceV10 apiRoot;
+
+  /**
+   * Asynchronous client shared by all jobs.
+   */
+  private final AsyncCmClient asyncClient;
+
+  /**
+   * CM user, host and port the server is connected to.
+   */
+  private final String cmAddress;
+
+  /**
+   * Cached state of the Cloudera Manager instance, shared by all jobs.
+   */
+  private final ClusterState clusterState;
+
+  /**
+   * Used to load configuration files.
+   */
+  private final CMApiDeploy loader = new CMApiDeploy();
+
+  /**
+   * Parsed configuration files by file name.
+   */
+  private final Map<String, Wini> configs = new HashMap<String, Wini>();
+
+  /**
+   * Modification time of each cached configuration file.
+   */
+  private final Map<String, Long> configTimes = new HashMap<String, Long>();
+
+  /**
+   * Deployment specs compiled from each cached configuration file.
+   */
+  private final Map<String, DeploymentSpec> specs =
+    new HashMap<String, DeploymentSpec>();
+
+  /**
+   * Constructor.
+   *
+   * @param apiRoot Object providing access to the CM API root namespace.
+   * @param asyncClient Asynchronous client shared by all jobs.
+   * @param clusterState Cached state of the Cloudera Manager instance.
+   * @param cmAddress CM user, host and port the server is connected to, as
+   * returned by {@link CMApiDeploy#getCmAddress}.
+   */
+  public JobRunner(final RootResourceV10 apiRoot,
+                   final AsyncCmClient asyncClient,
+                   final ClusterState clusterState,
+                   final String cmAddress) {
+    this.apiRoot = apiRoot;
+    this.asyncClient = asyncClient;
+    this.clusterState = clusterState;
+    this.cmAddress = cmAddress;
+  }
+
+  /**
+   * Get the configuration for a job, using the cached copy if the file
+   * hasn't changed.
+   *
+   * @param configFile Configuration file name, either a path on disk or a
+   * classpath resource.
+   *
+   * @return Configuration object.
+   *
+   * @throws IOException if error occurs loading file.
+   */
+  public final synchronized Wini getConfig(final String configFile)
+    throws IOException {
+    long modified = new File(configFile).lastModified();
+    Wini config = configs.get(configFile);
+    if (config == null || configTimes.get(configFile).longValue() != modified) {
+      config = loader.getConfig(configFile);
+      configs.put(configFile, config);
+      configTimes.put(configFile, modified);
+      specs.remove(configFile);
+    }
+    return config;
+  }
+
+  /**
+   * Get the deployment spec for a configuration file, compiling it only
+   * when the file is first loaded or changes.
+   *
+   * @param configFile Configuration file name.
+   *
+   * @return Deployment spec.
+   *
+   * @throws IOException if error occurs loading file.
+   */
+  public final synchronized DeploymentSpec getDeploymentSpec(final String configFile)
+    throws IOException {
+    Wini config = getConfig(configFile);
+    DeploymentSpec spec = specs.get(configFile);
+    if (spec == null) {
+      spec = DeploymentSpec.compile(config);
+      specs.put(configFile, spec);
+    }
+    return spec;
+  }
+
+  /**
+   * Get the name of the cluster defined by a configuration file, checking
+   * that the file targets the Cloudera Manager instance the server is
+   * connected to.
+   *
+   * @param configFile Configuration file name.
+   *
+   * @return Cluster name.
+   *
+   * @throws IOException if error occurs loading file.
+   * @throws IllegalArgumentException if the file's [CM] section targets a
+   * different instance or user.
+   */
+  public final String getClusterName(final String configFile)
+    throws IOException {
+    Wini config = getConfig(configFile);
+    checkCmAddress(configFile, config);
+    return config.get(Constants.CLUSTER_CONFIG_SECTION,
+                      Constants.CLUSTER_NAME_PARAMETER);
+  }
+
+  /**
+   * Check that a job's configuration targets the Cloudera Manager instance
+   * the server is connected to. Jobs run through the server's client, so a
+   * job for another instance would otherwise run against this one.
+   *
+   * @param configFile Configuration file name.
+   * @param config Configuration loaded from the file.
+   *
+   * @throws IllegalArgumentException if the [CM] section targets a
+   * different instance or user.
+   */
+  private void checkCmAddress(final String configFile, final Wini config) {
+    String address = CMApiDeploy.getCmAddress(config);
+    if (!cmAddress.equals(address)) {
+      throw new IllegalArgumentException("Configuration " + configFile +
+                                         " targets " + address +
+                                         " but the server is connected to " +
+                                         cmAddress);
+    }
+  }
+
+  /**
+   * Create a CMServer object for a job, sharing the server's client and
+   * cluster state.
+   *
+   * @param config Job configuration.
+   * @param spec Deployment spec compiled from the configuration.
+   *
+   * @return CMServer object.
+   */
+  private CMServer newCMServer(final Wini config, final DeploymentSpec spec) {
+    return new CMServer(config, spec, apiRoot, clusterState, asyncClient);
+  }
+
+  /**
+   * Run a job, recording its result on the job object.
+   *
+   * @param job Job to run.
+   */
+  public final void run(final Job job) {
+    job.start();
+    LOG.info("Running job " + job.getId() + " (" + job.getType() + ")");
+    try {
+      Wini config = getConfig(job.getConfigFile());
+      checkCmAddress(job.getConfigFile(), config);
+      DeploymentSpec spec = getDeploymentSpec(job.getConfigFile());
+      boolean status = true;
+      switch (job.getType()) {
+      case DEPLOY:
+        status = CMApiDeploy.deploy(newCMServer(config, spec)).isSuccess();
+        break;
+      case START_CLUSTER:
+        // The cluster is already deployed, so start it without first run:
+        status = new Cluster(newCMServer(config, spec)).startServices();
+        break;
+      case RESTART_CLUSTER:
+        status = new Cluster(newCMServer(config, spec)).restartCluster();
+        break;
+      case ROLLING_RESTART:
+        status = new Cluster(newCMServer(config, spec)).rollingRestart();
+        break;
+      case DEPLOY_CLIENT_CONFIG:
+        status = new Cluster(newCMServer(config, spec)).deployClientConfigs();
+        break;
+      case START_MANAGEMENT_SERVICE:
+        status = newCMServer(config, spec).startManagementService();
+        break;
+      case REFRESH_HOSTS:
+        clusterState.snapshot();
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported job type " +
+                                           job.getType());
+      }
+      job.finish(status, status ? "Completed successfully" :
+                 "Command completed unsuccessfully");
+    } catch (Exception e) {
+      LOG.error("Job " + job.getId() + " failed", e);
+      job.finish(false, e.toString());
+    }
+    LOG.info("Job " + job.getId() + " completed, state=" + job.getState());
+  }
+}
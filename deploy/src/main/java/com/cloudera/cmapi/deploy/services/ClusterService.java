@@ -16,22 +16,54 @@
  */
 package com.cloudera.cmapi.deploy.services;
 
+import com.cloudera.api.DataView;
+import com.cloudera.api.model.ApiCommand;
 import com.cloudera.api.model.ApiConfig;
 import com.cloudera.api.model.ApiConfigList;
+import com.cloudera.api.model.ApiHost;
 import com.cloudera.api.model.ApiHostRef;
+import com.cloudera.api.model.ApiHostRefList;
+import com.cloudera.api.model.ApiHostTemplate;
+import com.cloudera.api.model.ApiHostTemplateList;
 import com.cloudera.api.model.ApiRole;
 import com.cloudera.api.model.ApiRoleConfigGroup;
-import com.cloudera.api.model.ApiServiceConfig;
+import com.cloudera.api.model.ApiRoleConfigGroupList;
+import com.cloudera.api.model.ApiRoleConfigGroupRef;
+import com.cloudera.api.model.ApiRoleList;
+import com.cloudera.api.model.ApiRoleNameList;
 import com.cloudera.api.v10.ServicesResourceV10;
+import com.cloudera.api.v3.HostTemplatesResource;
+import com.cloudera.api.v3.RoleConfigGroupsResource;
+import com.cloudera.api.v8.RolesResourceV8;
+
+import com.cloudera.cmapi.deploy.Cluster;
+import com.cloudera.cmapi.deploy.CommandWaiter;
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+import com.cloudera.cmapi.deploy.DeploymentSpec;
+import com.cloudera.cmapi.deploy.DeploymentTimeoutException;
+import com.cloudera.cmapi.deploy.HostClass;
+import com.cloudera.cmapi.deploy.HostSet;
+import com.cloudera.cmapi.deploy.client.AsyncCmClient;
+import com.cloudera.cmapi.deploy.tuning.AutoTuner;
+import com.cloudera.cmapi.deploy.tuning.HostFacts;
 
 import org.apache.log4j.Logger;
 
-import org.ini4j.Ini;
 import org.ini4j.Wini;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Base class for cluster services (HDFS, YARN, etc.). The general flow for
@@ -56,11 +88,31 @@ public abstract class ClusterService {
    */
   private static final Logger LOG = Logger.getLogger(ClusterService.class);
 
+  /**
+   * Default number of roles added per request when adding roles in chunks.
+   */
+  private static final int DEFAULT_ROLE_CHUNK_SIZE = 200;
+
+  /**
+   * Default number of role chunks submitted concurrently.
+   */
+  private static final int DEFAULT_ROLE_CHUNK_PARALLELISM = 4;
+
+  /**
+   * Cluster this service is deployed to.
+   */
+  protected Cluster cluster;
+
   /**
    * Configuration object.
    */
   protected Wini config;
 
+  /**
+   * Deployment spec compiled from the configuration.
+   */
+  protected DeploymentSpec spec;
+
   /**
    * Cloudera Manager API object providing access to functionality for
    * configuring, creating, etc. services on a cluster.
@@ -77,6 +129,18 @@ public abstract class ClusterService {
    */
   protected String type;
 
+  /**
+   * Flag indicating that gateway (client) configuration for this service
+   * changed during this run, so client configs need to be redeployed.
+   */
+  private boolean clientConfigChanged = false;
+
+  /**
+   * Hosts assigned each role type by this run, keyed on role type.
+   */
+  private final Map<String, Set<String>> roleHosts =
+    new LinkedHashMap<String, Set<String>>();
+
   /**
    * Execute the workflow to deploy a service and associated roles to a
    * cluster.
@@ -87,14 +151,15 @@ public abstract class ClusterService {
   /**
    * Set required parameters.
    *
-   * @param config Configuration parameters.
-   * @param servicesResource Cloudera Manager API object providing access
-   * to functionality for configuring, creating, etc. services on a cluster.
+   * @param cluster Cluster this service is deployed to. Provides the
+   * configuration parameters and the Cloudera Manager API object for
+   * configuring, creating, etc. services on the cluster.
    */
-  public ClusterService(final Wini config,
-                        final ServicesResourceV10 servicesResource) {
-    this.config = config;
-    this.servicesResource = servicesResource;
+  public ClusterService(final Cluster cluster) {
+    this.cluster = cluster;
+    this.config = cluster.getConfig();
+    this.spec = cluster.getCMServer().getDeploymentSpec();
+    this.servicesResource = cluster.getServicesResource();
   }
 
   /**
@@ -148,25 +213,102 @@ public abstract class ClusterService {
   }
 
   /**
-   * Create and populate a service configuration object.
+   * Get the hosts assigned gateway roles for this service. Services with
+   * gateway roles override this.
    *
-   * @param serviceConfigSection Section from configuration file containing
-   * parameters specific to a service.
+   * @return Gateway hosts, or an empty set if the service has no gateway
+   * roles.
+   */
+  public HostSet getGatewayHosts() {
+    return HostSet.EMPTY;
+  }
+
+  /**
+   * Get the hosts roles were created on during this run.
+   *
+   * @return Host names keyed on role type.
+   */
+  public final Map<String, Set<String>> getRoleHosts() {
+    return roleHosts;
+  }
+
+  /**
+   * Check whether the gateway configuration for this service changed during
+   * this run, either because the service was created or because gateway
+   * role configs were updated.
    *
-   * @return ApiServiceConfig object populated with configuration parameters
-   * for a service.
+   * @return true if client configs need to be redeployed for this service.
    */
-  protected final ApiServiceConfig getServiceConfig(final Ini.Section serviceConfigSection) {
+  public final boolean isClientConfigChanged() {
+    return clientConfigChanged;
+  }
 
-    ApiServiceConfig serviceConfig = new ApiServiceConfig();
-    if (serviceConfigSection != null && serviceConfigSection.size() > 0) {
-      for (Map.Entry<String, String> entry : serviceConfigSection.entrySet()) {
-        LOG.debug("Adding service config key/value: " +
-                  entry.getKey() + "=" + entry.getValue());
-        serviceConfig.add(new ApiConfig(entry.getKey(), entry.getValue()));
+  /**
+   * Bring the gateway role configuration of an existing service in line
+   * with the configuration file. Only parameters whose values differ from
+   * the current configuration are updated, and the service is flagged as
+   * having changed client configs if any are.
+   */
+  public final void updateClientConfigurations() {
+    RoleConfigGroupsResource groupsResource =
+      servicesResource.getRoleConfigGroupsResource(name);
+    for (ApiRoleConfigGroup roleConfigGroup :
+           cluster.getClusterState().getRoleConfigGroups(cluster.getName(), name)) {
+      if (!roleConfigGroup.getRoleType().equals("GATEWAY")) {
+        continue;
+      }
+      Map<String, String> roleConfigSection =
+        spec.getParameters(type + "_" + "GATEWAY");
+      if (roleConfigSection.isEmpty()) {
+        continue;
+      }
+
+      // The summary view only includes values that have been set:
+      Map<String, String> current = new HashMap<String, String>();
+      for (ApiConfig apiConfig :
+             groupsResource.readConfig(roleConfigGroup.getName(),
+                                       DataView.SUMMARY)) {
+        current.put(apiConfig.getName(), apiConfig.getValue());
+      }
+
+      ApiConfigList changes = new ApiConfigList();
+      for (Map.Entry<String, String> entry : roleConfigSection.entrySet()) {
+        if (!entry.getValue().equals(current.get(entry.getKey()))) {
+          LOG.debug("Gateway config changed for " + name + ": " +
+                    entry.getKey() + "=" + entry.getValue());
+          changes.add(new ApiConfig(entry.getKey(), entry.getValue()));
+        }
+      }
+      if (changes.size() > 0) {
+        LOG.info("Updating " + changes.size() + " gateway config params for " +
+                 roleConfigGroup.getName());
+        groupsResource.updateConfig(roleConfigGroup.getName(),
+                                    "Updating gateway config for " +
+                                    roleConfigGroup.getName(),
+                                    changes);
+        clientConfigChanged = true;
       }
     }
-    return serviceConfig;
+  }
+
+  /**
+   * Check whether this service already exists on the cluster.
+   *
+   * @return true if the service exists.
+   */
+  protected final boolean serviceExists() {
+    return cluster.getClusterState().serviceExists(cluster.getName(), name);
+  }
+
+  /**
+   * Wait for a Cloudera Manager command to complete.
+   *
+   * @param command Object encapsulating info on command being executed.
+   *
+   * @return Flag indicating success or failure of command execution.
+   */
+  protected final Boolean waitForCommand(final ApiCommand command) {
+    return cluster.getCMServer().waitForCommand(command);
   }
 
   /**
@@ -175,17 +317,22 @@ public abstract class ClusterService {
    * @param roleType Type for role object(s), for example NAMENODE,
    * RESOURCEMANAGER, etc.
    * @param roleName Optional name for role.
-   * @param hosts One or more hosts associated with the role.
+   * @param hosts One or more hosts associated with the role. Host names
+   * are generated as they're iterated, so large ranges aren't expanded
+   * ahead of time.
    *
    * @return List of new role objects.
    */
   protected final List<ApiRole> createRoles(final String roleType,
                                             final String roleName,
-                                            final String[] hosts) {
+                                            final Iterable<String> hosts) {
 
     List<ApiRole> roles = new ArrayList();
+    Set<String> typeHosts =
+      roleHosts.computeIfAbsent(roleType, k -> new LinkedHashSet<String>());
 
     for (String host : hosts) {
+      typeHosts.add(host);
       ApiRole apiRole = new ApiRole();
       apiRole.setType(roleType);
       apiRole.setHostRef(new ApiHostRef(host));
@@ -200,37 +347,655 @@ public abstract class ClusterService {
   }
 
   /**
-   * Update configuration for roles associated with this service.
+   * Add roles to this service in chunks through the roles resource rather
+   * than in a single request. Used for worker roles on large clusters, where
+   * one request carrying every role is slow to serialize and can time out.
+   * Several chunks are submitted concurrently, and a chunk that fails is
+   * retried with backoff without resubmitting the chunks that succeeded.
+   * <p>
+   * When the roles are all of one type, each chunk is instead added by
+   * applying a host template holding the role type's base group to the
+   * chunk's hosts, so each request carries only host references and CM
+   * creates the roles. A chunk the template fails for falls back to adding
+   * its remaining roles through the roles resource. The template is deleted
+   * once all chunks are done.
+   *
+   * @param roles Roles to add. The service must already exist.
+   *
+   * @throws IllegalStateException if any chunk still fails after retries.
+   */
+  protected final void addRolesInChunks(final List<ApiRole> roles) {
+    int chunkSize =
+      Math.max(1, ConfigUtils.getInt(config, Constants.CLUSTER_CONFIG_SECTION,
+                                     Constants.CLUSTER_ROLE_CHUNK_SIZE_PARAMETER,
+                                     DEFAULT_ROLE_CHUNK_SIZE));
+    int parallelism =
+      ConfigUtils.getInt(config, Constants.CLUSTER_CONFIG_SECTION,
+                         Constants.CLUSTER_ROLE_CHUNK_PARALLELISM_PARAMETER,
+                         DEFAULT_ROLE_CHUNK_PARALLELISM);
+
+    // Order roles by rack, so each chunk covers as few racks as possible:
+    final List<ApiRole> toAdd = new ArrayList<ApiRole>(roles);
+    toAdd.sort(Comparator.comparing((ApiRole role) ->
+                                    cluster.getRack(role.getHostRef().getHostId()),
+                                    Comparator.nullsLast(Comparator.<String>naturalOrder())));
+    final String templateName =
+      canUseHostTemplate(toAdd) ? createHostTemplate(toAdd.get(0).getType()) : null;
+
+    final int chunkCount = (toAdd.size() + chunkSize - 1) / chunkSize;
+    LOG.info("Adding " + toAdd.size() + " roles to " + name + " in " +
+             chunkCount + " chunks of up to " + chunkSize +
+             (templateName == null ? "" : " with host template " + templateName));
+
+    // Chunks run on virtual threads, with the semaphore bounding the number
+    // of requests in flight:
+    AsyncCmClient client = cluster.getCMServer().getAsyncClient();
+    Semaphore inFlight = new Semaphore(Math.max(1, parallelism));
+    AtomicReference<DeploymentTimeoutException> timeout =
+      new AtomicReference<DeploymentTimeoutException>();
+    List<CompletableFuture<Boolean>> results = new ArrayList<>();
+    List<Boolean> status;
+    try {
+      for (int i = 0; i < chunkCount; i++) {
+        final int chunk = i + 1;
+        final List<ApiRole> chunkRoles =
+          toAdd.subList(i * chunkSize, Math.min(toAdd.size(), (i + 1) * chunkSize));
+        results.add(client.submit(() -> {
+          inFlight.acquireUninterruptibly();
+          try {
+            List<ApiRole> pending = chunkRoles;
+            if (templateName != null) {
+              if (applyHostTemplate(templateName, chunkRoles, chunk, chunkCount)) {
+                return true;
+              }
+              // Some roles may have been created before the failure:
+              pending = removeExistingRoles(servicesResource.getRolesResource(name),
+                                            chunkRoles);
+            }
+            return addRoleChunk(pending, chunk, chunkCount);
+          } finally {
+            inFlight.release();
+          }
+        }).exceptionally(e -> {
+          Throwable cause = e.getCause() != null ? e.getCause() : e;
+          if (cause instanceof DeploymentTimeoutException) {
+            timeout.compareAndSet(null, (DeploymentTimeoutException) cause);
+          }
+          LOG.error("Chunk " + chunk + " failed: " + cause.getMessage());
+          return false;
+        }));
+      }
+      status = AsyncCmClient.allOf(results).join();
+    } finally {
+      if (templateName != null) {
+        deleteHostTemplate(templateName);
+      }
+      cluster.getClusterState().invalidateRoles(cluster.getName(), name);
+    }
+
+    if (timeout.get() != null) {
+      throw timeout.get();
+    }
+    List<Integer> failedChunks = new ArrayList<>();
+    for (int i = 0; i < status.size(); i++) {
+      if (!status.get(i)) {
+        failedChunks.add(i + 1);
+      }
+    }
+    if (!failedChunks.isEmpty()) {
+      throw new IllegalStateException("Failed to add roles to " + name +
+                                      ", failed chunks: " + failedChunks);
+    }
+    LOG.info("Added " + roles.size() + " roles to " + name);
+  }
+
+  /**
+   * Add the roles in a list that the service doesn't have yet, in chunks.
+   * Worker services call this on every deploy rather than only when the
+   * service is created, so a deploy that failed partway through adding
+   * roles is completed by the next one.
+   *
+   * @param roles Roles the service should have, from
+   * {@link #createRoles}. The service must already exist. If any are
+   * missing, all their hosts stay in the hosts assigned by this run, since
+   * the roles added by the failed run were never configured.
+   *
+   * @return true if any roles were missing and have been added.
+   *
+   * @throws IllegalStateException if any chunk still fails after retries.
+   */
+  protected final boolean addMissingRolesInChunks(final List<ApiRole> roles) {
+    // /api/v8/clusters/{clusterName}/services/{serviceName}/roles
+    List<ApiRole> missing =
+      removeExistingRoles(servicesResource.getRolesResource(name), roles);
+    if (missing.isEmpty()) {
+      // The roles were all configured by the run that created them, so
+      // this run leaves them alone:
+      for (ApiRole role : roles) {
+        Set<String> hosts = roleHosts.get(role.getType());
+        if (hosts != null) {
+          hosts.remove(role.getHostRef().getHostId());
+          if (hosts.isEmpty()) {
+            roleHosts.remove(role.getType());
+          }
+        }
+      }
+      return false;
+    }
+    if (missing.size() < roles.size()) {
+      LOG.info(name + " has " + (roles.size() - missing.size()) + " of " +
+               roles.size() + " roles, adding the other " + missing.size());
+    }
+    addRolesInChunks(missing);
+    return true;
+  }
+
+  /**
+   * Check whether roles can be added with a host template: templates must
+   * be enabled, and the roles must all be unnamed roles of one type. Every
+   * API version this application accepts has host templates.
+   *
+   * @param roles Roles to add.
+   *
+   * @return true if a host template can be used.
+   */
+  private boolean canUseHostTemplate(final List<ApiRole> roles) {
+    if (roles.isEmpty() ||
+        !ConfigUtils.getBoolean(config, Constants.CLUSTER_CONFIG_SECTION,
+                                Constants.CLUSTER_USE_HOST_TEMPLATES_PARAMETER,
+                                true)) {
+      return false;
+    }
+    String roleType = roles.get(0).getType();
+    for (ApiRole role : roles) {
+      if (!roleType.equals(role.getType()) || role.getName() != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the CM API object for the cluster's host templates.
+   *
+   * @return Host templates resource.
+   */
+  private HostTemplatesResource getHostTemplatesResource() {
+    // /api/v3/clusters/{clusterName}/hostTemplates
+    return cluster.getCMServer().getRootResource().getClustersResource()
+      .getHostTemplatesResource(cluster.getName());
+  }
+
+  /**
+   * Create a host template holding the base role config group for a role
+   * type. A template left by an earlier run that failed is reused.
+   *
+   * @param roleType Role type.
+   *
+   * @return Template name, or null if the template couldn't be created.
+   */
+  private String createHostTemplate(final String roleType) {
+    String templateName = name + "-" + roleType;
+    HostTemplatesResource templatesResource = getHostTemplatesResource();
+    try {
+      if (!hostTemplateExists(templatesResource, templateName)) {
+        String baseGroup = getBaseGroupName(roleType);
+        if (baseGroup == null) {
+          LOG.warn("No base role config group for " + roleType + " in " +
+                   name + ", not using a host template");
+          return null;
+        }
+        ApiHostTemplate template = new ApiHostTemplate();
+        template.setName(templateName);
+        template.setRoleConfigGroupRefs(List.of(new ApiRoleConfigGroupRef(baseGroup)));
+        templatesResource.createHostTemplates(new ApiHostTemplateList(List.of(template)));
+      }
+    } catch (RuntimeException e) {
+      LOG.warn("Couldn't create host template " + templateName +
+               ", adding roles directly: " + e.getMessage());
+      return null;
+    }
+    return templateName;
+  }
+
+  /**
+   * Delete a host template once the roles it was used for are added, so
+   * templates don't accumulate in the cluster.
+   *
+   * @param templateName Template name.
+   */
+  private void deleteHostTemplate(final String templateName) {
+    try {
+      // /api/v3/clusters/{clusterName}/hostTemplates/{hostTemplateName}
+      getHostTemplatesResource().deleteHostTemplate(templateName);
+    } catch (RuntimeException e) {
+      LOG.warn("Couldn't delete host template " + templateName + ": " +
+               e.getMessage());
+    }
+  }
+
+  /**
+   * Add a single chunk of roles by applying a host template to the chunk's
+   * hosts.
+   *
+   * @param templateName Template holding the role type's base group.
+   * @param roles Roles in this chunk, all of the template's role type.
+   * @param chunk Chunk number, for logging.
+   * @param chunkCount Total number of chunks, for logging.
+   *
+   * @return true if the template was applied, false if it failed and the
+   * chunk's roles need to be added directly.
+   *
+   * @throws DeploymentTimeoutException if the command doesn't complete in
+   * time.
+   */
+  private boolean applyHostTemplate(final String templateName,
+                                    final List<ApiRole> roles,
+                                    final int chunk, final int chunkCount) {
+    List<ApiHostRef> hosts = new ArrayList<>();
+    for (ApiRole role : roles) {
+      hosts.add(role.getHostRef());
+    }
+    try {
+      // /api/v3/clusters/{clusterName}/hostTemplates/{hostTemplateName}/commands/applyHostTemplate
+      ApiCommand command =
+        cluster.getCMServer().getCommandWaiter()
+        .waitFor(getHostTemplatesResource().applyHostTemplate(templateName, false,
+                                                              new ApiHostRefList(hosts)));
+      if (!Boolean.TRUE.equals(command.getSuccess())) {
+        LOG.warn("Applying host template " + templateName + " to chunk " +
+                 chunk + "/" + chunkCount + " failed: " +
+                 CommandWaiter.describe(CommandWaiter.getFailedChildren(command)));
+        return false;
+      }
+    } catch (RuntimeException e) {
+      if (e instanceof DeploymentTimeoutException) {
+        throw e;
+      }
+      LOG.warn("Host template " + templateName + " failed for chunk " +
+               chunk + "/" + chunkCount + ", adding roles directly: " +
+               e.getMessage());
+      return false;
+    }
+    LOG.info("Chunk " + chunk + "/" + chunkCount + " for " + name +
+             " complete (" + roles.size() + " roles)");
+    return true;
+  }
+
+  /**
+   * Get the name of the base role config group for a role type.
+   *
+   * @param roleType Role type.
+   *
+   * @return Group name, or null if the service has no base group for the
+   * role type.
+   */
+  private String getBaseGroupName(final String roleType) {
+    for (ApiRoleConfigGroup group :
+           servicesResource.getRoleConfigGroupsResource(name).readRoleConfigGroups()) {
+      if (roleType.equals(group.getRoleType()) &&
+          Boolean.TRUE.equals(group.isBase())) {
+        return group.getName();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Check whether a host template exists.
+   *
+   * @param templatesResource CM API object for the cluster's host templates.
+   * @param templateName Host template name.
+   *
+   * @return true if the template exists.
+   */
+  private static boolean hostTemplateExists(final HostTemplatesResource templatesResource,
+                                            final String templateName) {
+    for (ApiHostTemplate template : templatesResource.readHostTemplates()) {
+      if (templateName.equals(template.getName())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Add a single chunk of roles, retrying with backoff on failure. Before a
+   * retry, roles that were created by an earlier attempt are dropped from
+   * the chunk, since a request that timed out on our side may still have
+   * completed in CM.
+   *
+   * @param roles Roles in this chunk.
+   * @param chunk Chunk number, for logging.
+   * @param chunkCount Total number of chunks, for logging.
+   *
+   * @return true if all roles in the chunk were created.
+   *
+   * @throws DeploymentTimeoutException if the phase runs out of time
+   * before a retry.
+   */
+  private boolean addRoleChunk(final List<ApiRole> roles, final int chunk,
+                               final int chunkCount) {
+    CommandWaiter waiter = cluster.getCMServer().getCommandWaiter();
+    // /api/v8/clusters/{clusterName}/services/{serviceName}/roles
+    RolesResourceV8 rolesResource = servicesResource.getRolesResource(name);
+    List<ApiRole> pending = roles;
+    for (int attempt = 0; ; attempt++) {
+      if (attempt > 0) {
+        // Outside the try, so that running out of phase time stops the
+        // chunk rather than counting as another failed attempt:
+        waiter.backoff(attempt);
+      }
+      try {
+        if (attempt > 0) {
+          pending = removeExistingRoles(rolesResource, pending);
+          if (pending.isEmpty()) {
+            break;
+          }
+        }
+        rolesResource.createRoles(new ApiRoleList(new ArrayList<ApiRole>(pending)));
+        break;
+      } catch (RuntimeException e) {
+        LOG.warn("Chunk " + chunk + "/" + chunkCount + " for " + name +
+                 " failed: " + e.getMessage());
+        if (attempt >= waiter.getMaxRetries()) {
+          return false;
+        }
+      }
+    }
+    LOG.info("Chunk " + chunk + "/" + chunkCount + " for " + name +
+             " complete (" + roles.size() + " roles)");
+    return true;
+  }
+
+  /**
+   * Remove roles that already exist in the service from a list of roles to
+   * create. Roles are matched on type and host. Roles read from CM carry
+   * host IDs while the roles we build carry host names, so existing roles
+   * are matched under both.
+   *
+   * @param rolesResource CM API object for this service's roles.
+   * @param roles Roles to create.
+   *
+   * @return Roles that don't exist yet.
+   */
+  private List<ApiRole> removeExistingRoles(final RolesResourceV8 rolesResource,
+                                            final List<ApiRole> roles) {
+    Map<String, String> hostNames = new HashMap<String, String>();
+    for (ApiHost host : cluster.getClusterState().getHostsByName().values()) {
+      hostNames.put(host.getHostId(), host.getHostname());
+    }
+    Set<String> existing = new HashSet<String>();
+    for (ApiRole role : rolesResource.readRoles()) {
+      String hostId = role.getHostRef().getHostId();
+      existing.add(role.getType() + "@" + hostId);
+      if (hostNames.containsKey(hostId)) {
+        existing.add(role.getType() + "@" + hostNames.get(hostId));
+      }
+    }
+    List<ApiRole> remaining = new ArrayList<ApiRole>();
+    for (ApiRole role : roles) {
+      if (!existing.contains(role.getType() + "@" +
+                             role.getHostRef().getHostId())) {
+        remaining.add(role);
+      }
+    }
+    return remaining;
+  }
+
+  /**
+   * Update configuration for roles associated with this service. The CM API
+   * has no bulk update for role config groups, so the groups with
+   * configuration to set are updated concurrently rather than one after
+   * another. Roles on hosts in a configured host class are then given the
+   * class's settings.
    */
   protected final void updateRoleConfigurations() {
 
+    AsyncCmClient client = cluster.getCMServer().getAsyncClient();
+    List<CompletableFuture<ApiConfigList>> updates = new ArrayList<>();
+    AutoTuner tuner = cluster.getAutoTuner();
     String roleType = null;
     for (ApiRoleConfigGroup roleConfigGroup : servicesResource.getRoleConfigGroupsResource(name).readRoleConfigGroups()) {
       roleType = roleConfigGroup.getRoleType();
+      Set<String> hosts = roleHosts.get(roleType);
       LOG.info("Looking for configuration params for role type=" + roleType);
-      ApiConfigList roleConfigList = new ApiConfigList();
       // Multiple service types have the GATEWAY role, so we need a way
       // to differentiate config parameters:
       if (roleType.equals("GATEWAY")) {
         roleType = type + "_" + "GATEWAY";
+        // Newly configured gateways need client configs deployed:
+        clientConfigChanged = true;
+      }
+      // The config list is compiled once per spec and shared between runs:
+      ApiConfigList roleConfigList = spec.getConfigs(roleType);
+      if (tuner != null && hosts != null) {
+        roleConfigList = tuner.merge(roleType, getHostFacts(hosts),
+                                     (int) cluster.getClusterSize(),
+                                     roleConfigList);
       }
-      Ini.Section roleConfigSection = config.get(roleType);
-      if (roleConfigSection != null && roleConfigSection.size() > 0) {
+      if (roleConfigList.size() > 0) {
         LOG.info("Found configuration params for role type=" + roleType);
-        for (Map.Entry<String, String> entry : roleConfigSection.entrySet()) {
-          LOG.debug("Role type=" + roleType +
-                    ", adding config key/value: " +
-                    entry.getKey() + "=" + entry.getValue());
-          roleConfigList.add(new ApiConfig(entry.getKey(), entry.getValue()));
+        // /api/v3/clusters/{clusterName}/services/{serviceName}/roleConfigGroups/{roleConfigGroupName}/config
+        updates.add(client.updateRoleConfigGroupConfig(cluster.getName(), name,
+                                                       roleConfigGroup.getName(),
+                                                       "Updating role config for " +
+                                                       roleConfigGroup.getName(),
+                                                       roleConfigList));
+      }
+    }
+    AsyncCmClient.allOf(updates).join();
+    updateHostClassRoleConfigurations(tuner);
+  }
+
+  /**
+   * Give the roles of a type different configuration depending on the class
+   * of host they run on. Each class gets a role config group named
+   * {service}-{role type}-{class}, created from the values set in the base
+   * group with the class's values on top, and the roles on the class's hosts
+   * are moved into it. Groups that already exist only get the class's
+   * values. If every role of the type is in one class, the class's values
+   * are set on the base group instead.
+   *
+   * @param roleType Role type.
+   * @param hostClasses Class of each host, keyed on host name. Roles on
+   * hosts not listed stay in their current group.
+   * @param classConfigs Values for each class, keyed on class name.
+   */
+  public final void updateHostClassConfigs(final String roleType,
+                                           final Map<String, String> hostClasses,
+                                           final Map<String, ApiConfigList> classConfigs) {
+    // /api/v3/clusters/{clusterName}/services/{serviceName}/roleConfigGroups
+    RoleConfigGroupsResource groupsResource =
+      servicesResource.getRoleConfigGroupsResource(name);
+    String baseGroup = getBaseGroupName(roleType);
+    if (baseGroup == null || classConfigs.isEmpty()) {
+      LOG.warn("No base role config group for " + roleType + " in " + name +
+               ", not applying host class configuration");
+      return;
+    }
+
+    // Role host references carry host IDs, so map them back to names:
+    Map<String, String> hostNames = new HashMap<String, String>();
+    for (ApiHost host : cluster.getClusterState().getHostsByName().values()) {
+      hostNames.put(host.getHostId(), host.getHostname());
+    }
+    Map<ApiRole, String> roleClasses = new LinkedHashMap<ApiRole, String>();
+    boolean allClassified = true;
+    // Read the roles from CM rather than the cluster state, which doesn't
+    // know about a service created earlier in this deploy until the deploy
+    // completes:
+    // /api/v1/clusters/{clusterName}/services/{serviceName}/roles
+    for (ApiRole role : servicesResource.getRolesResource(name).readRoles()) {
+      if (roleType.equals(role.getType())) {
+        String hostClass =
+          hostClasses.get(hostNames.get(role.getHostRef().getHostId()));
+        if (hostClass == null) {
+          allClassified = false;
+        } else {
+          roleClasses.put(role, hostClass);
+        }
+      }
+    }
+
+    if (allClassified && !roleClasses.isEmpty() && classConfigs.size() == 1) {
+      Map.Entry<String, ApiConfigList> entry =
+        classConfigs.entrySet().iterator().next();
+      LOG.info("All " + roleType + " roles in " + name + " are in host class " +
+               entry.getKey() + ", updating " + baseGroup);
+      groupsResource.updateConfig(baseGroup, "Updating " + roleType +
+                                  " config for host class " + entry.getKey(),
+                                  entry.getValue());
+      cluster.getClusterState().invalidateRoles(cluster.getName(), name);
+      return;
+    }
+
+    // The summary view only includes values that have been set:
+    Map<String, String> baseValues = new LinkedHashMap<String, String>();
+    for (ApiConfig apiConfig : groupsResource.readConfig(baseGroup, DataView.SUMMARY)) {
+      baseValues.put(apiConfig.getName(), apiConfig.getValue());
+    }
+    Set<String> existing = new HashSet<String>();
+    for (ApiRoleConfigGroup group : groupsResource.readRoleConfigGroups()) {
+      existing.add(group.getName());
+    }
+
+    Map<String, String> groupNames = new HashMap<String, String>();
+    List<ApiRoleConfigGroup> newGroups = new ArrayList<ApiRoleConfigGroup>();
+    for (Map.Entry<String, ApiConfigList> entry : classConfigs.entrySet()) {
+      String groupName = name + "-" + roleType + "-" + entry.getKey();
+      groupNames.put(entry.getKey(), groupName);
+      if (existing.contains(groupName)) {
+        groupsResource.updateConfig(groupName, "Updating " + roleType +
+                                    " config for host class " + entry.getKey(),
+                                    entry.getValue());
+        continue;
+      }
+      Map<String, String> values = new LinkedHashMap<String, String>(baseValues);
+      for (ApiConfig apiConfig : entry.getValue()) {
+        values.put(apiConfig.getName(), apiConfig.getValue());
+      }
+      ApiConfigList groupConfig = new ApiConfigList();
+      for (Map.Entry<String, String> value : values.entrySet()) {
+        groupConfig.add(new ApiConfig(value.getKey(), value.getValue()));
+      }
+      ApiRoleConfigGroup group = new ApiRoleConfigGroup();
+      group.setName(groupName);
+      group.setDisplayName(roleType + " (" + entry.getKey() + ")");
+      group.setRoleType(roleType);
+      group.setConfig(groupConfig);
+      newGroups.add(group);
+    }
+    if (!newGroups.isEmpty()) {
+      LOG.info("Creating " + newGroups.size() + " " + roleType +
+               " role config groups in " + name);
+      groupsResource.createRoleConfigGroups(new ApiRoleConfigGroupList(newGroups));
+    }
+
+    Map<String, List<String>> moves = new LinkedHashMap<String, List<String>>();
+    for (Map.Entry<ApiRole, String> entry : roleClasses.entrySet()) {
+      ApiRole role = entry.getKey();
+      String groupName = groupNames.get(entry.getValue());
+      if (groupName != null &&
+          (role.getRoleConfigGroupRef() == null ||
+           !groupName.equals(role.getRoleConfigGroupRef().getRoleConfigGroupName()))) {
+        moves.computeIfAbsent(groupName, k -> new ArrayList<String>())
+          .add(role.getName());
+      }
+    }
+    for (Map.Entry<String, List<String>> entry : moves.entrySet()) {
+      LOG.info("Moving " + entry.getValue().size() + " " + roleType +
+               " roles to " + entry.getKey());
+      // /api/v3/clusters/{clusterName}/services/{serviceName}/roleConfigGroups/{roleConfigGroupName}/roles
+      groupsResource.moveRoles(entry.getKey(), new ApiRoleNameList(entry.getValue()));
+    }
+    cluster.getClusterState().invalidateRoles(cluster.getName(), name);
+  }
+
+  /**
+   * Apply the role settings of the configured host classes. For each role
+   * type, the hosts its roles were created on are sorted into classes, and
+   * classes with a settings section for the role, or with values the auto
+   * tuner computes for their hosts, get their own role config group.
+   *
+   * @param tuner Auto tuner, or null if auto tuning isn't enabled.
+   */
+  private void updateHostClassRoleConfigurations(final AutoTuner tuner) {
+    List<HostClass> hostClasses = spec.getHostClasses();
+    if (hostClasses.isEmpty()) {
+      return;
+    }
+    Map<String, HostFacts> allFacts = cluster.getHostFacts();
+    for (Map.Entry<String, Set<String>> entry : roleHosts.entrySet()) {
+      String roleType = entry.getKey();
+      String roleSection = roleType.equals("GATEWAY") ? type + "_GATEWAY" : roleType;
+
+      Map<String, String> hostClassNames = new HashMap<String, String>();
+      Map<String, List<HostFacts>> classFacts =
+        new LinkedHashMap<String, List<HostFacts>>();
+      for (String host : entry.getValue()) {
+        HostFacts facts = allFacts.get(host);
+        String className = HostClass.classify(hostClasses, host, facts);
+        if (className != null) {
+          hostClassNames.put(host, className);
+          List<HostFacts> members =
+            classFacts.computeIfAbsent(className, k -> new ArrayList<HostFacts>());
+          if (facts != null) {
+            members.add(facts);
+          }
+        }
+      }
+
+      Map<String, ApiConfigList> classConfigs =
+        new LinkedHashMap<String, ApiConfigList>();
+      for (Map.Entry<String, List<HostFacts>> classEntry : classFacts.entrySet()) {
+        ApiConfigList classConfig =
+          spec.getConfigs(HostClass.sectionName(roleSection, classEntry.getKey()));
+        if (tuner != null) {
+          // Values in the role's own section or the class's section are
+          // explicit, so neither is overridden by tuning:
+          ApiConfigList explicit = new ApiConfigList();
+          for (ApiConfig apiConfig : spec.getConfigs(roleSection)) {
+            explicit.add(apiConfig);
+          }
+          for (ApiConfig apiConfig : classConfig) {
+            explicit.add(apiConfig);
+          }
+          ApiConfigList tuned =
+            tuner.merge(roleType, classEntry.getValue(),
+                        (int) cluster.getClusterSize(), explicit);
+          if (tuned != explicit) {
+            classConfig = tuned;
+          }
         }
+        if (classConfig.size() > 0) {
+          classConfigs.put(classEntry.getKey(), classConfig);
+        }
+      }
+      hostClassNames.values().retainAll(classConfigs.keySet());
+      if (!classConfigs.isEmpty()) {
+        updateHostClassConfigs(roleType, hostClassNames, classConfigs);
+      }
+    }
+  }
+
+  /**
+   * Get the hardware facts for a set of hosts.
+   *
+   * @param hosts Host names.
+   *
+   * @return Facts for the hosts CM has reported hardware for.
+   */
+  private List<HostFacts> getHostFacts(final Set<String> hosts) {
+    Map<String, HostFacts> allFacts = cluster.getHostFacts();
+    List<HostFacts> facts = new ArrayList<HostFacts>();
+    for (String host : hosts) {
+      if (allFacts.containsKey(host)) {
+        facts.add(allFacts.get(host));
+      } else {
+        LOG.warn("No hardware facts for host " + host + ", not tuning for it");
       }
-      ApiRoleConfigGroup apiRoleConfigGroup = new ApiRoleConfigGroup();
-      apiRoleConfigGroup.setConfig(roleConfigList);
-      servicesResource.getRoleConfigGroupsResource(name).
-        updateRoleConfigGroup(roleConfigGroup.getName(),
-                              apiRoleConfigGroup,
-                              ("Updating role config for " +
-                               roleConfigGroup.getName()));
     }
+    return facts;
   }
 }
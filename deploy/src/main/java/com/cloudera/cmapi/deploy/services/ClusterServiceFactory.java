@@ -16,9 +16,11 @@
  */
 package com.cloudera.cmapi.deploy.services;
 
-import com.cloudera.api.v10.ServicesResourceV10;
+import com.cloudera.cmapi.deploy.Cluster;
 
-import org.ini4j.Wini;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Factory class to return cluster service objects.
@@ -35,64 +37,139 @@ public class ClusterServiceFactory {
    * service type.
    *
    * @param type Service type (HDFS, YARN, etc.).
-   * @param config Object containing required config parameters.
-   * @param servicesResource CM API object providing access to service
-   * resources.
+   * @param cluster Cluster the service is deployed to.
    *
    * @return Object encapsulating functionality to deploy a service.
    */
   public final ClusterService getClusterService(final String type,
-                                                final Wini config,
-                                                final ServicesResourceV10 servicesResource) {
+                                                final Cluster cluster) {
 
     if (type == null) {
       return null;
     }
 
     if (services.ZOOKEEPER.name().equalsIgnoreCase(type)) {
-      return new ZooKeeperService(config, servicesResource);
+      return new ZooKeeperService(cluster);
     }
 
     if (services.HDFS.name().equalsIgnoreCase(type)) {
-      return new HDFSService(config, servicesResource);
+      return new HDFSService(cluster);
     }
 
     if (services.YARN.name().equalsIgnoreCase(type)) {
-      return new YARNService(config, servicesResource);
+      return new YARNService(cluster);
     }
 
     if (services.HIVE.name().equalsIgnoreCase(type)) {
-      return new HiveService(config, servicesResource);
+      return new HiveService(cluster);
     }
 
     if (services.IMPALA.name().equalsIgnoreCase(type)) {
-      return new ImpalaService(config, servicesResource);
+      return new ImpalaService(cluster);
     }
 
     if (services.OOZIE.name().equalsIgnoreCase(type)) {
-      return new OozieService(config, servicesResource);
+      return new OozieService(cluster);
     }
 
     if (services.SPARK_ON_YARN.name().equalsIgnoreCase(type)) {
-      return new SparkOnYarnService(config, servicesResource);
+      return new SparkOnYarnService(cluster);
     }
 
     if (services.KAFKA.name().equalsIgnoreCase(type)) {
-      return new KafkaService(config, servicesResource);
+      return new KafkaService(cluster);
     }
 
     if (services.HUE.name().equalsIgnoreCase(type)) {
-      return new HueService(config, servicesResource);
+      return new HueService(cluster);
     }
 
     if (services.SQOOP2.name().equalsIgnoreCase(type)) {
-      return new Sqoop2Service(config, servicesResource);
+      return new Sqoop2Service(cluster);
     }
 
     if (services.FLUME.name().equalsIgnoreCase(type)) {
-      return new FlumeService(config, servicesResource);
+      return new FlumeService(cluster);
     }
 
     return null;
   }
+
+  /**
+   * Get the role types a service deploys or configures. Role config
+   * sections in the configuration file are named after these, with the
+   * GATEWAY role type qualified by the service type (e.g. HDFS_GATEWAY).
+   *
+   * @param type Service type (HDFS, YARN, etc.).
+   *
+   * @return Role type names, or an empty list if the service type isn't
+   * supported.
+   */
+  public final List<String> getRoleTypes(final String type) {
+
+    if (type == null) {
+      return Collections.emptyList();
+    }
+
+    if (services.ZOOKEEPER.name().equalsIgnoreCase(type)) {
+      return names(ZooKeeperService.RoleType.values());
+    }
+
+    if (services.HDFS.name().equalsIgnoreCase(type)) {
+      return names(HDFSService.RoleType.values());
+    }
+
+    if (services.YARN.name().equalsIgnoreCase(type)) {
+      return names(YARNService.RoleType.values());
+    }
+
+    if (services.HIVE.name().equalsIgnoreCase(type)) {
+      return names(HiveService.RoleType.values());
+    }
+
+    if (services.IMPALA.name().equalsIgnoreCase(type)) {
+      return names(ImpalaService.RoleType.values());
+    }
+
+    if (services.OOZIE.name().equalsIgnoreCase(type)) {
+      return names(OozieService.RoleType.values());
+    }
+
+    if (services.SPARK_ON_YARN.name().equalsIgnoreCase(type)) {
+      return names(SparkOnYarnService.RoleType.values());
+    }
+
+    if (services.KAFKA.name().equalsIgnoreCase(type)) {
+      return names(KafkaService.RoleType.values());
+    }
+
+    if (services.HUE.name().equalsIgnoreCase(type)) {
+      return names(HueService.RoleType.values());
+    }
+
+    if (services.SQOOP2.name().equalsIgnoreCase(type)) {
+      return names(Sqoop2Service.RoleType.values());
+    }
+
+    if (services.FLUME.name().equalsIgnoreCase(type)) {
+      return names(FlumeService.RoleType.values());
+    }
+
+    return Collections.emptyList();
+  }
+
+  /**
+   * Get the names of a service's role types.
+   *
+   * @param roleTypes Role type enum values.
+   *
+   * @return Role type names.
+   */
+  private static List<String> names(final Enum<?>[] roleTypes) {
+    List<String> names = new ArrayList<String>();
+    for (Enum<?> roleType : roleTypes) {
+      names.add(roleType.name());
+    }
+    return names;
+  }
 }
@@ -23,10 +23,10 @@ import com.cloudera.api.model.ApiRoleNameList;
 import com.cloudera.api.model.ApiService;
 import com.cloudera.api.model.ApiServiceConfig;
 import com.cloudera.api.model.ApiServiceList;
-import com.cloudera.api.v10.ServicesResourceV10;
 
-import com.cloudera.cmapi.deploy.CMServer;
+import com.cloudera.cmapi.deploy.Cluster;
 import com.cloudera.cmapi.deploy.Constants;
+import com.cloudera.cmapi.deploy.HostSet;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -34,9 +34,6 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import org.ini4j.Ini;
-import org.ini4j.Wini;
-
 /**
  * Class to manage HDFS service deployment.
  */
@@ -55,7 +52,7 @@ public class HDFSService extends ClusterService {
   /**
    * Role types associated with this service.
    */
-  private enum RoleType { DATANODE, NAMENODE, SECONDARYNAMENODE, BALANCER, GATEWAY, HTTPFS, FAILOVERCONTROLLER, JOURNALNODE, NFSGATEWAY };
+  enum RoleType { DATANODE, NAMENODE, SECONDARYNAMENODE, BALANCER, GATEWAY, HTTPFS, FAILOVERCONTROLLER, JOURNALNODE, NFSGATEWAY };
 
   /**
    * Log4j logger.
@@ -65,18 +62,14 @@ public class HDFSService extends ClusterService {
   /**
    * Constructor initializes required parameters to execute deployment.
    *
-   * @param config Configuration parameters.
-   * @param servicesResource Cloudera Manager API object providing access
-   * to functionality for configuring, creating, etc. services on a cluster.
+   * @param cluster Cluster this service is deployed to.
    */
-  public HDFSService(final Wini config,
-                     final ServicesResourceV10 servicesResource) {
-    super(config, servicesResource);
-    setName(config.get(Constants.HDFS_CONFIG_SECTION,
-                       Constants.HDFS_SERVICE_NAME_PARAMETER));
+  public HDFSService(final Cluster cluster) {
+    super(cluster);
+    setName(spec.getService(SERVICE_TYPE).getName());
     setServiceType(SERVICE_TYPE);
-    namenodeRoleName = config.get(Constants.HDFS_CONFIG_SECTION,
-                                  Constants.HDFS_NAMENODE_NAME_PARAMETER);
+    namenodeRoleName =
+      spec.getService(SERVICE_TYPE).get(Constants.HDFS_NAMENODE_NAME_PARAMETER);
   }
 
   /**
@@ -85,15 +78,11 @@ public class HDFSService extends ClusterService {
   public final void deploy() {
 
     // Make sure service isn't already deployed:
-    boolean provisionRequired = false;
-    try {
-      provisionRequired = servicesResource.readService(name) == null;
-    } catch (Exception e) {
-      provisionRequired = true;
-    }
+    boolean provisionRequired = !serviceExists();
 
     if (!provisionRequired) {
-      LOG.info(SERVICE_TYPE + " services already deployed. Skipping...");
+      LOG.info(SERVICE_TYPE + " services already deployed, checking " +
+               "DataNode roles...");
     } else {
       LOG.info("Deploying " +  SERVICE_TYPE + " service...");
       ApiServiceList hdfsServices = new ApiServiceList();
@@ -102,10 +91,8 @@ public class HDFSService extends ClusterService {
       hdfsService.setName(name);
 
       // Set service configuration:
-      Ini.Section serviceConfigSection =
-        config.get(Constants.HDFS_SERVICE_CONFIG_SECTION);
       ApiServiceConfig serviceConfig =
-        getServiceConfig(serviceConfigSection);
+        spec.getService(SERVICE_TYPE).getServiceConfig();
       hdfsService.setConfig(serviceConfig);
 
       // Create service roles:
@@ -114,23 +101,15 @@ public class HDFSService extends ClusterService {
       LOG.info("Adding NameNode role...");
       hdfsRoles.addAll(createRoles(RoleType.NAMENODE.name(), //null,
                                    RoleType.NAMENODE.name(),
-                                   config.get(Constants.HDFS_CONFIG_SECTION,
-                                              Constants.HDFS_NAMENODE_HOST_PARAMETER).split(",")));
+                                   spec.getService(SERVICE_TYPE).getHosts(Constants.HDFS_NAMENODE_HOST_PARAMETER)));
 
       LOG.info("Adding Secondary NameNode role...");
       hdfsRoles.addAll(createRoles(RoleType.SECONDARYNAMENODE.name(), null,
-                                   config.get(Constants.HDFS_CONFIG_SECTION,
-                                              Constants.HDFS_SECONDARYNAMENODE_HOST_PARAMETER).split(",")));
-
-      LOG.info("Adding DataNode roles...");
-      hdfsRoles.addAll(createRoles(RoleType.DATANODE.name(), null,
-                                   config.get(Constants.HDFS_CONFIG_SECTION,
-                                              Constants.HDFS_DATANODE_HOSTS_PARAMETER).split(",")));
+                                   spec.getService(SERVICE_TYPE).getHosts(Constants.HDFS_SECONDARYNAMENODE_HOST_PARAMETER)));
 
       LOG.info("Adding Gateway roles...");
       hdfsRoles.addAll(createRoles(RoleType.GATEWAY.name(), null,
-                                   config.get(Constants.HDFS_CONFIG_SECTION,
-                                              Constants.HDFS_GATEWAY_HOSTS_PARAMETER).split(",")));
+                                   getGatewayHosts()));
 
       for (ApiRole role : hdfsRoles) {
         LOG.debug("role type=" + role.getType() + ", host=" + role.getHostRef());
@@ -140,14 +119,33 @@ public class HDFSService extends ClusterService {
       hdfsServices.add(hdfsService);
       // /api/v1/clusters/{clusterName}/services
       servicesResource.createServices(hdfsServices);
+    }
 
-      LOG.info("HDFS services successfully created, now setting role " +
+    // Worker roles are added in chunks once the service exists, keeping
+    // request sizes manageable on large clusters. Roles the service already
+    // has are skipped, so a deploy that failed partway through is completed
+    // here on the next run:
+    LOG.info("Adding DataNode roles...");
+    boolean rolesAdded =
+      addMissingRolesInChunks(createRoles(RoleType.DATANODE.name(), null,
+                                          spec.getService(SERVICE_TYPE).getHosts(Constants.HDFS_DATANODE_HOSTS_PARAMETER)));
+
+    if (provisionRequired || rolesAdded) {
+      LOG.info("HDFS roles successfully created, now setting role " +
                "configurations...");
-
       updateRoleConfigurations();
     }
   }
 
+  /**
+   * Get the hosts assigned HDFS gateway roles.
+   *
+   * @return Gateway hosts.
+   */
+  public final HostSet getGatewayHosts() {
+    return spec.getService(SERVICE_TYPE).getHosts(Constants.HDFS_GATEWAY_HOSTS_PARAMETER);
+  }
+
   /**
    * Perform initialization tasks before starting the HDFS service. This
    * method will call the command to format HDFS.
@@ -163,7 +161,7 @@ public class HDFSService extends ClusterService {
     ApiBulkCommandList commands =
       servicesResource.getRoleCommandsResource(name).formatCommand(roleNames);
     for (ApiCommand command : commands) {
-      status = CMServer.waitForCommand(command).booleanValue();
+      status = waitForCommand(command).booleanValue();
       if (status == false) {
         return status;
       }
@@ -183,7 +181,7 @@ public class HDFSService extends ClusterService {
     boolean status = false;
     LOG.info("Creating HDFS temp directory...");
     ApiCommand command = servicesResource.hdfsCreateTmpDir(name);
-    status = CMServer.waitForCommand(command).booleanValue();
+    status = waitForCommand(command).booleanValue();
     LOG.info("Create HDFS temp directory completed " +
              (status ? "successfully" : "unsuccessfully"));
     return status;
@@ -21,19 +21,16 @@ import com.cloudera.api.model.ApiRole;
 import com.cloudera.api.model.ApiService;
 import com.cloudera.api.model.ApiServiceConfig;
 import com.cloudera.api.model.ApiServiceList;
-import com.cloudera.api.v10.ServicesResourceV10;
 
 import com.cloudera.cmapi.deploy.Constants;
-import com.cloudera.cmapi.deploy.CMServer;
+import com.cloudera.cmapi.deploy.HostSet;
+import com.cloudera.cmapi.deploy.Cluster;
 
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import org.ini4j.Ini;
-import org.ini4j.Wini;
-
 /**
  * Class to manage Hive service deployment.
  */
@@ -47,7 +44,7 @@ public class HiveService extends ClusterService {
   /**
    * Role types associated with this service.
    */
-  private enum RoleType { HIVEMETASTORE, HIVESERVER2, GATEWAY };
+  enum RoleType { HIVEMETASTORE, HIVESERVER2, GATEWAY };
 
   /**
    * Log4j logger.
@@ -57,15 +54,11 @@ public class HiveService extends ClusterService {
   /**
    * Constructor initializes required parameters to execute deployment.
    *
-   * @param config Configuration parameters.
-   * @param servicesResource Cloudera Manager API object providing access
-   * to functionality for configuring, creating, etc. services on a cluster.
+   * @param cluster Cluster this service is deployed to.
    */
-  public HiveService(final Wini config,
-                     final ServicesResourceV10 servicesResource) {
-    super(config, servicesResource);
-    setName(config.get(Constants.HIVE_CONFIG_SECTION,
-                       Constants.HIVE_SERVICE_NAME_PARAMETER));
+  public HiveService(final Cluster cluster) {
+    super(cluster);
+    setName(spec.getService(SERVICE_TYPE).getName());
     setServiceType(SERVICE_TYPE);
   }
 
@@ -74,12 +67,7 @@ public class HiveService extends ClusterService {
    */
   public final void deploy() {
     // Make sure service isn't already deployed:
-    boolean provisionRequired = false;
-    try {
-      provisionRequired = servicesResource.readService(name) == null;
-    } catch (Exception e) {
-      provisionRequired = true;
-    }
+    boolean provisionRequired = !serviceExists();
 
     if (!provisionRequired) {
       LOG.info(SERVICE_TYPE + " services already deployed. Skipping...");
@@ -90,27 +78,23 @@ public class HiveService extends ClusterService {
       hiveService.setType(SERVICE_TYPE);
       hiveService.setName(name);
 
-      Ini.Section serviceConfigSection =
-        config.get(Constants.HIVE_SERVICE_CONFIG_SECTION);
-      ApiServiceConfig serviceConfig = getServiceConfig(serviceConfigSection);
+      ApiServiceConfig serviceConfig =
+        spec.getService(SERVICE_TYPE).getServiceConfig();
       hiveService.setConfig(serviceConfig);
 
       List<ApiRole> hiveRoles = new ArrayList<ApiRole>();
 
       LOG.info("Adding metastore role...");
       hiveRoles.addAll(createRoles(RoleType.HIVEMETASTORE.name(), null,
-                                   config.get(Constants.HIVE_CONFIG_SECTION,
-                                              Constants.HIVE_METASTORE_HOST_PARAMETER).split(",")));
+                                   spec.getService(SERVICE_TYPE).getHosts(Constants.HIVE_METASTORE_HOST_PARAMETER)));
 
       LOG.info("Adding HiveServer2 role...");
       hiveRoles.addAll(createRoles(RoleType.HIVESERVER2.name(), null,
-                                   config.get(Constants.HIVE_CONFIG_SECTION,
-                                              Constants.HIVE_HS2_HOSTS_PARAMETER).split(",")));
+                                   spec.getService(SERVICE_TYPE).getHosts(Constants.HIVE_HS2_HOSTS_PARAMETER)));
 
       LOG.info("Adding Gateway roles...");
       hiveRoles.addAll(createRoles(RoleType.GATEWAY.name(), null,
-                                   config.get(Constants.HIVE_CONFIG_SECTION,
-                                              Constants.HIVE_GATEWAY_HOSTS_PARAMETER).split(",")));
+                                   getGatewayHosts()));
 
       for (ApiRole role : hiveRoles) {
         LOG.debug("role type=" + role.getType() + ", host=" +
@@ -129,6 +113,15 @@ public class HiveService extends ClusterService {
     }
   }
 
+  /**
+   * Get the hosts assigned Hive gateway roles.
+   *
+   * @return Gateway hosts.
+   */
+  public final HostSet getGatewayHosts() {
+    return spec.getService(SERVICE_TYPE).getHosts(Constants.HIVE_GATEWAY_HOSTS_PARAMETER);
+  }
+
   /**
    * Perform any required setup tasks for this service before starting.
    * In the case of the Hive service no tasks are required.
@@ -149,7 +142,7 @@ public class HiveService extends ClusterService {
     LOG.info("Creating Hive warehouse directory");
     // /clusters/{clusterName}/services/{serviceName}/commands/hiveCreateHiveWarehouse
     ApiCommand command = servicesResource.createHiveWarehouseCommand(name);
-    boolean status = CMServer.waitForCommand(command).booleanValue();
+    boolean status = waitForCommand(command).booleanValue();
     LOG.info("Create Hive warehouse directory command completed " +
              (status ? "successfully" : "unsuccessfully"));
     return status;
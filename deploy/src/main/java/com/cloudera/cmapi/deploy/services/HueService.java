@@ -20,8 +20,8 @@ import com.cloudera.api.model.ApiRole;
 import com.cloudera.api.model.ApiService;
 import com.cloudera.api.model.ApiServiceConfig;
 import com.cloudera.api.model.ApiServiceList;
-import com.cloudera.api.v10.ServicesResourceV10;
 
+import com.cloudera.cmapi.deploy.Cluster;
 import com.cloudera.cmapi.deploy.Constants;
 
 import java.util.ArrayList;
@@ -29,9 +29,6 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import org.ini4j.Ini;
-import org.ini4j.Wini;
-
 /**
  * Class to manage Hue service deployment.
  */
@@ -45,7 +42,7 @@ public class HueService extends ClusterService {
   /**
    * Role types associated with this service.
    */
-  private enum RoleType { HUE_SERVER, KT_RENEWER };
+  enum RoleType { HUE_SERVER, KT_RENEWER };
 
   /**
    * Log4j logger.
@@ -55,16 +52,12 @@ public class HueService extends ClusterService {
   /**
    * Constructor initializes required parameters to execute deployment.
    *
-   * @param config Configuration parameters.
-   * @param servicesResource Cloudera Manager API object providing access
-   * to functionality for configuring, creating, etc. services on a cluster.
+   * @param cluster Cluster this service is deployed to.
    */
-  public HueService(final Wini config,
-                    final ServicesResourceV10 servicesResource) {
+  public HueService(final Cluster cluster) {
 
-    super(config, servicesResource);
-    setName(config.get(Constants.HUE_CONFIG_SECTION,
-                       Constants.HUE_SERVICE_NAME_PARAMETER));
+    super(cluster);
+    setName(spec.getService(SERVICE_TYPE).getName());
 
     setServiceType(SERVICE_TYPE);
   }
@@ -75,12 +68,7 @@ public class HueService extends ClusterService {
   public final void deploy() {
 
     // Make sure service isn't already deployed:
-    boolean provisionRequired = false;
-    try {
-      provisionRequired = servicesResource.readService(name) == null;
-    } catch (Exception e) {
-      provisionRequired = true;
-    }
+    boolean provisionRequired = !serviceExists();
 
     if (!provisionRequired) {
       LOG.info(SERVICE_TYPE + " services already deployed. Skipping...");
@@ -91,17 +79,15 @@ public class HueService extends ClusterService {
       hueService.setType(SERVICE_TYPE);
       hueService.setName(name);
 
-      Ini.Section serviceConfigSection =
-        config.get(Constants.HUE_SERVICE_CONFIG_SECTION);
-      ApiServiceConfig serviceConfig = getServiceConfig(serviceConfigSection);
+      ApiServiceConfig serviceConfig =
+        spec.getService(SERVICE_TYPE).getServiceConfig();
       hueService.setConfig(serviceConfig);
 
       List<ApiRole> hueRoles = new ArrayList<ApiRole>();
 
       LOG.info("Adding Broker roles...");
       hueRoles.addAll(createRoles(RoleType.HUE_SERVER.name(), null,
-                                    config.get(Constants.HUE_CONFIG_SECTION,
-                                               Constants.HUE_SERVER_HOST_PARAMETER).split(",")));
+                                    spec.getService(SERVICE_TYPE).getHosts(Constants.HUE_SERVER_HOST_PARAMETER)));
 
       for (ApiRole role : hueRoles) {
         LOG.debug("role type=" + role.getType() + ", host=" +
@@ -20,8 +20,8 @@ import com.cloudera.api.model.ApiRole;
 import com.cloudera.api.model.ApiService;
 import com.cloudera.api.model.ApiServiceConfig;
 import com.cloudera.api.model.ApiServiceList;
-import com.cloudera.api.v10.ServicesResourceV10;
 
+import com.cloudera.cmapi.deploy.Cluster;
 import com.cloudera.cmapi.deploy.Constants;
 
 import java.util.ArrayList;
@@ -29,9 +29,6 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import org.ini4j.Ini;
-import org.ini4j.Wini;
-
 /**
  * Class to manage Impala service deployment.
  */
@@ -45,7 +42,7 @@ public class ImpalaService extends ClusterService {
   /**
    * Role types associated with this service.
    */
-  private enum RoleType { STATESTORE, CATALOGSERVER, IMPALAD };
+  enum RoleType { STATESTORE, CATALOGSERVER, IMPALAD };
 
   /**
    * Log4j logger.
@@ -55,16 +52,12 @@ public class ImpalaService extends ClusterService {
   /**
    * Constructor initializes required parameters to execute deployment.
    *
-   * @param config Configuration parameters.
-   * @param servicesResource Cloudera Manager API object providing access
-   * to functionality for configuring, creating, etc. services on a cluster.
+   * @param cluster Cluster this service is deployed to.
    */
-  public ImpalaService(final Wini config,
-                       final ServicesResourceV10 servicesResource) {
-    super(config, servicesResource);
+  public ImpalaService(final Cluster cluster) {
+    super(cluster);
 
-    setName(config.get(Constants.IMPALA_CONFIG_SECTION,
-                       Constants.IMPALA_SERVICE_NAME_PARAMETER));
+    setName(spec.getService(SERVICE_TYPE).getName());
 
     setServiceType(SERVICE_TYPE);
   }
@@ -75,12 +68,7 @@ public class ImpalaService extends ClusterService {
   public final void deploy() {
 
     // Make sure service isn't already deployed:
-    boolean provisionRequired = false;
-    try {
-      provisionRequired = servicesResource.readService(name) == null;
-    } catch (Exception e) {
-      provisionRequired = true;
-    }
+    boolean provisionRequired = !serviceExists();
 
     if (!provisionRequired) {
       LOG.info(SERVICE_TYPE + " services already deployed. Skipping...");
@@ -91,27 +79,23 @@ public class ImpalaService extends ClusterService {
       impalaService.setType(SERVICE_TYPE);
       impalaService.setName(name);
 
-      Ini.Section serviceConfigSection =
-        config.get(Constants.IMPALA_SERVICE_CONFIG_SECTION);
-      ApiServiceConfig serviceConfig = getServiceConfig(serviceConfigSection);
+      ApiServiceConfig serviceConfig =
+        spec.getService(SERVICE_TYPE).getServiceConfig();
       impalaService.setConfig(serviceConfig);
 
       List<ApiRole> impalaRoles = new ArrayList<ApiRole>();
 
       LOG.info("Adding state store role...");
       impalaRoles.addAll(createRoles(RoleType.STATESTORE.name(), null,
-                                   config.get(Constants.IMPALA_CONFIG_SECTION,
-                                              Constants.IMPALA_STATESTORE_HOST_PARAMETER).split(",")));
+                                   spec.getService(SERVICE_TYPE).getHosts(Constants.IMPALA_STATESTORE_HOST_PARAMETER)));
 
       LOG.info("Adding catalog server role...");
       impalaRoles.addAll(createRoles(RoleType.CATALOGSERVER.name(), null,
-                                   config.get(Constants.IMPALA_CONFIG_SECTION,
-                                              Constants.IMPALA_CATALOGSERVER_HOST_PARAMETER).split(",")));
+                                   spec.getService(SERVICE_TYPE).getHosts(Constants.IMPALA_CATALOGSERVER_HOST_PARAMETER)));
 
       LOG.info("Adding impalad roles...");
       impalaRoles.addAll(createRoles(RoleType.IMPALAD.name(), null,
-                                   config.get(Constants.IMPALA_CONFIG_SECTION,
-                                              Constants.IMPALA_IMPALAD_HOSTS_PARAMETER).split(",")));
+                                   spec.getService(SERVICE_TYPE).getHosts(Constants.IMPALA_IMPALAD_HOSTS_PARAMETER)));
 
       for (ApiRole role : impalaRoles) {
         LOG.debug("role type=" + role.getType() + ", host=" +
@@ -20,8 +20,8 @@ import com.cloudera.api.model.ApiRole;
 import com.cloudera.api.model.ApiService;
 import com.cloudera.api.model.ApiServiceConfig;
 import com.cloudera.api.model.ApiServiceList;
-import com.cloudera.api.v10.ServicesResourceV10;
 
+import com.cloudera.cmapi.deploy.Cluster;
 import com.cloudera.cmapi.deploy.Constants;
 
 import java.util.ArrayList;
@@ -29,9 +29,6 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import org.ini4j.Ini;
-import org.ini4j.Wini;
-
 /**
  * Class to manage Kafka service deployment.
  */
@@ -45,7 +42,7 @@ public class KafkaService extends ClusterService {
   /**
    * Role types associated with this service.
    */
-  private enum RoleType { KAFKA_BROKER, KAFKA_MIRROR_MAKER };
+  enum RoleType { KAFKA_BROKER, KAFKA_MIRROR_MAKER };
 
   /**
    * Log4j logger.
@@ -55,16 +52,12 @@ public class KafkaService extends ClusterService {
   /**
    * Constructor initializes required parameters to execute deployment.
    *
-   * @param config Configuration parameters.
-   * @param servicesResource Cloudera Manager API object providing access
-   * to functionality for configuring, creating, etc. services on a cluster.
+   * @param cluster Cluster this service is deployed to.
    */
-  public KafkaService(final Wini config,
-                      final ServicesResourceV10 servicesResource) {
+  public KafkaService(final Cluster cluster) {
 
-    super(config, servicesResource);
-    setName(config.get(Constants.KAFKA_CONFIG_SECTION,
-                       Constants.KAFKA_SERVICE_NAME_PARAMETER));
+    super(cluster);
+    setName(spec.getService(SERVICE_TYPE).getName());
 
     setServiceType(SERVICE_TYPE);
   }
@@ -75,12 +68,7 @@ public class KafkaService extends ClusterService {
   public final void deploy() {
 
     // Make sure service isn't already deployed:
-    boolean provisionRequired = false;
-    try {
-      provisionRequired = servicesResource.readService(name) == null;
-    } catch (Exception e) {
-      provisionRequired = true;
-    }
+    boolean provisionRequired = !serviceExists();
 
     if (!provisionRequired) {
       LOG.info(SERVICE_TYPE + " services already deployed. Skipping...");
@@ -91,9 +79,8 @@ public class KafkaService extends ClusterService {
       kafkaService.setType(SERVICE_TYPE);
       kafkaService.setName(name);
 
-      Ini.Section serviceConfigSection =
-        config.get(Constants.KAFKA_SERVICE_CONFIG_SECTION);
-      ApiServiceConfig serviceConfig = getServiceConfig(serviceConfigSection);
+      ApiServiceConfig serviceConfig =
+        spec.getService(SERVICE_TYPE).getServiceConfig();
       kafkaService.setConfig(serviceConfig);
 
       List<ApiRole> kafkaRoles = new ArrayList<ApiRole>();
@@ -109,8 +96,7 @@ public class KafkaService extends ClusterService {
 
       LOG.info("Adding Broker roles...");
       kafkaRoles.addAll(createRoles(RoleType.KAFKA_BROKER.name(), null,
-                                    config.get(Constants.KAFKA_CONFIG_SECTION,
-                                               Constants.KAFKA_BROKER_HOSTS_PARAMETER).split(",")));
+                                    spec.getService(SERVICE_TYPE).getHosts(Constants.KAFKA_BROKER_HOSTS_PARAMETER)));
 
       for (ApiRole role : kafkaRoles) {
         LOG.debug("role type=" + role.getType() + ", host=" +
@@ -65,6 +65,9 @@ public class ManagementService {
    * @param config Configuration parameters.
    * @param cmResource Cloudera Manager API object providing access
    * to functionality for configuring, creating, etc. management services.
+   *
+   * @throws IllegalArgumentException if a configured role type isn't a
+   * valid management role type.
    */
   public final void deploy(final Wini config,
                            final ClouderaManagerResourceV8 cmResource) {
@@ -73,7 +76,11 @@ public class ManagementService {
       config.get("MGMT_SERVICE",
                  Constants.CM_MANAGEMENT_ROLETYPES_PARAMETER).split(",");
     LOG.info("Validating config parameters for management service...");
-    validateRoleTypes(deployRoleTypes);
+    if (!validateRoleTypes(deployRoleTypes)) {
+      throw new IllegalArgumentException("Invalid management role types in " +
+                                         Constants.CM_MANAGEMENT_ROLETYPES_PARAMETER +
+                                         ": " + String.join(",", deployRoleTypes));
+    }
     LOG.info("Successfully validated config parameters for management service");
 
     // Confirm that management services aren't already set up. Note that
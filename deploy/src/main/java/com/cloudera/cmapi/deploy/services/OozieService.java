@@ -21,9 +21,8 @@ import com.cloudera.api.model.ApiRole;
 import com.cloudera.api.model.ApiService;
 import com.cloudera.api.model.ApiServiceConfig;
 import com.cloudera.api.model.ApiServiceList;
-import com.cloudera.api.v10.ServicesResourceV10;
 
-import com.cloudera.cmapi.deploy.CMServer;
+import com.cloudera.cmapi.deploy.Cluster;
 import com.cloudera.cmapi.deploy.Constants;
 
 import java.util.ArrayList;
@@ -31,9 +30,6 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import org.ini4j.Ini;
-import org.ini4j.Wini;
-
 /**
  * Class to manage Oozie service deployment.
  */
@@ -47,7 +43,7 @@ public class OozieService extends ClusterService {
   /**
    * Role types associated with this service.
    */
-  private enum RoleType { OOZIE_SERVER };
+  enum RoleType { OOZIE_SERVER };
 
   /**
    * Log4j logger.
@@ -57,15 +53,11 @@ public class OozieService extends ClusterService {
   /**
    * Constructor initializes required parameters to execute deployment.
    *
-   * @param config Configuration parameters.
-   * @param servicesResource Cloudera Manager API object providing access
-   * to functionality for configuring, creating, etc. services on a cluster.
+   * @param cluster Cluster this service is deployed to.
    */
-  public OozieService(final Wini config,
-                      final ServicesResourceV10 servicesResource) {
-    super(config, servicesResource);
-    setName(config.get(Constants.OOZIE_CONFIG_SECTION,
-                       Constants.OOZIE_SERVICE_NAME_PARAMETER));
+  public OozieService(final Cluster cluster) {
+    super(cluster);
+    setName(spec.getService(SERVICE_TYPE).getName());
     setServiceType(SERVICE_TYPE);
   }
 
@@ -75,12 +67,7 @@ public class OozieService extends ClusterService {
   public final void deploy() {
 
     // Make sure service isn't already deployed:
-    boolean provisionRequired = false;
-    try {
-      provisionRequired = servicesResource.readService(name) == null;
-    } catch (Exception e) {
-      provisionRequired = true;
-    }
+    boolean provisionRequired = !serviceExists();
 
     if (!provisionRequired) {
       LOG.info(SERVICE_TYPE + " services already deployed. Skipping...");
@@ -92,10 +79,8 @@ public class OozieService extends ClusterService {
       oozieService.setName(name);
 
       // Set service configuration:
-      Ini.Section serviceConfigSection =
-        config.get(Constants.OOZIE_SERVICE_CONFIG_SECTION);
       ApiServiceConfig serviceConfig =
-        getServiceConfig(serviceConfigSection);
+        spec.getService(SERVICE_TYPE).getServiceConfig();
       oozieService.setConfig(serviceConfig);
 
       // Create service roles:
@@ -103,8 +88,7 @@ public class OozieService extends ClusterService {
 
       LOG.info("Adding Oozie Server role...");
       oozieRoles.addAll(createRoles(RoleType.OOZIE_SERVER.name(), null,
-                                   config.get(Constants.OOZIE_CONFIG_SECTION,
-                                              Constants.OOZIE_SERVER_HOST_PARAMETER).split(",")));
+                                   spec.getService(SERVICE_TYPE).getHosts(Constants.OOZIE_SERVER_HOST_PARAMETER)));
 
       for (ApiRole role : oozieRoles) {
         LOG.debug("role type=" + role.getType() + ", host=" +
@@ -132,12 +116,12 @@ public class OozieService extends ClusterService {
     boolean status = false;
     LOG.info("Installing Oozie ShareLib...");
     ApiCommand command = servicesResource.installOozieShareLib(name);
-    status = CMServer.waitForCommand(command).booleanValue();
+    status = waitForCommand(command).booleanValue();
     LOG.info("Install Oozie ShareLib completed " +
              (status ? "successfully" : "unsuccessfully"));
     LOG.info("Creating Oozie DB...");
     command = servicesResource.createOozieDb(name);
-    status = CMServer.waitForCommand(command).booleanValue();
+    status = waitForCommand(command).booleanValue();
     LOG.info("Install Oozie DB completed " +
              (status ? "successfully" : "unsuccessfully"));
     return status;
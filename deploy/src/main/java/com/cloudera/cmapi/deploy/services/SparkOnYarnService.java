@@ -21,18 +21,16 @@ import com.cloudera.api.model.ApiRole;
 import com.cloudera.api.model.ApiService;
 import com.cloudera.api.model.ApiServiceConfig;
 import com.cloudera.api.model.ApiServiceList;
-import com.cloudera.api.v10.ServicesResourceV10;
 
-import com.cloudera.cmapi.deploy.CMServer;
+import com.cloudera.cmapi.deploy.Cluster;
 import com.cloudera.cmapi.deploy.Constants;
+import com.cloudera.cmapi.deploy.HostSet;
 
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import org.ini4j.Ini;
-import org.ini4j.Wini;
 /**
  * Class to manage Spark on Yarn service deployment.
  */
@@ -46,7 +44,7 @@ public class SparkOnYarnService extends ClusterService {
   /**
    * Role types associated with this service.
    */
-  private enum RoleType { SPARK_YARN_HISTORY_SERVER, GATEWAY };
+  enum RoleType { SPARK_YARN_HISTORY_SERVER, GATEWAY };
 
   /**
    * Log4j logger.
@@ -57,16 +55,12 @@ public class SparkOnYarnService extends ClusterService {
   /**
    * Constructor initializes required parameters to execute deployment.
    *
-   * @param config Configuration parameters.
-   * @param servicesResource Cloudera Manager API object providing access
-   * to functionality for configuring, creating, etc. services on a cluster.
+   * @param cluster Cluster this service is deployed to.
    */
-  public SparkOnYarnService(final Wini config,
-                            final ServicesResourceV10 servicesResource) {
+  public SparkOnYarnService(final Cluster cluster) {
 
-    super(config, servicesResource);
-    setName(config.get(Constants.SPARK_CONFIG_SECTION,
-                       Constants.SPARK_SERVICE_NAME_PARAMETER));
+    super(cluster);
+    setName(spec.getService(SERVICE_TYPE).getName());
 
     setServiceType(SERVICE_TYPE);
   }
@@ -77,12 +71,7 @@ public class SparkOnYarnService extends ClusterService {
   public final void deploy() {
 
     // Make sure service isn't already deployed:
-    boolean provisionRequired = false;
-    try {
-      provisionRequired = servicesResource.readService(name) == null;
-    } catch (Exception e) {
-      provisionRequired = true;
-    }
+    boolean provisionRequired = !serviceExists();
 
     if (!provisionRequired) {
       LOG.info(SERVICE_TYPE + " services already deployed. Skipping...");
@@ -93,22 +82,19 @@ public class SparkOnYarnService extends ClusterService {
       sparkService.setType(SERVICE_TYPE);
       sparkService.setName(name);
 
-      Ini.Section serviceConfigSection =
-        config.get(Constants.SPARK_SERVICE_CONFIG_SECTION);
-      ApiServiceConfig serviceConfig = getServiceConfig(serviceConfigSection);
+      ApiServiceConfig serviceConfig =
+        spec.getService(SERVICE_TYPE).getServiceConfig();
       sparkService.setConfig(serviceConfig);
 
       List<ApiRole> sparkRoles = new ArrayList<ApiRole>();
 
       LOG.info("Adding History Server role...");
       sparkRoles.addAll(createRoles(RoleType.SPARK_YARN_HISTORY_SERVER.name(), null,
-                                   config.get(Constants.SPARK_CONFIG_SECTION,
-                                              Constants.SPARK_HISTORYSERVER_HOST_PARAMETER).split(",")));
+                                   spec.getService(SERVICE_TYPE).getHosts(Constants.SPARK_HISTORYSERVER_HOST_PARAMETER)));
 
       LOG.info("Adding Gateway roles...");
       sparkRoles.addAll(createRoles(RoleType.GATEWAY.name(), null,
-                                    config.get(Constants.SPARK_CONFIG_SECTION,
-                                               Constants.SPARK_GATEWAY_HOSTS_PARAMETER).split(",")));
+                                    getGatewayHosts()));
 
       for (ApiRole role : sparkRoles) {
         LOG.debug("role type=" + role.getType() + ", host=" + role.getHostRef());
@@ -126,6 +112,15 @@ public class SparkOnYarnService extends ClusterService {
     }
   }
 
+  /**
+   * Get the hosts assigned Spark gateway roles.
+   *
+   * @return Gateway hosts.
+   */
+  public final HostSet getGatewayHosts() {
+    return spec.getService(SERVICE_TYPE).getHosts(Constants.SPARK_GATEWAY_HOSTS_PARAMETER);
+  }
+
   /**
    * Perform any required setup tasks for this service before starting.
    *
@@ -143,7 +138,7 @@ public class SparkOnYarnService extends ClusterService {
     // dependent services are started before executing these commands.
     LOG.info("Executing firstRun command for Spark");
     ApiCommand command = servicesResource.firstRun(name);
-    boolean status = CMServer.waitForCommand(command).booleanValue();
+    boolean status = waitForCommand(command).booleanValue();
     LOG.info("firstRun command for Spark completed " +
              (status ? "successfully" : "unsuccessfully"));
     return status;
@@ -21,9 +21,8 @@ import com.cloudera.api.model.ApiRole;
 import com.cloudera.api.model.ApiService;
 import com.cloudera.api.model.ApiServiceConfig;
 import com.cloudera.api.model.ApiServiceList;
-import com.cloudera.api.v10.ServicesResourceV10;
 
-import com.cloudera.cmapi.deploy.CMServer;
+import com.cloudera.cmapi.deploy.Cluster;
 import com.cloudera.cmapi.deploy.Constants;
 
 import java.util.ArrayList;
@@ -31,9 +30,6 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import org.ini4j.Ini;
-import org.ini4j.Wini;
-
 /**
  * Class to manage Sqoop2 service deployment.
  */
@@ -44,10 +40,15 @@ public class Sqoop2Service extends ClusterService {
    */
   private static final String SERVICE_TYPE = "SQOOP";
 
+  /**
+   * Name of this service in the services list of the configuration file.
+   */
+  private static final String CONFIG_SERVICE_TYPE = "SQOOP2";
+
   /**
    * Role types associated with this service.
    */
-  private enum RoleType { SQOOP_SERVER };
+  enum RoleType { SQOOP_SERVER };
 
   /**
    * Log4j logger.
@@ -57,16 +58,12 @@ public class Sqoop2Service extends ClusterService {
   /**
    * Constructor initializes required parameters to execute deployment.
    *
-   * @param config Configuration parameters.
-   * @param servicesResource Cloudera Manager API object providing access
-   * to functionality for configuring, creating, etc. services on a cluster.
+   * @param cluster Cluster this service is deployed to.
    */
-  public Sqoop2Service(final Wini config,
-                       final ServicesResourceV10 servicesResource) {
+  public Sqoop2Service(final Cluster cluster) {
 
-    super(config, servicesResource);
-    setName(config.get(Constants.SQOOP2_CONFIG_SECTION,
-                       Constants.SQOOP2_SERVICE_NAME_PARAMETER));
+    super(cluster);
+    setName(spec.getService(CONFIG_SERVICE_TYPE).getName());
 
     setServiceType(SERVICE_TYPE);
   }
@@ -77,12 +74,7 @@ public class Sqoop2Service extends ClusterService {
   public final void deploy() {
 
     // Make sure service isn't already deployed:
-    boolean provisionRequired = false;
-    try {
-      provisionRequired = servicesResource.readService(name) == null;
-    } catch (Exception e) {
-      provisionRequired = true;
-    }
+    boolean provisionRequired = !serviceExists();
 
     if (!provisionRequired) {
       LOG.info(SERVICE_TYPE + " services already deployed. Skipping...");
@@ -93,17 +85,15 @@ public class Sqoop2Service extends ClusterService {
       sqoop2Service.setType(SERVICE_TYPE);
       sqoop2Service.setName(name);
 
-      Ini.Section serviceConfigSection =
-        config.get(Constants.SQOOP2_SERVICE_CONFIG_SECTION);
-      ApiServiceConfig serviceConfig = getServiceConfig(serviceConfigSection);
+      ApiServiceConfig serviceConfig =
+        spec.getService(CONFIG_SERVICE_TYPE).getServiceConfig();
       sqoop2Service.setConfig(serviceConfig);
 
       List<ApiRole> sqoop2Roles = new ArrayList<ApiRole>();
 
       LOG.info("Adding Sqoop 2 Server roles...");
       sqoop2Roles.addAll(createRoles(RoleType.SQOOP_SERVER.name(), null,
-                                     config.get(Constants.SQOOP2_CONFIG_SECTION,
-                                                Constants.SQOOP2_SERVER_HOST_PARAMETER).split(",")));
+                                     spec.getService(CONFIG_SERVICE_TYPE).getHosts(Constants.SQOOP2_SERVER_HOST_PARAMETER)));
 
       sqoop2Service.setRoles(sqoop2Roles);
       sqoop2Services.add(sqoop2Service);
@@ -126,7 +116,7 @@ public class Sqoop2Service extends ClusterService {
     LOG.info("Running Sqoop2 create DB command...");
     ApiCommand command =
       servicesResource.sqoopCreateDatabaseTablesCommand(name);
-    boolean status = CMServer.waitForCommand(command).booleanValue();
+    boolean status = waitForCommand(command).booleanValue();
     LOG.info("Create Sqoop DB command completed " +
              (status ? "successfully" : "unsuccessfully"));
     return status;
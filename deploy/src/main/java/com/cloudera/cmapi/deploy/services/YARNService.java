@@ -21,19 +21,16 @@ import com.cloudera.api.model.ApiRole;
 import com.cloudera.api.model.ApiService;
 import com.cloudera.api.model.ApiServiceConfig;
 import com.cloudera.api.model.ApiServiceList;
-import com.cloudera.api.v10.ServicesResourceV10;
 
-import com.cloudera.cmapi.deploy.CMServer;
+import com.cloudera.cmapi.deploy.Cluster;
 import com.cloudera.cmapi.deploy.Constants;
+import com.cloudera.cmapi.deploy.HostSet;
 
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import org.ini4j.Ini;
-import org.ini4j.Wini;
-
 /**
  * Class to manage YARN service deployment.
  */
@@ -47,7 +44,7 @@ public class YARNService extends ClusterService {
   /**
    * Role types associated with this service.
    */
-  private enum RoleType { NODEMANAGER, RESOURCEMANAGER, JOBHISTORY, GATEWAY };
+  enum RoleType { NODEMANAGER, RESOURCEMANAGER, JOBHISTORY, GATEWAY };
 
   /**
    * Log4j logger.
@@ -57,16 +54,12 @@ public class YARNService extends ClusterService {
   /**
    * Constructor initializes required parameters to execute deployment.
    *
-   * @param config Configuration parameters.
-   * @param servicesResource Cloudera Manager API object providing access
-   * to functionality for configuring, creating, etc. services on a cluster.
+   * @param cluster Cluster this service is deployed to.
    */
-  public YARNService(final Wini config,
-                     final ServicesResourceV10 servicesResource) {
+  public YARNService(final Cluster cluster) {
 
-    super(config, servicesResource);
-    setName(config.get(Constants.YARN_CONFIG_SECTION,
-                       Constants.YARN_SERVICE_NAME_PARAMETER));
+    super(cluster);
+    setName(spec.getService(SERVICE_TYPE).getName());
 
     setServiceType(SERVICE_TYPE);
   }
@@ -77,15 +70,11 @@ public class YARNService extends ClusterService {
   public final void deploy() {
 
     // Make sure service isn't already deployed:
-    boolean provisionRequired = false;
-    try {
-      provisionRequired = servicesResource.readService(name) == null;
-    } catch (Exception e) {
-      provisionRequired = true;
-    }
+    boolean provisionRequired = !serviceExists();
 
     if (!provisionRequired) {
-      LOG.info(SERVICE_TYPE + " services already deployed. Skipping...");
+      LOG.info(SERVICE_TYPE + " services already deployed, checking " +
+               "NodeManager roles...");
     } else {
       LOG.info("Deploying " +  SERVICE_TYPE + " service...");
       ApiServiceList yarnServices = new ApiServiceList();
@@ -93,32 +82,23 @@ public class YARNService extends ClusterService {
       yarnService.setType(SERVICE_TYPE);
       yarnService.setName(name);
 
-      Ini.Section serviceConfigSection =
-        config.get(Constants.YARN_SERVICE_CONFIG_SECTION);
-      ApiServiceConfig serviceConfig = getServiceConfig(serviceConfigSection);
+      ApiServiceConfig serviceConfig =
+        spec.getService(SERVICE_TYPE).getServiceConfig();
       yarnService.setConfig(serviceConfig);
 
       List<ApiRole> yarnRoles = new ArrayList<ApiRole>();
 
       LOG.info("Adding ResourceManager role...");
       yarnRoles.addAll(createRoles(RoleType.RESOURCEMANAGER.name(), null,
-                                   config.get(Constants.YARN_CONFIG_SECTION,
-                                              Constants.YARN_RESOURCEMANAGER_HOST_PARAMETER).split(",")));
+                                   spec.getService(SERVICE_TYPE).getHosts(Constants.YARN_RESOURCEMANAGER_HOST_PARAMETER)));
 
       LOG.info("Adding JobHistory Server role...");
       yarnRoles.addAll(createRoles(RoleType.JOBHISTORY.name(), null,
-                                   config.get(Constants.YARN_CONFIG_SECTION,
-                                              Constants.YARN_JOBHISTORY_SERVER_HOST_PARAMETER).split(",")));
-
-      LOG.info("Adding NodeManager roles...");
-      yarnRoles.addAll(createRoles(RoleType.NODEMANAGER.name(), null,
-                                   config.get(Constants.YARN_CONFIG_SECTION,
-                                              Constants.YARN_NODEMANAGER_HOSTS_PARAMETER).split(",")));
+                                   spec.getService(SERVICE_TYPE).getHosts(Constants.YARN_JOBHISTORY_SERVER_HOST_PARAMETER)));
 
       LOG.info("Adding Gateway roles...");
       yarnRoles.addAll(createRoles(RoleType.GATEWAY.name(), null,
-                                   config.get(Constants.YARN_CONFIG_SECTION,
-                                              Constants.YARN_GATEWAY_HOSTS_PARAMETER).split(",")));
+                                   getGatewayHosts()));
 
       for (ApiRole role : yarnRoles) {
         LOG.debug("role type=" + role.getType() + ", host=" + role.getHostRef());
@@ -128,14 +108,33 @@ public class YARNService extends ClusterService {
       yarnServices.add(yarnService);
       // /api/v1/clusters/{clusterName}/services
       servicesResource.createServices(yarnServices);
+    }
 
-      LOG.info("YARN services successfully created, " +
-               "now setting role configurations...");
-
+    // Worker roles are added in chunks once the service exists, keeping
+    // request sizes manageable on large clusters. Roles the service already
+    // has are skipped, so a deploy that failed partway through is completed
+    // here on the next run:
+    LOG.info("Adding NodeManager roles...");
+    boolean rolesAdded =
+      addMissingRolesInChunks(createRoles(RoleType.NODEMANAGER.name(), null,
+                                          spec.getService(SERVICE_TYPE).getHosts(Constants.YARN_NODEMANAGER_HOSTS_PARAMETER)));
+
+    if (provisionRequired || rolesAdded) {
+      LOG.info("YARN roles successfully created, now setting role " +
+               "configurations...");
       updateRoleConfigurations();
     }
   }
 
+  /**
+   * Get the hosts assigned YARN gateway roles.
+   *
+   * @return Gateway hosts.
+   */
+  public final HostSet getGatewayHosts() {
+    return spec.getService(SERVICE_TYPE).getHosts(Constants.YARN_GATEWAY_HOSTS_PARAMETER);
+  }
+
   /**
    * Perform any required setup tasks for this service before starting.
    *
@@ -150,7 +149,7 @@ public class YARNService extends ClusterService {
     // before creating these directories.
     LOG.info("Running YARN firstStart command...");
     ApiCommand command = servicesResource.firstRun(name);
-    boolean status = CMServer.waitForCommand(command).booleanValue();
+    boolean status = waitForCommand(command).booleanValue();
     LOG.info("firstRun command for YARN completed " +
              (status ? "successfully" : "unsuccessfully"));
     return status;
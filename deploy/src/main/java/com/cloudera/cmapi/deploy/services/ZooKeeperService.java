@@ -21,9 +21,8 @@ import com.cloudera.api.model.ApiRole;
 import com.cloudera.api.model.ApiService;
 import com.cloudera.api.model.ApiServiceConfig;
 import com.cloudera.api.model.ApiServiceList;
-import com.cloudera.api.v10.ServicesResourceV10;
 
-import com.cloudera.cmapi.deploy.CMServer;
+import com.cloudera.cmapi.deploy.Cluster;
 import com.cloudera.cmapi.deploy.Constants;
 
 import java.util.ArrayList;
@@ -31,9 +30,6 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import org.ini4j.Ini;
-import org.ini4j.Wini;
-
 /**
  * Class to manage ZooKeeper service deployment.
  */
@@ -47,7 +43,7 @@ public class ZooKeeperService extends ClusterService {
   /**
    * Role types associated with this service.
    */
-  private static final String ZK_ROLE_TYPE = "SERVER";
+  enum RoleType { SERVER };
 
   /**
    * Log4j logger.
@@ -57,15 +53,11 @@ public class ZooKeeperService extends ClusterService {
   /**
    * Constructor initializes required parameters to execute deployment.
    *
-   * @param config Configuration parameters.
-   * @param servicesResource Cloudera Manager API object providing access
-   * to functionality for configuring, creating, etc. services on a cluster.
+   * @param cluster Cluster this service is deployed to.
    */
-  public ZooKeeperService(final Wini config,
-                          final ServicesResourceV10 servicesResource) {
-    super(config, servicesResource);
-    setName(config.get(Constants.CLUSTER_CONFIG_SECTION,
-                       Constants.ZOOKEEPER_NAME_PARAMETER));
+  public ZooKeeperService(final Cluster cluster) {
+    super(cluster);
+    setName(spec.getService(SERVICE_TYPE).getName());
     setServiceType(SERVICE_TYPE);
   }
 
@@ -75,12 +67,7 @@ public class ZooKeeperService extends ClusterService {
   public final void deploy() {
 
     // Make sure service isn't already deployed:
-    boolean provisionRequired = false;
-    try {
-      provisionRequired = servicesResource.readService(name) == null;
-    } catch (Exception e) {
-      provisionRequired = true;
-    }
+    boolean provisionRequired = !serviceExists();
 
     if (!provisionRequired) {
       LOG.info(SERVICE_TYPE + " service already deployed. Skipping...");
@@ -92,17 +79,15 @@ public class ZooKeeperService extends ClusterService {
       zkService.setName(name);
 
       // Set service configuration:
-      Ini.Section serviceConfigSection =
-        config.get(Constants.ZOOKEEPER_SERVICE_CONFIG_SECTION);
-      ApiServiceConfig serviceConfig = getServiceConfig(serviceConfigSection);
+      ApiServiceConfig serviceConfig =
+        spec.getService(SERVICE_TYPE).getServiceConfig();
       zkService.setConfig(serviceConfig);
 
       // Create service roles:
       LOG.info("Adding ZooKeeper roles...");
       List<ApiRole> zkRoles = new ArrayList<ApiRole>();
-      zkRoles.addAll(createRoles(ZK_ROLE_TYPE, null,
-                                 config.get(Constants.CLUSTER_CONFIG_SECTION,
-                                            Constants.ZOOKEEPER_HOSTS_PARAMETER).split(",")));
+      zkRoles.addAll(createRoles(RoleType.SERVER.name(), null,
+                                 spec.getService(SERVICE_TYPE).getHosts(Constants.ZOOKEEPER_HOSTS_PARAMETER)));
       zkService.setRoles(zkRoles);
       apiServices.add(zkService);
       // /api/v1/clusters/{clusterName}/services
@@ -123,7 +108,7 @@ public class ZooKeeperService extends ClusterService {
     boolean status = false;
     LOG.info("Running ZooKeeper server initialization...");
     ApiCommand command = servicesResource.zooKeeperInitCommand(name);
-    status = CMServer.waitForCommand(command).booleanValue();
+    status = waitForCommand(command).booleanValue();
     LOG.info("ZooKeeper server initialization completed " +
              (status ? "successfully" : "unsuccessfully"));
     return status;
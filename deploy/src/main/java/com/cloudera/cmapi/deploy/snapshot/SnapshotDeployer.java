@@ -0,0 +1,521 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.snapshot;
+
+import com.cloudera.api.DataView;
+import com.cloudera.api.model.ApiConfig;
+import com.cloudera.api.model.ApiConfigList;
+import com.cloudera.api.model.ApiHost;
+import com.cloudera.api.model.ApiHostRef;
+import com.cloudera.api.model.ApiRole;
+import com.cloudera.api.model.ApiRoleConfigGroup;
+import com.cloudera.api.model.ApiRoleConfigGroupList;
+import com.cloudera.api.model.ApiRoleConfigGroupRef;
+import com.cloudera.api.model.ApiRoleList;
+import com.cloudera.api.model.ApiService;
+import com.cloudera.api.model.ApiServiceList;
+
+import com.cloudera.cmapi.deploy.Cluster;
+import com.cloudera.cmapi.deploy.CommandWaiter;
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+import com.cloudera.cmapi.deploy.DeploymentSpec;
+import com.cloudera.cmapi.deploy.HostClass;
+import com.cloudera.cmapi.deploy.ServiceSpec;
+import com.cloudera.cmapi.deploy.client.AsyncCmClient;
+import com.cloudera.cmapi.deploy.tuning.HostFacts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Deploy a cluster's services from a snapshot written by the
+ * {@link SnapshotExporter}, in place of deploying them one service at a
+ * time. A snapshot describes a known-good cluster, so the per-service
+ * existence checks, host templates, tuning and host class passes are
+ * skipped and the calls are made in bulk:
+ * <p><ul>
+ * <li> Every service is created in one request, without roles.
+ * <li> Each service's host class role config groups are created in one
+ * request, with the base section's values and the class's values on top,
+ * and the requests for all services are made concurrently.
+ * <li> Roles are created in chunks across all services concurrently, each
+ * in its final role config group, so no roles are moved afterwards.
+ * <li> Base role config groups are updated concurrently with role creation.
+ * </ul></p>
+ * A chunk of roles that fails is retried with backoff, like the chunks of
+ * {@link com.cloudera.cmapi.deploy.services.ClusterService}. Services that
+ * already exist, for example because an earlier deploy of the snapshot
+ * failed partway through, are given the host class groups and roles they're
+ * missing, and the base group values that differ from the snapshot.
+ * Enabled for snapshots unless snapshot_fast_deploy in the [SNAPSHOT]
+ * section is false.
+ */
+public final class SnapshotDeployer {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(SnapshotDeployer.class);
+
+  /**
+   * Default number of roles added per request.
+   */
+  private static final int DEFAULT_ROLE_CHUNK_SIZE = 200;
+
+  /**
+   * Default number of role requests in flight.
+   */
+  private static final int DEFAULT_ROLE_CHUNK_PARALLELISM = 4;
+
+  /**
+   * Cluster to deploy the services to.
+   */
+  private final Cluster cluster;
+
+  /**
+   * Deployment spec compiled from the snapshot.
+   */
+  private final DeploymentSpec spec;
+
+  /**
+   * Client making the calls.
+   */
+  private final AsyncCmClient client;
+
+  /**
+   * Constructor.
+   *
+   * @param cluster Cluster to deploy the services to.
+   */
+  public SnapshotDeployer(final Cluster cluster) {
+    this.cluster = cluster;
+    this.spec = cluster.getCMServer().getDeploymentSpec();
+    this.client = cluster.getCMServer().getAsyncClient();
+  }
+
+  /**
+   * Check whether a configuration is a snapshot to be deployed with this
+   * class.
+   *
+   * @param spec Deployment spec compiled from the configuration.
+   *
+   * @return True if the configuration is a snapshot and fast deployment
+   * isn't turned off.
+   */
+  public static boolean isFastDeploy(final DeploymentSpec spec) {
+    return !spec.get(Constants.SNAPSHOT_CONFIG_SECTION,
+                     Constants.SNAPSHOT_VERSION_PARAMETER).isEmpty() &&
+      !spec.get(Constants.SNAPSHOT_CONFIG_SECTION,
+                Constants.SNAPSHOT_FAST_DEPLOY_PARAMETER).equalsIgnoreCase("false");
+  }
+
+  /**
+   * Create the services, role config groups and roles of the snapshot, and
+   * add whatever services that already exist are missing.
+   */
+  public void deploy() {
+    String clusterName = cluster.getName();
+    Set<String> existing = new HashSet<String>();
+    for (ApiService service :
+           client.readServices(clusterName, DataView.SUMMARY).join()) {
+      existing.add(service.getName());
+    }
+    ApiServiceList newServices = new ApiServiceList();
+    for (ServiceSpec serviceSpec : spec.getServiceSpecs()) {
+      if (existing.contains(serviceSpec.getName())) {
+        LOG.info(serviceSpec.getName() + " already exists, checking its " +
+                 "roles and groups");
+        continue;
+      }
+      ApiService service = new ApiService();
+      service.setType(SnapshotFormat.getCmType(serviceSpec.getType()));
+      service.setName(serviceSpec.getName());
+      service.setConfig(serviceSpec.getServiceConfig());
+      newServices.add(service);
+    }
+
+    try {
+      if (newServices.size() > 0) {
+        LOG.info("Creating " + newServices.size() + " services in " +
+                 clusterName);
+        // /api/v1/clusters/{clusterName}/services
+        cluster.getServicesResource().createServices(newServices);
+      }
+
+      // An earlier deploy that failed partway through may have left existing
+      // services without some of their groups or roles, so read what they
+      // have:
+      Map<String, CompletableFuture<Set<String>>> existingGroups =
+        new LinkedHashMap<String, CompletableFuture<Set<String>>>();
+      Map<String, CompletableFuture<Set<String>>> existingRoles =
+        new LinkedHashMap<String, CompletableFuture<Set<String>>>();
+      for (ServiceSpec serviceSpec : spec.getServiceSpecs()) {
+        String serviceName = serviceSpec.getName();
+        if (!existing.contains(serviceName)) {
+          continue;
+        }
+        existingGroups.put(serviceName,
+                           client.readRoleConfigGroups(clusterName, serviceName)
+                           .thenApply(SnapshotDeployer::groupNames));
+        existingRoles.put(serviceName,
+                          client.readRoles(clusterName, serviceName)
+                          .thenApply(SnapshotDeployer::roleKeys));
+      }
+
+      // Roles need their groups to exist, so create the groups first:
+      Map<String, HostFacts> hostFacts = cluster.getHostFacts();
+      Map<ServiceSpec, List<ApiRole>> serviceRoles =
+        new LinkedHashMap<ServiceSpec, List<ApiRole>>();
+      List<CompletableFuture<ApiRoleConfigGroupList>> groupCreates =
+        new ArrayList<CompletableFuture<ApiRoleConfigGroupList>>();
+      for (ServiceSpec serviceSpec : spec.getServiceSpecs()) {
+        String serviceName = serviceSpec.getName();
+        ApiRoleConfigGroupList allGroups = new ApiRoleConfigGroupList();
+        List<ApiRole> roles = getRoles(serviceSpec, hostFacts, allGroups);
+        ApiRoleConfigGroupList groups = allGroups;
+        if (existing.contains(serviceName)) {
+          Set<String> groupNames = existingGroups.get(serviceName).join();
+          groups = new ApiRoleConfigGroupList();
+          for (ApiRoleConfigGroup group : allGroups) {
+            if (!groupNames.contains(group.getName())) {
+              groups.add(group);
+            }
+          }
+          Set<String> roleKeys = existingRoles.get(serviceName).join();
+          roles.removeIf(role -> roleKeys.contains(roleKey(role)));
+          if (!groups.getGroups().isEmpty() || !roles.isEmpty()) {
+            LOG.info(serviceName + " is missing " + groups.getGroups().size() +
+                     " role config groups and " + roles.size() +
+                     " roles, adding them");
+          }
+        }
+        serviceRoles.put(serviceSpec, roles);
+        if (!groups.getGroups().isEmpty()) {
+          groupCreates.add(client.createRoleConfigGroups(clusterName,
+                                                         serviceName, groups));
+        }
+      }
+      AsyncCmClient.allOf(groupCreates).join();
+
+      List<CompletableFuture<?>> updates = new ArrayList<CompletableFuture<?>>();
+      for (ServiceSpec serviceSpec : spec.getServiceSpecs()) {
+        updates.add(updateBaseGroups(serviceSpec,
+                                     existing.contains(serviceSpec.getName())));
+      }
+      updates.addAll(createRoles(serviceRoles));
+      CompletableFuture.allOf(updates.toArray(new CompletableFuture<?>[0])).join();
+    } finally {
+      cluster.getClusterState().invalidateServices(clusterName);
+    }
+  }
+
+  /**
+   * Get the names of role config groups.
+   *
+   * @param groups Role config groups.
+   *
+   * @return Group names.
+   */
+  private static Set<String> groupNames(final ApiRoleConfigGroupList groups) {
+    Set<String> names = new HashSet<String>();
+    for (ApiRoleConfigGroup group : groups) {
+      names.add(group.getName());
+    }
+    return names;
+  }
+
+  /**
+   * Get the keys of roles, as given by {@link #roleKey}.
+   *
+   * @param roles Roles.
+   *
+   * @return Role keys.
+   */
+  private static Set<String> roleKeys(final ApiRoleList roles) {
+    Set<String> keys = new HashSet<String>();
+    for (ApiRole role : roles) {
+      keys.add(roleKey(role));
+    }
+    return keys;
+  }
+
+  /**
+   * Identify a role by its type and host, which is how roles built from the
+   * snapshot are matched to roles that exist. Both carry host IDs.
+   *
+   * @param role Role.
+   *
+   * @return Role type and host ID.
+   */
+  private static String roleKey(final ApiRole role) {
+    return role.getType() + "@" + role.getHostRef().getHostId();
+  }
+
+  /**
+   * Build the roles of a service from its host parameters, and the host
+   * class role config groups they go in.
+   *
+   * @param serviceSpec Service.
+   * @param hostFacts Hardware facts by host name, to classify hosts.
+   * @param groups Groups the roles go in are added here.
+   *
+   * @return Roles.
+   */
+  private List<ApiRole> getRoles(final ServiceSpec serviceSpec,
+                                 final Map<String, HostFacts> hostFacts,
+                                 final ApiRoleConfigGroupList groups) {
+    // Role host references carry host IDs:
+    Map<String, ApiHost> hosts = cluster.getClusterState().getHostsByName();
+    Set<String> groupNames = new HashSet<String>();
+    List<ApiRole> roles = new ArrayList<ApiRole>();
+    for (String[] entry : SnapshotFormat.ROLE_HOST_PARAMETERS) {
+      if (!entry[0].equals(serviceSpec.getType())) {
+        continue;
+      }
+      String roleType = entry[1];
+      String roleSection = SnapshotFormat.roleSection(entry[0], roleType);
+      for (String host : serviceSpec.getHosts(entry[2])) {
+        ApiRole role = new ApiRole();
+        role.setType(roleType);
+        role.setHostRef(new ApiHostRef(hosts.containsKey(host) ?
+                                       hosts.get(host).getHostId() : host));
+        String className =
+          HostClass.classify(spec.getHostClasses(), host, hostFacts.get(host));
+        String classSection = className == null ? null :
+          HostClass.sectionName(roleSection, className);
+        if (classSection != null && spec.hasSection(classSection)) {
+          String groupName = serviceSpec.getName() + "-" + roleType + "-" + className;
+          if (groupNames.add(groupName)) {
+            groups.add(newGroup(groupName, roleType, className, roleSection,
+                                classSection));
+          }
+          role.setRoleConfigGroupRef(new ApiRoleConfigGroupRef(groupName));
+        }
+        roles.add(role);
+      }
+    }
+    return roles;
+  }
+
+  /**
+   * Build a host class role config group.
+   *
+   * @param groupName Group name.
+   * @param roleType Role type.
+   * @param className Host class name.
+   * @param roleSection Section with the values for the role type.
+   * @param classSection Section with the class's values for the role type.
+   *
+   * @return Group, with the role type's values and the class's on top.
+   */
+  private ApiRoleConfigGroup newGroup(final String groupName,
+                                      final String roleType,
+                                      final String className,
+                                      final String roleSection,
+                                      final String classSection) {
+    Map<String, String> values = new LinkedHashMap<String, String>();
+    for (ApiConfig apiConfig : spec.getConfigs(roleSection)) {
+      values.put(apiConfig.getName(), apiConfig.getValue());
+    }
+    for (ApiConfig apiConfig : spec.getConfigs(classSection)) {
+      values.put(apiConfig.getName(), apiConfig.getValue());
+    }
+    ApiConfigList groupConfig = new ApiConfigList();
+    for (Map.Entry<String, String> value : values.entrySet()) {
+      groupConfig.add(new ApiConfig(value.getKey(), value.getValue()));
+    }
+    ApiRoleConfigGroup group = new ApiRoleConfigGroup();
+    group.setName(groupName);
+    group.setDisplayName(roleType + " (" + className + ")");
+    group.setRoleType(roleType);
+    group.setConfig(groupConfig);
+    return group;
+  }
+
+  /**
+   * Set the values of a service's role sections on its base role config
+   * groups.
+   *
+   * @param serviceSpec Service.
+   * @param existed Whether the service existed before this deploy. Only
+   * values that differ from its groups' current values are then set.
+   *
+   * @return Future completing when every group is updated.
+   */
+  private CompletableFuture<?> updateBaseGroups(final ServiceSpec serviceSpec,
+                                                final boolean existed) {
+    String clusterName = cluster.getName();
+    String serviceName = serviceSpec.getName();
+    return client.readRoleConfigGroups(clusterName, serviceName)
+      .thenCompose(groups -> {
+          List<CompletableFuture<ApiConfigList>> updates =
+            new ArrayList<CompletableFuture<ApiConfigList>>();
+          for (ApiRoleConfigGroup group : groups) {
+            ApiConfigList configs =
+              spec.getConfigs(SnapshotFormat.roleSection(serviceSpec.getType(),
+                                                         group.getRoleType()));
+            if (!Boolean.TRUE.equals(group.isBase()) || configs.size() == 0) {
+              continue;
+            }
+            if (!existed) {
+              updates.add(updateGroup(serviceName, group.getName(), configs));
+              continue;
+            }
+            // The summary view only includes values that have been set:
+            updates.add(client.readRoleConfigGroupConfig(clusterName, serviceName,
+                                                         group.getName(),
+                                                         DataView.SUMMARY)
+                        .thenCompose(current -> {
+                            Map<String, String> values = new HashMap<String, String>();
+                            for (ApiConfig apiConfig : current) {
+                              values.put(apiConfig.getName(), apiConfig.getValue());
+                            }
+                            ApiConfigList changes = new ApiConfigList();
+                            for (ApiConfig apiConfig : configs) {
+                              if (!apiConfig.getValue().equals(values.get(apiConfig.getName()))) {
+                                changes.add(apiConfig);
+                              }
+                            }
+                            return changes.size() == 0 ?
+                              CompletableFuture.completedFuture(current) :
+                              updateGroup(serviceName, group.getName(), changes);
+                          }));
+          }
+          return AsyncCmClient.allOf(updates);
+        });
+  }
+
+  /**
+   * Set values on a role config group.
+   *
+   * @param serviceName Service name.
+   * @param groupName Role config group name.
+   * @param configs Values to set.
+   *
+   * @return Future completing with the group's configuration.
+   */
+  private CompletableFuture<ApiConfigList> updateGroup(final String serviceName,
+                                                       final String groupName,
+                                                       final ApiConfigList configs) {
+    // /api/v3/clusters/{clusterName}/services/{serviceName}/roleConfigGroups/{roleConfigGroupName}/config
+    return client.updateRoleConfigGroupConfig(cluster.getName(), serviceName,
+                                              groupName,
+                                              "Updating role config from snapshot",
+                                              configs);
+  }
+
+  /**
+   * Create roles in chunks across all services, with a bounded number of
+   * requests in flight. A chunk that fails is retried with backoff.
+   *
+   * @param serviceRoles Roles of each service.
+   *
+   * @return Futures completing as each chunk is created.
+   */
+  private List<CompletableFuture<ApiRoleList>> createRoles(final Map<ServiceSpec, List<ApiRole>> serviceRoles) {
+    int chunkSize =
+      Math.max(1, ConfigUtils.getInt(cluster.getConfig(), Constants.CLUSTER_CONFIG_SECTION,
+                                     Constants.CLUSTER_ROLE_CHUNK_SIZE_PARAMETER,
+                                     DEFAULT_ROLE_CHUNK_SIZE));
+    int parallelism =
+      ConfigUtils.getInt(cluster.getConfig(), Constants.CLUSTER_CONFIG_SECTION,
+                         Constants.CLUSTER_ROLE_CHUNK_PARALLELISM_PARAMETER,
+                         DEFAULT_ROLE_CHUNK_PARALLELISM);
+    Semaphore inFlight = new Semaphore(Math.max(1, parallelism));
+    List<CompletableFuture<ApiRoleList>> results =
+      new ArrayList<CompletableFuture<ApiRoleList>>();
+    int roleCount = 0;
+    for (Map.Entry<ServiceSpec, List<ApiRole>> entry : serviceRoles.entrySet()) {
+      List<ApiRole> roles = entry.getValue();
+      roleCount += roles.size();
+      for (int i = 0; i < roles.size(); i += chunkSize) {
+        List<ApiRole> chunk =
+          roles.subList(i, Math.min(roles.size(), i + chunkSize));
+        String serviceName = entry.getKey().getName();
+        results.add(client.submit(() -> {
+              inFlight.acquireUninterruptibly();
+              try {
+                return createRoleChunk(serviceName, chunk);
+              } finally {
+                inFlight.release();
+              }
+            }));
+      }
+    }
+    LOG.info("Creating " + roleCount + " roles in " + results.size() +
+             " requests of up to " + chunkSize);
+    return results;
+  }
+
+  /**
+   * Create a chunk of roles, retrying with backoff on failure. Before a
+   * retry, roles created by an earlier attempt are dropped from the chunk,
+   * since a request that failed on our side may still have completed in CM.
+   *
+   * @param serviceName Service name.
+   * @param roles Roles in the chunk.
+   *
+   * @return Roles created by the last attempt.
+   *
+   * @throws RuntimeException exception thrown by the last attempt, or
+   * DeploymentTimeoutException if the phase runs out of time before a
+   * retry.
+   */
+  private ApiRoleList createRoleChunk(final String serviceName,
+                                      final List<ApiRole> roles) {
+    CommandWaiter waiter = cluster.getCMServer().getCommandWaiter();
+    List<ApiRole> pending = roles;
+    for (int attempt = 0; ; attempt++) {
+      if (attempt > 0) {
+        // Outside the try, so that running out of phase time stops the
+        // chunk rather than counting as another failed attempt:
+        waiter.backoff(attempt);
+      }
+      try {
+        if (attempt > 0) {
+          Set<String> created =
+            roleKeys(client.readRoles(cluster.getName(), serviceName).join());
+          pending = new ArrayList<ApiRole>(pending);
+          pending.removeIf(role -> created.contains(roleKey(role)));
+          if (pending.isEmpty()) {
+            return new ApiRoleList(pending);
+          }
+        }
+        // /api/v8/clusters/{clusterName}/services/{serviceName}/roles
+        return client.createRoles(cluster.getName(), serviceName,
+                                  new ApiRoleList(new ArrayList<ApiRole>(pending)))
+          .join();
+      } catch (RuntimeException e) {
+        LOG.warn("Creating " + pending.size() + " roles in " + serviceName +
+                 " failed: " + e.getMessage());
+        if (attempt >= waiter.getMaxRetries()) {
+          throw e;
+        }
+      }
+    }
+  }
+}
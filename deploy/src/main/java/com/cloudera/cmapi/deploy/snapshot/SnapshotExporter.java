@@ -0,0 +1,607 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.snapshot;
+
+import com.cloudera.api.DataView;
+import com.cloudera.api.model.ApiConfig;
+import com.cloudera.api.model.ApiConfigList;
+import com.cloudera.api.model.ApiHost;
+import com.cloudera.api.model.ApiHostRef;
+import com.cloudera.api.model.ApiParcel;
+import com.cloudera.api.model.ApiRole;
+import com.cloudera.api.model.ApiRoleConfigGroup;
+import com.cloudera.api.model.ApiService;
+import com.cloudera.api.model.ApiServiceConfig;
+
+import com.cloudera.cmapi.deploy.CMApiDeploy;
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+import com.cloudera.cmapi.deploy.DeploymentSpec;
+import com.cloudera.cmapi.deploy.HostClass;
+import com.cloudera.cmapi.deploy.HostSet;
+import com.cloudera.cmapi.deploy.client.AsyncCmClient;
+import com.cloudera.cmapi.deploy.services.ClusterServiceFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Wini;
+
+/**
+ * Export a snapshot of a live cluster as a cmdeploy.ini style configuration:
+ * its services, the hosts of each role, every role config group's
+ * configuration, host racks and Parcel versions. Reads are made
+ * concurrently, one set per service, with the role config group reads of
+ * each service fanned out in turn.
+ * <p>
+ * The snapshot starts from the configuration the tool is run with, so
+ * connection, management service and other settings carry over, and
+ * replaces its cluster sections with what was read. Role config groups
+ * other than the base groups become host classes, one per combination of
+ * groups a host's roles are in, with [ROLE:class] sections holding the
+ * values that differ from the base group. Racks are written to a topology
+ * file next to the snapshot, and auto tuning and the memory budget are
+ * turned off since the values they'd compute are already captured. Values
+ * set explicitly are always written, even when they equal the default.
+ * Values left at their defaults are only written if
+ * snapshot_include_defaults is set in the [SNAPSHOT] section, or where a
+ * host class needs the default to replace a value its base group sets.
+ * <p>
+ * Each snapshot is written to a new file named with the prefix given on
+ * the command line and the time it was taken, for example
+ * prod-20161019-101500.ini, and is checked by compiling it before it's
+ * written. Services and role types CMApiDeploy can't deploy are logged and
+ * left out.
+ */
+public final class SnapshotExporter {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(SnapshotExporter.class);
+
+  /**
+   * Format of the time in snapshot file names.
+   */
+  private static final DateTimeFormatter FILE_TIME_FORMAT =
+    DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+  /**
+   * Prefix of the names of host classes holding non-base role config groups.
+   */
+  private static final String CLASS_PREFIX = "snapshot";
+
+  /**
+   * Everything read for one service.
+   */
+  private static final class ServiceSnapshot {
+
+    /**
+     * Service.
+     */
+    private final ApiService service;
+
+    /**
+     * Service type in the configuration.
+     */
+    private final String type;
+
+    /**
+     * Service configuration, with defaults.
+     */
+    private final ApiServiceConfig config;
+
+    /**
+     * Roles of the service.
+     */
+    private final List<ApiRole> roles;
+
+    /**
+     * Configuration of each role config group, with defaults, keyed on
+     * group name.
+     */
+    private final Map<String, ApiConfigList> groupConfigs;
+
+    /**
+     * Role config groups, keyed on group name.
+     */
+    private final Map<String, ApiRoleConfigGroup> groups;
+
+    /**
+     * Constructor.
+     *
+     * @param service Service.
+     * @param type Service type in the configuration.
+     * @param config Service configuration.
+     * @param roles Roles of the service.
+     * @param groups Role config groups, keyed on group name.
+     * @param groupConfigs Configuration of each group, keyed on group name.
+     */
+    ServiceSnapshot(final ApiService service, final String type,
+                    final ApiServiceConfig config, final List<ApiRole> roles,
+                    final Map<String, ApiRoleConfigGroup> groups,
+                    final Map<String, ApiConfigList> groupConfigs) {
+      this.service = service;
+      this.type = type;
+      this.config = config;
+      this.roles = roles;
+      this.groups = groups;
+      this.groupConfigs = groupConfigs;
+    }
+  }
+
+  /**
+   * Client making the reads.
+   */
+  private final AsyncCmClient client;
+
+  /**
+   * Name of the cluster to export.
+   */
+  private final String clusterName;
+
+  /**
+   * Whether values left at their defaults are written.
+   */
+  private final boolean includeDefaults;
+
+  /**
+   * Used to look up the role types of each service.
+   */
+  private final ClusterServiceFactory factory = new ClusterServiceFactory();
+
+  /**
+   * Constructor.
+   *
+   * @param client Client to make the reads with.
+   * @param clusterName Name of the cluster to export.
+   * @param includeDefaults Whether values left at their defaults are
+   * written.
+   */
+  public SnapshotExporter(final AsyncCmClient client, final String clusterName,
+                          final boolean includeDefaults) {
+    this.client = client;
+    this.clusterName = clusterName;
+    this.includeDefaults = includeDefaults;
+  }
+
+  /**
+   * Load configuration, connect to CM and write a snapshot of the cluster
+   * it names.
+   *
+   * @param args Command line arguments: optionally the prefix of the
+   * snapshot file name, by default the cluster name.
+   */
+  public static void main(final String[] args) {
+    String configFile = System.getProperty("cmapi.ini.file");
+    Wini config = null;
+    try {
+      config = new CMApiDeploy().getConfig(configFile);
+    } catch (IOException e) {
+      LOG.error("Caught exception reading configuration from " + configFile +
+                ", exception was " + e.getMessage());
+      System.exit(1);
+    }
+
+    String clusterName = config.get(Constants.CLUSTER_CONFIG_SECTION,
+                                    Constants.CLUSTER_NAME_PARAMETER);
+    String prefix = args.length > 0 ? args[0] :
+      clusterName.replaceAll("[^A-Za-z0-9_.-]", "_");
+    boolean includeDefaults =
+      ConfigUtils.getBoolean(config, Constants.SNAPSHOT_CONFIG_SECTION,
+                             Constants.SNAPSHOT_INCLUDE_DEFAULTS_PARAMETER,
+                             false);
+    try (AsyncCmClient client =
+         new AsyncCmClient(CMApiDeploy.getRootResource(config))) {
+      File file = new SnapshotExporter(client, clusterName, includeDefaults)
+        .write(config, prefix);
+      LOG.info("Wrote snapshot of " + clusterName + " to " + file);
+    } catch (IOException | RuntimeException e) {
+      LOG.error("Caught exception exporting snapshot, exception was " +
+                e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Take a snapshot and write it, with its rack topology file, to new
+   * files named after the time it was taken.
+   *
+   * @param config Configuration to start from. It's modified to hold the
+   * snapshot.
+   * @param prefix Prefix of the file names, possibly including a directory.
+   *
+   * @return Snapshot file.
+   *
+   * @throws IOException if error occurs writing the files.
+   */
+  public File write(final Wini config, final String prefix) throws IOException {
+    Instant now = Instant.now();
+    String base = prefix + "-" + FILE_TIME_FORMAT.format(now);
+    File file = new File(base + ".ini");
+    File racksFile = new File(base + "-racks.data");
+    if (file.exists() || racksFile.exists()) {
+      throw new IOException("Snapshot " + file + " already exists");
+    }
+
+    Map<String, String> racks = export(config);
+    config.put(Constants.SNAPSHOT_CONFIG_SECTION,
+               Constants.SNAPSHOT_TIME_PARAMETER, now.toString());
+    if (!racks.isEmpty()) {
+      List<String> lines = new ArrayList<String>();
+      for (Map.Entry<String, String> entry : racks.entrySet()) {
+        lines.add(entry.getKey() + " " + entry.getValue());
+      }
+      Files.write(racksFile.toPath(), lines, StandardCharsets.UTF_8);
+      config.put(Constants.RACK_TOPOLOGY_CONFIG_SECTION,
+                 Constants.RACK_TOPOLOGY_FILE_PARAMETER,
+                 racksFile.getAbsolutePath());
+    }
+
+    try {
+      DeploymentSpec.compile(config);
+    } catch (IllegalArgumentException e) {
+      LOG.warn("Snapshot needs editing before it can be deployed: " +
+               e.getMessage());
+    }
+    config.store(file);
+    return file;
+  }
+
+  /**
+   * Read the cluster and replace the cluster sections of a configuration
+   * with what was read.
+   *
+   * @param config Configuration to modify.
+   *
+   * @return Rack of each cluster host that has one, keyed on host name.
+   */
+  public Map<String, String> export(final Wini config) {
+    // Host names and racks, the cluster's hosts and its Parcels are read
+    // alongside the services:
+    CompletableFuture<List<ApiHost>> hostsFuture =
+      client.readHosts(DataView.SUMMARY).thenApply(hosts -> hosts.getHosts());
+    CompletableFuture<List<ApiHostRef>> clusterHostsFuture =
+      client.listClusterHosts(clusterName).thenApply(refs -> refs.getHosts());
+    CompletableFuture<List<ApiParcel>> parcelsFuture =
+      client.readParcels(clusterName, DataView.SUMMARY)
+      .thenApply(parcels -> parcels.getParcels());
+    List<CompletableFuture<ServiceSnapshot>> serviceFutures =
+      new ArrayList<CompletableFuture<ServiceSnapshot>>();
+    for (ApiService service :
+           client.readServices(clusterName, DataView.SUMMARY).join()) {
+      String type = SnapshotFormat.getSpecType(service.getType());
+      if (DeploymentSpec.getServiceSections(type) == null) {
+        LOG.warn("Leaving " + service.getType() + " service " +
+                 service.getName() + " out of the snapshot, it can't be " +
+                 "deployed from a configuration file");
+        continue;
+      }
+      serviceFutures.add(readService(service, type));
+    }
+    List<ServiceSnapshot> snapshots = AsyncCmClient.allOf(serviceFutures).join();
+
+    Map<String, String> hostNames = new HashMap<String, String>();
+    Map<String, String> hostRacks = new HashMap<String, String>();
+    for (ApiHost host : hostsFuture.join()) {
+      hostNames.put(host.getHostId(), host.getHostname());
+      hostRacks.put(host.getHostname(), host.getRackId());
+    }
+    List<String> clusterHosts = new ArrayList<String>();
+    Map<String, String> racks = new TreeMap<String, String>();
+    for (ApiHostRef ref : clusterHostsFuture.join()) {
+      String host = hostNames.get(ref.getHostId());
+      clusterHosts.add(host);
+      if (hostRacks.get(host) != null) {
+        racks.put(host, hostRacks.get(host));
+      }
+    }
+
+    clearClusterSections(config);
+    config.put(Constants.CLUSTER_CONFIG_SECTION,
+               Constants.CLUSTER_HOSTS_PARAMETER,
+               HostSet.toExpression(clusterHosts));
+    for (ApiParcel parcel : parcelsFuture.join()) {
+      if ("ACTIVATED".equals(parcel.getStage())) {
+        config.put(Constants.CLUSTER_CONFIG_SECTION,
+                   parcel.getProduct().toLowerCase() +
+                   Constants.CLUSTER_PARCEL_VERSION_SUFFIX,
+                   parcel.getVersion());
+      }
+    }
+
+    // Services in the order they're deployed:
+    List<String> services = new ArrayList<String>();
+    Map<String, Set<String>> hostGroups = new TreeMap<String, Set<String>>();
+    for (String type : DeploymentSpec.getServiceTypes()) {
+      for (ServiceSnapshot snapshot : snapshots) {
+        if (snapshot.type.equals(type)) {
+          services.add(type);
+          writeService(config, snapshot, hostNames, hostGroups);
+        }
+      }
+    }
+    config.put(Constants.CLUSTER_CONFIG_SECTION,
+               Constants.CLUSTER_SERVICES_PARAMETER, String.join(",", services));
+    writeHostClasses(config, snapshots, hostGroups);
+
+    config.put(Constants.TUNING_CONFIG_SECTION,
+               Constants.TUNING_AUTO_TUNE_PARAMETER, "false");
+    config.put(Constants.TUNING_CONFIG_SECTION,
+               Constants.TUNING_MEMORY_BUDGET_PARAMETER, "false");
+    config.put(Constants.SNAPSHOT_CONFIG_SECTION,
+               Constants.SNAPSHOT_VERSION_PARAMETER,
+               String.valueOf(SnapshotFormat.VERSION));
+    config.put(Constants.SNAPSHOT_CONFIG_SECTION,
+               Constants.SNAPSHOT_SOURCE_PARAMETER,
+               clusterName + " on " +
+               config.get("CM", Constants.CM_PUBLIC_HOSTNAME_PARAMETER));
+    LOG.info("Read " + snapshots.size() + " services and " +
+             clusterHosts.size() + " hosts from " + clusterName);
+    return racks;
+  }
+
+  /**
+   * Read a service's configuration, roles and role config groups.
+   *
+   * @param service Service.
+   * @param type Service type in the configuration.
+   *
+   * @return Future completing with what was read.
+   */
+  private CompletableFuture<ServiceSnapshot> readService(final ApiService service,
+                                                         final String type) {
+    String serviceName = service.getName();
+    CompletableFuture<ApiServiceConfig> configFuture =
+      client.readServiceConfig(clusterName, serviceName, DataView.FULL);
+    CompletableFuture<List<ApiRole>> rolesFuture =
+      client.readRoles(clusterName, serviceName).thenApply(roles -> roles.getRoles());
+    Map<String, ApiRoleConfigGroup> groups =
+      new LinkedHashMap<String, ApiRoleConfigGroup>();
+    CompletableFuture<List<ApiConfigList>> groupConfigsFuture =
+      client.readRoleConfigGroups(clusterName, serviceName)
+      .thenCompose(groupList -> {
+          List<CompletableFuture<ApiConfigList>> reads =
+            new ArrayList<CompletableFuture<ApiConfigList>>();
+          for (ApiRoleConfigGroup group : groupList) {
+            groups.put(group.getName(), group);
+            reads.add(client.readRoleConfigGroupConfig(clusterName, serviceName,
+                                                       group.getName(),
+                                                       DataView.FULL));
+          }
+          return AsyncCmClient.allOf(reads);
+        });
+    return CompletableFuture.allOf(configFuture, rolesFuture, groupConfigsFuture)
+      .thenApply(ignored -> {
+          Map<String, ApiConfigList> groupConfigs =
+            new HashMap<String, ApiConfigList>();
+          int i = 0;
+          for (String groupName : groups.keySet()) {
+            groupConfigs.put(groupName, groupConfigsFuture.join().get(i++));
+          }
+          LOG.info("Read " + type + " service " + serviceName);
+          return new ServiceSnapshot(service, type, configFuture.join(),
+                                     rolesFuture.join(), groups, groupConfigs);
+        });
+  }
+
+  /**
+   * Remove the sections and parameters describing services, roles and host
+   * assignments, which the snapshot replaces.
+   *
+   * @param config Configuration to modify.
+   */
+  private void clearClusterSections(final Wini config) {
+    Set<String> sections = new TreeSet<String>();
+    for (String type : DeploymentSpec.getServiceTypes()) {
+      String[] serviceSections = DeploymentSpec.getServiceSections(type);
+      if (!serviceSections[1].equals(Constants.CLUSTER_CONFIG_SECTION)) {
+        sections.add(serviceSections[1]);
+      }
+      sections.add(serviceSections[3]);
+      for (String roleType : factory.getRoleTypes(type)) {
+        sections.add(SnapshotFormat.roleSection(type, roleType));
+      }
+    }
+    for (String section : config.keySet()) {
+      if (section.contains(HostClass.SECTION_SEPARATOR)) {
+        sections.add(section);
+      }
+    }
+    sections.add(Constants.HOST_CLASSES_CONFIG_SECTION);
+    sections.add(Constants.RACK_TOPOLOGY_CONFIG_SECTION);
+    sections.add(Constants.DISK_LAYOUT_CONFIG_SECTION);
+    sections.add(Constants.PLACEMENT_CONFIG_SECTION);
+    for (String section : sections) {
+      config.remove(section);
+    }
+
+    if (config.containsKey(Constants.CLUSTER_CONFIG_SECTION)) {
+      config.get(Constants.CLUSTER_CONFIG_SECTION)
+        .remove(Constants.ZOOKEEPER_NAME_PARAMETER);
+      config.get(Constants.CLUSTER_CONFIG_SECTION)
+        .remove(Constants.ZOOKEEPER_HOSTS_PARAMETER);
+    }
+  }
+
+  /**
+   * Write a service's name, service configuration, role hosts and base role
+   * config groups.
+   *
+   * @param config Configuration to modify.
+   * @param snapshot What was read for the service.
+   * @param hostNames Host names keyed on host ID.
+   * @param hostGroups Non-base role config groups of each host's roles are
+   * added here, keyed on host name.
+   */
+  private void writeService(final Wini config, final ServiceSnapshot snapshot,
+                            final Map<String, String> hostNames,
+                            final Map<String, Set<String>> hostGroups) {
+    String[] serviceSections = DeploymentSpec.getServiceSections(snapshot.type);
+    config.put(serviceSections[1], serviceSections[2],
+               snapshot.service.getName());
+    config.add(serviceSections[3]);
+    for (Map.Entry<String, String> value : values(snapshot.config).entrySet()) {
+      config.put(serviceSections[3], value.getKey(), value.getValue());
+    }
+
+    Map<String, List<String>> parameterHosts =
+      new LinkedHashMap<String, List<String>>();
+    for (ApiRole role : snapshot.roles) {
+      String parameter =
+        SnapshotFormat.getHostParameter(snapshot.type, role.getType());
+      if (parameter == null) {
+        LOG.warn("Leaving " + role.getType() + " role " + role.getName() +
+                 " out of the snapshot, it can't be deployed from a " +
+                 "configuration file");
+        continue;
+      }
+      String host = hostNames.get(role.getHostRef().getHostId());
+      parameterHosts.computeIfAbsent(parameter, k -> new ArrayList<String>())
+        .add(host);
+      String groupName = role.getRoleConfigGroupRef() == null ? null :
+        role.getRoleConfigGroupRef().getRoleConfigGroupName();
+      ApiRoleConfigGroup group =
+        groupName == null ? null : snapshot.groups.get(groupName);
+      if (group != null && !Boolean.TRUE.equals(group.isBase())) {
+        hostGroups.computeIfAbsent(host, k -> new TreeSet<String>())
+          .add(snapshot.service.getName() + "/" + groupName);
+      }
+    }
+    for (Map.Entry<String, List<String>> entry : parameterHosts.entrySet()) {
+      config.put(serviceSections[1], entry.getKey(),
+                 HostSet.toExpression(entry.getValue()));
+    }
+
+    for (ApiRoleConfigGroup group : snapshot.groups.values()) {
+      if (Boolean.TRUE.equals(group.isBase())) {
+        String section =
+          SnapshotFormat.roleSection(snapshot.type, group.getRoleType());
+        config.add(section);
+        for (Map.Entry<String, String> value :
+               values(snapshot.groupConfigs.get(group.getName())).entrySet()) {
+          config.put(section, value.getKey(), value.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Write a host class for each combination of non-base role config groups
+   * the roles on a host are in, with the values of each group that differ
+   * from its base group.
+   *
+   * @param config Configuration to modify.
+   * @param snapshots What was read for each service.
+   * @param hostGroups Non-base groups of each host's roles, keyed on host
+   * name.
+   */
+  private void writeHostClasses(final Wini config,
+                                final List<ServiceSnapshot> snapshots,
+                                final Map<String, Set<String>> hostGroups) {
+    Map<String, ServiceSnapshot> services = new HashMap<String, ServiceSnapshot>();
+    for (ServiceSnapshot snapshot : snapshots) {
+      services.put(snapshot.service.getName(), snapshot);
+    }
+    Map<Set<String>, List<String>> classHosts =
+      new LinkedHashMap<Set<String>, List<String>>();
+    for (Map.Entry<String, Set<String>> entry : hostGroups.entrySet()) {
+      classHosts.computeIfAbsent(entry.getValue(), k -> new ArrayList<String>())
+        .add(entry.getKey());
+    }
+
+    config.add(Constants.HOST_CLASSES_CONFIG_SECTION);
+    int classNumber = 0;
+    for (Map.Entry<Set<String>, List<String>> entry : classHosts.entrySet()) {
+      String className = CLASS_PREFIX + (++classNumber);
+      config.put(Constants.HOST_CLASSES_CONFIG_SECTION,
+                 className + Constants.HOST_CLASS_HOSTS_SUFFIX,
+                 HostSet.toExpression(entry.getValue()));
+      for (String serviceGroup : entry.getKey()) {
+        int separator = serviceGroup.indexOf('/');
+        ServiceSnapshot snapshot =
+          services.get(serviceGroup.substring(0, separator));
+        ApiRoleConfigGroup group =
+          snapshot.groups.get(serviceGroup.substring(separator + 1));
+        Map<String, String> baseValues = new HashMap<String, String>();
+        for (ApiRoleConfigGroup base : snapshot.groups.values()) {
+          if (Boolean.TRUE.equals(base.isBase()) &&
+              base.getRoleType().equals(group.getRoleType())) {
+            baseValues = values(snapshot.groupConfigs.get(base.getName()));
+          }
+        }
+        String section =
+          HostClass.sectionName(SnapshotFormat.roleSection(snapshot.type,
+                                                           group.getRoleType()),
+                                className);
+        config.add(section);
+        // The group is deployed with the base group's values and the
+        // class's on top, so a value the group leaves at its default is
+        // written as the default when the base group sets it:
+        for (ApiConfig apiConfig : snapshot.groupConfigs.get(group.getName())) {
+          String baseValue = baseValues.get(apiConfig.getName());
+          String value = apiConfig.getValue();
+          if (value == null && (includeDefaults || baseValue != null)) {
+            value = apiConfig.getDefaultValue();
+          }
+          if (value != null && !value.equals(baseValue)) {
+            config.put(section, apiConfig.getName(), value);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the values to write from a full view configuration.
+   *
+   * @param configs Configuration read with DataView.FULL.
+   *
+   * @return Values that are set, including those set to their default, and
+   * if defaults are included the defaults of those that aren't, keyed on
+   * name.
+   */
+  private Map<String, String> values(final Iterable<ApiConfig> configs) {
+    Map<String, String> values = new TreeMap<String, String>();
+    for (ApiConfig apiConfig : configs) {
+      String value = apiConfig.getValue();
+      if (value == null && includeDefaults) {
+        value = apiConfig.getDefaultValue();
+      }
+      if (value != null) {
+        values.put(apiConfig.getName(), value);
+      }
+    }
+    return values;
+  }
+}
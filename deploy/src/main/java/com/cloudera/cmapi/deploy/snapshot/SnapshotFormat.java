@@ -0,0 +1,134 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.snapshot;
+
+import com.cloudera.cmapi.deploy.Constants;
+
+import java.util.Map;
+
+/**
+ * How a cluster's services and roles map to the sections and parameters of
+ * a snapshot, shared by the {@link SnapshotExporter} writing snapshots and
+ * the {@link SnapshotDeployer} deploying them.
+ */
+final class SnapshotFormat {
+
+  /**
+   * Version of the snapshot format, recorded in the snapshot.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * Service types in the configuration, for the CM service types that
+   * differ from them.
+   */
+  private static final Map<String, String> SPEC_SERVICE_TYPES =
+    Map.of("SQOOP", "SQOOP2");
+
+  /**
+   * Host parameter for each role type: service type, role type, parameter.
+   */
+  static final String[][] ROLE_HOST_PARAMETERS = {
+    {"ZOOKEEPER", "SERVER", Constants.ZOOKEEPER_HOSTS_PARAMETER},
+    {"HDFS", "NAMENODE", Constants.HDFS_NAMENODE_HOST_PARAMETER},
+    {"HDFS", "SECONDARYNAMENODE", Constants.HDFS_SECONDARYNAMENODE_HOST_PARAMETER},
+    {"HDFS", "DATANODE", Constants.HDFS_DATANODE_HOSTS_PARAMETER},
+    {"HDFS", "GATEWAY", Constants.HDFS_GATEWAY_HOSTS_PARAMETER},
+    {"YARN", "RESOURCEMANAGER", Constants.YARN_RESOURCEMANAGER_HOST_PARAMETER},
+    {"YARN", "JOBHISTORY", Constants.YARN_JOBHISTORY_SERVER_HOST_PARAMETER},
+    {"YARN", "NODEMANAGER", Constants.YARN_NODEMANAGER_HOSTS_PARAMETER},
+    {"YARN", "GATEWAY", Constants.YARN_GATEWAY_HOSTS_PARAMETER},
+    {"HIVE", "HIVEMETASTORE", Constants.HIVE_METASTORE_HOST_PARAMETER},
+    {"HIVE", "HIVESERVER2", Constants.HIVE_HS2_HOSTS_PARAMETER},
+    {"HIVE", "GATEWAY", Constants.HIVE_GATEWAY_HOSTS_PARAMETER},
+    {"IMPALA", "STATESTORE", Constants.IMPALA_STATESTORE_HOST_PARAMETER},
+    {"IMPALA", "CATALOGSERVER", Constants.IMPALA_CATALOGSERVER_HOST_PARAMETER},
+    {"IMPALA", "IMPALAD", Constants.IMPALA_IMPALAD_HOSTS_PARAMETER},
+    {"OOZIE", "OOZIE_SERVER", Constants.OOZIE_SERVER_HOST_PARAMETER},
+    {"SPARK_ON_YARN", "SPARK_YARN_HISTORY_SERVER",
+     Constants.SPARK_HISTORYSERVER_HOST_PARAMETER},
+    {"SPARK_ON_YARN", "GATEWAY", Constants.SPARK_GATEWAY_HOSTS_PARAMETER},
+    {"KAFKA", "KAFKA_BROKER", Constants.KAFKA_BROKER_HOSTS_PARAMETER},
+    {"HUE", "HUE_SERVER", Constants.HUE_SERVER_HOST_PARAMETER},
+    {"SQOOP2", "SQOOP_SERVER", Constants.SQOOP2_SERVER_HOST_PARAMETER},
+    {"FLUME", "AGENT", Constants.FLUME_AGENT_HOSTS_PARAMETER}
+  };
+
+  /**
+   * Not instantiated.
+   */
+  private SnapshotFormat() {
+  }
+
+  /**
+   * Get the service type used in the configuration for a CM service type.
+   *
+   * @param cmType CM service type.
+   *
+   * @return Service type in the configuration.
+   */
+  static String getSpecType(final String cmType) {
+    return SPEC_SERVICE_TYPES.getOrDefault(cmType, cmType);
+  }
+
+  /**
+   * Get the CM service type for a service type used in the configuration.
+   *
+   * @param specType Service type in the configuration.
+   *
+   * @return CM service type.
+   */
+  static String getCmType(final String specType) {
+    for (Map.Entry<String, String> entry : SPEC_SERVICE_TYPES.entrySet()) {
+      if (entry.getValue().equals(specType)) {
+        return entry.getKey();
+      }
+    }
+    return specType;
+  }
+
+  /**
+   * Get the host parameter of a role type.
+   *
+   * @param type Service type in the configuration.
+   * @param roleType Role type.
+   *
+   * @return Parameter name, or null if roles of the type can't be deployed
+   * from a configuration file.
+   */
+  static String getHostParameter(final String type, final String roleType) {
+    for (String[] entry : ROLE_HOST_PARAMETERS) {
+      if (entry[0].equals(type) && entry[1].equals(roleType)) {
+        return entry[2];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the section holding a role type's settings. Several service types
+   * have gateway roles, so their sections are qualified by service type.
+   *
+   * @param type Service type in the configuration.
+   * @param roleType Role type.
+   *
+   * @return Section name.
+   */
+  static String roleSection(final String type, final String roleType) {
+    return roleType.equals("GATEWAY") ? type + "_GATEWAY" : roleType;
+  }
+}
@@ -0,0 +1,336 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.trace;
+
+import com.cloudera.cmapi.deploy.CMApiDeploy;
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Wini;
+
+/**
+ * HTTP proxy that forwards requests to Cloudera Manager and records every
+ * request and response, with its timing, to a trace file. The trace is
+ * written as gzipped JSON lines of {@link TraceRecord}s and can be served
+ * back by {@link ReplayServer}. Passwords in request bodies are redacted
+ * before they're written.
+ * <p>
+ * Recording is enabled for a deployment run by setting trace_record_file in
+ * the [TRACE] section; CMApiDeploy then starts the proxy on a local port and
+ * points its clients at it. To record traffic from other clients, such as
+ * the deploy server, run the proxy on its own with:
+ * java -Dcmapi.ini.file=cmdeploy.ini -cp target/cmapi-examples-deploy-1.0-SNAPSHOT-executable.jar com.cloudera.cmapi.deploy.trace.RecordingProxy
+ */
+public class RecordingProxy implements AutoCloseable {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(RecordingProxy.class);
+
+  /**
+   * Default CM port.
+   */
+  private static final int DEFAULT_CM_PORT = 7180;
+
+  /**
+   * Default port to listen on. Zero picks a free port.
+   */
+  private static final int DEFAULT_PROXY_PORT = 0;
+
+  /**
+   * Timeout in milliseconds for reads from CM.
+   */
+  private static final int READ_TIMEOUT = 300000;
+
+  /**
+   * Used to write trace records.
+   */
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /**
+   * Base URL requests are forwarded to.
+   */
+  private final String targetUrl;
+
+  /**
+   * Trace file writer.
+   */
+  private final Writer trace;
+
+  /**
+   * Embedded HTTP server.
+   */
+  private final HttpServer httpServer;
+
+  /**
+   * Executor handling proxied requests, one virtual thread per request so
+   * the concurrency of the recorded client is preserved.
+   */
+  private final ExecutorService executor =
+    Executors.newVirtualThreadPerTaskExecutor();
+
+  /**
+   * Time recording started, in milliseconds since the epoch.
+   */
+  private final long started = System.currentTimeMillis();
+
+  /**
+   * Number of requests recorded.
+   */
+  private int recorded;
+
+  /**
+   * Constructor. Opens the trace file and starts listening.
+   *
+   * @param targetHost CM host to forward requests to.
+   * @param targetPort CM port.
+   * @param port Local port to listen on, or zero to pick a free port.
+   * @param traceFile Trace file to write.
+   *
+   * @throws IOException if the trace file or HTTP server can't be created.
+   */
+  public RecordingProxy(final String targetHost, final int targetPort,
+                        final int port, final String traceFile)
+    throws IOException {
+    targetUrl = "http://" + targetHost + ":" + targetPort;
+    trace = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(traceFile)),
+                                                      StandardCharsets.UTF_8));
+    httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+    httpServer.createContext("/", this::forward);
+    httpServer.setExecutor(executor);
+    httpServer.start();
+    LOG.info("Recording CM API traffic to " + targetUrl + " in " + traceFile +
+             ", listening on port " + getPort());
+  }
+
+  /**
+   * Create a proxy for the CM instance in a deployment configuration, using
+   * the [TRACE] section for the trace file and port.
+   *
+   * @param config Deployment configuration.
+   *
+   * @return Recording proxy, or null if no trace file is configured.
+   *
+   * @throws IOException if the proxy can't be started.
+   */
+  public static RecordingProxy fromConfig(final Wini config)
+    throws IOException {
+    String traceFile = ConfigUtils.getString(config,
+                                             Constants.TRACE_CONFIG_SECTION,
+                                             Constants.TRACE_RECORD_FILE_PARAMETER,
+                                             "");
+    if (traceFile.isEmpty()) {
+      return null;
+    }
+    return new RecordingProxy(config.get("CM", Constants.CM_PUBLIC_HOSTNAME_PARAMETER),
+                              ConfigUtils.getInt(config, "CM",
+                                                 Constants.CM_PORT_PARAMETER,
+                                                 DEFAULT_CM_PORT),
+                              ConfigUtils.getInt(config,
+                                                 Constants.TRACE_CONFIG_SECTION,
+                                                 Constants.TRACE_PROXY_PORT_PARAMETER,
+                                                 DEFAULT_PROXY_PORT),
+                              traceFile);
+  }
+
+  /**
+   * Run the proxy until the process is stopped.
+   *
+   * @param args Command line arguments.
+   */
+  public static void main(final String[] args) {
+    String configFile = System.getProperty("cmapi.ini.file");
+    try {
+      final RecordingProxy proxy =
+        fromConfig(new CMApiDeploy().getConfig(configFile));
+      if (proxy == null) {
+        LOG.error("No " + Constants.TRACE_RECORD_FILE_PARAMETER +
+                  " set in [" + Constants.TRACE_CONFIG_SECTION + "] section of " +
+                  configFile);
+        System.exit(1);
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread(proxy::close));
+    } catch (IOException e) {
+      LOG.error("Caught exception starting recording proxy with configuration " +
+                configFile + ", exception was " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Point the [CM] connection parameters of a configuration at this proxy,
+   * so clients created from it are recorded.
+   *
+   * @param config Deployment configuration.
+   */
+  public final void redirect(final Wini config) {
+    config.put("CM", Constants.CM_PUBLIC_HOSTNAME_PARAMETER, "127.0.0.1");
+    config.put("CM", Constants.CM_PORT_PARAMETER, getPort());
+  }
+
+  /**
+   * Get the local port the proxy listens on.
+   *
+   * @return Port.
+   */
+  public final int getPort() {
+    return httpServer.getAddress().getPort();
+  }
+
+  /**
+   * Stop the proxy and close the trace file.
+   */
+  @Override
+  public final void close() {
+    httpServer.stop(0);
+    executor.shutdown();
+    synchronized (this) {
+      try {
+        trace.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close trace file: " + e.getMessage());
+      }
+      LOG.info("Recorded " + recorded + " CM API requests");
+    }
+  }
+
+  /**
+   * Forward a request to CM, relay the response and record both.
+   *
+   * @param exchange HTTP exchange.
+   *
+   * @throws IOException if error occurs relaying the request.
+   */
+  private void forward(final HttpExchange exchange) throws IOException {
+    boolean responded = false;
+    try {
+      TraceRecord record = new TraceRecord();
+      record.setMethod(exchange.getRequestMethod());
+      record.setPath(exchange.getRequestURI().toString());
+      byte[] requestBody = exchange.getRequestBody().readAllBytes();
+      if (requestBody.length > 0) {
+        // Passwords are redacted from the trace; CM still gets the request
+        // as it was sent:
+        record.setRequestBody(TraceRecord.redact(new String(requestBody,
+                                                            StandardCharsets.UTF_8)));
+      }
+
+      long start = System.currentTimeMillis();
+      record.setOffset(start - started);
+      HttpURLConnection connection =
+        (HttpURLConnection) new URL(targetUrl + record.getPath()).openConnection();
+      connection.setReadTimeout(READ_TIMEOUT);
+      connection.setRequestMethod(record.getMethod());
+      copyHeader(exchange, connection, "Authorization");
+      copyHeader(exchange, connection, "Accept");
+      copyHeader(exchange, connection, "Content-Type");
+      if (requestBody.length > 0) {
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+          out.write(requestBody);
+        }
+      }
+      int status = connection.getResponseCode();
+      byte[] responseBody;
+      try (InputStream in = status >= 400 ? connection.getErrorStream() :
+           connection.getInputStream()) {
+        responseBody = in == null ? new byte[0] : in.readAllBytes();
+      } finally {
+        connection.disconnect();
+      }
+      record.setLatency(System.currentTimeMillis() - start);
+      record.setStatus(status);
+      record.setContentType(connection.getContentType());
+      record.setResponseBody(new String(responseBody, StandardCharsets.UTF_8));
+      write(record);
+
+      if (record.getContentType() != null) {
+        exchange.getResponseHeaders().set("Content-Type",
+                                          record.getContentType());
+      }
+      exchange.sendResponseHeaders(status, responseBody.length == 0 ? -1 :
+                                   responseBody.length);
+      responded = true;
+      if (responseBody.length > 0) {
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(responseBody);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to proxy " + exchange.getRequestURI() + ": " +
+               e.getMessage());
+      if (!responded) {
+        exchange.sendResponseHeaders(502, -1);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Append a record to the trace file.
+   *
+   * @param record Record to write.
+   *
+   * @throws IOException if error occurs writing the record.
+   */
+  private synchronized void write(final TraceRecord record)
+    throws IOException {
+    trace.write(MAPPER.writeValueAsString(record));
+    trace.write('\n');
+    recorded++;
+  }
+
+  /**
+   * Copy a request header to the forwarded request.
+   *
+   * @param exchange Incoming exchange.
+   * @param connection Forwarded request.
+   * @param name Header name.
+   */
+  private static void copyHeader(final HttpExchange exchange,
+                                 final HttpURLConnection connection,
+                                 final String name) {
+    String value = exchange.getRequestHeaders().getFirst(name);
+    if (value != null) {
+      connection.setRequestProperty(name, value);
+    }
+  }
+}
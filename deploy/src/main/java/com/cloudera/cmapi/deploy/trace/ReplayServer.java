@@ -0,0 +1,282 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.trace;
+
+import com.cloudera.cmapi.deploy.CMApiDeploy;
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Wini;
+
+/**
+ * Serves a trace recorded by {@link RecordingProxy} in place of a live
+ * Cloudera Manager. Each request is matched on method, path and body to the
+ * recorded requests, and repeated requests -- such as polls of a running
+ * command -- get the recorded responses in the order they were recorded, so
+ * a replayed run sees the same sequence of states as the recorded one. Once
+ * the recorded responses for a request are used up the last one is
+ * repeated.
+ * <p>
+ * Responses are delayed by the recorded latency multiplied by
+ * replay_latency_scale: 1 replays at recorded speed, 0.1 ten times faster,
+ * and 0 without delay. Point cm_public_hostname and cm_port at the replay
+ * server to run a deployment against it.
+ * <p>
+ * Start the server with:
+ * java -Dcmapi.ini.file=cmdeploy.ini -cp target/cmapi-examples-deploy-1.0-SNAPSHOT-executable.jar com.cloudera.cmapi.deploy.trace.ReplayServer
+ */
+public class ReplayServer {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(ReplayServer.class);
+
+  /**
+   * Default port to listen on.
+   */
+  private static final int DEFAULT_PORT = 7181;
+
+  /**
+   * Default latency multiplier.
+   */
+  private static final double DEFAULT_LATENCY_SCALE = 1.0;
+
+  /**
+   * Used to read trace records.
+   */
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /**
+   * Recorded responses for each request key, in recorded order.
+   */
+  private final Map<String, List<TraceRecord>> responses =
+    new HashMap<>();
+
+  /**
+   * Index of the next response to serve for each request key.
+   */
+  private final Map<String, Integer> positions = new HashMap<>();
+
+  /**
+   * Multiplier applied to recorded latencies.
+   */
+  private final double latencyScale;
+
+  /**
+   * Embedded HTTP server.
+   */
+  private final HttpServer httpServer;
+
+  /**
+   * Executor handling requests.
+   */
+  private final ExecutorService executor =
+    Executors.newVirtualThreadPerTaskExecutor();
+
+  /**
+   * Constructor. Loads the trace and creates the HTTP server.
+   *
+   * @param traceFile Trace file to serve.
+   * @param port Port to listen on.
+   * @param latencyScale Multiplier applied to recorded latencies.
+   *
+   * @throws IOException if the trace can't be read or the HTTP server can't
+   * be created.
+   */
+  public ReplayServer(final String traceFile, final int port,
+                      final double latencyScale) throws IOException {
+    this.latencyScale = latencyScale;
+    int count = 0;
+    try (BufferedReader in =
+         new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(traceFile)),
+                                                  StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (!line.isEmpty()) {
+          TraceRecord record = MAPPER.readValue(line, TraceRecord.class);
+          responses.computeIfAbsent(record.requestKey(),
+                                    k -> new ArrayList<>()).add(record);
+          count++;
+        }
+      }
+    }
+    LOG.info("Loaded " + count + " recorded requests (" + responses.size() +
+             " distinct) from " + traceFile);
+
+    httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+    httpServer.createContext("/", this::replay);
+    httpServer.setExecutor(executor);
+  }
+
+  /**
+   * Create a replay server from the [TRACE] section of a deployment
+   * configuration.
+   *
+   * @param config Deployment configuration.
+   *
+   * @return Replay server.
+   *
+   * @throws IOException if the trace can't be read or the HTTP server can't
+   * be created.
+   */
+  public static ReplayServer fromConfig(final Wini config) throws IOException {
+    return new ReplayServer(config.get(Constants.TRACE_CONFIG_SECTION,
+                                       Constants.TRACE_REPLAY_FILE_PARAMETER),
+                            ConfigUtils.getInt(config,
+                                               Constants.TRACE_CONFIG_SECTION,
+                                               Constants.TRACE_REPLAY_PORT_PARAMETER,
+                                               DEFAULT_PORT),
+                            ConfigUtils.getDouble(config,
+                                                  Constants.TRACE_CONFIG_SECTION,
+                                                  Constants.TRACE_REPLAY_LATENCY_SCALE_PARAMETER,
+                                                  DEFAULT_LATENCY_SCALE));
+  }
+
+  /**
+   * Load configuration and start the server.
+   *
+   * @param args Command line arguments.
+   */
+  public static void main(final String[] args) {
+    String configFile = System.getProperty("cmapi.ini.file");
+    try {
+      final ReplayServer server =
+        fromConfig(new CMApiDeploy().getConfig(configFile));
+      Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+      server.start();
+    } catch (IOException e) {
+      LOG.error("Caught exception starting replay server with configuration " +
+                configFile + ", exception was " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Start accepting requests.
+   */
+  public final void start() {
+    httpServer.start();
+    LOG.info("Replay server listening on " + httpServer.getAddress() +
+             ", latency scale " + latencyScale);
+  }
+
+  /**
+   * Stop accepting requests, and interrupt requests waiting out their
+   * recorded latency.
+   */
+  public final void stop() {
+    httpServer.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * Find the next recorded response for a request.
+   *
+   * @param key Request key.
+   *
+   * @return Recorded response, or null if the request wasn't recorded.
+   */
+  private synchronized TraceRecord next(final String key) {
+    List<TraceRecord> recorded = responses.get(key);
+    if (recorded == null) {
+      return null;
+    }
+    int position = positions.getOrDefault(key, 0);
+    positions.put(key, Math.min(position + 1, recorded.size() - 1));
+    return recorded.get(position);
+  }
+
+  /**
+   * Serve the recorded response to a request.
+   *
+   * @param exchange HTTP exchange.
+   *
+   * @throws IOException if error occurs writing the response.
+   */
+  private void replay(final HttpExchange exchange) throws IOException {
+    try {
+      byte[] requestBody = exchange.getRequestBody().readAllBytes();
+      String key =
+        TraceRecord.requestKey(exchange.getRequestMethod(),
+                               exchange.getRequestURI().toString(),
+                               new String(requestBody, StandardCharsets.UTF_8));
+      TraceRecord record = next(key);
+      if (record == null) {
+        LOG.warn("No recorded response for " + key);
+        byte[] error = "{\"message\":\"No recorded response\"}"
+          .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(404, error.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(error);
+        }
+        return;
+      }
+
+      long delay = (long) (record.getLatency() * latencyScale);
+      if (delay > 0) {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          // The server is stopping, so don't answer:
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted replaying " + key);
+        }
+      }
+
+      byte[] body = record.getResponseBody() == null ? new byte[0] :
+        record.getResponseBody().getBytes(StandardCharsets.UTF_8);
+      if (record.getContentType() != null) {
+        exchange.getResponseHeaders().set("Content-Type",
+                                          record.getContentType());
+      }
+      exchange.sendResponseHeaders(record.getStatus(),
+                                   body.length == 0 ? -1 : body.length);
+      if (body.length > 0) {
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+}
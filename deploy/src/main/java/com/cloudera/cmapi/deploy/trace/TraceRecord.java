@@ -0,0 +1,332 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.trace;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * One recorded CM API request and its response. Traces are stored as gzipped
+ * JSON lines, one record per line, in the order requests completed. Request
+ * bodies are recorded with passwords redacted, see {@link #redact(String)}.
+ */
+public class TraceRecord {
+
+  /**
+   * Value recorded in place of a password.
+   */
+  public static final String REDACTED = "*****";
+
+  /**
+   * Used to parse and write request bodies when redacting them.
+   */
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /**
+   * HTTP method.
+   */
+  private String method;
+
+  /**
+   * Request path including the query string.
+   */
+  private String path;
+
+  /**
+   * Request body, or null if the request had none.
+   */
+  private String requestBody;
+
+  /**
+   * HTTP status of the response.
+   */
+  private int status;
+
+  /**
+   * Content type of the response.
+   */
+  private String contentType;
+
+  /**
+   * Response body.
+   */
+  private String responseBody;
+
+  /**
+   * Time the request started, in milliseconds since recording started.
+   */
+  private long offset;
+
+  /**
+   * Time taken by CM to respond, in milliseconds.
+   */
+  private long latency;
+
+  /**
+   * Get the HTTP method.
+   *
+   * @return HTTP method.
+   */
+  public final String getMethod() {
+    return method;
+  }
+
+  /**
+   * Set the HTTP method.
+   *
+   * @param method HTTP method.
+   */
+  public final void setMethod(final String method) {
+    this.method = method;
+  }
+
+  /**
+   * Get the request path.
+   *
+   * @return Request path including the query string.
+   */
+  public final String getPath() {
+    return path;
+  }
+
+  /**
+   * Set the request path.
+   *
+   * @param path Request path including the query string.
+   */
+  public final void setPath(final String path) {
+    this.path = path;
+  }
+
+  /**
+   * Get the request body.
+   *
+   * @return Request body, or null if the request had none.
+   */
+  public final String getRequestBody() {
+    return requestBody;
+  }
+
+  /**
+   * Set the request body.
+   *
+   * @param requestBody Request body, or null if the request had none.
+   */
+  public final void setRequestBody(final String requestBody) {
+    this.requestBody = requestBody;
+  }
+
+  /**
+   * Get the HTTP status of the response.
+   *
+   * @return HTTP status.
+   */
+  public final int getStatus() {
+    return status;
+  }
+
+  /**
+   * Set the HTTP status of the response.
+   *
+   * @param status HTTP status.
+   */
+  public final void setStatus(final int status) {
+    this.status = status;
+  }
+
+  /**
+   * Get the content type of the response.
+   *
+   * @return Content type.
+   */
+  public final String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * Set the content type of the response.
+   *
+   * @param contentType Content type.
+   */
+  public final void setContentType(final String contentType) {
+    this.contentType = contentType;
+  }
+
+  /**
+   * Get the response body.
+   *
+   * @return Response body.
+   */
+  public final String getResponseBody() {
+    return responseBody;
+  }
+
+  /**
+   * Set the response body.
+   *
+   * @param responseBody Response body.
+   */
+  public final void setResponseBody(final String responseBody) {
+    this.responseBody = responseBody;
+  }
+
+  /**
+   * Get the time the request started.
+   *
+   * @return Milliseconds since recording started.
+   */
+  public final long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Set the time the request started.
+   *
+   * @param offset Milliseconds since recording started.
+   */
+  public final void setOffset(final long offset) {
+    this.offset = offset;
+  }
+
+  /**
+   * Get the time taken by CM to respond.
+   *
+   * @return Latency in milliseconds.
+   */
+  public final long getLatency() {
+    return latency;
+  }
+
+  /**
+   * Set the time taken by CM to respond.
+   *
+   * @param latency Latency in milliseconds.
+   */
+  public final void setLatency(final long latency) {
+    this.latency = latency;
+  }
+
+  /**
+   * Key used to match a replayed request to recorded ones: the method, path
+   * and redacted request body.
+   *
+   * @return Request key.
+   */
+  public final String requestKey() {
+    return requestKey(method, path, requestBody);
+  }
+
+  /**
+   * Build the key used to match requests. The body is redacted, so a
+   * request made during replay matches the recorded one it repeats.
+   *
+   * @param method HTTP method.
+   * @param path Request path including the query string.
+   * @param body Request body, or null.
+   *
+   * @return Request key.
+   */
+  public static String requestKey(final String method, final String path,
+                                  final String body) {
+    return method + " " + path + (body == null || body.isEmpty() ? "" :
+                                  " " + redact(body));
+  }
+
+  /**
+   * Redact the passwords in a JSON request body: fields named password or
+   * ending in _password or Password, and the value of configs that are
+   * marked sensitive or whose name ends in _password. Bodies that aren't
+   * JSON, or have nothing to redact, are returned unchanged.
+   *
+   * @param body Request body.
+   *
+   * @return Body with passwords replaced by {@link #REDACTED}.
+   */
+  public static String redact(final String body) {
+    JsonNode tree;
+    try {
+      tree = MAPPER.readTree(body);
+    } catch (IOException e) {
+      return body;
+    }
+    if (tree == null || !redact(tree)) {
+      return body;
+    }
+    try {
+      return MAPPER.writeValueAsString(tree);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to write redacted request body",
+                                      e);
+    }
+  }
+
+  /**
+   * Redact the passwords in a JSON tree in place.
+   *
+   * @param node Node to redact.
+   *
+   * @return true if anything was redacted.
+   */
+  private static boolean redact(final JsonNode node) {
+    boolean redacted = false;
+    if (node instanceof ObjectNode) {
+      ObjectNode object = (ObjectNode) node;
+      List<String> names = new ArrayList<String>();
+      for (Iterator<String> i = object.fieldNames(); i.hasNext();) {
+        names.add(i.next());
+      }
+      JsonNode configName = object.get("name");
+      boolean sensitiveConfig = object.has("value") &&
+        (object.path("sensitive").asBoolean() ||
+         (configName != null && isPasswordName(configName.asText())));
+      for (String name : names) {
+        JsonNode value = object.get(name);
+        if (value.isValueNode() && !value.isNull() &&
+            (isPasswordName(name) ||
+             (sensitiveConfig && name.equals("value")))) {
+          object.put(name, REDACTED);
+          redacted = true;
+        } else if (redact(value)) {
+          redacted = true;
+        }
+      }
+    } else {
+      for (JsonNode element : node) {
+        redacted |= redact(element);
+      }
+    }
+    return redacted;
+  }
+
+  /**
+   * Whether a field or config name holds a password.
+   *
+   * @param name Field or config name.
+   *
+   * @return true if the name is password or ends in _password or Password.
+   */
+  private static boolean isPasswordName(final String name) {
+    return name.equals("password") || name.endsWith("_password") ||
+      name.endsWith("Password");
+  }
+}
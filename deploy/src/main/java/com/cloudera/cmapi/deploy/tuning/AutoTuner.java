@@ -0,0 +1,176 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.tuning;
+
+import com.cloudera.api.model.ApiConfig;
+import com.cloudera.api.model.ApiConfigList;
+
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Wini;
+
+/**
+ * Computes role memory and thread settings from the hardware of the hosts
+ * the roles run on. Enabled with auto_tune in the [TUNING] section. Values
+ * set explicitly in a role's config section always win over tuned values.
+ */
+public class AutoTuner {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(AutoTuner.class);
+
+  /**
+   * Rules used when tuning_rules isn't set.
+   */
+  private static final List<Class<? extends TuningRule>> DEFAULT_RULES =
+    List.of(NodeManagerTuningRule.class, ImpaladTuningRule.class,
+            DataNodeTuningRule.class, NameNodeTuningRule.class,
+            KafkaBrokerTuningRule.class);
+
+  /**
+   * Rules by the role type they tune.
+   */
+  private final Map<String, List<TuningRule>> rules =
+    new LinkedHashMap<String, List<TuningRule>>();
+
+  /**
+   * Constructor.
+   *
+   * @param rules Configured tuning rules.
+   */
+  public AutoTuner(final Collection<TuningRule> rules) {
+    for (TuningRule rule : rules) {
+      this.rules.computeIfAbsent(rule.getRoleType(), k -> new ArrayList<TuningRule>())
+        .add(rule);
+    }
+  }
+
+  /**
+   * Create a tuner from the [TUNING] section of the configuration.
+   *
+   * @param config Configuration parameters.
+   *
+   * @return Tuner, or null if auto tuning isn't enabled.
+   *
+   * @throws IllegalArgumentException if a configured rule can't be loaded.
+   */
+  public static AutoTuner fromConfig(final Wini config) {
+    if (!ConfigUtils.getBoolean(config, Constants.TUNING_CONFIG_SECTION,
+                                Constants.TUNING_AUTO_TUNE_PARAMETER, false)) {
+      return null;
+    }
+    List<TuningRule> rules = new ArrayList<TuningRule>();
+    String ruleNames =
+      ConfigUtils.getString(config, Constants.TUNING_CONFIG_SECTION,
+                            Constants.TUNING_RULES_PARAMETER, null);
+    if (ruleNames == null) {
+      for (Class<? extends TuningRule> ruleClass : DEFAULT_RULES) {
+        rules.add(newRule(ruleClass.getName()));
+      }
+    } else {
+      for (String ruleName : ruleNames.split(",")) {
+        if (!ruleName.trim().isEmpty()) {
+          rules.add(newRule(ruleName.trim()));
+        }
+      }
+    }
+    for (TuningRule rule : rules) {
+      rule.configure(config);
+    }
+    return new AutoTuner(rules);
+  }
+
+  /**
+   * Instantiate a tuning rule by class name.
+   *
+   * @param className Fully qualified class name.
+   *
+   * @return New rule.
+   *
+   * @throws IllegalArgumentException if the class can't be loaded or isn't a
+   * tuning rule.
+   */
+  private static TuningRule newRule(final String className) {
+    try {
+      return Class.forName(className).asSubclass(TuningRule.class)
+        .getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new IllegalArgumentException("Invalid tuning rule " + className +
+                                         ": " + e, e);
+    }
+  }
+
+  /**
+   * Add tuned values for a role type to its explicitly configured values.
+   * A role config group applies to all of the role's hosts, so values are
+   * tuned for the smallest of them.
+   *
+   * @param roleType Role type.
+   * @param hosts Facts for the hosts running the role.
+   * @param clusterSize Number of hosts in the cluster.
+   * @param explicit Values from the role's config section.
+   *
+   * @return The explicit values plus any tuned values for parameters not set
+   * explicitly, or the explicit values unchanged if nothing was tuned.
+   */
+  public final ApiConfigList merge(final String roleType,
+                                   final Collection<HostFacts> hosts,
+                                   final int clusterSize,
+                                   final ApiConfigList explicit) {
+    List<TuningRule> roleRules = rules.get(roleType);
+    if (roleRules == null || hosts.isEmpty()) {
+      return explicit;
+    }
+    Set<String> explicitNames = new HashSet<String>();
+    for (ApiConfig apiConfig : explicit) {
+      explicitNames.add(apiConfig.getName());
+    }
+
+    HostFacts smallest = HostFacts.smallest(hosts);
+    List<ApiConfig> merged = new ArrayList<ApiConfig>();
+    for (ApiConfig apiConfig : explicit) {
+      merged.add(apiConfig);
+    }
+    for (TuningRule rule : roleRules) {
+      for (Map.Entry<String, String> entry :
+             rule.tune(smallest, clusterSize).entrySet()) {
+        if (explicitNames.contains(entry.getKey())) {
+          LOG.info("Not tuning " + roleType + " " + entry.getKey() +
+                   ", set explicitly");
+          continue;
+        }
+        LOG.info("Tuned " + roleType + " " + entry.getKey() + "=" +
+                 entry.getValue() + " for " + smallest);
+        merged.add(new ApiConfig(entry.getKey(), entry.getValue()));
+      }
+    }
+    return merged.size() == explicit.size() ? explicit : new ApiConfigList(merged);
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.tuning;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Scale the DataNode handler count with the host's cores: one handler per
+ * two cores, between the CM default of 3 and 32.
+ */
+public class DataNodeTuningRule implements TuningRule {
+
+  /**
+   * Fewest handlers, the CM default.
+   */
+  private static final int MIN_HANDLERS = 3;
+
+  /**
+   * Most handlers.
+   */
+  private static final int MAX_HANDLERS = 32;
+
+  /**
+   * Get the role type this rule tunes.
+   *
+   * @return DATANODE.
+   */
+  public final String getRoleType() {
+    return "DATANODE";
+  }
+
+  /**
+   * Compute the handler count.
+   *
+   * @param host Host facts.
+   * @param clusterSize Number of hosts in the cluster.
+   *
+   * @return Handler count.
+   */
+  public final Map<String, String> tune(final HostFacts host,
+                                        final int clusterSize) {
+    int handlers = Math.max(MIN_HANDLERS,
+                            Math.min(MAX_HANDLERS, host.getCores() / 2));
+    Map<String, String> configs = new LinkedHashMap<String, String>();
+    configs.put("dfs_datanode_handler_count", Integer.toString(handlers));
+    return configs;
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.tuning;
+
+import com.cloudera.api.model.ApiHost;
+
+import java.util.Collection;
+
+/**
+ * Hardware facts for a host, as reported by the CM agent.
+ */
+public final class HostFacts {
+
+  /**
+   * Host name.
+   */
+  private final String hostname;
+
+  /**
+   * Number of logical cores.
+   */
+  private final int cores;
+
+  /**
+   * Physical memory in bytes.
+   */
+  private final long memoryBytes;
+
+  /**
+   * Constructor.
+   *
+   * @param hostname Host name.
+   * @param cores Number of logical cores.
+   * @param memoryBytes Physical memory in bytes.
+   */
+  public HostFacts(final String hostname, final int cores,
+                   final long memoryBytes) {
+    this.hostname = hostname;
+    this.cores = cores;
+    this.memoryBytes = memoryBytes;
+  }
+
+  /**
+   * Get the facts for a host from CM.
+   *
+   * @param host Host as read from the CM hosts API.
+   *
+   * @return Host facts, or null if CM hasn't reported the host's cores or
+   * memory yet.
+   */
+  public static HostFacts of(final ApiHost host) {
+    if (host.getNumCores() == null || host.getTotalPhysMemBytes() == null) {
+      return null;
+    }
+    return new HostFacts(host.getHostname(), host.getNumCores().intValue(),
+                         host.getTotalPhysMemBytes());
+  }
+
+  /**
+   * Combine the facts of several hosts into those of the smallest host:
+   * the fewest cores and the least memory of any of them. Settings tuned
+   * for the result fit every host.
+   *
+   * @param hosts Host facts. Must not be empty.
+   *
+   * @return Smallest host facts.
+   */
+  public static HostFacts smallest(final Collection<HostFacts> hosts) {
+    int cores = Integer.MAX_VALUE;
+    long memoryBytes = Long.MAX_VALUE;
+    for (HostFacts host : hosts) {
+      cores = Math.min(cores, host.cores);
+      memoryBytes = Math.min(memoryBytes, host.memoryBytes);
+    }
+    return new HostFacts(hosts.size() == 1 ? hosts.iterator().next().hostname :
+                         hosts.size() + " hosts", cores, memoryBytes);
+  }
+
+  /**
+   * Get the host name.
+   *
+   * @return Host name, or a description of the hosts for combined facts.
+   */
+  public String getHostname() {
+    return hostname;
+  }
+
+  /**
+   * Get the number of logical cores.
+   *
+   * @return Number of cores.
+   */
+  public int getCores() {
+    return cores;
+  }
+
+  /**
+   * Get the physical memory.
+   *
+   * @return Memory in bytes.
+   */
+  public long getMemoryBytes() {
+    return memoryBytes;
+  }
+
+  /**
+   * Get the physical memory in megabytes.
+   *
+   * @return Memory in MB.
+   */
+  public long getMemoryMb() {
+    return memoryBytes / (1024 * 1024);
+  }
+
+  /**
+   * Describe the host.
+   *
+   * @return Host name, cores and memory.
+   */
+  @Override
+  public String toString() {
+    return hostname + " (" + cores + " cores, " + getMemoryMb() + " MB)";
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.tuning;
+
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.ini4j.Wini;
+
+/**
+ * Set the Impala daemon memory limit to a fraction of physical memory.
+ */
+public class ImpaladTuningRule implements TuningRule {
+
+  /**
+   * Default fraction of physical memory given to the Impala daemon.
+   */
+  private static final double DEFAULT_MEMORY_FRACTION = 0.25;
+
+  /**
+   * Fraction of physical memory given to the Impala daemon.
+   */
+  private double memoryFraction = DEFAULT_MEMORY_FRACTION;
+
+  /**
+   * Get the role type this rule tunes.
+   *
+   * @return IMPALAD.
+   */
+  public final String getRoleType() {
+    return "IMPALAD";
+  }
+
+  /**
+   * Read the memory fraction from the [TUNING] section.
+   *
+   * @param config Configuration parameters.
+   */
+  public final void configure(final Wini config) {
+    memoryFraction =
+      ConfigUtils.getDouble(config, Constants.TUNING_CONFIG_SECTION,
+                            Constants.TUNING_IMPALAD_MEMORY_FRACTION_PARAMETER,
+                            DEFAULT_MEMORY_FRACTION);
+  }
+
+  /**
+   * Compute the memory limit.
+   *
+   * @param host Host facts.
+   * @param clusterSize Number of hosts in the cluster.
+   *
+   * @return Memory limit in bytes.
+   */
+  public final Map<String, String> tune(final HostFacts host,
+                                        final int clusterSize) {
+    Map<String, String> configs = new LinkedHashMap<String, String>();
+    configs.put("impalad_memory_limit",
+                Long.toString((long) (host.getMemoryBytes() * memoryFraction)));
+    return configs;
+  }
+}
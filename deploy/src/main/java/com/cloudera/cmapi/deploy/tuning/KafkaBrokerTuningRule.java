@@ -0,0 +1,92 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.tuning;
+
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.ini4j.Wini;
+
+/**
+ * Size the Kafka broker heap as a fraction of physical memory, between
+ * 1 GB and 6 GB. Brokers rely on the page cache rather than the heap, so
+ * the rest of memory is left free for it.
+ */
+public class KafkaBrokerTuningRule implements TuningRule {
+
+  /**
+   * Default fraction of physical memory given to the broker heap.
+   */
+  private static final double DEFAULT_HEAP_FRACTION = 0.1;
+
+  /**
+   * Smallest heap, in MB.
+   */
+  private static final long MIN_HEAP_MB = 1024;
+
+  /**
+   * Largest heap, in MB.
+   */
+  private static final long MAX_HEAP_MB = 6144;
+
+  /**
+   * Fraction of physical memory given to the broker heap.
+   */
+  private double heapFraction = DEFAULT_HEAP_FRACTION;
+
+  /**
+   * Get the role type this rule tunes.
+   *
+   * @return KAFKA_BROKER.
+   */
+  public final String getRoleType() {
+    return "KAFKA_BROKER";
+  }
+
+  /**
+   * Read the heap fraction from the [TUNING] section.
+   *
+   * @param config Configuration parameters.
+   */
+  public final void configure(final Wini config) {
+    heapFraction =
+      ConfigUtils.getDouble(config, Constants.TUNING_CONFIG_SECTION,
+                            Constants.TUNING_KAFKA_BROKER_HEAP_FRACTION_PARAMETER,
+                            DEFAULT_HEAP_FRACTION);
+  }
+
+  /**
+   * Compute the heap size.
+   *
+   * @param host Host facts.
+   * @param clusterSize Number of hosts in the cluster.
+   *
+   * @return Heap size in MB.
+   */
+  public final Map<String, String> tune(final HostFacts host,
+                                        final int clusterSize) {
+    long heapMb = Math.max(MIN_HEAP_MB,
+                           Math.min(MAX_HEAP_MB,
+                                    (long) (host.getMemoryMb() * heapFraction)));
+    Map<String, String> configs = new LinkedHashMap<String, String>();
+    configs.put("broker_max_heap_size", Long.toString(heapMb));
+    return configs;
+  }
+}
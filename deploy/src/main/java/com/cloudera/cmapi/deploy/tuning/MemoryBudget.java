@@ -0,0 +1,612 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.tuning;
+
+import com.cloudera.api.model.ApiConfig;
+import com.cloudera.api.model.ApiConfigList;
+
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+import com.cloudera.cmapi.deploy.DeploymentSpec;
+import com.cloudera.cmapi.deploy.DiskLayout;
+import com.cloudera.cmapi.deploy.HostClass;
+import com.cloudera.cmapi.deploy.services.ClusterService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+
+import org.ini4j.Wini;
+
+/**
+ * Splits the memory of each host between the roles co-located on it, so
+ * heaps and container memory together stay under the host's physical
+ * memory less a reserve for the OS and page cache. Enabled with
+ * memory_budget in the [TUNING] section.
+ * <p>
+ * Hosts in the same configured host class running the same roles with the
+ * same memory and data mounts are sized together, and each such class gets
+ * its own role config groups holding its allocation and, if a
+ * {@link DiskLayout} is configured, its data directories. Values set explicitly in a role's
+ * config section, or in a host class's section for the role, are kept and
+ * count against the budget as is.
+ */
+public class MemoryBudget {
+
+  /**
+   * Log4j logger.
+   */
+  private static final Logger LOG = Logger.getLogger(MemoryBudget.class);
+
+  /**
+   * Bytes per megabyte.
+   */
+  private static final long MB = 1024 * 1024;
+
+  /**
+   * Default memory kept free on each host, in MB.
+   */
+  private static final long DEFAULT_RESERVE_MB = 4096;
+
+  /**
+   * Default fraction of memory kept free on each host. The larger of this
+   * and the fixed reserve is used.
+   */
+  private static final double DEFAULT_RESERVE_FRACTION = 0.1;
+
+  /**
+   * Default memory charged for each gateway role, in MB.
+   */
+  private static final long DEFAULT_GATEWAY_MB = 512;
+
+  /**
+   * Default memory charged for each role without a sized setting, in MB.
+   */
+  private static final long DEFAULT_OTHER_ROLE_MB = 1024;
+
+  /**
+   * Memory setting for a role type the budget sizes.
+   */
+  private static final class RoleMemory {
+
+    /**
+     * Role type.
+     */
+    private final String roleType;
+
+    /**
+     * CM parameter holding the role's memory.
+     */
+    private final String parameter;
+
+    /**
+     * Flag indicating the parameter is in bytes rather than MB.
+     */
+    private final boolean bytes;
+
+    /**
+     * Smallest allocation, in MB.
+     */
+    private final long minMb;
+
+    /**
+     * Largest allocation in MB, or 0 for no limit.
+     */
+    private final long maxMb;
+
+    /**
+     * Share of free memory relative to other roles on the host.
+     */
+    private final int weight;
+
+    /**
+     * Constructor.
+     *
+     * @param roleType Role type.
+     * @param parameter CM parameter holding the role's memory.
+     * @param bytes true if the parameter is in bytes rather than MB.
+     * @param minMb Smallest allocation, in MB.
+     * @param maxMb Largest allocation in MB, or 0 for no limit.
+     * @param weight Share of free memory relative to other roles.
+     */
+    RoleMemory(final String roleType, final String parameter,
+               final boolean bytes, final long minMb, final long maxMb,
+               final int weight) {
+      this.roleType = roleType;
+      this.parameter = parameter;
+      this.bytes = bytes;
+      this.minMb = minMb;
+      this.maxMb = maxMb;
+      this.weight = weight;
+    }
+
+    /**
+     * Convert an allocation to a parameter value.
+     *
+     * @param mb Allocation in MB.
+     *
+     * @return Parameter value.
+     */
+    String toValue(final long mb) {
+      return Long.toString(bytes ? mb * MB : mb);
+    }
+
+    /**
+     * Convert a parameter value to MB.
+     *
+     * @param value Parameter value.
+     *
+     * @return Value in MB.
+     */
+    long toMb(final String value) {
+      long parsed = Long.parseLong(value.trim());
+      return bytes ? parsed / MB : parsed;
+    }
+  }
+
+  /**
+   * Role types the budget sizes. Worker roles that use memory for data
+   * (containers, the Impala daemon) get most of what's free; daemons with
+   * modest needs are capped.
+   */
+  private static final List<RoleMemory> ROLE_MEMORY = List.of(
+    new RoleMemory("NODEMANAGER", "yarn_nodemanager_resource_memory_mb", false, 1024, 0, 8),
+    new RoleMemory("IMPALAD", "impalad_memory_limit", true, 4096, 0, 8),
+    new RoleMemory("DATANODE", "datanode_java_heapsize", true, 1024, 4096, 1),
+    new RoleMemory("KAFKA_BROKER", "broker_max_heap_size", false, 1024, 6144, 1),
+    new RoleMemory("NAMENODE", "namenode_java_heapsize", true, 4096, 0, 4),
+    new RoleMemory("SECONDARYNAMENODE", "secondary_namenode_java_heapsize", true, 4096, 0, 4),
+    new RoleMemory("RESOURCEMANAGER", "resource_manager_java_heapsize", true, 1024, 8192, 1),
+    new RoleMemory("JOBHISTORY", "mr2_jobhistory_java_heapsize", true, 1024, 4096, 1),
+    new RoleMemory("SERVER", "zookeeper_server_java_heapsize", true, 1024, 4096, 1),
+    new RoleMemory("HIVESERVER2", "hiveserver2_java_heapsize", true, 2048, 16384, 2),
+    new RoleMemory("HIVEMETASTORE", "hive_metastore_java_heapsize", true, 2048, 8192, 1),
+    new RoleMemory("OOZIE_SERVER", "oozie_java_heapsize", true, 1024, 4096, 1));
+
+  /**
+   * Allocation of a host's memory to its roles.
+   */
+  public static final class Allocation {
+
+    /**
+     * Physical memory, in MB.
+     */
+    private final long memoryMb;
+
+    /**
+     * Memory kept free, in MB.
+     */
+    private final long reserveMb;
+
+    /**
+     * Memory per role type, in MB, in the order roles were sized.
+     */
+    private final Map<String, Long> roleMb = new LinkedHashMap<String, Long>();
+
+    /**
+     * Role types whose memory was set explicitly or isn't sized.
+     */
+    private final Set<String> fixed = new TreeSet<String>();
+
+    /**
+     * Constructor.
+     *
+     * @param memoryMb Physical memory, in MB.
+     * @param reserveMb Memory kept free, in MB.
+     */
+    Allocation(final long memoryMb, final long reserveMb) {
+      this.memoryMb = memoryMb;
+      this.reserveMb = reserveMb;
+    }
+
+    /**
+     * Get the memory allocated to each role type.
+     *
+     * @return Memory in MB keyed on role type.
+     */
+    public Map<String, Long> getRoleMb() {
+      return roleMb;
+    }
+
+    /**
+     * Check whether a role type's memory was set by the budget.
+     *
+     * @param roleType Role type.
+     *
+     * @return true if the budget sized the role.
+     */
+    public boolean isSized(final String roleType) {
+      return roleMb.containsKey(roleType) && !fixed.contains(roleType);
+    }
+
+    /**
+     * Get the total memory allocated to roles.
+     *
+     * @return Memory in MB.
+     */
+    public long getTotalMb() {
+      long total = 0;
+      for (long mb : roleMb.values()) {
+        total += mb;
+      }
+      return total;
+    }
+
+    /**
+     * Check whether the roles need more memory than the budget allows,
+     * because explicit values or minimum sizes don't fit.
+     *
+     * @return true if the host is overcommitted.
+     */
+    public boolean isOvercommitted() {
+      return getTotalMb() > memoryMb - reserveMb;
+    }
+
+    /**
+     * Describe the allocation.
+     *
+     * @return Memory, reserve and per-role memory.
+     */
+    @Override
+    public String toString() {
+      StringBuilder report = new StringBuilder();
+      report.append(memoryMb).append(" MB, reserve ").append(reserveMb)
+        .append(" MB, allocated ").append(getTotalMb()).append(" MB");
+      if (isOvercommitted()) {
+        report.append(" (OVERCOMMITTED)");
+      }
+      for (Map.Entry<String, Long> entry : roleMb.entrySet()) {
+        report.append("\n    ").append(entry.getKey()).append(": ")
+          .append(entry.getValue()).append(" MB");
+        if (fixed.contains(entry.getKey())) {
+          report.append(" (fixed)");
+        }
+      }
+      return report.toString();
+    }
+  }
+
+  /**
+   * Deployment spec, for explicitly configured values.
+   */
+  private final DeploymentSpec spec;
+
+  /**
+   * Memory kept free on each host, in MB.
+   */
+  private final long reserveMb;
+
+  /**
+   * Fraction of memory kept free on each host.
+   */
+  private final double reserveFraction;
+
+  /**
+   * Memory charged for each gateway role, in MB.
+   */
+  private final long gatewayMb;
+
+  /**
+   * Memory charged for each role without a sized setting, in MB.
+   */
+  private final long otherRoleMb;
+
+  /**
+   * Constructor.
+   *
+   * @param config Configuration parameters.
+   * @param spec Deployment spec compiled from the configuration.
+   */
+  public MemoryBudget(final Wini config, final DeploymentSpec spec) {
+    this.spec = spec;
+    reserveMb =
+      ConfigUtils.getLong(config, Constants.TUNING_CONFIG_SECTION,
+                          Constants.TUNING_MEMORY_RESERVE_MB_PARAMETER,
+                          DEFAULT_RESERVE_MB);
+    reserveFraction =
+      ConfigUtils.getDouble(config, Constants.TUNING_CONFIG_SECTION,
+                            Constants.TUNING_MEMORY_RESERVE_FRACTION_PARAMETER,
+                            DEFAULT_RESERVE_FRACTION);
+    gatewayMb =
+      ConfigUtils.getLong(config, Constants.TUNING_CONFIG_SECTION,
+                          Constants.TUNING_GATEWAY_MEMORY_MB_PARAMETER,
+                          DEFAULT_GATEWAY_MB);
+    otherRoleMb =
+      ConfigUtils.getLong(config, Constants.TUNING_CONFIG_SECTION,
+                          Constants.TUNING_OTHER_ROLE_MEMORY_MB_PARAMETER,
+                          DEFAULT_OTHER_ROLE_MB);
+  }
+
+  /**
+   * Create a budget from the [TUNING] section of the configuration.
+   *
+   * @param config Configuration parameters.
+   * @param spec Deployment spec compiled from the configuration.
+   *
+   * @return Budget, or null if the memory budget isn't enabled.
+   */
+  public static MemoryBudget fromConfig(final Wini config,
+                                        final DeploymentSpec spec) {
+    if (!ConfigUtils.getBoolean(config, Constants.TUNING_CONFIG_SECTION,
+                                Constants.TUNING_MEMORY_BUDGET_PARAMETER,
+                                false)) {
+      return null;
+    }
+    return new MemoryBudget(config, spec);
+  }
+
+  /**
+   * Get the memory setting for a role type.
+   *
+   * @param roleType Role type.
+   *
+   * @return Memory setting, or null if the budget doesn't size the role.
+   */
+  private static RoleMemory getRoleMemory(final String roleType) {
+    for (RoleMemory roleMemory : ROLE_MEMORY) {
+      if (roleMemory.roleType.equals(roleType)) {
+        return roleMemory;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Split a host's memory between the roles on it. Roles with an explicit
+   * value, gateways and roles the budget doesn't size are charged first.
+   * What's left is shared by the sized roles in proportion to their weights,
+   * within each role's minimum and maximum: roles whose share falls outside
+   * their limits are pinned to the limit and the rest is shared again.
+   *
+   * @param memoryMb Physical memory of the host, in MB.
+   * @param roleTypes Role types on the host. GATEWAY may appear more than
+   * once, once for each service.
+   * @param hostClass Configured host class of the host, or null.
+   *
+   * @return Allocation for the host.
+   */
+  public final Allocation allocate(final long memoryMb,
+                                   final Collection<String> roleTypes,
+                                   final String hostClass) {
+    Allocation allocation =
+      new Allocation(memoryMb,
+                     Math.max(reserveMb, (long) (memoryMb * reserveFraction)));
+    long free = memoryMb - allocation.reserveMb;
+
+    List<RoleMemory> sized = new ArrayList<RoleMemory>();
+    int gateways = 0;
+    for (String roleType : roleTypes) {
+      RoleMemory roleMemory = getRoleMemory(roleType);
+      String explicit = roleMemory == null ? "" :
+        getExplicitValue(roleType, hostClass, roleMemory.parameter);
+      if (roleType.equals("GATEWAY")) {
+        gateways++;
+      } else if (roleMemory == null) {
+        allocation.roleMb.put(roleType, otherRoleMb);
+        allocation.fixed.add(roleType);
+        free -= otherRoleMb;
+      } else if (!explicit.isEmpty()) {
+        long mb = roleMemory.toMb(explicit);
+        allocation.roleMb.put(roleType, mb);
+        allocation.fixed.add(roleType);
+        free -= mb;
+      } else {
+        sized.add(roleMemory);
+      }
+    }
+    if (gateways > 0) {
+      allocation.roleMb.put("GATEWAY", gateways * gatewayMb);
+      allocation.fixed.add("GATEWAY");
+      free -= gateways * gatewayMb;
+    }
+
+    Map<RoleMemory, Long> pinned = new HashMap<RoleMemory, Long>();
+    while (true) {
+      long share = free;
+      int weights = 0;
+      for (RoleMemory roleMemory : sized) {
+        if (pinned.containsKey(roleMemory)) {
+          share -= pinned.get(roleMemory);
+        } else {
+          weights += roleMemory.weight;
+        }
+      }
+      if (weights == 0) {
+        break;
+      }
+      // Pin roles below their minimum first, since that takes memory from
+      // the others, then roles above their maximum:
+      boolean changed = false;
+      for (RoleMemory roleMemory : sized) {
+        if (!pinned.containsKey(roleMemory) &&
+            share * roleMemory.weight / weights < roleMemory.minMb) {
+          pinned.put(roleMemory, roleMemory.minMb);
+          changed = true;
+        }
+      }
+      if (!changed) {
+        for (RoleMemory roleMemory : sized) {
+          if (!pinned.containsKey(roleMemory) && roleMemory.maxMb > 0 &&
+              share * roleMemory.weight / weights > roleMemory.maxMb) {
+            pinned.put(roleMemory, roleMemory.maxMb);
+            changed = true;
+          }
+        }
+      }
+      if (!changed) {
+        for (RoleMemory roleMemory : sized) {
+          if (!pinned.containsKey(roleMemory)) {
+            pinned.put(roleMemory, share * roleMemory.weight / weights);
+          }
+        }
+        break;
+      }
+    }
+    for (RoleMemory roleMemory : sized) {
+      allocation.roleMb.put(roleMemory.roleType, pinned.get(roleMemory));
+    }
+    return allocation;
+  }
+
+  /**
+   * Get a value set explicitly for a role, in the host class's section for
+   * the role or in the role's own section.
+   *
+   * @param roleType Role type.
+   * @param hostClass Configured host class, or null.
+   * @param parameter Parameter name.
+   *
+   * @return Value, or an empty string if it isn't set.
+   */
+  private String getExplicitValue(final String roleType, final String hostClass,
+                                  final String parameter) {
+    if (hostClass != null) {
+      String value = spec.get(HostClass.sectionName(roleType, hostClass), parameter);
+      if (!value.isEmpty()) {
+        return value;
+      }
+    }
+    return spec.get(roleType, parameter);
+  }
+
+  /**
+   * Size the roles created by a deployment and apply the result as one role
+   * config group per host class and role type, logging the allocation for
+   * each class. Hosts CM hasn't reported memory for are left out.
+   *
+   * @param services Services deployed in this run.
+   * @param hostFacts Hardware facts by host name.
+   */
+  public final void apply(final List<ClusterService> services,
+                          final Map<String, HostFacts> hostFacts) {
+    // Role types on each host, across services:
+    Map<String, List<String>> hostRoles = DiskLayout.getHostRoles(services);
+    DiskLayout layout = spec.getDiskLayout();
+
+    // Hosts in the same configured class with the same memory, roles and
+    // data mounts are sized together:
+    Map<String, String> classNames = new HashMap<String, String>();
+    Map<String, String> configuredClasses = new HashMap<String, String>();
+    Map<String, Allocation> allocations = new LinkedHashMap<String, Allocation>();
+    Map<String, Integer> classSizes = new HashMap<String, Integer>();
+    Map<String, String> hostClasses = new HashMap<String, String>();
+    for (Map.Entry<String, List<String>> entry : hostRoles.entrySet()) {
+      HostFacts facts = hostFacts.get(entry.getKey());
+      if (facts == null) {
+        LOG.warn("No memory reported for host " + entry.getKey() +
+                 ", leaving it out of the memory budget");
+        continue;
+      }
+      List<String> roleTypes = entry.getValue();
+      roleTypes.sort(null);
+      String hostClass =
+        HostClass.classify(spec.getHostClasses(), entry.getKey(), facts);
+      List<String> mounts = layout.getMounts(entry.getKey());
+      String key = hostClass + " " + facts.getMemoryMb() + " " + roleTypes +
+        " " + mounts;
+      String className = classNames.get(key);
+      if (className == null) {
+        className = DiskLayout.newClassName(hostClass, mounts.size(),
+                                            facts.getMemoryMb(),
+                                            allocations.keySet());
+        classNames.put(key, className);
+        configuredClasses.put(className, hostClass);
+        allocations.put(className,
+                        allocate(facts.getMemoryMb(), roleTypes, hostClass));
+      }
+      hostClasses.put(entry.getKey(), className);
+      classSizes.merge(className, 1, Integer::sum);
+    }
+
+    StringBuilder report = new StringBuilder("Memory budget:");
+    for (Map.Entry<String, Allocation> entry : allocations.entrySet()) {
+      report.append("\n  class ").append(entry.getKey()).append(", ")
+        .append(classSizes.get(entry.getKey())).append(" hosts: ")
+        .append(entry.getValue());
+      if (entry.getValue().isOvercommitted()) {
+        LOG.warn("Hosts in class " + entry.getKey() + " are overcommitted: " +
+                 "explicit values and minimum sizes exceed the memory budget");
+      }
+    }
+    LOG.info(report);
+
+    for (ClusterService service : services) {
+      for (Map.Entry<String, Set<String>> entry :
+             service.getRoleHosts().entrySet()) {
+        String roleType = entry.getKey();
+        RoleMemory roleMemory = getRoleMemory(roleType);
+        boolean laidOut = !layout.isEmpty() && DiskLayout.isLayoutRole(roleType);
+        if (roleMemory == null && !laidOut) {
+          continue;
+        }
+        Map<String, String> roleHostClasses = new HashMap<String, String>();
+        Map<String, ApiConfigList> classConfigs =
+          new TreeMap<String, ApiConfigList>();
+        for (String host : entry.getValue()) {
+          String className = hostClasses.get(host);
+          if (className == null) {
+            continue;
+          }
+          Allocation allocation = allocations.get(className);
+          boolean sized = roleMemory != null && allocation.isSized(roleType);
+          String hostClass = configuredClasses.get(className);
+          // Hosts in a class share data mounts, so share directories too:
+          List<ApiConfig> directories = laidOut ?
+            layout.getRoleConfigs(spec, host, roleType, hostClass,
+                                  hostRoles.get(host)) :
+            List.<ApiConfig>of();
+          if (!sized && directories.isEmpty()) {
+            continue;
+          }
+          roleHostClasses.put(host, className);
+          classConfigs.computeIfAbsent(className, k -> {
+            // Groups created for classes the budget splits off a configured
+            // class need the class's settings too:
+            ApiConfigList configs = new ApiConfigList();
+            if (hostClass != null) {
+              for (ApiConfig apiConfig :
+                     spec.getConfigs(HostClass.sectionName(roleType, hostClass))) {
+                configs.add(apiConfig);
+              }
+            }
+            if (sized) {
+              configs.add(new ApiConfig(roleMemory.parameter,
+                                        roleMemory.toValue(allocation.getRoleMb()
+                                                           .get(roleType))));
+            }
+            for (ApiConfig apiConfig : directories) {
+              configs.add(apiConfig);
+            }
+            return configs;
+          });
+        }
+        if (!classConfigs.isEmpty()) {
+          service.updateHostClassConfigs(roleType, roleHostClasses,
+                                         classConfigs);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.tuning;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Scale the NameNode client and service handler counts with cluster size,
+ * using the usual 20 * ln(number of DataNodes) guideline, between the CM
+ * default of 30 and 200.
+ */
+public class NameNodeTuningRule implements TuningRule {
+
+  /**
+   * Fewest handlers, the CM default.
+   */
+  private static final int MIN_HANDLERS = 30;
+
+  /**
+   * Most handlers.
+   */
+  private static final int MAX_HANDLERS = 200;
+
+  /**
+   * Get the role type this rule tunes.
+   *
+   * @return NAMENODE.
+   */
+  public final String getRoleType() {
+    return "NAMENODE";
+  }
+
+  /**
+   * Compute the handler counts.
+   *
+   * @param host Host facts.
+   * @param clusterSize Number of hosts in the cluster.
+   *
+   * @return Client and service handler counts.
+   */
+  public final Map<String, String> tune(final HostFacts host,
+                                        final int clusterSize) {
+    int handlers =
+      (int) Math.max(MIN_HANDLERS,
+                     Math.min(MAX_HANDLERS, 20 * Math.log(Math.max(1, clusterSize))));
+    Map<String, String> configs = new LinkedHashMap<String, String>();
+    configs.put("dfs_namenode_handler_count", Integer.toString(handlers));
+    configs.put("dfs_namenode_service_handler_count", Integer.toString(handlers));
+    return configs;
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.tuning;
+
+import com.cloudera.cmapi.deploy.ConfigUtils;
+import com.cloudera.cmapi.deploy.Constants;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.ini4j.Wini;
+
+/**
+ * Size NodeManager container memory and vcores from the host: a fraction of
+ * physical memory, and one vcore per logical core.
+ */
+public class NodeManagerTuningRule implements TuningRule {
+
+  /**
+   * Default fraction of physical memory given to containers.
+   */
+  private static final double DEFAULT_MEMORY_FRACTION = 0.5;
+
+  /**
+   * Fraction of physical memory given to containers.
+   */
+  private double memoryFraction = DEFAULT_MEMORY_FRACTION;
+
+  /**
+   * Get the role type this rule tunes.
+   *
+   * @return NODEMANAGER.
+   */
+  public final String getRoleType() {
+    return "NODEMANAGER";
+  }
+
+  /**
+   * Read the memory fraction from the [TUNING] section.
+   *
+   * @param config Configuration parameters.
+   */
+  public final void configure(final Wini config) {
+    memoryFraction =
+      ConfigUtils.getDouble(config, Constants.TUNING_CONFIG_SECTION,
+                            Constants.TUNING_NODEMANAGER_MEMORY_FRACTION_PARAMETER,
+                            DEFAULT_MEMORY_FRACTION);
+  }
+
+  /**
+   * Compute container resources.
+   *
+   * @param host Host facts.
+   * @param clusterSize Number of hosts in the cluster.
+   *
+   * @return Container memory and vcores.
+   */
+  public final Map<String, String> tune(final HostFacts host,
+                                        final int clusterSize) {
+    Map<String, String> configs = new LinkedHashMap<String, String>();
+    configs.put("yarn_nodemanager_resource_memory_mb",
+                Long.toString((long) (host.getMemoryMb() * memoryFraction)));
+    configs.put("yarn_nodemanager_resource_cpu_vcores",
+                Integer.toString(host.getCores()));
+    return configs;
+  }
+}
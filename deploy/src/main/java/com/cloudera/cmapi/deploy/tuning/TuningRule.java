@@ -0,0 +1,56 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.tuning;
+
+import java.util.Map;
+
+import org.ini4j.Wini;
+
+/**
+ * Rule computing role configuration from host hardware. Rules are listed by
+ * class name in tuning_rules in the [TUNING] section, and need a public
+ * no-argument constructor.
+ */
+public interface TuningRule {
+
+  /**
+   * Get the role type this rule tunes.
+   *
+   * @return Role type, for example NODEMANAGER.
+   */
+  String getRoleType();
+
+  /**
+   * Read any settings the rule needs. Called once, before the rule is
+   * used.
+   *
+   * @param config Configuration parameters.
+   */
+  default void configure(final Wini config) {
+  }
+
+  /**
+   * Compute configuration for roles on a host.
+   *
+   * @param host Facts for the host, or for the smallest of the hosts the
+   * configuration applies to.
+   * @param clusterSize Number of hosts in the cluster.
+   *
+   * @return Config values keyed on CM parameter name.
+   */
+  Map<String, String> tune(HostFacts host, int clusterSize);
+}
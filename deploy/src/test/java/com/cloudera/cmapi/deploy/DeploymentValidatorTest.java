@@ -0,0 +1,155 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.ini4j.Wini;
+
+/**
+ * Tests for {@link DeploymentValidator}, run through
+ * {@link DeploymentSpec#compile}.
+ */
+public class DeploymentValidatorTest extends TestCase {
+
+  private static final String[] CM_SECTION = {
+    "[CM]",
+    "cm_public_hostname=cm.dc1",
+    "cm_private_hostname=cm.dc1",
+    "cm_port=7180",
+    "cm_user=admin",
+    "cm_password=admin"
+  };
+
+  private static final String[] MGMT_SECTION = {
+    "[MGMT_SERVICE]",
+    "mgmt_service_name=MGMT",
+    "cm_management_roletypes=HOSTMONITOR,SERVICEMONITOR"
+  };
+
+  private static final String[] CLUSTER_SECTIONS = {
+    "[CLUSTER]",
+    "cluster_name=test",
+    "cluster_version=CDH5",
+    "cluster_hosts=master1.dc1,worker[1-3].dc1",
+    "services=ZOOKEEPER,HDFS",
+    "zk_name=ZOOKEEPER-1",
+    "zk_hosts=master1.dc1",
+    "[HDFS]",
+    "hdfs_name=HDFS-1",
+    "hdfs_namenode_host=master1.dc1",
+    "hdfs_secondary_namenode_host=master1.dc1",
+    "hdfs_datanode_hosts=worker[1-3].dc1"
+  };
+
+  private static Wini config(final String[]... sections) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    for (String[] section : sections) {
+      lines.addAll(Arrays.asList(section));
+    }
+    return TestConfigs.parse(lines.toArray(new String[lines.size()]));
+  }
+
+  private static String[] replace(final String[] section, final String line) {
+    String key = line.substring(0, line.indexOf('=') + 1);
+    List<String> lines = new ArrayList<String>();
+    for (String existing : section) {
+      if (!existing.startsWith(key)) {
+        lines.add(existing);
+      }
+    }
+    if (!line.endsWith("=")) {
+      lines.add(line);
+    }
+    return lines.toArray(new String[lines.size()]);
+  }
+
+  private static String problems(final Wini config) {
+    try {
+      DeploymentSpec.compile(config);
+      return null;
+    } catch (IllegalArgumentException e) {
+      return e.getMessage();
+    }
+  }
+
+  private static void assertProblem(final String expected, final Wini config) {
+    String problems = problems(config);
+    assertNotNull("Expected " + expected, problems);
+    assertTrue(problems, problems.contains(expected));
+  }
+
+  public void testValidConfig() throws IOException {
+    assertNull(problems(config(CM_SECTION, MGMT_SECTION, CLUSTER_SECTIONS)));
+  }
+
+  public void testPortIsOptional() throws IOException {
+    assertNull(problems(config(replace(CM_SECTION, "cm_port="), MGMT_SECTION,
+                               CLUSTER_SECTIONS)));
+  }
+
+  public void testMissingSection() throws IOException {
+    assertProblem("mgmt_service_name not set in [MGMT_SERVICE]",
+                  config(CM_SECTION, CLUSTER_SECTIONS));
+  }
+
+  public void testMissingKey() throws IOException {
+    assertProblem("cm_user not set in [CM]",
+                  config(replace(CM_SECTION, "cm_user="), MGMT_SECTION,
+                         CLUSTER_SECTIONS));
+    assertProblem("hdfs_namenode_host not set in [HDFS] for service HDFS",
+                  config(CM_SECTION, MGMT_SECTION,
+                         replace(CLUSTER_SECTIONS, "hdfs_namenode_host=")));
+  }
+
+  public void testHostOutsideCluster() throws IOException {
+    assertProblem("hdfs_datanode_hosts in [HDFS] has hosts not in " +
+                  "cluster_hosts: worker4.dc1",
+                  config(CM_SECTION, MGMT_SECTION,
+                         replace(CLUSTER_SECTIONS,
+                                 "hdfs_datanode_hosts=worker[1-4].dc1")));
+  }
+
+  public void testSingleInstanceRoleOnTwoHosts() throws IOException {
+    assertProblem("hdfs_namenode_host in [HDFS] names 2 hosts",
+                  config(CM_SECTION, MGMT_SECTION,
+                         replace(CLUSTER_SECTIONS,
+                                 "hdfs_namenode_host=worker[1-2].dc1")));
+  }
+
+  public void testUnknownSectionAndRoleType() throws IOException {
+    String[] typo = {"[DATANOD]", "dfs_datanode_handler_count=30"};
+    assertProblem("Unknown section [DATANOD]",
+                  config(CM_SECTION, MGMT_SECTION, CLUSTER_SECTIONS, typo));
+    assertProblem("Unknown management role type HOSTMONITR",
+                  config(CM_SECTION,
+                         replace(MGMT_SECTION,
+                                 "cm_management_roletypes=HOSTMONITR"),
+                         CLUSTER_SECTIONS));
+  }
+
+  public void testRepeatedSection() throws IOException {
+    String[] again = {"[HDFS]", "hdfs_name=HDFS-2"};
+    assertProblem("Section [HDFS] appears 2 times",
+                  config(CM_SECTION, MGMT_SECTION, CLUSTER_SECTIONS, again));
+  }
+}
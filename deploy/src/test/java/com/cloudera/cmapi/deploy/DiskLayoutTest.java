@@ -0,0 +1,173 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import com.cloudera.api.model.ApiConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link DiskLayout}.
+ */
+public class DiskLayoutTest extends TestCase {
+
+  private final List<String> errors = new ArrayList<String>();
+
+  private DiskLayout compile(final String... parameters) {
+    Map<String, String> values = new LinkedHashMap<String, String>();
+    for (int i = 0; i < parameters.length; i += 2) {
+      values.put(parameters[i], parameters[i + 1]);
+    }
+    return DiskLayout.compile(values, errors);
+  }
+
+  private static DeploymentSpec spec() throws IOException {
+    return DeploymentSpec.compile(TestConfigs.load(
+      "[CLUSTER]",
+      "cluster_name=test",
+      "cluster_version=CDH5",
+      "cluster_hosts=master1.dc1,worker[1-2].dc1",
+      "services=HDFS",
+      "[HOST_CLASSES]",
+      "pinned_hosts=worker2.dc1",
+      "[HDFS]",
+      "hdfs_name=HDFS-1",
+      "hdfs_namenode_host=master1.dc1",
+      "hdfs_secondary_namenode_host=master1.dc1",
+      "hdfs_datanode_hosts=worker[1-2].dc1",
+      "[DATANODE:pinned]",
+      "dfs_data_dir_list=/data/dn"));
+  }
+
+  private static Map<String, String> configs(final DiskLayout layout,
+                                             final String hostname,
+                                             final String roleType,
+                                             final String hostClass,
+                                             final Collection<String> hostRoleTypes)
+    throws IOException {
+    Map<String, String> values = new LinkedHashMap<String, String>();
+    for (ApiConfig config : layout.getRoleConfigs(spec(), hostname, roleType,
+                                                  hostClass, hostRoleTypes)) {
+      values.put(config.getName(), config.getValue());
+    }
+    return values;
+  }
+
+  public void testEmpty() {
+    assertSame(DiskLayout.EMPTY, compile());
+    assertTrue(DiskLayout.EMPTY.isEmpty());
+    assertTrue(DiskLayout.EMPTY.getMounts("worker1.dc1").isEmpty());
+  }
+
+  public void testFactsFileOverridesDataMounts() throws IOException {
+    File file = File.createTempFile("disks", ".txt");
+    try {
+      Files.write(file.toPath(),
+                  List.of("# host mounts", "worker1.dc1 /data/1/ /data/2",
+                          "", "worker3.dc1 /data/1 # one disk"),
+                  StandardCharsets.UTF_8);
+      DiskLayout layout = compile("disk_facts_file", file.getPath(),
+                                  "data_mounts", "/data/a, /data/b /data/c");
+      assertTrue(errors.toString(), errors.isEmpty());
+      assertFalse(layout.isEmpty());
+      assertEquals(List.of("/data/1", "/data/2"),
+                   layout.getMounts("worker1.dc1"));
+      assertEquals(List.of("/data/1"), layout.getMounts("worker3.dc1"));
+      assertEquals(List.of("/data/a", "/data/b", "/data/c"),
+                   layout.getMounts("worker2.dc1"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testInvalidParameters() {
+    compile("data_mounts", "/data/1,data/2",
+            "disk_facts_file", "/nonexistent/disks.txt",
+            "disk_count", "12");
+    assertEquals(errors.toString(), 3, errors.size());
+    assertTrue(errors.get(0), errors.get(0).contains("must be an absolute path"));
+    assertTrue(errors.get(1), errors.get(1).contains("/nonexistent/disks.txt"));
+    assertTrue(errors.get(2), errors.get(2).contains("Unknown parameter"));
+  }
+
+  public void testDataRolesUseEveryDisk() throws IOException {
+    DiskLayout layout = compile("data_mounts", "/data/1,/data/2,/data/3");
+    Map<String, String> values =
+      configs(layout, "worker1.dc1", "NODEMANAGER", null,
+              Set.of("DATANODE", "NODEMANAGER"));
+    assertEquals("/data/1/yarn/nm,/data/2/yarn/nm,/data/3/yarn/nm",
+                 values.get("yarn_nodemanager_local_dirs"));
+    assertEquals("/data/1/yarn/container-logs,/data/2/yarn/container-logs," +
+                 "/data/3/yarn/container-logs",
+                 values.get("yarn_nodemanager_log_dirs"));
+    assertTrue(configs(layout, "worker1.dc1", "GATEWAY", null,
+                       Set.of("GATEWAY")).isEmpty());
+  }
+
+  public void testLogRolesGetDedicatedDisks() throws IOException {
+    DiskLayout layout = compile("data_mounts", "/data/1,/data/2,/data/3");
+    Set<String> roleTypes = Set.of("DATANODE", "JOURNALNODE", "SERVER");
+    assertEquals("/data/1/dfs/dn",
+                 configs(layout, "worker1.dc1", "DATANODE", null, roleTypes)
+                 .get("dfs_data_dir_list"));
+    assertEquals("/data/3/zookeeper",
+                 configs(layout, "worker1.dc1", "SERVER", null, roleTypes)
+                 .get("dataLogDir"));
+    assertEquals("/data/2/dfs/jn",
+                 configs(layout, "worker1.dc1", "JOURNALNODE", null, roleTypes)
+                 .get("dfs_journalnode_edits_dir"));
+
+    // With one disk, or dedicated disks turned off, logs share the last:
+    layout = compile("data_mounts", "/data/1,/data/2",
+                     "dedicated_log_disks", "false");
+    assertEquals("/data/1/dfs/dn,/data/2/dfs/dn",
+                 configs(layout, "worker1.dc1", "DATANODE", null, roleTypes)
+                 .get("dfs_data_dir_list"));
+    assertEquals("/data/2/dfs/jn",
+                 configs(layout, "worker1.dc1", "JOURNALNODE", null, roleTypes)
+                 .get("dfs_journalnode_edits_dir"));
+  }
+
+  public void testExplicitValuesKept() throws IOException {
+    DiskLayout layout = compile("data_mounts", "/data/1,/data/2");
+    Set<String> roleTypes = Set.of("DATANODE");
+    assertEquals("/data/1/dfs/dn,/data/2/dfs/dn",
+                 configs(layout, "worker1.dc1", "DATANODE", null, roleTypes)
+                 .get("dfs_data_dir_list"));
+    assertTrue(configs(layout, "worker2.dc1", "DATANODE", "pinned", roleTypes)
+               .isEmpty());
+  }
+
+  public void testNewClassName() {
+    assertEquals("128g-12disk",
+                 DiskLayout.newClassName(null, 12, 131072, Set.<String>of()));
+    assertEquals("12disk", DiskLayout.newClassName(null, 12, 0, Set.<String>of()));
+    assertEquals("big-2",
+                 DiskLayout.newClassName("big", 12, 0, Set.of("big")));
+  }
+}
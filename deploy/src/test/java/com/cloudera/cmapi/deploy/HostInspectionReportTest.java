@@ -0,0 +1,72 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link HostInspectionReport}.
+ */
+public class HostInspectionReportTest extends TestCase {
+
+  private static HostInspectionReport parse(final String json)
+    throws IOException {
+    return HostInspectionReport.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  public void testFindingsBySeverity() throws IOException {
+    HostInspectionReport report =
+      parse("{\"validations\": [" +
+            "{\"name\": \"clock\", \"state\": \"ok\"}," +
+            "{\"name\": \"swappiness\", \"state\": \"warning\"}," +
+            "{\"hostname\": \"worker1\", \"checks\": [" +
+            "{\"message\": \"java missing\", \"severity\": \"ERROR\"}]}]}");
+
+    List<HostInspectionReport.Finding> warnings =
+      report.getFindings(HostInspectionReport.Severity.WARNING);
+    assertEquals(2, warnings.size());
+    assertEquals(HostInspectionReport.Severity.WARNING,
+                 warnings.get(0).getSeverity());
+    assertEquals("swappiness", warnings.get(0).getMessage());
+
+    List<HostInspectionReport.Finding> errors =
+      report.getFindings(HostInspectionReport.Severity.ERROR);
+    assertEquals(1, errors.size());
+    assertEquals("worker1: java missing", errors.get(0).getMessage());
+  }
+
+  public void testCleanReport() throws IOException {
+    HostInspectionReport report =
+      parse("{\"validations\": [{\"name\": \"clock\", \"state\": \"ok\"}]}");
+    assertTrue(report.getFindings(HostInspectionReport.Severity.WARNING)
+               .isEmpty());
+  }
+
+  public void testNotJson() {
+    try {
+      parse("<html>login</html>");
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+}
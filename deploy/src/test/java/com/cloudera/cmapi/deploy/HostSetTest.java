@@ -0,0 +1,180 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link HostSet}.
+ */
+public class HostSetTest extends TestCase {
+
+  private static final Map<String, HostSet> NO_GROUPS =
+    Collections.<String, HostSet>emptyMap();
+
+  private static List<String> list(final HostSet hosts) {
+    List<String> names = new ArrayList<String>();
+    for (String host : hosts) {
+      names.add(host);
+    }
+    return names;
+  }
+
+  private static void assertInvalid(final String expression) {
+    try {
+      HostSet.parse(expression, NO_GROUPS);
+      fail("Expected " + expression + " to be rejected");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  public void testZeroPaddedRange() {
+    HostSet hosts = HostSet.parse("worker[0001-2000].dc1", NO_GROUPS);
+    assertEquals(2000, hosts.size());
+    List<String> names = list(hosts);
+    assertEquals(2000, names.size());
+    assertEquals("worker0001.dc1", names.get(0));
+    assertEquals("worker0010.dc1", names.get(9));
+    assertEquals("worker1000.dc1", names.get(999));
+    assertEquals("worker2000.dc1", names.get(1999));
+  }
+
+  public void testUnpaddedRange() {
+    assertEquals(List.of("node8", "node9", "node10", "node11"),
+                 list(HostSet.parse("node[8-11]", NO_GROUPS)));
+  }
+
+  public void testSeveralRanges() {
+    HostSet hosts = HostSet.parse("rack[1-4]-node[01-40,45]", NO_GROUPS);
+    assertEquals(4 * 41, hosts.size());
+    List<String> names = list(hosts);
+    // The last range varies fastest:
+    assertEquals("rack1-node01", names.get(0));
+    assertEquals("rack1-node02", names.get(1));
+    assertEquals("rack1-node40", names.get(39));
+    assertEquals("rack1-node45", names.get(40));
+    assertEquals("rack2-node01", names.get(41));
+    assertEquals("rack4-node45", names.get(163));
+  }
+
+  public void testTermsInOrderWithDuplicates() {
+    assertEquals(List.of("b.dc1", "a1.dc1", "b.dc1"),
+                 list(HostSet.parse(" b.dc1, a[1].dc1 ,b.dc1,", NO_GROUPS)));
+  }
+
+  public void testEmpty() {
+    assertSame(HostSet.EMPTY, HostSet.parse(" , ", NO_GROUPS));
+    assertTrue(HostSet.EMPTY.isEmpty());
+    assertFalse(HostSet.EMPTY.iterator().hasNext());
+  }
+
+  public void testMalformedRanges() {
+    assertInvalid("worker[1-3");
+    assertInvalid("worker1-3]");
+    assertInvalid("worker[3-1]");
+    assertInvalid("worker[a-c]");
+    assertInvalid("worker[]");
+  }
+
+  public void testGroups() {
+    // Groups may refer to groups defined after them:
+    Map<String, String> definitions = new LinkedHashMap<String, String>();
+    definitions.put("all", "@workers,@edge");
+    definitions.put("workers", "worker[1-3].dc1");
+    definitions.put("edge", "edge1.dc1");
+    Map<String, HostSet> groups = HostSet.compileGroups(definitions);
+
+    assertEquals(List.of("worker1.dc1", "worker2.dc1", "worker3.dc1",
+                         "edge1.dc1"),
+                 list(groups.get("all")));
+    assertEquals(List.of("master1.dc1", "edge1.dc1"),
+                 list(HostSet.parse("master1.dc1,@edge", groups)));
+  }
+
+  public void testGroupCycle() {
+    Map<String, String> definitions = new LinkedHashMap<String, String>();
+    definitions.put("a", "host1,@b");
+    definitions.put("b", "host2,@c");
+    definitions.put("c", "@a");
+    try {
+      HostSet.compileGroups(definitions);
+      fail("Expected the cycle to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("refers to itself"));
+    }
+  }
+
+  public void testGroupReferringToItself() {
+    try {
+      HostSet.compileGroups(Map.of("a", "host1,@a"));
+      fail("Expected the cycle to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("@a"));
+    }
+  }
+
+  public void testUnknownGroup() {
+    try {
+      HostSet.compileGroups(Map.of("a", "@missing"));
+      fail("Expected the unknown group to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("@missing"));
+    }
+    try {
+      HostSet.parse("@missing", NO_GROUPS);
+      fail("Expected the unknown group to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("@missing"));
+    }
+  }
+
+  public void testToExpressionCompactsRanges() {
+    List<String> hosts = new ArrayList<String>();
+    for (int i = 100; i >= 1; i--) {
+      hosts.add(String.format("worker%04d.dc1", i));
+    }
+    hosts.add("worker0102.dc1");
+    assertEquals("worker[0001-0100,0102].dc1", HostSet.toExpression(hosts));
+  }
+
+  public void testToExpressionKeepsSingleHosts() {
+    assertEquals("master1.dc1,gateway",
+                 HostSet.toExpression(List.of("master1.dc1", "gateway")));
+  }
+
+  public void testToExpressionRoundTrip() {
+    List<String> hosts =
+      list(HostSet.parse("rack[1-4]-node[01-40,45],edge[8-12]", NO_GROUPS));
+    String expression = HostSet.toExpression(hosts);
+    List<String> parsed = list(HostSet.parse(expression, NO_GROUPS));
+    Collections.sort(hosts);
+    Collections.sort(parsed);
+    assertEquals(hosts, parsed);
+    // Each rack is one term, and names with a different number of digits
+    // can't share a term:
+    assertEquals("rack1-node[01-40,45],rack2-node[01-40,45]," +
+                 "rack3-node[01-40,45],rack4-node[01-40,45]," +
+                 "edge[8-9],edge[10-12]", expression);
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link RackTopology}.
+ */
+public class RackTopologyTest extends TestCase {
+
+  private final List<String> errors = new ArrayList<String>();
+
+  private RackTopology compile(final String... parameters) {
+    Map<String, String> values = new LinkedHashMap<String, String>();
+    for (int i = 0; i < parameters.length; i += 2) {
+      values.put(parameters[i], parameters[i + 1]);
+    }
+    return RackTopology.compile(values, errors);
+  }
+
+  public void testEmpty() {
+    assertSame(RackTopology.EMPTY, compile());
+    assertTrue(RackTopology.EMPTY.isEmpty());
+    assertNull(RackTopology.EMPTY.getRack("worker1.dc1"));
+  }
+
+  public void testSourcesInOrder() throws IOException {
+    File file = File.createTempFile("racks", ".txt");
+    try {
+      Files.write(file.toPath(),
+                  List.of("# host rack", "worker1.dc1  /pinned", "",
+                          "worker9.dc1 /r9 # trailing comment"),
+                  StandardCharsets.UTF_8);
+      RackTopology topology =
+        compile("rack_topology_file", file.getPath(),
+                "rack_rule1", "worker(\\d)\\.dc1 /dc1/r$1",
+                "rack_rule2", "worker.* /dc1/other",
+                "default_rack", "/default");
+      assertTrue(errors.toString(), errors.isEmpty());
+      assertFalse(topology.isEmpty());
+      assertEquals("/pinned", topology.getRack("worker1.dc1"));
+      assertEquals("/r9", topology.getRack("worker9.dc1"));
+      assertEquals("/dc1/r2", topology.getRack("worker2.dc1"));
+      assertEquals("/dc1/other", topology.getRack("worker10.dc1"));
+      assertEquals("/default", topology.getRack("master1.dc1"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testRackTakenLiterally() {
+    RackTopology topology =
+      compile("rack_rule1", "(\\w+)-(\\d+) /$2/\\$$1$x",
+              "rack_rule2", "(a)?b /r$1");
+    assertTrue(errors.toString(), errors.isEmpty());
+    assertEquals("/7/\\$edge$x", topology.getRack("edge-7"));
+    // A group that didn't take part in the match is left out:
+    assertEquals("/r", topology.getRack("b"));
+  }
+
+  public void testInvalidRules() {
+    compile("rack_rule1", "worker(\\d) /r$2",
+            "rack_rule2", "worker[ /r1",
+            "rack_rule3", "worker.*",
+            "rack_rule4", "worker.* r1",
+            "default_rack", "default",
+            "rack_count", "4");
+    assertEquals(errors.toString(), 6, errors.size());
+    assertTrue(errors.get(0), errors.get(0).contains("refers to group 2"));
+    assertTrue(errors.get(1), errors.get(1).contains("invalid pattern"));
+    assertTrue(errors.get(2), errors.get(2).contains("pattern and a rack"));
+    assertTrue(errors.get(3), errors.get(3).contains("must start with /"));
+    assertTrue(errors.get(4), errors.get(4).contains("must start with /"));
+    assertTrue(errors.get(5), errors.get(5).contains("Unknown parameter"));
+  }
+
+  public void testUnreadableMappingFile() {
+    compile("rack_topology_file", "/nonexistent/racks.txt");
+    assertEquals(1, errors.size());
+    assertTrue(errors.get(0), errors.get(0).contains("/nonexistent/racks.txt"));
+  }
+}
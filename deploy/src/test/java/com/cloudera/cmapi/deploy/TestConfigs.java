@@ -0,0 +1,84 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.ini4j.Wini;
+
+/**
+ * Builds configurations for tests, loaded the way CMApiDeploy loads
+ * cmdeploy.ini.
+ */
+public final class TestConfigs {
+
+  /**
+   * [CM] and [MGMT_SERVICE] sections every configuration needs.
+   */
+  private static final String[] REQUIRED_SECTIONS = {
+    "[CM]",
+    "cm_public_hostname=cm.dc1",
+    "cm_private_hostname=cm.dc1",
+    "cm_port=7180",
+    "cm_user=admin",
+    "cm_password=admin",
+    "[MGMT_SERVICE]",
+    "mgmt_service_name=MGMT",
+    "cm_management_roletypes=HOSTMONITOR,SERVICEMONITOR"
+  };
+
+  private TestConfigs() {
+  }
+
+  /**
+   * Load a configuration from lines of ini text, after the [CM] and
+   * [MGMT_SERVICE] sections.
+   *
+   * @param lines Lines of the configuration.
+   *
+   * @return Configuration.
+   *
+   * @throws IOException if the text can't be parsed.
+   */
+  public static Wini load(final String... lines) throws IOException {
+    String[] all = new String[REQUIRED_SECTIONS.length + lines.length];
+    System.arraycopy(REQUIRED_SECTIONS, 0, all, 0, REQUIRED_SECTIONS.length);
+    System.arraycopy(lines, 0, all, REQUIRED_SECTIONS.length, lines.length);
+    return parse(all);
+  }
+
+  /**
+   * Load a configuration from lines of ini text alone.
+   *
+   * @param lines Lines of the configuration.
+   *
+   * @return Configuration.
+   *
+   * @throws IOException if the text can't be parsed.
+   */
+  public static Wini parse(final String... lines) throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (String line : lines) {
+      text.append(line).append('\n');
+    }
+    Wini ini = new Wini();
+    ini.getConfig().setMultiSection(true);
+    ini.load(new StringReader(text.toString()));
+    return ini;
+  }
+}
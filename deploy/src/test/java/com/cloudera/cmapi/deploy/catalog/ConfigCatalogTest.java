@@ -0,0 +1,134 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.catalog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ConfigCatalog}.
+ */
+public class ConfigCatalogTest extends TestCase {
+
+  private static final String SCOPE = ConfigCatalog.scope("HDFS", "DATANODE");
+
+  private ConfigCatalog catalog(final ConfigCatalog.Entry... entries) {
+    Map<String, ConfigCatalog.Entry> scope =
+      new HashMap<String, ConfigCatalog.Entry>();
+    for (ConfigCatalog.Entry entry : entries) {
+      scope.put(entry.getName(), entry);
+    }
+    Map<String, Map<String, ConfigCatalog.Entry>> scopes =
+      new HashMap<String, Map<String, ConfigCatalog.Entry>>();
+    scopes.put(SCOPE, scope);
+    return new ConfigCatalog(scopes);
+  }
+
+  private static ConfigCatalog.Entry entry(final String name,
+                                           final String defaultValue) {
+    return new ConfigCatalog.Entry(name,
+                                   ConfigCatalog.Entry.inferType(defaultValue),
+                                   defaultValue, false);
+  }
+
+  public void testInferType() {
+    assertEquals(ConfigCatalog.ValueType.BOOLEAN,
+                 ConfigCatalog.Entry.inferType("false"));
+    assertEquals(ConfigCatalog.ValueType.LONG,
+                 ConfigCatalog.Entry.inferType("-3"));
+    assertEquals(ConfigCatalog.ValueType.DOUBLE,
+                 ConfigCatalog.Entry.inferType("0.5"));
+    assertEquals(ConfigCatalog.ValueType.STRING,
+                 ConfigCatalog.Entry.inferType(""));
+    assertEquals(ConfigCatalog.ValueType.STRING,
+                 ConfigCatalog.Entry.inferType("/data/dfs/dn"));
+  }
+
+  public void testCheck() {
+    ConfigCatalog catalog = catalog(entry("dfs_data_dir_list", "/dfs/dn"));
+    assertTrue(catalog.hasScope(SCOPE));
+    assertFalse(catalog.hasScope("HDFS/NAMENODE"));
+    assertNull(catalog.check(SCOPE, "dfs_data_dir_list"));
+    String error = catalog.check(SCOPE, "dfs_data_dirs");
+    assertTrue(error, error.contains("unknown parameter for HDFS/DATANODE"));
+  }
+
+  public void testCheckValue() {
+    ConfigCatalog catalog =
+      catalog(entry("dfs_datanode_handler_count", "3"),
+              entry("dfs_datanode_du_reserved_fraction", "0.1"),
+              entry("dfs_permissions", "true"),
+              entry("dfs_data_dir_list", "/dfs/dn"));
+    assertNull(catalog.checkValue(SCOPE, "dfs_datanode_handler_count", "10"));
+    String error =
+      catalog.checkValue(SCOPE, "dfs_datanode_handler_count", "1.5");
+    assertTrue(error, error.contains("expected an integer"));
+    assertTrue(error, error.endsWith("got 1.5"));
+    // An integer is a valid number:
+    assertNull(catalog.checkValue(SCOPE, "dfs_datanode_du_reserved_fraction",
+                                  "1"));
+    assertNotNull(catalog.checkValue(SCOPE, "dfs_datanode_du_reserved_fraction",
+                                     "tenth"));
+    assertNotNull(catalog.checkValue(SCOPE, "dfs_permissions", "yes"));
+    assertNull(catalog.checkValue(SCOPE, "dfs_data_dir_list", "/data/1/dn"));
+    // Empty values and unknown parameters aren't type checked:
+    assertNull(catalog.checkValue(SCOPE, "dfs_datanode_handler_count", ""));
+    assertNull(catalog.checkValue(SCOPE, "dfs_unknown", "x"));
+  }
+
+  public void testWriteAndLoad() throws IOException {
+    File file = File.createTempFile("catalog", ".gz");
+    try {
+      catalog(entry("dfs_datanode_handler_count", "3"),
+              new ConfigCatalog.Entry("dfs_datanode_java_opts",
+                                      ConfigCatalog.ValueType.STRING,
+                                      "-Xss1m\t-XX:+UseG1GC\\n", true))
+        .write(file, "test");
+      ConfigCatalog loaded = ConfigCatalog.load(file);
+      assertEquals(2, loaded.size());
+      ConfigCatalog.Entry entry =
+        loaded.get(SCOPE, "dfs_datanode_handler_count");
+      assertEquals(ConfigCatalog.ValueType.LONG, entry.getType());
+      assertEquals("3", entry.getDefaultValue());
+      assertFalse(entry.isRequired());
+      entry = loaded.get(SCOPE, "dfs_datanode_java_opts");
+      assertEquals("-Xss1m\t-XX:+UseG1GC\\n", entry.getDefaultValue());
+      assertTrue(entry.isRequired());
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testLoadRejectsOtherFiles() throws IOException {
+    File file = File.createTempFile("catalog", ".gz");
+    try {
+      new GZIPOutputStream(new FileOutputStream(file)).close();
+      ConfigCatalog.load(file);
+      fail("Expected IOException");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("isn't a config catalog"));
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.client;
+
+import com.cloudera.cmapi.deploy.TestConfigs;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ConcurrencyGovernor}.
+ */
+public class ConcurrencyGovernorTest extends TestCase {
+
+  private static ConcurrencyGovernor governor(final int maxConcurrency) {
+    Map<EndpointClass, Integer> maxConcurrencies =
+      new EnumMap<EndpointClass, Integer>(EndpointClass.class);
+    Map<EndpointClass, Long> latencyTargets =
+      new EnumMap<EndpointClass, Long>(EndpointClass.class);
+    for (EndpointClass endpointClass : EndpointClass.values()) {
+      maxConcurrencies.put(endpointClass, maxConcurrency);
+      latencyTargets.put(endpointClass, 60000L);
+    }
+    return new ConcurrencyGovernor(maxConcurrencies, latencyTargets);
+  }
+
+  private static Object metric(final ConcurrencyGovernor governor,
+                               final String name) {
+    return governor.getMetrics().get(EndpointClass.COMMAND.name()).get(name);
+  }
+
+  private static void call(final ConcurrencyGovernor governor,
+                           final long latency, final boolean overloaded)
+    throws InterruptedException {
+    governor.acquire(EndpointClass.COMMAND);
+    governor.release(EndpointClass.COMMAND, latency, overloaded);
+  }
+
+  public void testWaitsForPermit() throws InterruptedException {
+    final ConcurrencyGovernor governor = governor(2);
+    governor.acquire(EndpointClass.COMMAND);
+    governor.acquire(EndpointClass.COMMAND);
+    // Other endpoint classes have limits of their own:
+    governor.acquire(EndpointClass.READ);
+    Thread waiter = new Thread(() -> {
+        try {
+          governor.acquire(EndpointClass.COMMAND);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    waiter.start();
+    waiter.join(200);
+    assertTrue(waiter.isAlive());
+    governor.release(EndpointClass.COMMAND, 10, false);
+    waiter.join(5000);
+    assertFalse(waiter.isAlive());
+    assertEquals(2, metric(governor, "inFlight"));
+  }
+
+  public void testOverloadHalvesLimitOncePerLatencyTarget()
+    throws InterruptedException {
+    ConcurrencyGovernor governor = governor(8);
+    call(governor, 10, true);
+    assertEquals(4, metric(governor, "limit"));
+    // A second overload within the latency target counts as the same one:
+    call(governor, 60001, false);
+    assertEquals(4, metric(governor, "limit"));
+    assertEquals(2L, metric(governor, "overloads"));
+    assertEquals(2L, metric(governor, "calls"));
+  }
+
+  public void testAdditiveIncreaseUpToMax() throws InterruptedException {
+    ConcurrencyGovernor governor = governor(5);
+    call(governor, 10, true);
+    assertEquals(2, metric(governor, "limit"));
+    // Each fast call adds 1/limit, from 2.5 to 2.9 then 3.24:
+    call(governor, 10, false);
+    assertEquals(2, metric(governor, "limit"));
+    call(governor, 10, false);
+    assertEquals(3, metric(governor, "limit"));
+    for (int i = 0; i < 20; i++) {
+      call(governor, 10, false);
+    }
+    assertEquals(5, metric(governor, "limit"));
+  }
+
+  public void testFromConfig() throws IOException {
+    assertNull(ConcurrencyGovernor.fromConfig(
+      TestConfigs.parse("[GOVERNOR]", "governor_enabled=false")));
+    ConcurrencyGovernor governor = ConcurrencyGovernor.fromConfig(
+      TestConfigs.parse("[GOVERNOR]", "command_max_concurrency=2"));
+    assertEquals(2, metric(governor, "maxLimit"));
+    assertEquals(32, governor.getMetrics().get("READ").get("maxLimit"));
+  }
+}
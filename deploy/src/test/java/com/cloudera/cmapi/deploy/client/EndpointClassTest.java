@@ -0,0 +1,99 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.client;
+
+import com.cloudera.api.model.ApiBulkCommandList;
+import com.cloudera.api.model.ApiCommand;
+import com.cloudera.api.model.ApiConfig;
+
+import java.lang.reflect.Method;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link EndpointClass#classify}.
+ */
+public class EndpointClassTest extends TestCase {
+
+  /**
+   * Resource methods to classify.
+   */
+  public interface Resource {
+    @GET
+    ApiConfig readConfig();
+
+    @PUT
+    ApiConfig updateConfig(ApiConfig config);
+
+    @POST
+    ApiCommand restartCommand();
+
+    @POST
+    ApiBulkCommandList restartRoles();
+
+    @DELETE
+    ApiCommand deleteCommand();
+
+    @POST
+    ApiConfig createRoles();
+
+    @DELETE
+    ApiConfig deleteRole();
+
+    ApiConfig listRoles();
+
+    ApiConfig getRole();
+
+    ApiConfig updateRole();
+
+    ApiCommand firstRun();
+
+    ApiConfig createService();
+  }
+
+  private static EndpointClass classify(final String name) throws Exception {
+    for (Method method : Resource.class.getMethods()) {
+      if (method.getName().equals(name)) {
+        return EndpointClass.classify(method);
+      }
+    }
+    throw new NoSuchMethodException(name);
+  }
+
+  public void testHttpMethod() throws Exception {
+    assertEquals(EndpointClass.READ, classify("readConfig"));
+    assertEquals(EndpointClass.CONFIG_WRITE, classify("updateConfig"));
+    assertEquals(EndpointClass.COMMAND, classify("restartCommand"));
+    assertEquals(EndpointClass.COMMAND, classify("restartRoles"));
+    assertEquals(EndpointClass.COMMAND, classify("deleteCommand"));
+    assertEquals(EndpointClass.WRITE, classify("createRoles"));
+    assertEquals(EndpointClass.WRITE, classify("deleteRole"));
+  }
+
+  public void testNameWithoutHttpMethod() throws Exception {
+    assertEquals(EndpointClass.READ, classify("listRoles"));
+    assertEquals(EndpointClass.READ, classify("getRole"));
+    assertEquals(EndpointClass.CONFIG_WRITE, classify("updateRole"));
+    assertEquals(EndpointClass.COMMAND, classify("firstRun"));
+    assertEquals(EndpointClass.WRITE, classify("createService"));
+  }
+}
@@ -0,0 +1,210 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.client;
+
+import com.cloudera.api.DataView;
+import com.cloudera.api.model.ApiCommand;
+import com.cloudera.api.model.ApiCommandList;
+import com.cloudera.api.model.ApiConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import javax.ws.rs.WebApplicationException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link RetryingResourceProxy}.
+ */
+public class RetryingResourceProxyTest extends TestCase {
+
+  /**
+   * Resource with calls of each endpoint class.
+   */
+  public interface Resource {
+    ApiConfig readConfig(String serviceName);
+
+    ApiConfig createRole(String serviceName);
+
+    ApiCommand restartCommand(String serviceName);
+
+    ApiCommandList listActiveCommands(String serviceName, DataView view);
+  }
+
+  /**
+   * Resource failing calls as scripted and tracking active commands.
+   */
+  private static final class FakeResource implements Resource {
+
+    private final Queue<RuntimeException> failures =
+      new LinkedList<RuntimeException>();
+
+    private final List<ApiCommand> active = new ArrayList<ApiCommand>();
+
+    private final List<ApiCommand> startedOnFailure = new ArrayList<ApiCommand>();
+
+    private int calls;
+
+    private void call() {
+      calls++;
+      RuntimeException failure = failures.poll();
+      if (failure != null) {
+        active.addAll(startedOnFailure);
+        throw failure;
+      }
+    }
+
+    @Override
+    public ApiConfig readConfig(final String serviceName) {
+      call();
+      return new ApiConfig("name", serviceName);
+    }
+
+    @Override
+    public ApiConfig createRole(final String serviceName) {
+      call();
+      return new ApiConfig("name", serviceName);
+    }
+
+    @Override
+    public ApiCommand restartCommand(final String serviceName) {
+      call();
+      return command(100L, "Restart");
+    }
+
+    @Override
+    public ApiCommandList listActiveCommands(final String serviceName,
+                                             final DataView view) {
+      return new ApiCommandList(new ArrayList<ApiCommand>(active));
+    }
+  }
+
+  private final FakeResource target = new FakeResource();
+
+  private final Resource resource =
+    RetryingResourceProxy.wrap(Resource.class, target,
+                               new RetryPolicy(3, 1, 1, 50, 300000));
+
+  private static ApiCommand command(final long id, final String name) {
+    ApiCommand command = new ApiCommand();
+    command.setId(id);
+    command.setName(name);
+    return command;
+  }
+
+  private static RuntimeException timeout() {
+    return new UncheckedIOException(new SocketTimeoutException("Read timed out"));
+  }
+
+  public void testReadRetried() {
+    target.failures.add(timeout());
+    target.failures.add(new WebApplicationException(500));
+    assertEquals("HDFS-1", resource.readConfig("HDFS-1").getValue());
+    assertEquals(3, target.calls);
+  }
+
+  public void testRetriesLimitedToMaxAttempts() {
+    for (int i = 0; i < 3; i++) {
+      target.failures.add(timeout());
+    }
+    try {
+      resource.readConfig("HDFS-1");
+      fail("Expected failure");
+    } catch (UncheckedIOException e) {
+      assertEquals(3, target.calls);
+    }
+  }
+
+  public void testClientErrorNotRetried() {
+    target.failures.add(new WebApplicationException(400));
+    try {
+      resource.readConfig("HDFS-1");
+      fail("Expected failure");
+    } catch (WebApplicationException e) {
+      assertEquals(1, target.calls);
+    }
+  }
+
+  public void testWriteNotRetried() {
+    target.failures.add(timeout());
+    try {
+      resource.createRole("HDFS-1");
+      fail("Expected failure");
+    } catch (UncheckedIOException e) {
+      assertEquals(1, target.calls);
+    }
+  }
+
+  public void testCommandRetriedWhenNotSent() {
+    target.failures.add(new UncheckedIOException(new ConnectException("refused")));
+    target.failures.add(new WebApplicationException(503));
+    assertEquals(Long.valueOf(100), resource.restartCommand("HDFS-1").getId());
+    assertEquals(3, target.calls);
+  }
+
+  public void testStartedCommandReturnedInsteadOfRetry() {
+    // Already running, so not started by the failed request:
+    target.active.add(command(1L, "Restart"));
+    target.startedOnFailure.add(command(2L, "Deploy Client Config"));
+    target.startedOnFailure.add(command(3L, "Restart"));
+    target.failures.add(timeout());
+    assertEquals(Long.valueOf(3), resource.restartCommand("HDFS-1").getId());
+    assertEquals(1, target.calls);
+  }
+
+  public void testCommandNotRetriedWhenItMayHaveRun() {
+    target.active.add(command(1L, "Restart"));
+    target.failures.add(timeout());
+    try {
+      resource.restartCommand("HDFS-1");
+      fail("Expected failure");
+    } catch (UncheckedIOException e) {
+      assertEquals(1, target.calls);
+    }
+  }
+
+  public void testAmbiguousStartedCommandsNotReturned() {
+    target.startedOnFailure.add(command(2L, "Restart"));
+    target.startedOnFailure.add(command(3L, "restart"));
+    target.failures.add(timeout());
+    try {
+      resource.restartCommand("HDFS-1");
+      fail("Expected failure");
+    } catch (UncheckedIOException e) {
+      assertEquals(1, target.calls);
+    }
+  }
+
+  public void testTransientClassification() {
+    assertTrue(RetryPolicy.isTransient(new IOException()));
+    assertTrue(RetryPolicy.isTransient(new RuntimeException(timeout())));
+    assertTrue(RetryPolicy.isTransient(new WebApplicationException(502)));
+    assertFalse(RetryPolicy.isTransient(new WebApplicationException(404)));
+    assertFalse(RetryPolicy.isTransient(new IllegalStateException()));
+    assertTrue(RetryPolicy.isNotSent(new ConnectException()));
+    assertTrue(RetryPolicy.isNotSent(new WebApplicationException(503)));
+    assertFalse(RetryPolicy.isNotSent(new WebApplicationException(500)));
+    assertFalse(RetryPolicy.isNotSent(timeout()));
+  }
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.placement;
+
+import com.cloudera.cmapi.deploy.Constants;
+import com.cloudera.cmapi.deploy.DeploymentSpec;
+import com.cloudera.cmapi.deploy.TestConfigs;
+import com.cloudera.cmapi.deploy.tuning.HostFacts;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.ini4j.Wini;
+
+/**
+ * Tests for {@link PlacementPlanner#plan}.
+ */
+public class PlacementPlannerTest extends TestCase {
+
+  private static final long GB = 1024L * 1024 * 1024;
+
+  private static Map<String, Map<String, List<String>>> plan(final String hosts,
+                                                            final Map<String, HostFacts> facts,
+                                                            final Map<String, String> racks,
+                                                            final String... extra)
+    throws IOException {
+    List<String> lines = new ArrayList<String>(List.of(
+      "[CLUSTER]",
+      "cluster_name=test",
+      "cluster_version=CDH5",
+      "cluster_hosts=" + hosts,
+      "services=ZOOKEEPER,HDFS,YARN",
+      "zk_name=ZOOKEEPER-1",
+      "[HDFS]",
+      "hdfs_name=HDFS-1",
+      "[YARN]",
+      "yarn_name=YARN-1"));
+    lines.addAll(List.of(extra));
+    Wini config = TestConfigs.load(lines.toArray(new String[lines.size()]));
+    DeploymentSpec spec = DeploymentSpec.compile(config, false);
+    return new PlacementPlanner(config, spec).plan(facts, racks);
+  }
+
+  private static List<String> get(final Map<String, Map<String, List<String>>> plan,
+                                  final String section,
+                                  final String parameter) {
+    Map<String, List<String>> parameters = plan.get(section);
+    List<String> hosts = parameters == null ? null : parameters.get(parameter);
+    return hosts == null ? Collections.<String>emptyList() : hosts;
+  }
+
+  /**
+   * Ten hosts over two racks. host01, host06 and host02 are the largest.
+   */
+  private static Map<String, Map<String, List<String>>> planTenHosts(final String... extra)
+    throws IOException {
+    Map<String, HostFacts> facts = new HashMap<String, HostFacts>();
+    Map<String, String> racks = new HashMap<String, String>();
+    for (int i = 1; i <= 10; i++) {
+      String host = String.format("host%02d.dc1", i);
+      long memory = i == 1 ? 512 : i == 6 ? 384 : i == 2 ? 256 : 128;
+      facts.put(host, new HostFacts(host, 32, memory * GB));
+      racks.put(host, i <= 5 ? "/r1" : "/r2");
+    }
+    return plan("host[01-10].dc1", facts, racks, extra);
+  }
+
+  public void testMastersOnLargestHostsAcrossRacks() throws IOException {
+    Map<String, Map<String, List<String>>> plan = planTenHosts();
+    Set<String> pool = Set.of("host01.dc1", "host06.dc1", "host02.dc1");
+
+    List<String> namenode =
+      get(plan, "HDFS", Constants.HDFS_NAMENODE_HOST_PARAMETER);
+    List<String> secondary =
+      get(plan, "HDFS", Constants.HDFS_SECONDARYNAMENODE_HOST_PARAMETER);
+    List<String> resourceManager =
+      get(plan, "YARN", Constants.YARN_RESOURCEMANAGER_HOST_PARAMETER);
+    List<String> jobHistory =
+      get(plan, "YARN", Constants.YARN_JOBHISTORY_SERVER_HOST_PARAMETER);
+    assertEquals(1, namenode.size());
+    assertEquals(1, secondary.size());
+    assertEquals(1, resourceManager.size());
+    assertEquals(1, jobHistory.size());
+
+    // Heavy masters are kept apart, and all masters are in the pool:
+    Set<String> heavy = new HashSet<String>();
+    heavy.add(namenode.get(0));
+    heavy.add(secondary.get(0));
+    heavy.add(resourceManager.get(0));
+    assertEquals(pool, heavy);
+    assertTrue(pool.contains(jobHistory.get(0)));
+
+    // ZooKeeper servers are on distinct hosts spanning both racks:
+    List<String> zookeeper =
+      get(plan, Constants.CLUSTER_CONFIG_SECTION,
+          Constants.ZOOKEEPER_HOSTS_PARAMETER);
+    assertEquals(3, zookeeper.size());
+    assertEquals(pool, new HashSet<String>(zookeeper));
+  }
+
+  public void testWorkersOnOtherHosts() throws IOException {
+    Map<String, Map<String, List<String>>> plan = planTenHosts();
+    List<String> expected =
+      List.of("host03.dc1", "host04.dc1", "host05.dc1", "host07.dc1",
+              "host08.dc1", "host09.dc1", "host10.dc1");
+    assertEquals(expected,
+                 get(plan, "HDFS", Constants.HDFS_DATANODE_HOSTS_PARAMETER));
+    assertEquals(expected,
+                 get(plan, "YARN", Constants.YARN_NODEMANAGER_HOSTS_PARAMETER));
+  }
+
+  public void testConfiguredMasterHostCount() throws IOException {
+    Map<String, Map<String, List<String>>> plan =
+      planTenHosts("[PLACEMENT]", "master_host_count=5");
+    assertEquals(5,
+                 get(plan, "HDFS", Constants.HDFS_DATANODE_HOSTS_PARAMETER).size());
+  }
+
+  public void testSmallClusterColocatesWorkers() throws IOException {
+    Map<String, Map<String, List<String>>> plan =
+      plan("host[1-4].dc1", Collections.<String, HostFacts>emptyMap(),
+           Collections.<String, String>emptyMap());
+    assertEquals(List.of("host1.dc1", "host2.dc1", "host3.dc1", "host4.dc1"),
+                 get(plan, "HDFS", Constants.HDFS_DATANODE_HOSTS_PARAMETER));
+    List<String> zookeeper =
+      get(plan, Constants.CLUSTER_CONFIG_SECTION,
+          Constants.ZOOKEEPER_HOSTS_PARAMETER);
+    assertEquals(3, new HashSet<String>(zookeeper).size());
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.trace;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link TraceRecord}.
+ */
+public class TraceRecordTest extends TestCase {
+
+  public void testRedactsPasswordFields() {
+    String body = TraceRecord.redact(
+      "{\"items\":[{\"name\":\"admin\",\"password\":\"secret\"}]," +
+      "\"sshPassword\":\"secret\",\"db_password\":\"secret\"," +
+      "\"userName\":\"root\"}");
+    assertFalse(body, body.contains("secret"));
+    assertTrue(body, body.contains("\"name\":\"admin\""));
+    assertTrue(body, body.contains("\"userName\":\"root\""));
+  }
+
+  public void testRedactsPasswordConfigs() {
+    String body = TraceRecord.redact(
+      "{\"items\":[{\"name\":\"hive_metastore_database_password\"," +
+      "\"value\":\"secret\"},{\"name\":\"ssl_server_keystore_keypassword\"," +
+      "\"value\":\"secret\",\"sensitive\":true}," +
+      "{\"name\":\"dfs_replication\",\"value\":\"3\"}]}");
+    assertFalse(body, body.contains("secret"));
+    assertTrue(body, body.contains("\"name\":\"hive_metastore_database_password\""));
+    assertTrue(body, body.contains("\"value\":\"3\""));
+  }
+
+  public void testLeavesOtherBodiesUnchanged() {
+    String json = "{ \"items\" : [ { \"name\" : \"dfs_replication\" } ] }";
+    assertSame(json, TraceRecord.redact(json));
+    assertEquals("not json {", TraceRecord.redact("not json {"));
+  }
+
+  public void testReplayedRequestMatchesRecording() {
+    String body = "{\"name\":\"admin\",\"password\":\"secret\"}";
+    TraceRecord record = new TraceRecord();
+    record.setMethod("POST");
+    record.setPath("/api/v10/users");
+    record.setRequestBody(TraceRecord.redact(body));
+    assertEquals(record.requestKey(),
+                 TraceRecord.requestKey("POST", "/api/v10/users", body));
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.deploy.tuning;
+
+import com.cloudera.cmapi.deploy.DeploymentSpec;
+import com.cloudera.cmapi.deploy.TestConfigs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.ini4j.Wini;
+
+/**
+ * Tests for {@link MemoryBudget#allocate}.
+ */
+public class MemoryBudgetTest extends TestCase {
+
+  private static Wini config(final String... tuning) throws IOException {
+    List<String> lines = new ArrayList<String>(Arrays.asList(
+      "[CLUSTER]",
+      "cluster_name=test",
+      "cluster_version=CDH5",
+      "cluster_hosts=master1.dc1,worker[1-4].dc1",
+      "services=HDFS,YARN",
+      "[HOST_CLASSES]",
+      "big_hosts=worker[3-4].dc1",
+      "[HDFS]",
+      "hdfs_name=HDFS-1",
+      "hdfs_namenode_host=master1.dc1",
+      "hdfs_secondary_namenode_host=master1.dc1",
+      "hdfs_datanode_hosts=worker[1-4].dc1",
+      "[DATANODE:big]",
+      "datanode_java_heapsize=3221225472",
+      "[YARN]",
+      "yarn_name=YARN-1",
+      "yarn_resourcemanager_host=master1.dc1",
+      "yarn_jobhistory_server_host=master1.dc1",
+      "yarn_nodemanager_hosts=worker[1-4].dc1",
+      "[TUNING]"));
+    lines.addAll(Arrays.asList(tuning));
+    return TestConfigs.load(lines.toArray(new String[lines.size()]));
+  }
+
+  private static MemoryBudget budget(final String... tuning)
+    throws IOException {
+    List<String> lines = new ArrayList<String>(Arrays.asList(tuning));
+    lines.add("memory_budget=true");
+    Wini config = config(lines.toArray(new String[lines.size()]));
+    return MemoryBudget.fromConfig(config, DeploymentSpec.compile(config));
+  }
+
+  public void testDisabledByDefault() throws IOException {
+    Wini config = config();
+    assertNull(MemoryBudget.fromConfig(config,
+                                       DeploymentSpec.compile(config)));
+  }
+
+  public void testSharesFreeMemoryByWeight() throws IOException {
+    // 128 GB, 10% reserved: 117965 MB free, 1024 MB of it for two gateways.
+    MemoryBudget.Allocation allocation =
+      budget().allocate(131072, List.of("DATANODE", "NODEMANAGER", "IMPALAD",
+                                        "GATEWAY", "GATEWAY"), null);
+
+    assertEquals(Long.valueOf(1024), allocation.getRoleMb().get("GATEWAY"));
+    assertFalse(allocation.isSized("GATEWAY"));
+    // The DataNode's 1/17 share is over its maximum, so it's capped and the
+    // rest is split evenly between the two weight 8 roles:
+    assertEquals(Long.valueOf(4096), allocation.getRoleMb().get("DATANODE"));
+    assertEquals(Long.valueOf(56422), allocation.getRoleMb().get("NODEMANAGER"));
+    assertEquals(Long.valueOf(56422), allocation.getRoleMb().get("IMPALAD"));
+    assertTrue(allocation.isSized("NODEMANAGER"));
+    assertTrue(allocation.getTotalMb() <= 131072 - 13107);
+    assertFalse(allocation.isOvercommitted());
+  }
+
+  public void testExplicitValuesAreKept() throws IOException {
+    MemoryBudget budget = budget();
+
+    // Hosts in the big class have the DataNode heap set in [DATANODE:big]:
+    MemoryBudget.Allocation big =
+      budget.allocate(65536, List.of("DATANODE", "NODEMANAGER"), "big");
+    assertEquals(Long.valueOf(3072), big.getRoleMb().get("DATANODE"));
+    assertFalse(big.isSized("DATANODE"));
+    assertEquals(Long.valueOf(65536 - 6553 - 3072),
+                 big.getRoleMb().get("NODEMANAGER"));
+
+    MemoryBudget.Allocation other =
+      budget.allocate(65536, List.of("DATANODE", "NODEMANAGER"), null);
+    assertTrue(other.isSized("DATANODE"));
+    assertEquals(Long.valueOf(4096), other.getRoleMb().get("DATANODE"));
+  }
+
+  public void testMinimumsCanOvercommit() throws IOException {
+    // 8 GB less a 4 GB reserve can't hold the 4 GB minimums of both roles,
+    // let alone the balancer:
+    MemoryBudget.Allocation allocation =
+      budget().allocate(8192, List.of("NAMENODE", "IMPALAD", "BALANCER"), null);
+    assertEquals(Long.valueOf(4096), allocation.getRoleMb().get("NAMENODE"));
+    assertEquals(Long.valueOf(4096), allocation.getRoleMb().get("IMPALAD"));
+    assertEquals(Long.valueOf(1024), allocation.getRoleMb().get("BALANCER"));
+    assertFalse(allocation.isSized("BALANCER"));
+    assertTrue(allocation.isOvercommitted());
+  }
+
+  public void testConfiguredReserveAndGatewayMemory() throws IOException {
+    MemoryBudget.Allocation allocation =
+      budget("memory_reserve_mb=1024", "memory_reserve_fraction=0",
+             "gateway_memory_mb=256")
+      .allocate(16384, List.of("NODEMANAGER", "GATEWAY"), null);
+    assertEquals(Long.valueOf(256), allocation.getRoleMb().get("GATEWAY"));
+    assertEquals(Long.valueOf(16384 - 1024 - 256),
+                 allocation.getRoleMb().get("NODEMANAGER"));
+  }
+}
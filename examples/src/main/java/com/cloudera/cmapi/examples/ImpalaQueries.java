@@ -16,23 +16,19 @@
  */
 package com.cloudera.cmapi.examples;
 
-import com.cloudera.api.ClouderaManagerClientBuilder;
-import com.cloudera.api.model.ApiImpalaQuery;
-import com.cloudera.api.model.ApiImpalaQueryResponse;
-import com.cloudera.api.v10.RootResourceV10;
-import com.cloudera.api.v10.ServicesResourceV10;
-import com.cloudera.api.v6.ImpalaQueriesResourceV6;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.FileNotFoundException;
-import java.util.List;
 import java.util.Map;
-import java.util.Properties;import org.joda.time.DateTime;
+import java.util.Properties;
+
+import org.joda.time.DateTime;
 
 /**
  * Example of using the Cloudera Manager API to show information on Impala
- * queries.
+ * queries. A day of queries can run to tens of MB of JSON, so rather than
+ * building the whole response as API model objects the queries are read
+ * with a streaming parser and printed as they arrive.
  *
  * To use:
  * <p><ul>
@@ -61,32 +57,31 @@ public class ImpalaQueries {
       e.printStackTrace();
     }
 
-    // Get API root:
-    RootResourceV10 apiRoot = new ClouderaManagerClientBuilder()
-      .withHost((String) cmprops.get("cmhost"))
-      .withPort(7180)
-      .withUsernamePassword((String) cmprops.get("cmuser"), 
-                            (String) cmprops.get("cmpass"))
-      .build()
-      .getRootV10();
+    StreamingReader reader =
+      new StreamingReader((String) cmprops.get("cmhost"), 7180,
+                          (String) cmprops.get("cmuser"),
+                          (String) cmprops.get("cmpass"));
 
     String clusterName = (String) cmprops.get("cluster_name");
-    ServicesResourceV10 servicesResource =
-      apiRoot.getClustersResource().getServicesResource(clusterName);
     String impalaServiceName = (String) cmprops.get("impala_service_name");
-    ImpalaQueriesResourceV6 queriesResource =
-      servicesResource.getImpalaQueriesResource(impalaServiceName);
-    ApiImpalaQueryResponse response = 
-      queriesResource.getImpalaQueries(impalaServiceName,
-                                       null,
-                                       new DateTime().minusDays(1).toString(),
-                                       null,
-                                       1000,
-                                       0);
-    List<ApiImpalaQuery> queries = response.getQueries();
-    for (ApiImpalaQuery query : queries) {
-      System.out.println("\t query state=" + query.getQueryState());
-      System.out.println("\t query=" + query.getStatement());
+
+    // Get up to 1000 queries from the last day, keeping only the fields we
+    // display.
+    // '/api/v10/clusters/CLUSTER_NAME/services/IMPALA_SERVICE_NAME/impalaQueries'
+    String path = "/api/v10/clusters/" + StreamingReader.encode(clusterName) +
+      "/services/" + StreamingReader.encode(impalaServiceName) +
+      "/impalaQueries?from=" +
+      StreamingReader.encode(new DateTime().minusDays(1).toString()) +
+      "&limit=1000&offset=0";
+    try {
+      reader.forEach(path, "queries", new StreamingReader.RecordHandler() {
+          public void handle(Map<String, String> query) {
+            System.out.println("\t query state=" + query.get("queryState"));
+            System.out.println("\t query=" + query.get("statement"));
+          }
+        }, "queryState", "statement");
+    } catch (IOException e) {
+      e.printStackTrace();
     }
   }
 
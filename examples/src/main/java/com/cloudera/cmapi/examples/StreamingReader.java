@@ -0,0 +1,195 @@
+/**
+ * Licensed to Cloudera, Inc. under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.  Cloudera, Inc. licenses this file
+ * to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance  with the License.
+ * You may obtain a copy of the License a
+ *
+ *    http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.cmapi.examples;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Reads CM API list responses with a streaming JSON parser, handing records
+ * to a callback one at a time instead of building the whole response as
+ * API model objects. Only the requested top-level scalar fields of each
+ * record are kept; everything else is skipped by the parser.
+ *
+ * For example, to print the statement of each Impala query:
+ * <pre>
+ * reader.forEach("/api/v10/clusters/cluster/services/impala/impalaQueries",
+ *                "queries", new StreamingReader.RecordHandler() {
+ *                  public void handle(Map&lt;String, String&gt; record) {
+ *                    System.out.println(record.get("statement"));
+ *                  }
+ *                }, "statement");
+ * </pre>
+ */
+public class StreamingReader {
+
+  /**
+   * Callback for records read from a response.
+   */
+  public interface RecordHandler {
+
+    /**
+     * Handle one record.
+     *
+     * @param record Requested fields of the record, keyed on field name.
+     */
+    void handle(Map<String, String> record);
+  }
+
+  /**
+   * Base URL of the CM API.
+   */
+  private String baseUrl;
+
+  /**
+   * Value of the HTTP basic authorization header.
+   */
+  private String authorization;
+
+  /**
+   * Factory for streaming parsers.
+   */
+  private JsonFactory jsonFactory = new JsonFactory();
+
+  /**
+   * Constructor.
+   *
+   * @param host CM host name.
+   * @param port CM port.
+   * @param username CM user name.
+   * @param password CM password.
+   */
+  public StreamingReader(String host, int port, String username,
+                         String password) {
+    this.baseUrl = "http://" + host + ":" + port;
+    try {
+      this.authorization = "Basic " + DatatypeConverter
+        .printBase64Binary((username + ":" + password).getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Stream the records of a list response.
+   *
+   * @param path Request path and query string, starting with /api.
+   * @param arrayField Name of the top-level field holding the records, e.g.
+   * "items" for most CM API lists.
+   * @param handler Called with each record.
+   * @param fields Names of the record fields to keep.
+   * @return Number of records read.
+   * @throws IOException if the request fails or the response isn't the
+   * expected JSON.
+   */
+  public int forEach(String path, String arrayField, RecordHandler handler,
+                     String... fields)
+    throws IOException {
+
+    Set<String> wanted = new HashSet<String>(Arrays.asList(fields));
+    int count = 0;
+    HttpURLConnection connection =
+      (HttpURLConnection) new URL(baseUrl + path).openConnection();
+    connection.setRequestProperty("Authorization", authorization);
+    connection.setRequestProperty("Accept", "application/json");
+    InputStream in = null;
+    JsonParser parser = null;
+    try {
+      int status = connection.getResponseCode();
+      if (status >= 400) {
+        throw new IOException("GET " + path + " returned HTTP " + status);
+      }
+      in = connection.getInputStream();
+      parser = jsonFactory.createParser(in);
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("Expected JSON object from " + path);
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (arrayField.equals(name) && token == JsonToken.START_ARRAY) {
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            handler.handle(readRecord(parser, wanted));
+            count++;
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+    } finally {
+      if (parser != null) {
+        parser.close();
+      }
+      if (in != null) {
+        in.close();
+      }
+      connection.disconnect();
+    }
+
+    return count;
+  }
+
+  /**
+   * Read one record, with the parser positioned at its START_OBJECT token.
+   */
+  private static Map<String, String> readRecord(JsonParser parser,
+                                                Set<String> fields)
+    throws IOException {
+
+    Map<String, String> record = new HashMap<String, String>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (token.isScalarValue() && fields.contains(name)) {
+        record.put(name,
+                   token == JsonToken.VALUE_NULL ? null : parser.getText());
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return record;
+  }
+
+  /**
+   * Encode a path segment or query parameter value.
+   *
+   * @param value Value to encode.
+   * @return Encoded value.
+   */
+  public static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
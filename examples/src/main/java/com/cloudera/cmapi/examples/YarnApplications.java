@@ -20,7 +20,6 @@ import com.cloudera.api.ClouderaManagerClientBuilder;
 import com.cloudera.api.DataView;
 import com.cloudera.api.model.ApiCluster;
 import com.cloudera.api.model.ApiClusterList;
-import com.cloudera.api.model.ApiService;
 import com.cloudera.api.model.ApiYarnApplication;
 import com.cloudera.api.model.ApiYarnApplicationResponse;
 import com.cloudera.api.v10.RootResourceV10;
@@ -32,6 +31,7 @@ import java.io.InputStream;
 import java.io.FileNotFoundException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.Properties;
 
 import org.joda.time.DateTime;
@@ -86,20 +86,35 @@ public class YarnApplications {
     System.out.println("Cluster name=" + cluster.getName());
 
     // Get a list of services for the cluster and use it to find the YARN
-    // service name.
+    // service name. The full view includes health checks and config
+    // staleness for every service, so stream it and keep just the name and
+    // type.
     // '/api/v10/clusters/HANA-benchmark/services'
-    String yarnServiceName = null;
+    StreamingReader reader =
+      new StreamingReader((String) cmprops.get("cmhost"), 7180,
+                          (String) cmprops.get("cmuser"),
+                          (String) cmprops.get("cmpass"));
+    final AtomicReference<String> yarnService = new AtomicReference<String>();
+    try {
+      reader.forEach("/api/v10/clusters/" +
+                     StreamingReader.encode(cluster.getName()) +
+                     "/services?view=FULL", "items",
+                     new StreamingReader.RecordHandler() {
+                       public void handle(Map<String, String> service) {
+                         if (yarnService.get() == null &&
+                             "YARN".equals(service.get("type"))) {
+                           System.out.println(service.get("name"));
+                           yarnService.set(service.get("name"));
+                         }
+                       }
+                     }, "name", "type");
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    String yarnServiceName = yarnService.get();
     ServicesResourceV10 servicesResource =
       apiRoot.getClustersResource().getServicesResource(cluster.getName());
 
-    for (ApiService service : servicesResource.readServices(DataView.FULL)) {
-      if ("YARN".equals(service.getType())) {
-        System.out.println(service.getName());
-        yarnServiceName = service.getName();
-        break;
-      }
-    }
-
     // Then use the YARN service name to get the resource object we'll use
     // to make requests for application info:
     YarnApplicationsResource resource =